@@ -0,0 +1,291 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import importer.ImportStats;
+
+/**
+ * The "AssetArchive" Class.
+ * Purpose: Reads the asset archives made by the AssetBaker. An archive is one
+ * file with a table of contents followed by the assets: the raw bytes of
+ * small files (like .mtl files), baked meshes and images that were already
+ * decoded into RGBA pixels. The archive is memory-mapped once and each asset
+ * is given out as a slice of the mapped file, found by its original file name.
+ * The table of contents also has the name, size and modification time of the
+ * file each asset was made from, so an asset whose loose file was changed
+ * since the archive was made is ignored.
+ * <P>
+ * Archives are "mounted" at startup. The loaders (OBJImporter, MaterialLibrary
+ * and CustomImage) look for their files in the mounted archives first and
+ * only open the loose file if it isn't in any of them.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class AssetArchive {
+
+	// The first bytes of every archive ("KKPA") and the version of the format
+	public static final int MAGIC = 0x4B4B5041;
+	public static final int VERSION = 2;
+
+	// The extension of archive files
+	public static final String EXTENSION = ".pak";
+
+	// The types of assets
+	public static final byte RAW = 0;
+	public static final byte MESH = 1;
+	public static final byte IMAGE = 2;
+
+	// The archives that are mounted, searched in the order they were mounted
+	private static ArrayList<AssetArchive> mounted =
+			new ArrayList<AssetArchive>();
+
+	// The name and contents of the archive
+	private String filename;
+	private ByteBuffer buffer;
+
+	// The table of contents: the name of each asset to its type, position and
+	// length in the archive
+	private Hashtable<String, int[]> contents = new Hashtable<String, int[]>();
+
+	// The file each asset was made from, and its size and modification time
+	// when the archive was made
+	private Hashtable<String, String> sources = new Hashtable<String, String>();
+	private Hashtable<String, long[]> stamps = new Hashtable<String, long[]>();
+
+	/**
+	 * Opens an archive by mapping it and reading its table of contents
+	 *
+	 * @param filename the name of the archive file
+	 * @throws IOException if the file could not be mapped or is not an archive
+	 */
+	public AssetArchive(String filename) throws IOException {
+		this.filename = filename;
+		FileInputStream input = new FileInputStream(filename);
+		try {
+			FileChannel channel = input.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			input.close();
+		}
+
+		// Read the table of contents
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException(filename + " is not an asset archive (version "
+					+ VERSION + ")");
+		}
+		int noOfAssets = buffer.getInt();
+		for (int asset = 0; asset < noOfAssets; asset++) {
+			String name = readString(buffer);
+			int type = buffer.get();
+			int position = buffer.getInt();
+			int length = buffer.getInt();
+			contents.put(name, new int[] { type, position, length });
+			sources.put(name, readString(buffer));
+			stamps.put(name, new long[] { buffer.getLong(), buffer.getLong() });
+		}
+	}
+
+	/**
+	 * Reads a string from the table of contents (its length followed by its
+	 * UTF-8 bytes)
+	 *
+	 * @param buffer the archive, at the string
+	 * @return the string
+	 * @throws IOException if the string is not UTF-8
+	 */
+	private static String readString(ByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Mounts all the archives in the given directory, in order of their names
+	 *
+	 * @param directory the directory to look in
+	 */
+	public static void mountAll(String directory) {
+		File[] files = new File(directory).listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (int file = 0; file < files.length; file++) {
+			if (files[file].getName().endsWith(EXTENSION)) {
+				mount(files[file].getPath());
+			}
+		}
+	}
+
+	/**
+	 * Mounts an archive so its assets are used instead of the loose files
+	 *
+	 * @param filename the name of the archive file
+	 * @return true if the archive was mounted
+	 */
+	public static synchronized boolean mount(String filename) {
+		try {
+			AssetArchive archive = new AssetArchive(filename);
+			mounted.add(archive);
+			ImportStats.log("AssetArchive.mount(): mounted " + filename
+					+ " with " + archive.contents.size() + " assets");
+			return true;
+		} catch (IOException exception) {
+			System.out.println("AssetArchive.mount(): could not mount "
+					+ filename + ", " + exception);
+			return false;
+		}
+	}
+
+	/**
+	 * Unmounts all the archives
+	 */
+	public static synchronized void unmountAll() {
+		mounted.clear();
+	}
+
+	/**
+	 * Looks for an asset in the mounted archives. An asset is skipped if the
+	 * loose file it was made from is there and has changed since the archive
+	 * was made, so the loader uses the loose file instead.
+	 *
+	 * @param name the name of the asset (the path of its original file)
+	 * @return the contents of the asset, or null if no archive has an up to
+	 *         date copy of it
+	 */
+	public static synchronized ByteBuffer find(String name) {
+		name = normalise(name);
+		for (int archive = 0; archive < mounted.size(); archive++) {
+			AssetArchive nextArchive = mounted.get(archive);
+			ByteBuffer asset = nextArchive.get(name);
+			if (asset != null) {
+				if (nextArchive.isUpToDate(name)) {
+					return asset;
+				}
+				ImportStats.log("AssetArchive.find(): " + name + " in "
+						+ nextArchive.filename + " is out of date");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Opens a reader for a text file, from the mounted archives if one of
+	 * them has it or else from the file itself
+	 *
+	 * @param filename the name of the file
+	 * @return the reader
+	 * @throws IOException if the file could not be opened
+	 */
+	public static BufferedReader openReader(String filename) throws IOException {
+		ByteBuffer asset = find(filename);
+		if (asset == null) {
+			return new BufferedReader(new FileReader(filename));
+		}
+		byte[] bytes = new byte[asset.remaining()];
+		asset.get(bytes);
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(
+				bytes)));
+	}
+
+	/**
+	 * Returns the name a decoded image is stored under
+	 *
+	 * @param filename the name of the image file
+	 * @param flipYaxis whether the image was flipped vertically
+	 * @param convertPowTwo whether the image was scaled to powers of two
+	 * @return the name of the asset
+	 */
+	public static String getImageName(String filename, boolean flipYaxis,
+			boolean convertPowTwo) {
+		return filename + "#rgba" + (flipYaxis ? "-flip" : "")
+				+ (convertPowTwo ? "-pow2" : "");
+	}
+
+	/**
+	 * Returns an asset in this archive
+	 *
+	 * @param name the name of the asset
+	 * @return the contents of the asset, or null if it isn't in the archive
+	 */
+	public ByteBuffer get(String name) {
+		int[] entry = contents.get(name);
+		if (entry == null) {
+			return null;
+		}
+		ByteBuffer asset = buffer.duplicate();
+		asset.limit(entry[1] + entry[2]);
+		asset.position(entry[1]);
+		return asset.slice();
+	}
+
+	/**
+	 * Checks if an asset in this archive was made from the current version of
+	 * its file. An asset whose file isn't there (like in a release that only
+	 * ships the archive) is always up to date.
+	 *
+	 * @param name the name of the asset
+	 * @return true if the loose file is missing or has the same size and
+	 *         modification time as when the archive was made
+	 */
+	public boolean isUpToDate(String name) {
+		String source = sources.get(name);
+		if (source == null) {
+			return false;
+		}
+		File file = new File(source);
+		if (!file.isFile()) {
+			return true;
+		}
+		long[] stamp = stamps.get(name);
+		return file.length() == stamp[0] && file.lastModified() == stamp[1];
+	}
+
+	/**
+	 * Returns the names of all the assets in this archive
+	 *
+	 * @return the names of the assets
+	 */
+	public String[] getNames() {
+		String[] names = new String[contents.size()];
+		contents.keySet().toArray(names);
+		Arrays.sort(names);
+		return names;
+	}
+
+	/**
+	 * Returns the name of the archive file
+	 *
+	 * @return the name of the file
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Makes file names the same no matter how they were written, using forward
+	 * slashes and no leading "./"
+	 *
+	 * @param name the file name
+	 * @return the normalised name
+	 */
+	public static String normalise(String name) {
+		name = name.replace('\\', '/');
+		while (name.startsWith("./")) {
+			name = name.substring(2);
+		}
+		return name;
+	}
+}
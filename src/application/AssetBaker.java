@@ -0,0 +1,288 @@
+package application;
+
+import importer.BakedMesh;
+import importer.OBJImporter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import mesh.Mesh;
+
+/**
+ * The "AssetBaker" Class.
+ * Purpose: A command line tool that packs the game's assets into one asset
+ * archive (see AssetArchive). The .obj files are imported and stored as baked
+ * meshes, the images are decoded into the RGBA pixels the textures are made
+ * from, and the .mtl files are stored as they are. Each asset is stored with
+ * the size and modification time of the file it was made from, so the game
+ * can tell when the loose file has changed.
+ * <P>
+ * Usage: java application.AssetBaker [archive.pak [directory or file ...]]
+ * (with no arguments, all the asset directories are packed into
+ * KouchKarting.pak, which the game mounts when it starts)
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class AssetBaker {
+
+	// The archive and asset directories used when no arguments are given
+	private static final String DEFAULT_ARCHIVE = "KouchKarting"
+			+ AssetArchive.EXTENSION;
+	private static final String[] DEFAULT_DIRECTORIES = { "Track", "Couch",
+			"Tree", "Coin", "Menu", "Font", "HighScores" };
+
+	// The names, types, contents and source files of the assets to pack. An
+	// asset can share the contents of another one (see alias()).
+	private ArrayList<String> names = new ArrayList<String>();
+	private ArrayList<Byte> types = new ArrayList<Byte>();
+	private ArrayList<Object> contents = new ArrayList<Object>();
+	private ArrayList<String> sources = new ArrayList<String>();
+
+	/**
+	 * Packs the given directories and files into an archive
+	 */
+	public static void main(String[] args) throws IOException {
+		String archive = (args.length > 0) ? args[0] : DEFAULT_ARCHIVE;
+		String[] sources = DEFAULT_DIRECTORIES;
+		if (args.length > 1) {
+			sources = new String[args.length - 1];
+			System.arraycopy(args, 1, sources, 0, sources.length);
+		}
+
+		AssetBaker baker = new AssetBaker();
+		for (int source = 0; source < sources.length; source++) {
+			baker.add(new File(sources[source]));
+		}
+		baker.write(archive);
+	}
+
+	/**
+	 * Adds a file, or all the files in a directory, to the archive
+	 *
+	 * @param file the file or directory
+	 * @throws IOException if a file could not be read
+	 */
+	public void add(File file) throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			for (int next = 0; next < files.length; next++) {
+				add(files[next]);
+			}
+			return;
+		}
+
+		String name = AssetArchive.normalise(file.getPath());
+		String lowerName = name.toLowerCase();
+		if (lowerName.endsWith(".obj")) {
+			addMesh(name);
+		} else if (lowerName.endsWith(".png") || lowerName.endsWith(".jpg")
+				|| lowerName.endsWith(".jpeg") || lowerName.endsWith(".bmp")
+				|| lowerName.endsWith(".gif")) {
+			addImage(name);
+		} else if (lowerName.endsWith(".mtl")) {
+			addAsset(name, AssetArchive.RAW, readFile(file), name);
+		}
+		// Anything else (like the high scores, which the game writes to) is
+		// left as a loose file
+	}
+
+	/**
+	 * Imports an .obj file and adds it as a baked mesh
+	 *
+	 * @param filename the name of the .obj file
+	 * @throws IOException if the mesh could not be baked
+	 */
+	private void addMesh(String filename) throws IOException {
+		OBJImporter importer = new OBJImporter();
+		importer.setLoadTextures(false);
+		importer.setUseBakedMeshes(false);
+		Mesh mesh = importer.load(filename);
+		addAsset(BakedMesh.getBakeFilename(filename), AssetArchive.MESH,
+				BakedMesh.toBytes(mesh, filename), filename);
+	}
+
+	/**
+	 * Decodes an image and adds its pixels, flipped the way the game loads
+	 * them, both as they are and scaled to powers of two
+	 *
+	 * @param filename the name of the image file
+	 */
+	private void addImage(String filename) {
+		CustomImage image = new CustomImage(filename, true, false);
+		if (!image.isLoaded()) {
+			System.out.println("AssetBaker: skipped " + filename);
+			return;
+		}
+		String name = AssetArchive.getImageName(filename, true, false);
+		String powTwoName = AssetArchive.getImageName(filename, true, true);
+		addAsset(name, AssetArchive.IMAGE, getImageBytes(image), filename);
+
+		// Images that are already powers of two are the same both ways
+		if (image.width == KouchKarting.getPowerOfTwoBiggerThan(image.width)
+				&& image.height == KouchKarting.getPowerOfTwoBiggerThan(image.height)) {
+			alias(powTwoName, name);
+		} else {
+			addAsset(powTwoName, AssetArchive.IMAGE,
+					getImageBytes(new CustomImage(filename, true, true)),
+					filename);
+		}
+	}
+
+	/**
+	 * Returns the contents of an image asset: the width and height followed by
+	 * the RGBA pixels
+	 *
+	 * @param image the decoded image
+	 * @return the bytes of the asset
+	 */
+	private static byte[] getImageBytes(CustomImage image) {
+		byte[] bytes = new byte[8 + image.pixelBufferRGBA.remaining()];
+		putInt(bytes, 0, image.width);
+		putInt(bytes, 4, image.height);
+		image.pixelBufferRGBA.duplicate().get(bytes, 8, bytes.length - 8);
+		return bytes;
+	}
+
+	/**
+	 * Adds an asset to the archive
+	 *
+	 * @param name the name of the asset
+	 * @param type the type of the asset
+	 * @param bytes the contents of the asset
+	 * @param source the name of the file the asset was made from
+	 */
+	private void addAsset(String name, byte type, byte[] bytes, String source) {
+		names.add(name);
+		types.add(Byte.valueOf(type));
+		contents.add(bytes);
+		sources.add(source);
+		System.out.println("AssetBaker: added " + name + " (" + bytes.length
+				+ " bytes)");
+	}
+
+	/**
+	 * Adds an asset that has the same contents as an asset already added
+	 *
+	 * @param name the name of the new asset
+	 * @param original the name of the asset with the contents
+	 */
+	private void alias(String name, String original) {
+		int index = names.indexOf(original);
+		names.add(name);
+		types.add(types.get(index));
+		contents.add(Integer.valueOf(index));
+		sources.add(sources.get(index));
+	}
+
+	/**
+	 * Writes the archive: the table of contents (with the name, size and
+	 * modification time of each asset's source file) followed by the contents
+	 * of every asset
+	 *
+	 * @param filename the name of the archive file
+	 * @throws IOException if the archive could not be written
+	 */
+	public void write(String filename) throws IOException {
+		// Work out the size of the table of contents
+		int position = 12;
+		byte[][] encodedNames = new byte[names.size()][];
+		byte[][] encodedSources = new byte[names.size()][];
+		for (int asset = 0; asset < names.size(); asset++) {
+			encodedNames[asset] = names.get(asset).getBytes("UTF-8");
+			encodedSources[asset] = sources.get(asset).getBytes("UTF-8");
+			position += 4 + encodedNames[asset].length + 1 + 8 + 4
+					+ encodedSources[asset].length + 16;
+		}
+
+		// Give every asset with its own contents a position after the table
+		int[] positions = new int[names.size()];
+		int[] lengths = new int[names.size()];
+		for (int asset = 0; asset < names.size(); asset++) {
+			if (contents.get(asset) instanceof byte[]) {
+				positions[asset] = position;
+				lengths[asset] = ((byte[]) contents.get(asset)).length;
+				position += lengths[asset];
+			} else {
+				int original = ((Integer) contents.get(asset)).intValue();
+				positions[asset] = positions[original];
+				lengths[asset] = lengths[original];
+			}
+		}
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename)));
+		try {
+			output.writeInt(AssetArchive.MAGIC);
+			output.writeInt(AssetArchive.VERSION);
+			output.writeInt(names.size());
+			for (int asset = 0; asset < names.size(); asset++) {
+				output.writeInt(encodedNames[asset].length);
+				output.write(encodedNames[asset]);
+				output.writeByte(types.get(asset).byteValue());
+				output.writeInt(positions[asset]);
+				output.writeInt(lengths[asset]);
+				File source = new File(sources.get(asset));
+				output.writeInt(encodedSources[asset].length);
+				output.write(encodedSources[asset]);
+				output.writeLong(source.length());
+				output.writeLong(source.lastModified());
+			}
+			for (int asset = 0; asset < names.size(); asset++) {
+				if (contents.get(asset) instanceof byte[]) {
+					output.write((byte[]) contents.get(asset));
+				}
+			}
+		} finally {
+			output.close();
+		}
+		System.out.println("AssetBaker: wrote " + names.size() + " assets ("
+				+ position + " bytes) to " + filename);
+	}
+
+	/**
+	 * Reads all the bytes of a file
+	 *
+	 * @param file the file
+	 * @return the contents of the file
+	 * @throws IOException if the file could not be read
+	 */
+	private static byte[] readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				int count = input.read(bytes, read, bytes.length - read);
+				if (count < 0) {
+					throw new IOException("unexpected end of " + file);
+				}
+				read += count;
+			}
+		} finally {
+			input.close();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Stores an int in an array in big endian order
+	 *
+	 * @param bytes the array
+	 * @param index the index of the first byte
+	 * @param value the int
+	 */
+	private static void putInt(byte[] bytes, int index, int value) {
+		bytes[index] = (byte) (value >>> 24);
+		bytes[index + 1] = (byte) (value >>> 16);
+		bytes[index + 2] = (byte) (value >>> 8);
+		bytes[index + 3] = (byte) value;
+	}
+}
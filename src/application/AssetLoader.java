@@ -0,0 +1,227 @@
+package application;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The "AssetLoader" Class.
+ * Purpose: Loads assets on a pool of worker threads while the loading screen
+ * keeps drawing. Meshes are imported and images are decoded on the workers,
+ * and anything that needs the OpenGL context (making textures and display
+ * lists) is put in an upload queue that the GL thread empties between frames.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class AssetLoader {
+
+	// The thread that owns the OpenGL context (set in KouchKarting.initGL())
+	private static Thread glThread;
+
+	// The threads that load the assets
+	private static ExecutorService workers;
+
+	// The work waiting for the GL thread
+	private static LinkedList<Runnable> uploads = new LinkedList<Runnable>();
+
+	// The number of tasks given to the workers and how many have finished
+	private static int noOfTasks = 0;
+	private static int noOfFinishedTasks = 0;
+
+	// The description of the task that finished last
+	private static String lastFinished = "";
+
+	// When the current batch of tasks started (in milliseconds)
+	private static long batchStartTime;
+
+	/**
+	 * Sets the thread that owns the OpenGL context
+	 *
+	 * @param thread the GL thread
+	 */
+	public static void setGLThread(Thread thread) {
+		glThread = thread;
+	}
+
+	/**
+	 * Returns whether the current thread can make OpenGL calls. If no GL thread
+	 * was set, every thread is treated as the GL thread.
+	 *
+	 * @return true if the calling thread is the GL thread
+	 */
+	public static boolean isGLThread() {
+		return glThread == null || Thread.currentThread() == glThread;
+	}
+
+	/**
+	 * Runs a task on the worker threads
+	 *
+	 * @param description what is being loaded (shown when it finishes)
+	 * @param task the task that loads the asset
+	 */
+	public static void load(final String description, final Runnable task) {
+		synchronized (uploads) {
+			// Start a new batch if the last one finished
+			if (noOfTasks == noOfFinishedTasks && uploads.isEmpty()) {
+				noOfTasks = 0;
+				noOfFinishedTasks = 0;
+				batchStartTime = System.currentTimeMillis();
+			}
+			noOfTasks++;
+		}
+		getWorkers().execute(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (Exception e) {
+					System.out.println("AssetLoader.load() error loading "
+							+ description + ": " + e);
+				} finally {
+					synchronized (uploads) {
+						noOfFinishedTasks++;
+						lastFinished = description;
+						uploads.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the GL thread. If this is the GL thread, the task is run
+	 * now; otherwise it waits in the upload queue.
+	 *
+	 * @param task the task that uses OpenGL
+	 */
+	public static void runOnGLThread(Runnable task) {
+		if (isGLThread()) {
+			task.run();
+			return;
+		}
+		synchronized (uploads) {
+			uploads.addLast(task);
+			uploads.notifyAll();
+		}
+	}
+
+	/**
+	 * Runs the waiting uploads (on the GL thread) until the queue is empty or
+	 * the time is up
+	 *
+	 * @param maxMillis the most time to spend, in milliseconds
+	 * @return the number of uploads that were run
+	 */
+	public static int processUploads(long maxMillis) {
+		long endTime = System.currentTimeMillis() + maxMillis;
+		int noOfUploads = 0;
+		do {
+			Runnable upload;
+			synchronized (uploads) {
+				if (uploads.isEmpty()) {
+					break;
+				}
+				upload = uploads.removeFirst();
+			}
+			try {
+				upload.run();
+			} catch (Exception e) {
+				System.out.println("AssetLoader.processUploads() error: " + e);
+			}
+			noOfUploads++;
+		} while (System.currentTimeMillis() < endTime);
+		return noOfUploads;
+	}
+
+	/**
+	 * Waits until a worker finishes a task or queues an upload, or until the
+	 * time is up
+	 *
+	 * @param maxMillis the most time to wait, in milliseconds
+	 */
+	public static void waitForWork(long maxMillis) {
+		synchronized (uploads) {
+			if (uploads.isEmpty() && noOfFinishedTasks < noOfTasks) {
+				try {
+					uploads.wait(maxMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether every task has finished and every upload was run
+	 *
+	 * @return true if nothing is left to load
+	 */
+	public static boolean isFinished() {
+		synchronized (uploads) {
+			return noOfFinishedTasks == noOfTasks && uploads.isEmpty();
+		}
+	}
+
+	/**
+	 * Returns how much of the current batch of tasks has finished
+	 *
+	 * @return the fraction of the tasks that finished, from 0 to 1
+	 */
+	public static float getProgress() {
+		synchronized (uploads) {
+			if (noOfTasks == 0) {
+				return 1;
+			}
+			return noOfFinishedTasks / (float) noOfTasks;
+		}
+	}
+
+	/**
+	 * Returns the description of the task that finished last
+	 *
+	 * @return what was loaded last
+	 */
+	public static String getLastFinished() {
+		synchronized (uploads) {
+			return lastFinished;
+		}
+	}
+
+	/**
+	 * Returns how long the current batch of tasks has been loading
+	 *
+	 * @return the time since the batch started, in seconds
+	 */
+	public static float getLoadTime() {
+		return (System.currentTimeMillis() - batchStartTime) / 1000f;
+	}
+
+	/**
+	 * Returns the number of worker threads
+	 *
+	 * @return the number of processors
+	 */
+	public static int getNoOfThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns the worker threads, creating them the first time
+	 *
+	 * @return the worker threads
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(getNoOfThreads(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable task) {
+							Thread thread = new Thread(task, "Asset loader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return workers;
+	}
+}
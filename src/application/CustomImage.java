@@ -13,6 +13,8 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import javax.imageio.*;
+
+import importer.ImportStats;
 import java.awt.Image;
 
 /**
@@ -37,6 +39,9 @@ public class CustomImage {
     public ByteBuffer pixelBufferRGBA = null;  	
     public int[] pixelsARGB = null;
     
+    // The name of the file the image was loaded from (or null)
+    public String filename = null;
+    
     /**
      * Create an empty image object
      */
@@ -63,10 +68,19 @@ public class CustomImage {
      */
     public CustomImage (String filename, boolean flipYaxis, boolean convertPowTwo)
     {
+    	this.filename = filename;
+    	
+    	// Use the decoded pixels from an asset archive if there are any
+    	if (loadFromArchive(filename, flipYaxis, convertPowTwo)) {
+    		ImportStats.log("CustomImage: loaded " + filename + " from archive" + 
+    						   ", width = " + width + " height = " + height);
+    		return;
+    	}
 		BufferedImage img = loadImage(filename);
         if (makeImage (img, flipYaxis, convertPowTwo)) {
-			System.out.println("CustomImage: loaded " + filename + 
+			ImportStats.log("CustomImage: loaded " + filename + 
 							   ", width = " + width + " height = " + height);
+			ResourceRegistry.add(this);
 		}
         else {
         	System.out.println("CustomImage: failed to load " + filename);
@@ -94,7 +108,8 @@ public class CustomImage {
     public CustomImage (byte[] bytes, boolean flipYaxis, boolean convertPowTwo) {
         BufferedImage newImage = makeBufferedImage(bytes);
         if (makeImage (newImage, flipYaxis, convertPowTwo)) {
-			System.out.println("Image: loaded image from bytes[" + bytes.length + "]");
+			ImportStats.log("Image: loaded image from bytes[" + bytes.length + "]");
+			ResourceRegistry.add(this);
 		}
 		else {
 			System.out.println("Image: could not create Image from bytes[" + bytes.length + "]");
@@ -121,6 +136,29 @@ public class CustomImage {
         return buffImage;
     }
     
+    /**
+     * Loads the pixels of the image from the mounted asset archives, where
+     * they are already decoded as RGBA bytes. The pixel buffer is a slice of
+     * the archive, and the ARGB pixels are not made.
+     * 
+     * @param filename the name of the image file
+     * @param flipYaxis whether the image is flipped vertically
+     * @param convertPowTwo whether the image is scaled to power of two dimensions
+     * 
+     * @return if the image was in an archive
+     */
+    public boolean loadFromArchive (String filename, boolean flipYaxis, boolean convertPowTwo) {
+    	ByteBuffer asset = AssetArchive.find(AssetArchive.getImageName(filename, flipYaxis, convertPowTwo));
+    	if (asset == null) {
+    		return false;
+    	}
+    	width = asset.getInt();
+    	height = asset.getInt();
+    	pixelBufferRGBA = asset.slice().order(ByteOrder.nativeOrder());
+    	pixelsARGB = null;
+    	return true;
+    }
+    
     /**
 	 * Load a BufferedImage from the given image file name.  
 	 * The file has to be in the local file system.
@@ -343,6 +381,26 @@ public class CustomImage {
     	return height;
     }
     
+    /**
+     * Returns how many bytes the ARGB pixels use on the Java heap
+     * 
+     * @return the number of bytes (0 if there are no ARGB pixels)
+     */
+    public long getNoOfHeapBytes() {
+    	int[] pixels = pixelsARGB;
+    	return (pixels != null) ? pixels.length * 4L : 0;
+    }
+    
+    /**
+     * Returns how many bytes the RGBA pixel buffer uses outside of the Java heap
+     * 
+     * @return the number of bytes (0 if the buffer isn't direct)
+     */
+    public long getNoOfDirectBytes() {
+    	ByteBuffer pixels = pixelBufferRGBA;
+    	return (pixels != null && pixels.isDirect()) ? pixels.capacity() : 0;
+    }
+    
     /**
      * A method that returns the pixel bytes buffer for the image
      * 
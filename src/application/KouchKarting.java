@@ -13,7 +13,10 @@ import java.util.Hashtable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import importer.ImportStats;
+import importer.MeshCache;
 import material.MaterialLibrary;
+import mesh.Mesh;
 import math.*;
 import camera.*;
 import models.*;
@@ -45,6 +48,17 @@ public class KouchKarting {
 	private static final int SIZE_FLOAT = 4;
 	private static final int SIZE_INT = 4;
 
+	// The most time each loading screen frame spends making textures and
+	// display lists (in milliseconds)
+	private static final long MAX_UPLOAD_MILLIS = 10;
+
+	// The most couches kept loaded in the couch menu (the selected couch and
+	// the couches next to it)
+	private static final int MAX_RESIDENT_COUCHES = 3;
+
+	// The file the memory reports are added to (see reportMemory)
+	private static final String MEMORY_REPORT_FILE = "memoryReport.txt";
+
 	// Application settings
 	// Assigned values in main() before calling run(), such as the exit key,
 	// window title, if to disable or hide the native cursor, if vSync is
@@ -86,6 +100,28 @@ public class KouchKarting {
 	private static float backZ;
 	private static Hashtable OpenGLextensions;
 
+	// Whether the track is streamed in regions around the couch instead of
+	// being loaded all at once (for tracks too big to keep in memory)
+	private static boolean streamTrack;
+
+	// Whether meshes are drawn from compressed (quantized) vertex data, which
+	// uses half the memory of the full vertex data but can't use the buffers
+	// mapped from the baked files
+	private static boolean compressMeshes;
+
+	// Whether meshes let go of their data on the CPU once they are in display
+	// lists (the track keeps what it needs for collisions)
+	private static boolean gpuResidentMeshes;
+
+	// Whether the trees are baked into a few world space meshes instead of
+	// being placed and drawn one at a time
+	private static boolean batchTrees;
+
+	// Whether a report of the memory used by each asset is added to the
+	// memory report file every time loading finishes, to check budgets and
+	// find assets left over from an earlier race
+	private static boolean reportMemory;
+
 	// Time, frame rate and other variables for calculating that
 	private static long ticksPerSecond;
 	private static double secsSinceLastFrame = 0;
@@ -267,9 +303,26 @@ public class KouchKarting {
 
 	// Variables for the couch menu
 
-	// An array of couches that display in the couch menu
+	// An array of couches that display in the couch menu (null until each
+	// couch is loaded, and after it is thrown away)
 	private static Couch[] menuCouches = new Couch[4];
 
+	// The files and stats of the menu couches, so the menu can show them
+	// before the couches are loaded
+	private static String[] couchFiles = { "Couch/NormalCouch.obj",
+			"Couch/ModernCouch.obj", "Couch/OffRoadCouch.obj",
+			"Couch/SuperCouch.obj" };
+	private static float[] couchAccelerationRates = { 250, 350, 250, 450 };
+	private static float[] couchMaxSpeeds = { 420, 560, 420, 630 };
+	private static float[] couchGrassFrictions = { -500, -500, -200, -250 };
+	private static int[] couchPrices = { 0, 300, 300, 1000 };
+
+	// Whether each menu couch is being loaded, and when it was last wanted
+	// (the couch wanted least recently is thrown away first)
+	private static boolean[] couchesLoading = new boolean[4];
+	private static int[] couchLastUsed = new int[4];
+	private static int couchUseCount = 0;
+
 	// An array to keep track of which couches were bought
 	private static boolean[] bought = { true, false, false, false };
 
@@ -397,6 +450,25 @@ public class KouchKarting {
 		frontZ = 1f;
 		backZ = 30000f;
 
+		// Load the whole track (it is small enough)
+		streamTrack = false;
+
+		// Draw the meshes from the vertex data mapped from their baked files
+		// (the display lists keep their own copy, so compressing it saves
+		// little)
+		compressMeshes = false;
+
+		// Keep the meshes only on the GPU once they are in display lists (the
+		// models are kept for restarts, since the mesh cache has to import a
+		// released mesh again)
+		gpuResidentMeshes = true;
+
+		// Bake the trees into chunks so they take a few draw calls
+		batchTrees = true;
+
+		// Don't write memory reports
+		reportMemory = false;
+
 		// Menu spin speed
 		spinSpeed = 90;
 	}
@@ -407,12 +479,21 @@ public class KouchKarting {
 	 * update once before the game starts running in order to start it.
 	 */
 	public static void initMethods() {
+		initAssets();
 		initDisplay();
 		initInput();
 		initGL();
 		updateTimer();
 	}
 
+	/**
+	 * Mount the asset archives made by the AssetBaker (if there are any), so
+	 * the assets are loaded from them instead of the loose files.
+	 */
+	public static void initAssets() {
+		AssetArchive.mountAll(".");
+	}
+
 	/**
 	 * Initialise the game if not exiting.
 	 */
@@ -669,6 +750,12 @@ public class KouchKarting {
 	 */
 	public static void initGL() {
 		try {
+			// Only this thread can use openGL, so the asset loader gives it
+			// the textures and display lists to make
+			AssetLoader.setGLThread(Thread.currentThread());
+			Mesh.setCompressVertices(compressMeshes);
+			Mesh.setGPUResident(gpuResidentMeshes);
+
 			// Setup the depth testing
 			GL11.glEnable(GL11.GL_DEPTH_TEST); // Enable depth testing
 			GL11.glDepthFunc(GL11.GL_LEQUAL); // Set the type of depth testing
@@ -750,21 +837,28 @@ public class KouchKarting {
 		currentLap = 0;
 		currentLapSection = 4;
 
-		// Update the load menu to say that it is loading the track
-		updateLoadMenu("Loading Track...");
-
 		// Set track position, up vector and look at vector
-		Vector trackPosition = new Vector(0, 0, 0);
-		Vector trackUpVector = new Vector(0, 1, 0);
-		Vector trackLookAt = new Vector(0, 0, 1);
-
-		// Create a track and make a display list
-		track = new Track("Track/Track.obj", trackPosition, trackUpVector,
-				trackLookAt);
-		track.makeDisplayList();
-
-		// Update the load menu to say that it is loading the couch
-		updateLoadMenu("Loading Player Couch...");
+		final Vector trackPosition = new Vector(0, 0, 0);
+		final Vector trackUpVector = new Vector(0, 1, 0);
+		final Vector trackLookAt = new Vector(0, 0, 1);
+
+		// Create a track on the asset loader's threads and make a display list
+		// (a restart keeps the track and its display lists from the first race,
+		// so its meshes aren't loaded again and no new lists are made)
+		if (track == null) {
+			AssetLoader.load("Track", new Runnable() {
+				public void run() {
+					track = new Track("Track/Track.obj", trackPosition,
+							trackUpVector, trackLookAt, streamTrack);
+					track.prefetchTextures();
+					AssetLoader.runOnGLThread(new Runnable() {
+						public void run() {
+							track.makeDisplayList();
+						}
+					});
+				}
+			});
+		}
 
 		// Set kart position, up vector, look at and right vector
 		Vector kartPosition = new Vector(0, 40, -100);
@@ -773,16 +867,14 @@ public class KouchKarting {
 		Vector kartRightVector = new Vector(-1, 0, 0);
 
 		// Load the couch from the menu selection and reset velocity
-		playerCouch = menuCouches[couchSelection];
+		playerCouch = getMenuCouch(couchSelection);
 		playerCouch.changeVectors(kartPosition, kartUpVector, kartLookAt,
 				kartRightVector);
 		playerCouch.setVelocity(new Vector(0, 0, 0));
-
-		// Update the load menu to say that it is loading the trees
-		updateLoadMenu("Loading Trees...");
+		playerCouch.makeDisplayList();
 
 		// Create trees by making a new position for each tree
-		Vector[] treePositions = { new Vector(-300, 0, 0),
+		final Vector[] treePositions = { new Vector(-300, 0, 0),
 				new Vector(-300, 0, 300), new Vector(-500, 0, 1000),
 				new Vector(-400, 0, -500), new Vector(-350, 0, -250),
 				new Vector(-400, 0, 1500), new Vector(300, 0, 2500),
@@ -806,24 +898,48 @@ public class KouchKarting {
 				new Vector(-400, 0, -1200), new Vector(3200, 0, 2450) };
 
 		// Set the up vectors and look at vectors for the trees
-		Vector[] treeUpVectors = new Vector[treePositions.length];
-		Vector[] treeLookAts = new Vector[treePositions.length];
+		final Vector[] treeUpVectors = new Vector[treePositions.length];
+		final Vector[] treeLookAts = new Vector[treePositions.length];
 		for (int tree = 0; tree < treePositions.length; tree++) {
 			treeUpVectors[tree] = new Vector(0, 1, 0);
 			treeLookAts[tree] = new Vector(0, 0, 10);
 		}
 
-		// Create the trees class and make a display list
-		trees = new Trees("Tree/Tree.obj", treePositions, treeUpVectors,
-				treeLookAts);
-		trees.makeDisplayList();
+		// Create the trees class and make a display list (kept on a restart,
+		// like the track)
+		if (trees == null) {
+			AssetLoader.load("Trees", new Runnable() {
+				public void run() {
+					trees = new Trees("Tree/Tree.obj", treePositions,
+							treeUpVectors, treeLookAts);
+					int noOfChunks = batchTrees ? trees.makeChunks() : 0;
+					trees.prefetchTextures();
+					if (noOfChunks == 0) {
+						AssetLoader.runOnGLThread(new Runnable() {
+							public void run() {
+								trees.makeDisplayList();
+							}
+						});
+					}
 
-		// Update the load menu to say that it is loading the coins
-		updateLoadMenu("Loading Coins...");
+					// Bake the trees chunk by chunk, so each chunk's meshes can
+					// be let go of as soon as it is in display lists
+					for (int chunk = 0; chunk < noOfChunks; chunk++) {
+						trees.batchChunk(chunk);
+						final int bakedChunk = chunk;
+						AssetLoader.runOnGLThread(new Runnable() {
+							public void run() {
+								trees.makeChunkDisplayLists(bakedChunk);
+							}
+						});
+					}
+				}
+			});
+		}
 
 		// Just like the trees, make new coins by setting the position for each
 		// coin
-		Vector[] coinPositions = { new Vector(30, 5, 200),
+		final Vector[] coinPositions = { new Vector(30, 5, 200),
 				new Vector(30, 5, 300), new Vector(30, 5, 400),
 				new Vector(-30, 5, 200), new Vector(-30, 5, 300),
 				new Vector(-30, 5, 400), new Vector(0, 5, 500),
@@ -849,10 +965,10 @@ public class KouchKarting {
 
 		// Set the up vectors, look ats, right vectors and random spin speeds
 		// for each coin
-		Vector[] coinUpVectors = new Vector[coinPositions.length];
-		Vector[] coinLookAts = new Vector[coinPositions.length];
-		Vector[] coinRightVectors = new Vector[coinPositions.length];
-		float[] coinSpinSpeeds = new float[coinPositions.length];
+		final Vector[] coinUpVectors = new Vector[coinPositions.length];
+		final Vector[] coinLookAts = new Vector[coinPositions.length];
+		final Vector[] coinRightVectors = new Vector[coinPositions.length];
+		final float[] coinSpinSpeeds = new float[coinPositions.length];
 
 		for (int coin = 0; coin < coinPositions.length; coin++) {
 			coinUpVectors[coin] = new Vector(0, 1, 0);
@@ -861,10 +977,34 @@ public class KouchKarting {
 			coinSpinSpeeds[coin] = (float) (Math.random() * 90 + 90);
 		}
 
-		// Create the coins class and make a display list
-		coins = new Coins("Coin/Coin.obj", coinPositions, coinUpVectors,
-				coinLookAts, coinRightVectors, coinSpinSpeeds);
-		coins.makeDisplayList();
+		// Create the coins class and make a display list, or put back the
+		// coins collected in the last race if they are kept from it
+		if (coins == null) {
+			AssetLoader.load("Coins", new Runnable() {
+				public void run() {
+					coins = new Coins("Coin/Coin.obj", coinPositions,
+							coinUpVectors, coinLookAts, coinRightVectors,
+							coinSpinSpeeds);
+					coins.prefetchTextures();
+					AssetLoader.runOnGLThread(new Runnable() {
+						public void run() {
+							coins.makeDisplayList();
+						}
+					});
+				}
+			});
+		} else {
+			coins.collectedNone();
+		}
+
+		// Wait for the track, trees and coins, showing the progress
+		finishLoading("Loading Track...");
+
+		// If the track is streamed, load the regions around the couch
+		if (track.isStreaming()) {
+			track.updateRegions(playerCouch.getPosition());
+			finishLoading("Loading Track Regions...");
+		}
 
 		// Make a camera that is directly behind the couch, looking and facing
 		// the same direction as the player couch
@@ -973,79 +1113,30 @@ public class KouchKarting {
 		menuCouchLookAt = new Vector(0, 0, 1);
 		menuCouchRightVector = new Vector(-1, 0, 0);
 
-		// For each of the four couches, tell the update menu that the program
-		// is loading
-		// that couch, and create and load a new couch
-
-		// The normal couch
-		updateLoadMenu("Loading Couch: Normal Couch...");
-		menuCouches[0] = new Couch("Couch/NormalCouch.obj", menuCouchPosition,
-				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector, 250,
-				420, -500, 0);
-
-		// The modern couch
-		updateLoadMenu("Loading Couch: Futuristic Couch...");
-		menuCouches[1] = new Couch("Couch/ModernCouch.obj", menuCouchPosition,
-				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector, 350,
-				560, -500, 300);
-
-		// The off road couch
-		updateLoadMenu("Loading Couch: OffRoad Couch...");
-		menuCouches[2] = new Couch("Couch/OffRoadCouch.obj", menuCouchPosition,
-				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector, 250,
-				420, -200, 300);
-
-		// The super couch
-		updateLoadMenu("Loading Couch: Super Couch...");
-		menuCouches[3] = new Couch("Couch/SuperCouch.obj", menuCouchPosition,
-				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector, 450,
-				630, -250, 1000);
-
-		// Tell the load menu that the program is making the display lists
-		updateLoadMenu("Making Display Lists...");
-
-		// For each couch, make a display list
-		for (int couch = 0; couch < menuCouches.length; couch++) {
-			menuCouches[couch].makeDisplayList();
-		}
-
 		// Set the maximum stats for the couches
 		maxSpeed = 700;
 		maxAcceleration = 500;
 		minGrassFriction = -200;
 
-		// Tell the update menu that the program is loading the couch images
-		updateLoadMenu("Loading Menu Images...");
-
-		// Load all four of the unlocked couch images
-		couchImages[0] = new CustomImage("Couch/NormalCouchImage.png", true,
-				true);
-		couchImages[1] = new CustomImage("Couch/ModernCouchImage.png", true,
-				true);
-		couchImages[2] = new CustomImage("Couch/OffRoadCouchImage.png", true,
-				true);
-		couchImages[3] = new CustomImage("Couch/SuperCouchImage.png", true,
-				true);
-
-		// Load all four of the locked couch images
-		couchLockedImages[1] = new CustomImage("Couch/ModernCouchLocked.png",
-				true, true);
-		couchLockedImages[2] = new CustomImage("Couch/OffRoadCouchLocked.png",
-				true, true);
-		couchLockedImages[3] = new CustomImage("Couch/SuperCouchLocked.png",
-				true, true);
-
-		// For each unlocked image, make a texture in openGL for it
-		for (int image = 0; image < couchImages.length; image++) {
-			couchTextureHandles[image] = MaterialLibrary
-					.makeTexture(couchImages[image]);
-		}
-
-		// For each locked image, make a texture in openGL for it
-		for (int image = 1; image < couchImages.length; image++) {
-			couchLockedTextureHandles[image] = MaterialLibrary
-					.makeTexture(couchLockedImages[image]);
-		}
+		// Load all four of the unlocked couch images and the three locked ones
+		// (the couches themselves are loaded when they are shown)
+		loadCouchImage("Couch/NormalCouchImage.png", couchImages,
+				couchTextureHandles, 0);
+		loadCouchImage("Couch/ModernCouchImage.png", couchImages,
+				couchTextureHandles, 1);
+		loadCouchImage("Couch/OffRoadCouchImage.png", couchImages,
+				couchTextureHandles, 2);
+		loadCouchImage("Couch/SuperCouchImage.png", couchImages,
+				couchTextureHandles, 3);
+		loadCouchImage("Couch/ModernCouchLocked.png", couchLockedImages,
+				couchLockedTextureHandles, 1);
+		loadCouchImage("Couch/OffRoadCouchLocked.png", couchLockedImages,
+				couchLockedTextureHandles, 2);
+		loadCouchImage("Couch/SuperCouchLocked.png", couchLockedImages,
+				couchLockedTextureHandles, 3);
+
+		// Wait for the images, showing the progress
+		finishLoading("Loading Couches...");
 
 		// Load the filled and empty stat boxes and make texures for them
 		fillBox = new CustomImage("Menu/BoxFilled.png");
@@ -1053,11 +1144,206 @@ public class KouchKarting {
 		emptyBox = new CustomImage("Menu/BoxClear.png");
 		emptyBoxHandle = MaterialLibrary.makeTexture(emptyBox);
 
+		// Start loading the couch that is selected first while the main menu
+		// is shown
+		requestMenuCouch(0);
+
 		// Set that the menu was loaded and that loading finished
 		loadedMenu = true;
 		loading = false;
 	}
 
+	/**
+	 * Makes one of the menu couches. This loads its mesh, so it should be
+	 * called on the asset loader's threads unless the couch is needed now.
+	 * 
+	 * @param couch
+	 *            the index of the couch in the menu
+	 * @return the new couch
+	 */
+	private static Couch makeMenuCouch(int couch) {
+		return new Couch(couchFiles[couch], menuCouchPosition,
+				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector,
+				(int) couchAccelerationRates[couch],
+				(int) couchMaxSpeeds[couch], (int) couchGrassFrictions[couch],
+				couchPrices[couch]);
+	}
+
+	/**
+	 * Loads one of the menu couches on the asset loader's threads, then makes
+	 * its textures and display list in the upload queue, so it can be shown
+	 * without waiting
+	 * 
+	 * @param couch
+	 *            the index of the couch in the menu
+	 */
+	private static void loadMenuCouch(final int couch) {
+		couchesLoading[couch] = true;
+		AssetLoader.load(couchFiles[couch], new Runnable() {
+			public void run() {
+				final Couch newCouch = makeMenuCouch(couch);
+				newCouch.prefetchTextures();
+				AssetLoader.runOnGLThread(new Runnable() {
+					public void run() {
+						couchesLoading[couch] = false;
+						// Use the couch unless it was made while waiting
+						if (menuCouches[couch] == null) {
+							menuCouches[couch] = newCouch;
+							newCouch.startSpin(totalSpin);
+							newCouch.makeDisplayList();
+						}
+						evictMenuCouches();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Marks a menu couch as wanted, loading it in the background if it isn't
+	 * loaded or loading
+	 * 
+	 * @param couch
+	 *            the index of the couch in the menu
+	 */
+	private static void requestMenuCouch(int couch) {
+		couchUseCount++;
+		couchLastUsed[couch] = couchUseCount;
+		if (menuCouches[couch] == null && !couchesLoading[couch]) {
+			loadMenuCouch(couch);
+		}
+	}
+
+	/**
+	 * Returns a menu couch, making it now if it isn't loaded yet
+	 * 
+	 * @param couch
+	 *            the index of the couch in the menu
+	 * @return the couch
+	 */
+	private static Couch getMenuCouch(int couch) {
+		if (menuCouches[couch] == null) {
+			// If the couch is loading, its mesh comes from the mesh cache
+			// once the loader finishes it
+			menuCouches[couch] = makeMenuCouch(couch);
+			menuCouches[couch].startSpin(totalSpin);
+		}
+		couchUseCount++;
+		couchLastUsed[couch] = couchUseCount;
+		return menuCouches[couch];
+	}
+
+	/**
+	 * Selects a couch in the couch menu, loading the couches next to it in the
+	 * background so they are ready if they are picked next
+	 * 
+	 * @param couch
+	 *            the index of the couch in the menu
+	 */
+	private static void selectMenuCouch(int couch) {
+		couchSelection = couch;
+		requestMenuCouch(couch);
+		requestMenuCouch((couch + 1) % menuCouches.length);
+		requestMenuCouch((couch + menuCouches.length - 1) % menuCouches.length);
+		if (menuCouches[couch] != null) {
+			menuCouches[couch].startSpin(totalSpin);
+		}
+		evictMenuCouches();
+	}
+
+	/**
+	 * Throws away the menu couches that were wanted least recently until no
+	 * more than MAX_RESIDENT_COUCHES are loaded. The selected couch (and the
+	 * player's couch) are always kept.
+	 */
+	private static void evictMenuCouches() {
+		while (true) {
+			// Count the loaded couches and find the one wanted least recently
+			int noOfResident = 0;
+			int oldest = -1;
+			for (int couch = 0; couch < menuCouches.length; couch++) {
+				if (menuCouches[couch] != null) {
+					noOfResident++;
+					if (couch != couchSelection
+							&& menuCouches[couch] != playerCouch
+							&& (oldest == -1 || couchLastUsed[couch] < couchLastUsed[oldest])) {
+						oldest = couch;
+					}
+				}
+			}
+			if (noOfResident <= MAX_RESIDENT_COUCHES || oldest == -1) {
+				return;
+			}
+
+			// Throw away its display list and mesh (its textures stay with
+			// the cached material library)
+			menuCouches[oldest].deleteDisplayList();
+			MeshCache.release(couchFiles[oldest]);
+			menuCouches[oldest] = null;
+		}
+	}
+
+	/**
+	 * Decodes a couch image on the asset loader's threads, then makes its
+	 * texture on the GL thread
+	 * 
+	 * @param filename
+	 *            the name of the image file
+	 * @param images
+	 *            the array to store the image in
+	 * @param handles
+	 *            the array to store the texture handle in
+	 * @param image
+	 *            the index of the image in the arrays
+	 */
+	private static void loadCouchImage(final String filename,
+			final CustomImage[] images, final int[] handles, final int image) {
+		AssetLoader.load(filename, new Runnable() {
+			public void run() {
+				images[image] = new CustomImage(filename, true, true);
+				AssetLoader.runOnGLThread(new Runnable() {
+					public void run() {
+						handles[image] = MaterialLibrary
+								.makeTexture(images[image]);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Keeps drawing the load menu, with the progress of the asset loader, and
+	 * makes the textures and display lists of the loaded assets until
+	 * everything given to the asset loader has finished loading
+	 * 
+	 * @param message
+	 *            the message that should be printed on the screen
+	 */
+	public static void finishLoading(String message) {
+		while (!AssetLoader.isFinished()) {
+			// Use a bit of each frame to make textures and display lists
+			AssetLoader.processUploads(MAX_UPLOAD_MILLIS);
+
+			// Show how much is loaded (and what finished last)
+			updateLoadMenu(message + " " + (int) (AssetLoader.getProgress() * 100)
+					+ "% " + AssetLoader.getLastFinished());
+
+			// Don't keep the processors from the loader if there is nothing
+			// to do
+			AssetLoader.waitForWork(MAX_UPLOAD_MILLIS);
+		}
+		ImportStats.log("KouchKarting.finishLoading(): " + message + " took "
+				+ AssetLoader.getLoadTime() + " seconds");
+		ImportStats.log("KouchKarting.finishLoading(): " + ImportStats.getTotal());
+
+		// Report the memory of what is still loaded (after collecting what
+		// isn't, so it isn't counted)
+		if (reportMemory) {
+			System.gc();
+			ResourceRegistry.dump(MEMORY_REPORT_FILE, message);
+		}
+	}
+
 	/**
 	 * Setup the couch menu, including the camera, the button positions and
 	 * couch images.
@@ -1075,8 +1361,10 @@ public class KouchKarting {
 				- backButtonOver.getWidth(), 150, 0);
 
 		// Reset the last couch used to the proper position
-		menuCouches[couchSelection].changeVectors(menuCouchPosition,
-				menuCouchUpVector, menuCouchLookAt, menuCouchRightVector);
+		if (menuCouches[couchSelection] != null) {
+			menuCouches[couchSelection].changeVectors(menuCouchPosition,
+					menuCouchUpVector, menuCouchLookAt, menuCouchRightVector);
+		}
 
 		// Set each of the couch image positions
 		couchImagePositions[0] = new Vector(viewportW
@@ -1101,7 +1389,7 @@ public class KouchKarting {
 				new float[] { 0f, 100f, 100f, 1f });
 
 		// Set the couch selection to the normal couch automatically
-		couchSelection = 0;
+		selectMenuCouch(0);
 	}
 
 	/**
@@ -1429,26 +1717,36 @@ public class KouchKarting {
 			billboardPoint(track.getPosition(), track.getLookAt(),
 					track.getUpVector());
 			// Draw the track
-			callDisplayList(track.getDisplayListID());
+			track.draw();
 			// Reset material
 			setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
 		}
 		GL11.glPopMatrix();
 
-		// For each tree
-		for (int tree = 0; tree < trees.getNumberOfTrees(); tree++) {
-			// Draw it
-			GL11.glPushMatrix();
-			{
-				// Place tree
-				billboardPoint(trees.getPositions()[tree],
-						trees.getLookAts()[tree], trees.getUpVectors()[tree]);
-				// Draw the tree
-				callDisplayList(trees.getDisplayListID());
-				// Reset material
-				setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
+		// Draw the trees chunk by chunk if they were batched (they are
+		// already in world space)
+		if (trees.isBatched()) {
+			for (int chunk = 0; chunk < trees.getNoOfChunks(); chunk++) {
+				callDisplayList(trees.getChunkDisplayListID(chunk,
+						camera.position));
+			}
+			setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
+		} else {
+			// Otherwise, for each tree
+			for (int tree = 0; tree < trees.getNumberOfTrees(); tree++) {
+				// Draw it
+				GL11.glPushMatrix();
+				{
+					// Place tree
+					billboardPoint(trees.getPositions()[tree],
+							trees.getLookAts()[tree], trees.getUpVectors()[tree]);
+					// Draw the tree
+					callDisplayList(trees.getDisplayListID(tree, camera.position));
+					// Reset material
+					setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
+				}
+				GL11.glPopMatrix();
 			}
-			GL11.glPopMatrix();
 		}
 
 		// For each coin
@@ -1478,7 +1776,7 @@ public class KouchKarting {
 			billboardPoint(playerCouch.getPosition(), playerCouch.getLookAt(),
 					playerCouch.getUpVector());
 			// Draw the couch
-			callDisplayList(playerCouch.getDisplayListID());
+			callDisplayList(playerCouch.getDisplayListID(camera.position));
 			// Reset material
 			setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
 		}
@@ -1640,8 +1938,10 @@ public class KouchKarting {
 		// Render the camera
 		camera.Render();
 
-		// Spin the couch and store the total spin
-		totalSpin += menuCouches[couchSelection].spin(spinSpeed);
+		// Spin the couch and store the total spin (if it is loaded)
+		if (menuCouches[couchSelection] != null) {
+			totalSpin += menuCouches[couchSelection].spin(spinSpeed);
+		}
 
 		// Draw the couch menu objects
 		drawCouchMenuObjects();
@@ -1685,15 +1985,15 @@ public class KouchKarting {
 		// Draw the stat boxes for the acceleration
 
 		// For each of the boxes that have to be filled, draw them
-		for (int statBox = 0; statBox < menuCouches[couchSelection]
-				.getAccelerationRate() / maxAcceleration * 10; statBox++) {
+		for (int statBox = 0; statBox < couchAccelerationRates[couchSelection]
+				/ maxAcceleration * 10; statBox++) {
 			drawRec(fillBoxHandle, 400 + statBox * (fillBox.getWidth() + 10),
 					150, fillBox.getWidth(), fillBox.getHeight(), 1.0f);
 		}
 
 		// For each of the boxes that have to be empty, draw them
-		for (int statBox = (int) (menuCouches[couchSelection]
-				.getAccelerationRate() / maxAcceleration * 10); statBox < 10; statBox++) {
+		for (int statBox = (int) (couchAccelerationRates[couchSelection]
+				/ maxAcceleration * 10); statBox < 10; statBox++) {
 			drawRec(emptyBoxHandle, 400 + statBox * (emptyBox.getWidth() + 10),
 					150, emptyBox.getWidth(), emptyBox.getHeight(), 1.0f);
 		}
@@ -1701,14 +2001,14 @@ public class KouchKarting {
 		// Draw the stat boxes for the speed
 
 		// For each of the boxes that have to be filled, draw them
-		for (int statBox = 0; statBox < menuCouches[couchSelection]
-				.getMaxSpeed() / maxSpeed * 10; statBox++) {
+		for (int statBox = 0; statBox < couchMaxSpeeds[couchSelection]
+				/ maxSpeed * 10; statBox++) {
 			drawRec(fillBoxHandle, 400 + statBox * (fillBox.getWidth() + 10),
 					100, fillBox.getWidth(), fillBox.getHeight(), 1.0f);
 		}
 
 		// For each of the boxes that have to be empty, draw them
-		for (int statBox = (int) (menuCouches[couchSelection].getMaxSpeed()
+		for (int statBox = (int) (couchMaxSpeeds[couchSelection]
 				/ maxSpeed * 10); statBox < 10; statBox++) {
 			drawRec(emptyBoxHandle, 400 + statBox * (emptyBox.getWidth() + 10),
 					100, emptyBox.getWidth(), emptyBox.getHeight(), 1.0f);
@@ -1718,14 +2018,14 @@ public class KouchKarting {
 
 		// For each of the boxes that have to be filled, draw them
 		for (int statBox = 0; statBox < minGrassFriction
-				/ menuCouches[couchSelection].getGrassFriction() * 10; statBox++) {
+				/ couchGrassFrictions[couchSelection] * 10; statBox++) {
 			drawRec(fillBoxHandle, 400 + statBox * (fillBox.getWidth() + 10),
 					50, fillBox.getWidth(), fillBox.getHeight(), 1.0f);
 		}
 
 		// For each of the boxes that have to be empty, draw them
 		for (int statBox = (int) (minGrassFriction
-				/ menuCouches[couchSelection].getGrassFriction() * 10); statBox < 10; statBox++) {
+				/ couchGrassFrictions[couchSelection] * 10); statBox < 10; statBox++) {
 			drawRec(emptyBoxHandle, 400 + statBox * (emptyBox.getWidth() + 10),
 					50, emptyBox.getWidth(), emptyBox.getHeight(), 1.0f);
 		}
@@ -1766,7 +2066,7 @@ public class KouchKarting {
 		for (int image = 0; image < 4; image++) {
 			print((int) couchImagePositions[image].x,
 					(int) couchImagePositions[image].y - 30, "$"
-							+ menuCouches[image].getPrice(), 25,
+							+ couchPrices[image], 25,
 					"Font/MenuFont.png");
 		}
 
@@ -1806,6 +2106,11 @@ public class KouchKarting {
 	 * Draws the couch menu objects.
 	 */
 	public static void drawCouchMenuObjects() {
+		// If the selected couch is still loading, there is nothing to draw
+		if (menuCouches[couchSelection] == null) {
+			return;
+		}
+
 		// Draw the currently selected couch
 		GL11.glPushMatrix();
 		{
@@ -1813,7 +2118,9 @@ public class KouchKarting {
 			billboardPoint(menuCouches[couchSelection].getPosition(),
 					menuCouches[couchSelection].getLookAt(),
 					menuCouches[couchSelection].getUpVector());
-			// Draw the couch
+			// Draw the couch (its display list is normally made when it
+			// finishes loading)
+			menuCouches[couchSelection].makeDisplayList();
 			callDisplayList(menuCouches[couchSelection].getDisplayListID());
 			// Reset material
 			setMaterial(new float[] { .8f, .8f, .7f, 1f }, .4f);
@@ -2583,6 +2890,8 @@ public class KouchKarting {
 					&& cursorY <= couchImagePositions[couch].y
 							+ couchImages[couch].getHeight()) {
 				onCouchButtons[couch] = true;
+				// Start loading the couch, since it may be picked next
+				requestMenuCouch(couch);
 			} else {
 				onCouchButtons[couch] = false;
 			}
@@ -2624,15 +2933,14 @@ public class KouchKarting {
 						// If the couch wasn't bought, buy it if the player has
 						// enough money
 						if (!bought[couch]) {
-							if (menuCouches[couch].getPrice() <= totalMoney) {
-								totalMoney -= menuCouches[couch].getPrice();
+							if (couchPrices[couch] <= totalMoney) {
+								totalMoney -= couchPrices[couch];
 								bought[couch] = true;
 							}
 						}
 						// If it was bought, select it
 						if (bought[couch]) {
-							couchSelection = couch;
-							menuCouches[couch].startSpin(totalSpin);
+							selectMenuCouch(couch);
 						}
 					}
 				}
@@ -3028,6 +3336,18 @@ public class KouchKarting {
 		}
 	}
 
+	/**
+	 * Streams the regions of the track around the player's couch (if the track
+	 * is streamed), and makes the display lists of the regions that were
+	 * loaded
+	 */
+	public static void updateTrack() {
+		if (track.isStreaming()) {
+			track.updateRegions(playerCouch.getPosition());
+			AssetLoader.processUploads(MAX_UPLOAD_MILLIS);
+		}
+	}
+
 	/**
 	 * Updates everything that has to do with the player's couch. This includes
 	 * applying friction, gravity, calculating the new velocity, checking
@@ -3037,7 +3357,7 @@ public class KouchKarting {
 		playerCouch.applyFriction();
 		playerCouch.applyGravity();
 		playerCouch.calculateVelocity();
-		playerCouch.checkCollisionsAndMove(track.getMesh());
+		playerCouch.checkCollisionsAndMove(track.getCollisionMeshes());
 		playerCouch.turn();
 	}
 
@@ -3091,6 +3411,7 @@ public class KouchKarting {
 	 * times
 	 */
 	public static void update() {
+		updateTrack();
 		updateCouch();
 		checkCoinCollisions();
 		updateLap();
@@ -3210,6 +3531,8 @@ public class KouchKarting {
 				// screen
 				updateTimer();
 				handleMainMenuInputs();
+				// Make the display lists of the couches that finished loading
+				AssetLoader.processUploads(MAX_UPLOAD_MILLIS);
 				drawMainMenu();
 				Display.update();
 			}
@@ -3246,6 +3569,8 @@ public class KouchKarting {
 				// screen
 				updateTimer();
 				handleCouchMenuInputs();
+				// Make the display lists of the couches that finished loading
+				AssetLoader.processUploads(MAX_UPLOAD_MILLIS);
 				drawCouchMenu();
 				Display.update();
 			}
@@ -3824,6 +4149,9 @@ public class KouchKarting {
 			GL11.glVertex2i(0, fontWidth);
 			GL11.glEnd(); // Done Building Our Quad (Character)
 			GL11.glEndList(); // Done Building The Display List
+
+			// Each list holds 4 corners with a position and a texture coord
+			ResourceRegistry.addDisplayList(fontListBase + i, "font", 4 * 4 * 4);
 		} // Loop Until All 256 Are Built
 	}
 
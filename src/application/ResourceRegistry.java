@@ -0,0 +1,406 @@
+package application;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import mesh.Mesh;
+
+/**
+ * The "ResourceRegistry" Class.
+ * Purpose: Keeps track of how much memory the loaded assets use, so a track
+ * can be checked against a memory budget and anything left over from an
+ * earlier race can be found. Every mesh and decoded image is registered when
+ * it is made and reports its own size whenever the registry is asked, so the
+ * numbers follow a mesh as it is optimised, packed and released. They are
+ * only held weakly, so the registry never keeps them loaded. Textures and
+ * display lists are registered by their openGL handle when they are made and
+ * taken out when they are deleted.
+ * <P>
+ * The memory is counted in three places: the Java heap (the vertex and
+ * triangle objects and the arrays), direct buffers outside the heap (mesh
+ * buffers and image pixels) and the graphics card (textures and display
+ * lists). The heap and graphics card numbers are estimates: object sizes are
+ * for a 64 bit JVM with compressed pointers, and a display list is counted
+ * as the vertices and indices compiled into it. Images read from an asset
+ * archive are slices of the mapped archive, so they aren't counted.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class ResourceRegistry {
+
+	// The kinds of resources
+	public static final int MESH = 0;
+	public static final int IMAGE = 1;
+	public static final int TEXTURE = 2;
+	public static final int DISPLAY_LIST = 3;
+	private static final String[] KIND_NAMES = { "mesh", "image", "texture",
+			"display list" };
+
+	// Where the memory of a resource is
+	public static final int HEAP = 0;
+	public static final int DIRECT = 1;
+	public static final int GPU = 2;
+	private static final String[] LOCATION_NAMES = { "heap", "direct", "GPU" };
+
+	// The meshes and images (as weak references, so they can still be
+	// garbage collected)
+	private static ArrayList<WeakReference<Object>> objects =
+			new ArrayList<WeakReference<Object>>();
+
+	// The textures and display lists, by handle
+	private static Hashtable<Integer, Resource> textures =
+			new Hashtable<Integer, Resource>();
+	private static Hashtable<Integer, Resource> displayLists =
+			new Hashtable<Integer, Resource>();
+
+	/**
+	 * Registers a mesh, which reports its size whenever the registry is
+	 * asked (this is done when the mesh is made)
+	 *
+	 * @param mesh the mesh
+	 */
+	public static synchronized void add(Mesh mesh) {
+		objects.add(new WeakReference<Object>(mesh));
+	}
+
+	/**
+	 * Registers a decoded image, which reports its size whenever the
+	 * registry is asked (this is done when the image is decoded)
+	 *
+	 * @param image the image
+	 */
+	public static synchronized void add(CustomImage image) {
+		objects.add(new WeakReference<Object>(image));
+	}
+
+	/**
+	 * Registers a texture that was made on the graphics card
+	 *
+	 * @param handle the texture handle
+	 * @param name the name of the asset the texture is for
+	 * @param noOfBytes the number of bytes of the texture
+	 */
+	public static synchronized void addTexture(int handle, String name,
+			long noOfBytes) {
+		textures.put(Integer.valueOf(handle), new Resource(name, noOfBytes));
+	}
+
+	/**
+	 * Takes out a texture that was deleted
+	 *
+	 * @param handle the texture handle
+	 */
+	public static synchronized void removeTexture(int handle) {
+		textures.remove(Integer.valueOf(handle));
+	}
+
+	/**
+	 * Registers a display list that was compiled
+	 *
+	 * @param listID the display list ID
+	 * @param name the name of the asset the list draws
+	 * @param noOfBytes the number of bytes compiled into the list
+	 */
+	public static synchronized void addDisplayList(int listID, String name,
+			long noOfBytes) {
+		displayLists.put(Integer.valueOf(listID), new Resource(name, noOfBytes));
+	}
+
+	/**
+	 * Takes out display lists that were deleted (with the same arguments
+	 * given to glDeleteLists())
+	 *
+	 * @param firstID the ID of the first list
+	 * @param noOfLists the number of lists
+	 */
+	public static synchronized void removeDisplayLists(int firstID,
+			int noOfLists) {
+		for (int listID = firstID; listID < firstID + noOfLists; listID++) {
+			displayLists.remove(Integer.valueOf(listID));
+		}
+	}
+
+	/**
+	 * Returns roughly how many bytes an asset uses in one place, counting
+	 * every kind of resource with the asset's name
+	 *
+	 * @param name the name of the asset (the mesh name or image file)
+	 * @param location HEAP, DIRECT or GPU
+	 * @return the number of bytes
+	 */
+	public static long getNoOfBytes(String name, int location) {
+		long noOfBytes = 0;
+		Usage[] usages = collect();
+		for (int usage = 0; usage < usages.length; usage++) {
+			if (usages[usage].name.equals(name)) {
+				noOfBytes += usages[usage].noOfBytes[location];
+			}
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Returns roughly how many bytes an asset uses in all places
+	 *
+	 * @param name the name of the asset (the mesh name or image file)
+	 * @return the number of bytes
+	 */
+	public static long getNoOfBytes(String name) {
+		long noOfBytes = 0;
+		for (int location = 0; location < LOCATION_NAMES.length; location++) {
+			noOfBytes += getNoOfBytes(name, location);
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Returns roughly how many bytes all the registered resources use in one
+	 * place
+	 *
+	 * @param location HEAP, DIRECT or GPU
+	 * @return the number of bytes
+	 */
+	public static long getTotalNoOfBytes(int location) {
+		long noOfBytes = 0;
+		Usage[] usages = collect();
+		for (int usage = 0; usage < usages.length; usage++) {
+			noOfBytes += usages[usage].noOfBytes[location];
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Returns roughly how many bytes all the registered resources use in all
+	 * places
+	 *
+	 * @return the number of bytes
+	 */
+	public static long getTotalNoOfBytes() {
+		long noOfBytes = 0;
+		for (int location = 0; location < LOCATION_NAMES.length; location++) {
+			noOfBytes += getTotalNoOfBytes(location);
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Returns the number of registered resources of one kind that are still
+	 * alive (meshes and images that were garbage collected aren't counted)
+	 *
+	 * @param kind MESH, IMAGE, TEXTURE or DISPLAY_LIST
+	 * @return the number of resources
+	 */
+	public static int getNoOfResources(int kind) {
+		int noOfResources = 0;
+		Usage[] usages = collect();
+		for (int usage = 0; usage < usages.length; usage++) {
+			if (usages[usage].kind == kind) {
+				noOfResources += usages[usage].noOfResources;
+			}
+		}
+		return noOfResources;
+	}
+
+	/**
+	 * Returns a table of the memory used by each asset, with the totals of
+	 * each kind of resource and of everything
+	 *
+	 * @return the table as text (sizes in kilobytes)
+	 */
+	public static String getReport() {
+		Usage[] usages = collect();
+		StringBuffer report = new StringBuffer();
+		report.append(String.format("%-40s %-12s %6s %10s %10s %10s%n",
+				"Asset", "Kind", "Count", "Heap KB", "Direct KB", "GPU KB"));
+
+		// Each asset (in order of name, then kind)
+		long[][] kindTotals = new long[KIND_NAMES.length][LOCATION_NAMES.length];
+		int[] kindCounts = new int[KIND_NAMES.length];
+		for (int next = 0; next < usages.length; next++) {
+			Usage usage = usages[next];
+			appendRow(report, usage.name, KIND_NAMES[usage.kind],
+					usage.noOfResources, usage.noOfBytes);
+			kindCounts[usage.kind] += usage.noOfResources;
+			for (int location = 0; location < LOCATION_NAMES.length; location++) {
+				kindTotals[usage.kind][location] += usage.noOfBytes[location];
+			}
+		}
+
+		// The totals of each kind and of everything
+		long[] totals = new long[LOCATION_NAMES.length];
+		int totalCount = 0;
+		for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+			appendRow(report, "Total", KIND_NAMES[kind], kindCounts[kind],
+					kindTotals[kind]);
+			totalCount += kindCounts[kind];
+			for (int location = 0; location < LOCATION_NAMES.length; location++) {
+				totals[location] += kindTotals[kind][location];
+			}
+		}
+		appendRow(report, "Total", "all", totalCount, totals);
+		return report.toString();
+	}
+
+	/**
+	 * Adds the report to the end of a file, so reports from different
+	 * points of the game (like the start of each race) can be compared
+	 *
+	 * @param filename the name of the file
+	 * @param title the line written above the report
+	 * @return true if the report was written
+	 */
+	public static boolean dump(String filename, String title) {
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(filename, true));
+			out.println(title);
+			out.print(getReport());
+			out.println();
+			out.close();
+			return true;
+		} catch (Exception exception) {
+			System.out.println("ResourceRegistry.dump() error: " + exception);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a row to a report
+	 *
+	 * @param report the report
+	 * @param name the name of the asset
+	 * @param kind the name of the kind of resource
+	 * @param noOfResources the number of resources
+	 * @param noOfBytes the number of bytes in each place
+	 */
+	private static void appendRow(StringBuffer report, String name,
+			String kind, int noOfResources, long[] noOfBytes) {
+		report.append(String.format("%-40s %-12s %6d %10.1f %10.1f %10.1f%n",
+				name, kind, noOfResources, noOfBytes[HEAP] / 1024.0,
+				noOfBytes[DIRECT] / 1024.0, noOfBytes[GPU] / 1024.0));
+	}
+
+	/**
+	 * Asks every registered resource for its size, and adds up the sizes of
+	 * the resources of each kind with the same name. Meshes and images that
+	 * were garbage collected are taken out of the registry.
+	 *
+	 * @return the memory used by each asset and kind, in order of name
+	 */
+	private static synchronized Usage[] collect() {
+		TreeMap<String, Usage> usages = new TreeMap<String, Usage>();
+		for (Iterator<WeakReference<Object>> next = objects.iterator(); next
+				.hasNext();) {
+			Object object = next.next().get();
+			if (object == null) {
+				next.remove();
+			} else if (object instanceof Mesh) {
+				Mesh mesh = (Mesh) object;
+				add(usages, mesh.name, MESH, HEAP, mesh.getNoOfHeapBytes());
+				add(usages, mesh.name, MESH, DIRECT, mesh.getNoOfDirectBytes());
+			} else {
+				CustomImage image = (CustomImage) object;
+				add(usages, image.filename, IMAGE, HEAP, image
+						.getNoOfHeapBytes());
+				add(usages, image.filename, IMAGE, DIRECT, image
+						.getNoOfDirectBytes());
+			}
+		}
+		add(usages, textures, TEXTURE);
+		add(usages, displayLists, DISPLAY_LIST);
+
+		Usage[] usageArray = new Usage[usages.size()];
+		usages.values().toArray(usageArray);
+		return usageArray;
+	}
+
+	/**
+	 * Adds the graphics card memory of some textures or display lists to the
+	 * usage of their assets
+	 *
+	 * @param usages the usages, by name and kind
+	 * @param resources the resources, by handle
+	 * @param kind the kind of the resources
+	 */
+	private static void add(TreeMap<String, Usage> usages,
+			Hashtable<Integer, Resource> resources, int kind) {
+		for (Enumeration<Resource> next = resources.elements(); next
+				.hasMoreElements();) {
+			Resource resource = next.nextElement();
+			add(usages, resource.name, kind, GPU, resource.noOfBytes);
+		}
+	}
+
+	/**
+	 * Adds the memory of one resource to the usage of its asset (counting
+	 * the resource when its heap or GPU memory is added)
+	 *
+	 * @param usages the usages, by name and kind
+	 * @param name the name of the asset (or null)
+	 * @param kind the kind of the resource
+	 * @param location where the memory is
+	 * @param noOfBytes the number of bytes
+	 */
+	private static void add(TreeMap<String, Usage> usages, String name, int kind,
+			int location, long noOfBytes) {
+		if (name == null || name.length() == 0) {
+			name = "(unnamed)";
+		}
+		String key = name + "\t" + kind;
+		Usage usage = usages.get(key);
+		if (usage == null) {
+			usage = new Usage(name, kind);
+			usages.put(key, usage);
+		}
+		if (location != DIRECT) {
+			usage.noOfResources++;
+		}
+		usage.noOfBytes[location] += noOfBytes;
+	}
+
+	/**
+	 * Holds the asset name and size of a texture or display list
+	 */
+	private static class Resource {
+		String name;
+		long noOfBytes;
+
+		/**
+		 * Create a resource
+		 *
+		 * @param name the name of the asset
+		 * @param noOfBytes the number of bytes
+		 */
+		Resource(String name, long noOfBytes) {
+			this.name = name;
+			this.noOfBytes = noOfBytes;
+		}
+	}
+
+	/**
+	 * Holds the memory used by the resources of one kind for an asset
+	 */
+	private static class Usage {
+		String name;
+		int kind;
+		int noOfResources = 0;
+		long[] noOfBytes = new long[LOCATION_NAMES.length];
+
+		/**
+		 * Create an empty usage
+		 *
+		 * @param name the name of the asset
+		 * @param kind the kind of the resources
+		 */
+		Usage(String name, int kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package collision;
 
 import math.Vector;
 import mesh.Mesh;
+import mesh.PackedMesh;
 import mesh.Triangle;
 
 /**
@@ -35,16 +36,23 @@ public class WorldCollision {
 	private Vector slidingPlaneNormal;
 	private Vector slidingPlaneOrigin;
 
-	// Hit information, such as if a collision was found and the triangle with
-	// which the collision occured
+	// Hit information, such as if a collision was found and the normal and
+	// surface of the triangle with which the collision occured (the surface
+	// is -1 until there is a collision)
 	private boolean collisionFound;
 	private float nearestDistance;
 	private Vector intersectionPoint;
 	private Vector finalPosition;
-	private Triangle collisionTriangle;
+	private Vector collisionNormal;
+	private int collisionSurfaceID;
 	private boolean collisionWithGravity;
 	private boolean embedded;
 
+	// The eSpace corners of the triangle being checked
+	private Vector eSpacePoint1 = new Vector();
+	private Vector eSpacePoint2 = new Vector();
+	private Vector eSpacePoint3 = new Vector();
+
 	/**
 	 * Creates a new world collision class to use for collision detection. This
 	 * method also initialises other important variables
@@ -70,8 +78,8 @@ public class WorldCollision {
 		R3Position = position;
 
 		// Default data for collisions
-		collisionTriangle = new Triangle();
-		collisionTriangle.faceNormal = upVector;
+		collisionNormal = upVector;
+		collisionSurfaceID = -1;
 		collisionFound = false;
 		collisionWithGravity = false;
 		checkingGravity = false;
@@ -91,6 +99,18 @@ public class WorldCollision {
 	 *            the mesh the object is colliding with (world mesh)
 	 */
 	public void collideAndSlide(Mesh mesh) {
+		collideAndSlide(new Mesh[] { mesh });
+	}
+
+	/**
+	 * Collides with several meshes (like the loaded regions of a streamed
+	 * track) and reacts accordingly in a sliding motion by using a sliding
+	 * plane.
+	 * 
+	 * @param meshes
+	 *            the meshes the object is colliding with (world meshes)
+	 */
+	public void collideAndSlide(Mesh[] meshes) {
 
 		// Set up checking for gravity
 		velocity = Vector.div(R3Gravity, changeOfBasis);
@@ -101,7 +121,7 @@ public class WorldCollision {
 		collisionRecursionDepth = 0;
 
 		// Check for collisions with gravity
-		finalPosition = collideWithMesh(mesh);
+		finalPosition = collideWithMeshes(meshes);
 		checkingGravity = false;
 
 		// Convert the velocity and position to eSpace and reset other variables
@@ -113,8 +133,8 @@ public class WorldCollision {
 		// Keep track of the recursion depth
 		collisionRecursionDepth = 0;
 
-		// Collide with the mesh, getting the final position back
-		finalPosition = collideWithMesh(mesh);
+		// Collide with the meshes, getting the final position back
+		finalPosition = collideWithMeshes(meshes);
 
 		// Convert back to R3 Space
 		finalPosition.mult(changeOfBasis);
@@ -129,15 +149,31 @@ public class WorldCollision {
 	 * @return the final position of the object after sliding
 	 */
 	public Vector collideWithMesh(Mesh mesh) {
+		return collideWithMeshes(new Mesh[] { mesh });
+	}
+
+	/**
+	 * Checks for collisions with several meshes and reacts based on the
+	 * results, returning the end position after sliding. Only checks for one
+	 * vector.
+	 * 
+	 * @param meshes
+	 *            the meshes the object is colliding with
+	 * @return the final position of the object after sliding
+	 */
+	public Vector collideWithMeshes(Mesh[] meshes) {
 
 		// If recursion is over 5, it should be over
 		if (collisionRecursionDepth > 1000) {
 			return basePoint;
 		}
 
-		// Check for collisions
-		for (int triangle = 0; triangle < mesh.triangles.length; triangle++) {
-			checkTriangleForCollision(mesh.triangles[triangle]);
+		// Check for collisions, going through the flat arrays of each mesh
+		for (int mesh = 0; mesh < meshes.length; mesh++) {
+			PackedMesh packedMesh = meshes[mesh].getPackedMesh();
+			for (int triangle = 0; triangle < packedMesh.noOfTriangles; triangle++) {
+				checkTriangleForCollision(packedMesh, triangle);
+			}
 		}
 
 		// If checking for gravity, indicate if there is a collision in the
@@ -195,7 +231,7 @@ public class WorldCollision {
 		basePoint = newBasePoint;
 		velocity = newVelocity;
 		collisionFound = false;
-		return collideWithMesh(mesh);
+		return collideWithMeshes(meshes);
 	}
 
 	/**
@@ -206,36 +242,91 @@ public class WorldCollision {
 	 *            the triangle that is tested for a collision
 	 */
 	public void checkTriangleForCollision(Triangle checkTriangle) {
+		checkTriangleForCollision(
+				Vector.div(checkTriangle.point1.pos, changeOfBasis),
+				Vector.div(checkTriangle.point2.pos, changeOfBasis),
+				Vector.div(checkTriangle.point3.pos, changeOfBasis),
+				checkTriangle.surfaceID);
+	}
 
-		// Apply the eSpace to the triangle
-		checkTriangle.applyESpace(changeOfBasis);
+	/**
+	 * Checks if the object will collide with a triangle of a packed mesh. The
+	 * results are stored in local variables for easier access later.
+	 * 
+	 * @param packedMesh
+	 *            the mesh with the triangle
+	 * @param triangle
+	 *            the index of the triangle that is tested for a collision
+	 */
+	public void checkTriangleForCollision(PackedMesh packedMesh, int triangle) {
+		// Apply the eSpace to each of the vertices
+		float[] positions = packedMesh.positions;
+		int vertex = packedMesh.indices[triangle * 3] * 3;
+		eSpacePoint1.x = positions[vertex] / changeOfBasis.x;
+		eSpacePoint1.y = positions[vertex + 1] / changeOfBasis.y;
+		eSpacePoint1.z = positions[vertex + 2] / changeOfBasis.z;
+		vertex = packedMesh.indices[triangle * 3 + 1] * 3;
+		eSpacePoint2.x = positions[vertex] / changeOfBasis.x;
+		eSpacePoint2.y = positions[vertex + 1] / changeOfBasis.y;
+		eSpacePoint2.z = positions[vertex + 2] / changeOfBasis.z;
+		vertex = packedMesh.indices[triangle * 3 + 2] * 3;
+		eSpacePoint3.x = positions[vertex] / changeOfBasis.x;
+		eSpacePoint3.y = positions[vertex + 1] / changeOfBasis.y;
+		eSpacePoint3.z = positions[vertex + 2] / changeOfBasis.z;
+
+		checkTriangleForCollision(eSpacePoint1, eSpacePoint2, eSpacePoint3,
+				packedMesh.surfaceIDs[triangle]);
+	}
+
+	/**
+	 * Checks if the object will collide with the triangle with the given
+	 * eSpace corners. The results are stored in local variables for easier
+	 * access later.
+	 * 
+	 * @param point1
+	 *            the first corner of the triangle in eSpace
+	 * @param point2
+	 *            the second corner of the triangle in eSpace
+	 * @param point3
+	 *            the third corner of the triangle in eSpace
+	 * @param surfaceID
+	 *            the surface of the triangle
+	 */
+	private void checkTriangleForCollision(Vector point1, Vector point2,
+			Vector point3, int surfaceID) {
+
+		// Calculate the eSpace face normal and plane constant
+		Vector eSpaceFaceNormal = Vector.getNormal(point1, point2, point3);
+		float eSpacePlaneConstant = -(point1.x * eSpaceFaceNormal.x + point1.y
+				* eSpaceFaceNormal.y + point1.z * eSpaceFaceNormal.z);
 
 		// Calculate the signed distance from the sphere to the triangle
-		float signedDistance = checkTriangle.signedDistanceTo(basePoint);
+		float signedDistance = Vector.dotProduct(eSpaceFaceNormal, basePoint)
+				+ eSpacePlaneConstant;
 
 		if (Math.abs(signedDistance) <= 1.0f) {
 			// Calculate the plane intersection point
 			Vector planeIntersectionPoint = Vector.sub(basePoint,
-					checkTriangle.eSpaceFaceNormal);
+					eSpaceFaceNormal);
 
-			if (checkTriangle.checkPointInTriangle(planeIntersectionPoint)) {
+			if (Triangle.checkPointInTriangle(planeIntersectionPoint, point1,
+					point2, point3)) {
 				embedded = true;
 			}
 		}
 
+		// Store the triangle normal dot velocity to use later
+		float normalDotVelocity = Vector.dotProduct(eSpaceFaceNormal, velocity);
+
 		// Check if triangle is front-facing to the velocity vector
 		// If it is not, do not check it
-		if (!checkTriangle.isFrontFacingTo(velocity)) {
+		if (normalDotVelocity > 0) {
 			return;
 		}
 
 		// Get the interval of plane intersection
 		float t0, t1;
 
-		// Store the triangle normal dot velocity to use later
-		float normalDotVelocity = Vector.dotProduct(
-				checkTriangle.eSpaceFaceNormal, velocity);
-
 		// If the object is travelling parallel to the plane, there is no
 		// collision possible
 		if (normalDotVelocity == 0.0f) {
@@ -264,12 +355,12 @@ public class WorldCollision {
 		float time = 1.0f;
 
 		// Calculate the plane intersection point
-		Vector planeIntersectionPoint = Vector
-				.add(Vector.sub(basePoint, checkTriangle.eSpaceFaceNormal),
-						velocity);
+		Vector planeIntersectionPoint = Vector.add(
+				Vector.sub(basePoint, eSpaceFaceNormal), velocity);
 
 		// Check if the point is in the triangle
-		if (checkTriangle.checkPointInTriangle(planeIntersectionPoint)) {
+		if (Triangle.checkPointInTriangle(planeIntersectionPoint, point1,
+				point2, point3)) {
 			foundCollision = true;
 			time = t0;
 		}
@@ -284,7 +375,11 @@ public class WorldCollision {
 				nearestDistance = distanceToCollision;
 				intersectionPoint = planeIntersectionPoint;
 				collisionFound = true;
-				collisionTriangle = checkTriangle;
+
+				// Calculate the original face normal
+				collisionNormal = new Vector(eSpaceFaceNormal)
+						.mult(changeOfBasis);
+				collisionSurfaceID = surfaceID;
 			}
 		}
 	}
@@ -322,7 +417,7 @@ public class WorldCollision {
 	 * @return the normal of the collision
 	 */
 	public Vector getCollisionNormal() {
-		return new Vector(collisionTriangle.faceNormal);
+		return new Vector(collisionNormal);
 	}
 
 	/**
@@ -335,16 +430,12 @@ public class WorldCollision {
 	}
 
 	/**
-	 * Returns the triangles that the object collided with, making sure the
-	 * correct triangle is given
+	 * Returns the surface of the triangle that the object collided with
 	 * 
-	 * @return the triangle that the object collided with
+	 * @return the surface ID of the triangle (see Surface), or -1 if the
+	 *         object didn't collide with a triangle
 	 */
-	public Triangle getCollisionTriangle() {
-		if (collisionTriangle.point1 != null) {
-			return collisionTriangle;
-		} else {
-			return null;
-		}
+	public int getCollisionSurfaceID() {
+		return collisionSurfaceID;
 	}
 }
@@ -0,0 +1,760 @@
+package importer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import math.Vector;
+import mesh.IndexedMesh;
+import mesh.Mesh;
+import mesh.MeshBuffers;
+import mesh.Triangle;
+import application.AssetArchive;
+import application.KouchKarting;
+
+/**
+ * The "BakedMesh" Class.
+ * Purpose: Reads and writes meshes in a compact binary format, so a mesh
+ * that was imported once can be loaded again without parsing its .obj file.
+ * The baked file stores the finished mesh: the positions, the welded vertex
+ * data, the triangle indices, the groups and the runs of triangles with the
+ * same group and material (the triangles are sorted by material across the
+ * groups, see Mesh.optimise(boolean)), as
+ * arrays that are copied straight out of a memory-mapped file. It also stores
+ * the interleaved vertex data and indices the way openGL reads them (see
+ * MeshBuffers), which are used from the mapped file without copying them.
+ * <P>
+ * A baked file is kept next to its .obj file (Track.obj.bake, or
+ * Tree.obj.lod1.bake for a simplified level of detail, see MeshSimplifier)
+ * and stores the
+ * size and modification time of the .obj and .mtl files it was made from, so
+ * it is ignored once either of them changes. These stamps are read from the
+ * file before it is mapped, since a mapped file can't be written over again
+ * until the mapping is let go of (on Windows), and a stale file is baked
+ * again straight away.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class BakedMesh {
+
+	// The first bytes of every baked file ("KKMB") and the version of the
+	// format. Files with a different version are ignored.
+	public static final int MAGIC = 0x4B4B4D42;
+	public static final int VERSION = 3;
+
+	// The extension added to the name of the .obj file
+	public static final String EXTENSION = ".bake";
+
+	// Flags for the optional vertex data
+	private static final int HAS_NORMALS = 1;
+	private static final int HAS_TEXTURE_COORDS = 2;
+
+	// The byte orders the openGL data can be written in
+	private static final int BIG_ENDIAN = 0;
+	private static final int LITTLE_ENDIAN = 1;
+
+	/**
+	 * Returns the name of the baked file for an .obj file
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @return the name of the baked file
+	 */
+	public static String getBakeFilename(String objFilename) {
+		return objFilename + EXTENSION;
+	}
+
+	/**
+	 * Returns the name of the baked file for a level of detail of an .obj
+	 * file
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @param level the level of detail (0 for the full mesh)
+	 * @return the name of the baked file
+	 */
+	public static String getBakeFilename(String objFilename, int level) {
+		if (level == 0) {
+			return getBakeFilename(objFilename);
+		}
+		return objFilename + ".lod" + level + EXTENSION;
+	}
+
+	/**
+	 * Loads the baked mesh for an .obj file from the mounted asset archives,
+	 * or else from its baked file if there is one and it is up to date
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @return the mesh, or null if the .obj file has to be imported
+	 */
+	public static Mesh read(String objFilename) {
+		return read(objFilename, 0);
+	}
+
+	/**
+	 * Loads the baked mesh for a level of detail of an .obj file from the
+	 * mounted asset archives, or else from its baked file if there is one and
+	 * it is up to date. An archived mesh is only used if the .obj file is
+	 * missing or hasn't changed since the archive was made (see
+	 * AssetArchive.find()).
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @param level the level of detail (0 for the full mesh)
+	 * @return the mesh, or null if it has to be made again
+	 */
+	public static Mesh read(String objFilename, int level) {
+		String bakeFilename = getBakeFilename(objFilename, level);
+		ByteBuffer archived = AssetArchive.find(bakeFilename);
+		if (archived != null) {
+			try {
+				return read(archived);
+			} catch (IOException exception) {
+				System.out.println("BakedMesh.read(): could not read archived "
+						+ objFilename + ", " + exception);
+			}
+		}
+		File bakeFile = new File(bakeFilename);
+		if (!bakeFile.isFile()) {
+			return null;
+		}
+		if (!isUpToDate(bakeFile.getPath(), objFilename)) {
+			return null;
+		}
+		try {
+			return read(OBJBufferParser.map(bakeFile.getPath()));
+		} catch (Exception exception) {
+			System.out.println("BakedMesh.read(): could not read "
+					+ bakeFile.getPath() + ", " + exception);
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if a baked file was made from the current .obj and .mtl files,
+	 * reading its header without mapping the file
+	 *
+	 * @param bakeFilename the name of the baked file
+	 * @param objFilename the name of the .obj file
+	 * @return true if the baked mesh can be used
+	 */
+	public static boolean isUpToDate(String bakeFilename, String objFilename) {
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(bakeFilename)));
+			try {
+				return isUpToDate(input, objFilename);
+			} finally {
+				input.close();
+			}
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if a baked mesh was made from the current .obj and .mtl files
+	 *
+	 * @param input the stream of the baked mesh, at its first byte
+	 * @param objFilename the name of the .obj file
+	 * @return true if the baked mesh can be used
+	 * @throws IOException if the header could not be read
+	 */
+	static boolean isUpToDate(DataInputStream input, String objFilename)
+			throws IOException {
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			return false;
+		}
+
+		// Compare the stamps of the .obj file and its material library
+		File objFile = new File(objFilename);
+		if (input.readLong() != objFile.length()
+				|| input.readLong() != objFile.lastModified()) {
+			return false;
+		}
+		String materialLibraryName = readString(input);
+		long librarySize = input.readLong();
+		long libraryModified = input.readLong();
+		if (materialLibraryName.length() > 0) {
+			File libraryFile = getLibraryFile(objFilename, materialLibraryName);
+			return librarySize == libraryFile.length()
+					&& libraryModified == libraryFile.lastModified();
+		}
+		return true;
+	}
+
+	/**
+	 * Makes a mesh from the contents of a baked file
+	 *
+	 * @param buffer the contents of the baked file, from its position
+	 * @return the mesh
+	 * @throws IOException if the buffer is not a baked mesh
+	 */
+	public static Mesh read(ByteBuffer buffer) throws IOException {
+		// Check the header and skip the stamps
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("not a baked mesh (version " + VERSION + ")");
+		}
+		buffer.getLong();
+		buffer.getLong();
+		String materialLibraryName = readString(buffer);
+		buffer.getLong();
+		buffer.getLong();
+		String name = readString(buffer);
+
+		// Read the positions and the welded vertices
+		float[] positions = readFloats(buffer, buffer.getInt() * 3);
+		int noOfVertices = buffer.getInt();
+		int flags = buffer.getInt();
+		int[] vertexIDs = readInts(buffer, noOfVertices);
+		float[] normals = null;
+		float[] textureCoords = null;
+		if ((flags & HAS_NORMALS) != 0) {
+			normals = readFloats(buffer, noOfVertices * 3);
+		}
+		if ((flags & HAS_TEXTURE_COORDS) != 0) {
+			textureCoords = readFloats(buffer, noOfVertices * 2);
+		}
+		int[] indices = readInts(buffer, buffer.getInt() * 3);
+
+		// Read the groups and the runs
+		int noOfGroups = buffer.getInt();
+		String[] groupNames = new String[noOfGroups];
+		String[] groupMaterialNames = new String[noOfGroups];
+		for (int group = 0; group < noOfGroups; group++) {
+			groupNames[group] = readString(buffer);
+			groupMaterialNames[group] = readString(buffer);
+		}
+		int noOfRuns = buffer.getInt();
+		int[] runEnds = new int[noOfRuns];
+		int[] runGroupIDs = new int[noOfRuns];
+		int[] runIDs = new int[noOfRuns];
+		for (int run = 0; run < noOfRuns; run++) {
+			runEnds[run] = buffer.getInt();
+			runGroupIDs[run] = buffer.getInt();
+			runIDs[run] = buffer.getInt();
+		}
+
+		// Use the openGL data straight out of the buffer if it is mapped (or
+		// otherwise direct) and was written in this computer's byte order
+		int byteOrder = buffer.getInt();
+		int noOfVertexBytes = buffer.getInt();
+		int noOfIndexBytes = buffer.getInt();
+		int padding = buffer.getInt();
+		buffer.position(buffer.position() + padding);
+		MeshBuffers meshBuffers = null;
+		if (buffer.isDirect() && byteOrder == getByteOrder()) {
+			ByteBuffer vertexData = slice(buffer, noOfVertexBytes);
+			ByteBuffer indexData = slice(buffer, noOfIndexBytes);
+			meshBuffers = new MeshBuffers(vertexData, indexData,
+					normals != null, noOfVertices, indices.length);
+		}
+
+		Mesh mesh = makeMesh(name, (materialLibraryName.length() > 0) ? materialLibraryName
+				: null, positions, vertexIDs, normals, textureCoords, indices,
+				groupNames, groupMaterialNames, runEnds, runGroupIDs, runIDs,
+				false);
+		if (meshBuffers != null) {
+			mesh.setMeshBuffers(meshBuffers);
+		}
+		return mesh;
+	}
+
+	/**
+	 * Makes a finished mesh from its arrays
+	 *
+	 * @param name the name of the mesh
+	 * @param materialLibraryName the name of the mesh's material library (or
+	 *                            null)
+	 * @param positions the x, y and z of the mesh's vertices
+	 * @param vertexIDs the vertex of each welded vertex
+	 * @param normals the normals of the welded vertices (or null)
+	 * @param textureCoords the texture coordinates of the welded vertices (or
+	 *                      null)
+	 * @param indices three welded vertices for every triangle
+	 * @param groupNames the name of each group (groups without triangles are
+	 *                   removed)
+	 * @param groupMaterialNames the material name of each group
+	 * @param runEnds the index after the last triangle of each run of
+	 *                triangles with the same group and material
+	 * @param runGroupIDs the group of each run
+	 * @param runIDs the material of each run
+	 * @param reorderTriangles whether to put the triangles in the best order
+	 *                         for drawing (see Mesh.optimise(boolean))
+	 * @return the mesh
+	 */
+	static Mesh makeMesh(String name, String materialLibraryName,
+			float[] positions, int[] vertexIDs, float[] normals,
+			float[] textureCoords, int[] indices, String[] groupNames,
+			String[] groupMaterialNames, int[] runEnds, int[] runGroupIDs,
+			int[] runIDs, boolean reorderTriangles) {
+		int noOfVertices = vertexIDs.length;
+		int noOfGroups = groupNames.length;
+
+		// Make the mesh
+		Mesh mesh = new Mesh(name, materialLibraryName);
+		for (int position = 0; position < positions.length; position += 3) {
+			mesh.addVertex(positions[position], positions[position + 1],
+					positions[position + 2]);
+		}
+		for (int group = 0; group < noOfGroups; group++) {
+			mesh.addGroup(groupNames[group], groupMaterialNames[group]);
+		}
+
+		// Make the triangles, sharing one normal and texture vector for each
+		// welded vertex
+		Vector[] normalVectors = new Vector[noOfVertices];
+		Vector[] textureVectors = new Vector[noOfVertices];
+		int run = 0;
+		for (int triangle = 0; triangle < indices.length / 3; triangle++) {
+			while (triangle >= runEnds[run]) {
+				run++;
+			}
+			int index1 = indices[triangle * 3];
+			int index2 = indices[triangle * 3 + 1];
+			int index3 = indices[triangle * 3 + 2];
+			Triangle newTriangle = new Triangle(
+					mesh.getVertex(vertexIDs[index1]),
+					mesh.getVertex(vertexIDs[index2]),
+					mesh.getVertex(vertexIDs[index3]));
+			if (normals != null) {
+				newTriangle.normal1 = getVector(normalVectors, normals, index1, 3);
+				newTriangle.normal2 = getVector(normalVectors, normals, index2, 3);
+				newTriangle.normal3 = getVector(normalVectors, normals, index3, 3);
+			}
+			if (textureCoords != null) {
+				newTriangle.texture1 = getVector(textureVectors, textureCoords, index1, 2);
+				newTriangle.texture2 = getVector(textureVectors, textureCoords, index2, 2);
+				newTriangle.texture3 = getVector(textureVectors, textureCoords, index3, 2);
+			}
+			newTriangle.index1 = index1;
+			newTriangle.index2 = index2;
+			newTriangle.index3 = index3;
+			newTriangle.groupID = runGroupIDs[run];
+			newTriangle.materialID = runIDs[run];
+			mesh.addTriangle(newTriangle);
+		}
+
+		// Optimising keeps the triangles in the same order unless they are
+		// reordered for drawing
+		mesh.optimise(reorderTriangles);
+		if (reorderTriangles) {
+			indices = new int[indices.length];
+			for (int triangle = 0; triangle < mesh.numTriangles; triangle++) {
+				indices[triangle * 3] = mesh.triangles[triangle].index1;
+				indices[triangle * 3 + 1] = mesh.triangles[triangle].index2;
+				indices[triangle * 3 + 2] = mesh.triangles[triangle].index3;
+			}
+		}
+		mesh.indexedMesh = new IndexedMesh(getWeldedPositions(positions,
+				vertexIDs), normals, textureCoords, vertexIDs, indices);
+		mesh.calculateDimensions();
+		return mesh;
+	}
+
+	/**
+	 * Bakes a mesh imported from an .obj file into the file next to it
+	 *
+	 * @param mesh the mesh imported from the file
+	 * @param objFilename the name of the .obj file
+	 * @throws IOException if the baked file could not be written
+	 */
+	public static void write(Mesh mesh, String objFilename) throws IOException {
+		write(mesh, objFilename, 0);
+	}
+
+	/**
+	 * Bakes a level of detail of a mesh into the file next to its .obj file
+	 *
+	 * @param mesh the level of detail
+	 * @param objFilename the name of the .obj file the mesh came from
+	 * @param level the level of detail (0 for the full mesh)
+	 * @throws IOException if the baked file could not be written
+	 */
+	public static void write(Mesh mesh, String objFilename, int level)
+			throws IOException {
+		FileOutputStream output = new FileOutputStream(getBakeFilename(
+				objFilename, level));
+		try {
+			output.write(toBytes(mesh, objFilename));
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Makes the contents of a baked file for a mesh
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 * @param objFilename the name of the .obj file the mesh was imported from
+	 * @return the bytes of the baked file
+	 * @throws IOException if the mesh could not be written
+	 */
+	public static byte[] toBytes(Mesh mesh, String objFilename) throws IOException {
+		return toBytes(mesh, objFilename, null);
+	}
+
+	/**
+	 * Makes the contents of a baked file for some of the triangles of a mesh.
+	 * Only the vertices those triangles use are written, so the baked file
+	 * is a smaller mesh of its own (like a region of a track).
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 * @param objFilename the name of the .obj file the mesh was imported from
+	 * @param triangles the IDs of the triangles to write, in increasing order
+	 *                  (or null to write the whole mesh)
+	 * @return the bytes of the baked file
+	 * @throws IOException if the mesh could not be written
+	 */
+	public static byte[] toBytes(Mesh mesh, String objFilename, int[] triangles)
+			throws IOException {
+		IndexedMesh indexedMesh = mesh.indexedMesh;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		if (triangles == null) {
+			triangles = new int[mesh.numTriangles];
+			for (int triangle = 0; triangle < triangles.length; triangle++) {
+				triangles[triangle] = triangle;
+			}
+		}
+
+		// Give the vertices and welded vertices that the triangles use new
+		// IDs, in the order they were in the mesh
+		int[] newVertexIDs = new int[mesh.numVertices];
+		int[] newWeldedIDs = new int[indexedMesh.noOfVertices];
+		for (int next = 0; next < triangles.length; next++) {
+			Triangle triangle = mesh.triangles[triangles[next]];
+			newWeldedIDs[triangle.index1] = 1;
+			newWeldedIDs[triangle.index2] = 1;
+			newWeldedIDs[triangle.index3] = 1;
+		}
+		for (int vertex = 0; vertex < indexedMesh.noOfVertices; vertex++) {
+			if (newWeldedIDs[vertex] != 0) {
+				newVertexIDs[indexedMesh.vertexIDs[vertex]] = 1;
+			}
+		}
+		int[] vertices = renumber(newVertexIDs);
+		int[] weldedVertices = renumber(newWeldedIDs);
+
+		// Write the header with the stamps of the source files
+		File objFile = new File(objFilename);
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(objFile.length());
+		output.writeLong(objFile.lastModified());
+		String materialLibraryName = (mesh.materialLibraryName == null) ? ""
+				: mesh.materialLibraryName;
+		File libraryFile = getLibraryFile(objFilename, materialLibraryName);
+		writeString(output, materialLibraryName);
+		output.writeLong((materialLibraryName.length() > 0) ? libraryFile.length() : 0);
+		output.writeLong((materialLibraryName.length() > 0) ? libraryFile.lastModified() : 0);
+		writeString(output, mesh.name);
+
+		// Write the positions and the welded vertices
+		output.writeInt(vertices.length);
+		for (int vertex = 0; vertex < vertices.length; vertex++) {
+			output.writeFloat(mesh.vertices[vertices[vertex]].pos.x);
+			output.writeFloat(mesh.vertices[vertices[vertex]].pos.y);
+			output.writeFloat(mesh.vertices[vertices[vertex]].pos.z);
+		}
+		output.writeInt(weldedVertices.length);
+		output.writeInt(((indexedMesh.normals != null) ? HAS_NORMALS : 0)
+				| ((indexedMesh.textureCoords != null) ? HAS_TEXTURE_COORDS : 0));
+		for (int vertex = 0; vertex < weldedVertices.length; vertex++) {
+			output.writeInt(newVertexIDs[indexedMesh.vertexIDs[weldedVertices[vertex]]]);
+		}
+		writeFloats(output, indexedMesh.normals, weldedVertices, 3);
+		writeFloats(output, indexedMesh.textureCoords, weldedVertices, 2);
+		int[] indices = new int[triangles.length * 3];
+		output.writeInt(triangles.length);
+		for (int next = 0; next < triangles.length; next++) {
+			Triangle triangle = mesh.triangles[triangles[next]];
+			indices[next * 3] = newWeldedIDs[triangle.index1];
+			indices[next * 3 + 1] = newWeldedIDs[triangle.index2];
+			indices[next * 3 + 2] = newWeldedIDs[triangle.index3];
+			output.writeInt(indices[next * 3]);
+			output.writeInt(indices[next * 3 + 1]);
+			output.writeInt(indices[next * 3 + 2]);
+		}
+
+		// Write every group of the mesh (the groups without any of the
+		// triangles are removed when the mesh is read), then the runs of
+		// triangles with the same group and material, each ending at a
+		// triangle
+		output.writeInt(mesh.getNoOfGroups());
+		for (int group = 0; group < mesh.getNoOfGroups(); group++) {
+			writeString(output, mesh.getGroupName(group));
+			writeString(output, mesh.getGroupMaterialName(group));
+		}
+		output.writeInt(countRuns(mesh, triangles));
+		for (int next = 0; next < triangles.length; next++) {
+			Triangle triangle = mesh.triangles[triangles[next]];
+			if (isRunEnd(mesh, triangles, next)) {
+				output.writeInt(next + 1);
+				output.writeInt(triangle.groupID);
+				output.writeInt(triangle.materialID);
+			}
+		}
+
+		// Write the vertex data and indices the way openGL reads them, in
+		// this computer's byte order, padded so they start on a multiple of
+		// 4 bytes
+		ByteBuffer vertexData = MeshBuffers.makeVertexData(
+				indexedMesh.positions, indexedMesh.normals,
+				indexedMesh.textureCoords, weldedVertices);
+		ByteBuffer indexData = MeshBuffers.makeIndexData(indices, null,
+				weldedVertices.length);
+		output.writeInt(getByteOrder());
+		output.writeInt(vertexData.remaining());
+		output.writeInt(indexData.remaining());
+		int padding = (4 - (output.size() + 4) % 4) % 4;
+		output.writeInt(padding);
+		output.write(new byte[padding]);
+		writeBuffer(output, vertexData);
+		writeBuffer(output, indexData);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Gives a new ID to every marked (non 0) element of an array, in order,
+	 * storing the new IDs in the array
+	 *
+	 * @param newIDs 1 for each element that is kept, 0 for the others;
+	 *               replaced by the new ID of each element kept
+	 * @return the old ID of each new ID
+	 */
+	private static int[] renumber(int[] newIDs) {
+		int noOfKept = 0;
+		for (int element = 0; element < newIDs.length; element++) {
+			if (newIDs[element] != 0) {
+				noOfKept++;
+			}
+		}
+		int[] oldIDs = new int[noOfKept];
+		noOfKept = 0;
+		for (int element = 0; element < newIDs.length; element++) {
+			if (newIDs[element] != 0) {
+				oldIDs[noOfKept] = element;
+				newIDs[element] = noOfKept++;
+			}
+		}
+		return oldIDs;
+	}
+
+	/**
+	 * Checks if a triangle is the last one of its run (the next triangle has
+	 * a different group or material)
+	 *
+	 * @param mesh the mesh
+	 * @param triangles the IDs of the triangles being written
+	 * @param next the index of the triangle in the list
+	 * @return true if the run ends with the triangle
+	 */
+	private static boolean isRunEnd(Mesh mesh, int[] triangles, int next) {
+		if (next + 1 == triangles.length) {
+			return true;
+		}
+		Triangle triangle = mesh.triangles[triangles[next]];
+		Triangle nextTriangle = mesh.triangles[triangles[next + 1]];
+		return triangle.groupID != nextTriangle.groupID
+				|| triangle.materialID != nextTriangle.materialID;
+	}
+
+	/**
+	 * Counts the runs of triangles with the same group and material in a
+	 * list of triangles
+	 *
+	 * @param mesh the mesh
+	 * @param triangles the IDs of the triangles being written
+	 * @return the number of runs
+	 */
+	private static int countRuns(Mesh mesh, int[] triangles) {
+		int count = 0;
+		for (int next = 0; next < triangles.length; next++) {
+			if (isRunEnd(mesh, triangles, next)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the material library file of an .obj file
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @param materialLibraryName the name of the library, relative to the .obj
+	 * @return the library file
+	 */
+	private static File getLibraryFile(String objFilename, String materialLibraryName) {
+		return new File(KouchKarting.getPathAndFile(objFilename)[0] + materialLibraryName);
+	}
+
+	/**
+	 * Returns the shared vector for a welded vertex, making it the first time
+	 *
+	 * @param vectors the vectors made so far for each welded vertex
+	 * @param data the data of the welded vertices
+	 * @param vertex the welded vertex
+	 * @param stride the number of floats for each vertex (2 or 3)
+	 * @return the vector
+	 */
+	private static Vector getVector(Vector[] vectors, float[] data, int vertex,
+			int stride) {
+		if (vectors[vertex] == null) {
+			vectors[vertex] = new Vector(data[vertex * stride],
+					data[vertex * stride + 1],
+					(stride == 3) ? data[vertex * stride + 2] : 0);
+		}
+		return vectors[vertex];
+	}
+
+	/**
+	 * Returns the position of every welded vertex
+	 *
+	 * @param positions the x, y and z of the mesh's vertices
+	 * @param vertexIDs the vertex of each welded vertex
+	 * @return the x, y and z of the welded vertices
+	 */
+	private static float[] getWeldedPositions(float[] positions, int[] vertexIDs) {
+		float[] weldedPositions = new float[vertexIDs.length * 3];
+		for (int vertex = 0; vertex < vertexIDs.length; vertex++) {
+			System.arraycopy(positions, vertexIDs[vertex] * 3, weldedPositions,
+					vertex * 3, 3);
+		}
+		return weldedPositions;
+	}
+
+	/**
+	 * Returns the byte order of this computer, as it is stored in baked files
+	 *
+	 * @return LITTLE_ENDIAN or BIG_ENDIAN
+	 */
+	private static int getByteOrder() {
+		return (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? LITTLE_ENDIAN
+				: BIG_ENDIAN;
+	}
+
+	/**
+	 * Returns the next bytes of a buffer as a buffer of their own (in this
+	 * computer's byte order) and moves past them
+	 *
+	 * @param buffer the buffer
+	 * @param length the number of bytes
+	 * @return the bytes, sharing the contents of the buffer
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Reads an array of floats and moves past them
+	 *
+	 * @param buffer the buffer to read from
+	 * @param length the number of floats
+	 * @return the floats
+	 */
+	private static float[] readFloats(ByteBuffer buffer, int length) {
+		float[] array = new float[length];
+		buffer.asFloatBuffer().get(array);
+		buffer.position(buffer.position() + length * 4);
+		return array;
+	}
+
+	/**
+	 * Reads an array of ints and moves past them
+	 *
+	 * @param buffer the buffer to read from
+	 * @param length the number of ints
+	 * @return the ints
+	 */
+	private static int[] readInts(ByteBuffer buffer, int length) {
+		int[] array = new int[length];
+		buffer.asIntBuffer().get(array);
+		buffer.position(buffer.position() + length * 4);
+		return array;
+	}
+
+	/**
+	 * Reads a String stored as its length and UTF-8 bytes
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the String
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (IOException exception) {
+			return new String(bytes);
+		}
+	}
+
+	/**
+	 * Reads a String stored as its length and UTF-8 bytes from a stream
+	 *
+	 * @param input the stream to read from
+	 * @return the String
+	 * @throws IOException if the String could not be read
+	 */
+	private static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Writes the floats of some of the elements in an array (nothing if the
+	 * array is null)
+	 *
+	 * @param output the stream to write to
+	 * @param array the floats
+	 * @param elements the elements to write
+	 * @param stride the number of floats in each element
+	 */
+	private static void writeFloats(DataOutputStream output, float[] array,
+			int[] elements, int stride) throws IOException {
+		if (array != null) {
+			for (int element = 0; element < elements.length; element++) {
+				for (int index = 0; index < stride; index++) {
+					output.writeFloat(array[elements[element] * stride + index]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer
+	 *
+	 * @param output the stream to write to
+	 * @param buffer the buffer
+	 */
+	private static void writeBuffer(DataOutputStream output, ByteBuffer buffer)
+			throws IOException {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		output.write(bytes);
+	}
+
+	/**
+	 * Writes a String as its length and UTF-8 bytes
+	 *
+	 * @param output the stream to write to
+	 * @param text the String (null is written as an empty String)
+	 */
+	private static void writeString(DataOutputStream output, String text)
+			throws IOException {
+		byte[] bytes = (text == null) ? new byte[0] : text.getBytes("UTF-8");
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
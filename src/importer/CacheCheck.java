@@ -0,0 +1,151 @@
+package importer;
+
+import math.Vector;
+import mesh.Mesh;
+import models.Coins;
+import models.Track;
+import models.Trees;
+
+/**
+ * The "CacheCheck" Class.
+ * Purpose: A small command line check that the MeshCache keeps the models
+ * the game loads in setupGame(). The track, trees and coins are made several
+ * times, as if the race was restarted, and each .obj file must only be
+ * imported once.
+ * <P>
+ * Then the same is done with GPU resident meshes (as in the game), letting
+ * go of the meshes after each time like making their display lists does.
+ * The cache must never give out a released mesh, so each file is imported
+ * every time. This is why the game keeps its models for restarts instead of
+ * making them again (see KouchKarting.setupGame()).
+ * <P>
+ * It exits with an error if a file was imported a different number of times
+ * or a released mesh was given out. No display lists are made, so it
+ * doesn't need a GL context.
+ * <P>
+ * Usage: java importer.CacheCheck
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class CacheCheck {
+
+	// The models made by setupGame()
+	private static final String TRACK_FILE = "Track/Track.obj";
+	private static final String TREE_FILE = "Tree/Tree.obj";
+	private static final String COIN_FILE = "Coin/Coin.obj";
+
+	// How many times the models are made
+	private static final int NO_OF_RESTARTS = 5;
+
+	// The models made by setupGame()
+	private static final String[] FILES = { TRACK_FILE, TREE_FILE, COIN_FILE };
+
+	// Where the models are put
+	private static Vector[] positions = { new Vector(0, 0, 0),
+			new Vector(10, 0, 10) };
+	private static Vector[] upVectors = { new Vector(0, 1, 0),
+			new Vector(0, 1, 0) };
+	private static Vector[] lookAts = { new Vector(0, 0, 10),
+			new Vector(10, 0, 20) };
+	private static Vector[] rightVectors = { new Vector(1, 0, 0),
+			new Vector(1, 0, 0) };
+	private static float[] spinSpeeds = { 90, 180 };
+
+	/**
+	 * Makes the models several times and checks how often each file was
+	 * imported
+	 */
+	public static void main(String[] args) {
+		// Meshes kept on the CPU are only imported the first time
+		int noOfFailures = 0;
+		int[] noOfImports = getNoOfImports();
+		for (int restart = 0; restart < NO_OF_RESTARTS; restart++) {
+			makeModels(restart);
+		}
+		noOfFailures += checkImports(noOfImports, 1);
+
+		// Released meshes are imported again every time
+		Mesh.setGPUResident(true);
+		MeshCache.clear();
+		noOfImports = getNoOfImports();
+		for (int restart = 0; restart < NO_OF_RESTARTS; restart++) {
+			makeModels(restart);
+			Mesh[] meshes = { MeshCache.getMesh(TRACK_FILE),
+					MeshCache.getMesh(COIN_FILE),
+					MeshCache.getLevelsOfDetail(TREE_FILE)[1] };
+			for (int mesh = 0; mesh < meshes.length; mesh++) {
+				if (meshes[mesh].isReleased()) {
+					System.out.println(meshes[mesh].name
+							+ ": the cache gave out a released mesh");
+					noOfFailures++;
+				}
+			}
+
+			// Let go of the meshes like making their display lists does
+			MeshCache.getMesh(TRACK_FILE).releaseCPUData(true);
+			MeshCache.getMesh(COIN_FILE).releaseCPUData(false);
+			Mesh[] levels = MeshCache.getLevelsOfDetail(TREE_FILE);
+			for (int level = 0; level < levels.length; level++) {
+				levels[level].releaseCPUData(false);
+			}
+		}
+		noOfFailures += checkImports(noOfImports, NO_OF_RESTARTS);
+		if (noOfFailures > 0) {
+			System.out.println(noOfFailures + " checks failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Makes the track, trees and coins, as setupGame() does
+	 *
+	 * @param restart the number of times they were made before
+	 */
+	private static void makeModels(int restart) {
+		long startTime = System.nanoTime();
+		new Track(TRACK_FILE, positions[0], upVectors[0], lookAts[0], false);
+		new Trees(TREE_FILE, positions, upVectors, lookAts);
+		new Coins(COIN_FILE, positions, upVectors, lookAts, rightVectors,
+				spinSpeeds);
+		System.out.println("Load " + (restart + 1) + ": "
+				+ Math.round((System.nanoTime() - startTime) / 1e4) / 100.0
+				+ " ms, " + MeshCache.getNoOfLoads() + " loads, "
+				+ MeshCache.getNoOfHits() + " cache hits");
+	}
+
+	/**
+	 * Returns how many times each file has been imported so far
+	 *
+	 * @return the number of imports of each file
+	 */
+	private static int[] getNoOfImports() {
+		int[] noOfImports = new int[FILES.length];
+		for (int file = 0; file < FILES.length; file++) {
+			noOfImports[file] = MeshCache.getNoOfImports(FILES[file]);
+		}
+		return noOfImports;
+	}
+
+	/**
+	 * Checks how many times each file was imported since the counts were
+	 * taken
+	 *
+	 * @param before the number of imports of each file before
+	 * @param expected the number of times each file should be imported
+	 * @return the number of files imported a different number of times
+	 */
+	private static int checkImports(int[] before, int expected) {
+		int noOfFailures = 0;
+		int[] after = getNoOfImports();
+		for (int file = 0; file < FILES.length; file++) {
+			int noOfImports = after[file] - before[file];
+			System.out.println(FILES[file] + ": imported " + noOfImports
+					+ " times (expected " + expected + ")");
+			if (noOfImports != expected) {
+				noOfFailures++;
+			}
+		}
+		return noOfFailures;
+	}
+}
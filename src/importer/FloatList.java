@@ -0,0 +1,165 @@
+package importer;
+
+/**
+ * The "FloatList" Class.
+ * Purpose: A growable list of floats stored in one float array, instead of an
+ * ArrayList of small float arrays. The floats are grouped into elements of a
+ * fixed size (the stride), such as 3 for the x, y and z of a normal.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class FloatList {
+
+	// The floats in the list and the number of floats in each element
+	private float[] data;
+	private int stride;
+
+	// The number of floats used in the array
+	private int noOfFloats = 0;
+
+	/**
+	 * Create a new empty list
+	 *
+	 * @param stride the number of floats in each element
+	 */
+	public FloatList(int stride) {
+		this(stride, 256);
+	}
+
+	/**
+	 * Create a new empty list with room for the given number of elements
+	 *
+	 * @param stride the number of floats in each element
+	 * @param capacity the number of elements to make room for
+	 */
+	public FloatList(int stride, int capacity) {
+		this.stride = stride;
+		data = new float[Math.max(1, capacity) * stride];
+	}
+
+	/**
+	 * Adds a single float to the end of the list
+	 *
+	 * @param value the float to add
+	 */
+	public void add(float value) {
+		ensureCapacity(noOfFloats + 1);
+		data[noOfFloats++] = value;
+	}
+
+	/**
+	 * Adds an element of three floats to the end of the list
+	 *
+	 * @param first the first float
+	 * @param second the second float
+	 * @param third the third float
+	 */
+	public void add(float first, float second, float third) {
+		ensureCapacity(noOfFloats + 3);
+		data[noOfFloats++] = first;
+		data[noOfFloats++] = second;
+		data[noOfFloats++] = third;
+	}
+
+	/**
+	 * Adds all the floats of another list to the end of this list
+	 *
+	 * @param other the list to add (with the same stride)
+	 */
+	public void addAll(FloatList other) {
+		ensureCapacity(noOfFloats + other.noOfFloats);
+		System.arraycopy(other.data, 0, data, noOfFloats, other.noOfFloats);
+		noOfFloats += other.noOfFloats;
+	}
+
+	/**
+	 * Returns one float of an element
+	 *
+	 * @param element the index of the element
+	 * @param component the index of the float in the element
+	 * @return the float
+	 */
+	public float get(int element, int component) {
+		return data[element * stride + component];
+	}
+
+	/**
+	 * Returns the float at the given index, ignoring the stride
+	 *
+	 * @param index the index of the float
+	 * @return the float
+	 */
+	public float get(int index) {
+		return data[index];
+	}
+
+	/**
+	 * Returns the number of elements in the list
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return noOfFloats / stride;
+	}
+
+	/**
+	 * Returns the number of floats in the list
+	 *
+	 * @return the number of floats
+	 */
+	public int getNoOfFloats() {
+		return noOfFloats;
+	}
+
+	/**
+	 * Returns the number of floats in each element
+	 *
+	 * @return the stride
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Returns the array the floats are stored in. Only the first
+	 * getNoOfFloats() floats are used.
+	 *
+	 * @return the array of floats
+	 */
+	public float[] getArray() {
+		return data;
+	}
+
+	/**
+	 * Returns a copy of the floats in an array of the exact size
+	 *
+	 * @return the floats in the list
+	 */
+	public float[] toArray() {
+		float[] array = new float[noOfFloats];
+		System.arraycopy(data, 0, array, 0, noOfFloats);
+		return array;
+	}
+
+	/**
+	 * Removes all the floats, keeping the array for reuse
+	 */
+	public void clear() {
+		noOfFloats = 0;
+	}
+
+	/**
+	 * Makes sure the array can hold the given number of floats, doubling its
+	 * size when it is full
+	 *
+	 * @param capacity the number of floats needed
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > data.length) {
+			float[] larger = new float[Math.max(data.length * 2, capacity)];
+			System.arraycopy(data, 0, larger, 0, noOfFloats);
+			data = larger;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package importer;
+
+import java.nio.ByteBuffer;
+
+import mesh.Mesh;
+
+/**
+ * The "ImportBenchmark" Class.
+ * Purpose: A small command line benchmark that times how long it takes to
+ * parse .obj files with each of the parsers, so they can be compared. It also
+ * times loading the whole mesh (without textures) in one piece and in
+ * chunks, which make their triangles on all the processors, and measures how
+ * much heap the loaded mesh and its import use.
+ * <P>
+ * Usage: java importer.ImportBenchmark [file.obj ...]
+ * (with no files, the models shipped with the game are used)
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class ImportBenchmark {
+
+	// The models shipped with the game
+	private static final String[] DEFAULT_FILES = { "Track/Track.obj",
+			"Tree/Tree.obj", "Coin/Coin.obj", "Couch/NormalCouch.obj",
+			"Couch/ModernCouch.obj", "Couch/OffRoadCouch.obj",
+			"Couch/SuperCouch.obj" };
+
+	// How many times each file is parsed before and while timing
+	private static final int WARM_UP_RUNS = 5;
+	private static final int TIMED_RUNS = 20;
+
+	// The statistics of the last load
+	private static ImportStats lastStats;
+
+	// The mesh being measured (kept here so it stays in use until the heap
+	// is measured)
+	private static Mesh measuredMesh;
+
+	/**
+	 * Runs the benchmark on the given files
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] files = (args.length > 0) ? args : DEFAULT_FILES;
+		System.out.println("Parsing with " + OBJParallelParser.getNoOfThreads()
+				+ " threads");
+		for (int file = 0; file < files.length; file++) {
+			ByteBuffer buffer = OBJBufferParser.map(files[file]);
+			double serial = timeParse(buffer, false);
+			double parallel = timeParse(buffer, true);
+			System.out.println(files[file] + ": " + buffer.remaining()
+					+ " bytes, serial " + format(serial) + " ms, parallel "
+					+ format(parallel) + " ms, speedup " + format(serial / parallel)
+					+ "x");
+			double serialLoad = timeLoad(files[file], OBJImporter.PARSE_MAPPED);
+			double parallelLoad = timeLoad(files[file], OBJImporter.PARSE_PARALLEL);
+			System.out.println("    load serial " + format(serialLoad)
+					+ " ms, parallel " + format(parallelLoad) + " ms, speedup "
+					+ format(serialLoad / parallelLoad) + "x, mesh heap "
+					+ format(measureHeap(files[file]) / 1024.0) + " KB");
+			System.out.println("    " + lastStats);
+		}
+	}
+
+	/**
+	 * Returns the average time it takes to load the whole mesh
+	 *
+	 * @param filename the name of the .obj file
+	 * @param parseMode how the file is parsed (see OBJImporter.setParseMode())
+	 * @return the average time in milliseconds
+	 */
+	private static double timeLoad(String filename, int parseMode) {
+		for (int run = 0; run < WARM_UP_RUNS; run++) {
+			load(filename, parseMode);
+		}
+		long start = System.nanoTime();
+		for (int run = 0; run < TIMED_RUNS; run++) {
+			load(filename, parseMode);
+		}
+		return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+	}
+
+	/**
+	 * Returns roughly how many bytes of heap a loaded mesh keeps in use
+	 *
+	 * @param filename the name of the .obj file
+	 * @return the number of bytes used by the mesh
+	 */
+	private static long measureHeap(String filename) {
+		long before = usedHeap();
+		measuredMesh = load(filename, OBJImporter.PARSE_PARALLEL);
+		long after = usedHeap();
+		measuredMesh = null;
+		return after - before;
+	}
+
+	/**
+	 * Returns the heap in use after collecting the garbage
+	 *
+	 * @return the number of bytes in use
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int collect = 0; collect < 3; collect++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Loads the mesh in the file without its textures (the importer only
+	 * prints messages when ImportStats logging is on). The parallel parser
+	 * always splits the file, so small files are measured in chunks too.
+	 *
+	 * @param filename the name of the .obj file
+	 * @param parseMode how the file is parsed
+	 * @return the loaded mesh
+	 */
+	private static Mesh load(String filename, int parseMode) {
+		OBJImporter importer = new OBJImporter();
+		importer.setParseMode(parseMode);
+		importer.setAlwaysSplit(true);
+		importer.setLoadTextures(false);
+		importer.setUseBakedMeshes(false);
+		Mesh mesh = importer.load(filename);
+		lastStats = importer.getStats();
+		return mesh;
+	}
+
+	/**
+	 * Returns the average time it takes to parse the buffer
+	 *
+	 * @param buffer the contents of the .obj file
+	 * @param parallel whether to split the file into chunks
+	 * @return the average time in milliseconds
+	 */
+	private static double timeParse(ByteBuffer buffer, boolean parallel)
+			throws Exception {
+		for (int run = 0; run < WARM_UP_RUNS; run++) {
+			parse(buffer, parallel);
+		}
+		long start = System.nanoTime();
+		for (int run = 0; run < TIMED_RUNS; run++) {
+			parse(buffer, parallel);
+		}
+		return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+	}
+
+	/**
+	 * Parses the whole buffer once, forcing the chosen parser
+	 *
+	 * @param buffer the contents of the .obj file
+	 * @param parallel whether to split the file into chunks
+	 */
+	private static void parse(ByteBuffer buffer, boolean parallel)
+			throws Exception {
+		OBJChunk records = new OBJChunk(null);
+		if (parallel) {
+			OBJParallelParser.parse(buffer.duplicate(), records, true);
+		} else {
+			new OBJBufferParser(records).parse(buffer.duplicate());
+		}
+	}
+
+	/**
+	 * Formats a number with two decimal places
+	 *
+	 * @param value the number
+	 * @return the formatted number
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,205 @@
+package importer;
+
+/**
+ * The "ImportStats" Class.
+ * Purpose: Holds what was read and how long each step took while a mesh was
+ * loaded, so loads can be measured (and added up) without printing to the
+ * console. Each OBJImporter fills in one for its load (see getStats()), and
+ * every load is also added to a total for the whole program. Textures are
+ * made later, when they are first drawn (see material.Texture), so their
+ * times are only added to the total.
+ * <P>
+ * The messages the importers used to print are only printed when logging is
+ * turned on (see setLogging()). Errors are always printed.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class ImportStats {
+
+	// Whether the importers print what they are loading
+	private static boolean logging = false;
+
+	// All the loads added together
+	private static ImportStats total = new ImportStats("total");
+
+	// The file that was loaded
+	public String filename;
+
+	// Whether the mesh came from a baked mesh instead of the .obj file
+	public boolean baked = false;
+
+	// The number of bytes read and lines (with data) parsed
+	public long bytesRead = 0;
+	public int noOfLines = 0;
+
+	// What was loaded
+	public int noOfVertices = 0;
+	public int noOfTextureCoords = 0;
+	public int noOfNormals = 0;
+	public int noOfFaces = 0;
+	public int noOfTriangles = 0;
+	public int noOfGroups = 0;
+	public int noOfMaterials = 0;
+	public int noOfTextures = 0;
+
+	// The number of times a group or material was looked up by name
+	public int noOfLookups = 0;
+
+	// How many times the material is set and how many vertices miss the
+	// vertex cache when the triangles are drawn, in the order they were
+	// loaded and in the order they were put in (see Mesh.optimise(boolean))
+	public int noOfMaterialChangesBefore = 0;
+	public int noOfMaterialChanges = 0;
+	public int noOfCacheMissesBefore = 0;
+	public int noOfCacheMisses = 0;
+
+	// How long each step took (in nanoseconds): parsing the file (or reading
+	// the baked mesh), making the triangles of the faces, optimising the
+	// mesh, decoding texture images and making the textures
+	public long parseTime = 0;
+	public long triangulateTime = 0;
+	public long optimiseTime = 0;
+	public long textureDecodeTime = 0;
+	public long uploadTime = 0;
+
+	// How long the whole load took (in nanoseconds)
+	public long totalTime = 0;
+
+	/**
+	 * Create empty statistics for a file
+	 *
+	 * @param filename the name of the file
+	 */
+	public ImportStats(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * Adds the numbers and times of other statistics to these
+	 *
+	 * @param other the other statistics
+	 */
+	public void add(ImportStats other) {
+		bytesRead += other.bytesRead;
+		noOfLines += other.noOfLines;
+		noOfVertices += other.noOfVertices;
+		noOfTextureCoords += other.noOfTextureCoords;
+		noOfNormals += other.noOfNormals;
+		noOfFaces += other.noOfFaces;
+		noOfTriangles += other.noOfTriangles;
+		noOfGroups += other.noOfGroups;
+		noOfMaterials += other.noOfMaterials;
+		noOfTextures += other.noOfTextures;
+		noOfLookups += other.noOfLookups;
+		noOfMaterialChangesBefore += other.noOfMaterialChangesBefore;
+		noOfMaterialChanges += other.noOfMaterialChanges;
+		noOfCacheMissesBefore += other.noOfCacheMissesBefore;
+		noOfCacheMisses += other.noOfCacheMisses;
+		parseTime += other.parseTime;
+		triangulateTime += other.triangulateTime;
+		optimiseTime += other.optimiseTime;
+		textureDecodeTime += other.textureDecodeTime;
+		uploadTime += other.uploadTime;
+		totalTime += other.totalTime;
+	}
+
+	/**
+	 * Returns the statistics as one line of text
+	 *
+	 * @return the statistics
+	 */
+	public String toString() {
+		return filename + (baked ? " (baked)" : "") + ": " + bytesRead
+				+ " bytes, " + noOfLines + " lines, " + noOfVertices
+				+ " vertices, " + noOfFaces + " faces, " + noOfTriangles
+				+ " triangles, " + noOfGroups + " groups, " + noOfMaterials
+				+ " materials, " + noOfTextures + " textures; material changes "
+				+ noOfMaterialChangesBefore + " -> " + noOfMaterialChanges
+				+ ", ACMR " + getCacheMissRatio(noOfCacheMissesBefore)
+				+ " -> " + getCacheMissRatio(noOfCacheMisses) + "; parse "
+				+ toMillis(parseTime) + " ms, triangulate "
+				+ toMillis(triangulateTime) + " ms, optimise "
+				+ toMillis(optimiseTime) + " ms, texture decode "
+				+ toMillis(textureDecodeTime) + " ms, upload "
+				+ toMillis(uploadTime) + " ms, total " + toMillis(totalTime)
+				+ " ms";
+	}
+
+	/**
+	 * Returns the average number of cache misses per triangle, rounded to
+	 * hundredths
+	 *
+	 * @param noOfMisses the number of cache misses
+	 * @return the average cache miss ratio (0 if there are no triangles)
+	 */
+	private double getCacheMissRatio(int noOfMisses) {
+		if (noOfTriangles == 0) {
+			return 0;
+		}
+		return Math.round(noOfMisses * 100.0 / noOfTriangles) / 100.0;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds, rounded to hundredths
+	 *
+	 * @param nanoseconds the time in nanoseconds
+	 * @return the time in milliseconds
+	 */
+	private static double toMillis(long nanoseconds) {
+		return Math.round(nanoseconds / 1e4) / 100.0;
+	}
+
+	/**
+	 * Adds the statistics of a load to the total
+	 *
+	 * @param stats the statistics of the load
+	 */
+	public static void addToTotal(ImportStats stats) {
+		synchronized (total) {
+			total.add(stats);
+		}
+	}
+
+	/**
+	 * Returns a copy of the total of all the loads so far
+	 *
+	 * @return the total statistics
+	 */
+	public static ImportStats getTotal() {
+		ImportStats copy = new ImportStats("total");
+		synchronized (total) {
+			copy.add(total);
+		}
+		return copy;
+	}
+
+	/**
+	 * Sets whether the importers print what they are loading
+	 *
+	 * @param logging true to print messages
+	 */
+	public static void setLogging(boolean logging) {
+		ImportStats.logging = logging;
+	}
+
+	/**
+	 * Returns whether the importers print what they are loading
+	 *
+	 * @return true if messages are printed
+	 */
+	public static boolean isLogging() {
+		return logging;
+	}
+
+	/**
+	 * Prints a message if logging is turned on
+	 *
+	 * @param message the message
+	 */
+	public static void log(String message) {
+		if (logging) {
+			System.out.println(message);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package importer;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import math.Vector;
+import mesh.IndexedMesh;
+import mesh.Mesh;
+
+/**
+ * The "MeshBatcher" Class.
+ * Purpose: Bakes many placed copies of a mesh that never move (like the
+ * trees) into meshes in world space, so they can be drawn with a few calls
+ * instead of one matrix and one call for every copy. The copies are split
+ * into square chunks on the ground (x and z), and each chunk becomes one
+ * mesh, so chunks can still be culled or given a level of detail on their
+ * own.
+ * <P>
+ * Each copy is placed the same way KouchKarting.billboardPoint() places it:
+ * the mesh's z axis looks from the position to the look at point, and its y
+ * axis is as close to the up vector as it can be. The triangles of a chunk
+ * are stored material run by material run, with the copies one after
+ * another inside each run, so a chunk needs one material change for every
+ * run of the mesh. Each copy keeps the vertex cache order of the mesh.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class MeshBatcher {
+
+	/**
+	 * Splits placed copies of a mesh into chunks
+	 *
+	 * @param positions the position of every copy
+	 * @param chunkSize the width and depth of a chunk
+	 * @return the copy numbers in each chunk (for every chunk that has
+	 *         copies)
+	 */
+	public static int[][] makeChunks(Vector[] positions, float chunkSize) {
+		// Put each copy in the chunk its position is in (keeping the chunks
+		// in the order their first copy was found)
+		Hashtable<String, ArrayList<Integer>> chunkLookup =
+				new Hashtable<String, ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> chunks =
+				new ArrayList<ArrayList<Integer>>();
+		for (int copy = 0; copy < positions.length; copy++) {
+			String key = (int) Math.floor(positions[copy].x / chunkSize) + ","
+					+ (int) Math.floor(positions[copy].z / chunkSize);
+			ArrayList<Integer> chunk = chunkLookup.get(key);
+			if (chunk == null) {
+				chunk = new ArrayList<Integer>();
+				chunkLookup.put(key, chunk);
+				chunks.add(chunk);
+			}
+			chunk.add(Integer.valueOf(copy));
+		}
+
+		// Store the copy numbers of each chunk
+		int[][] chunkCopies = new int[chunks.size()][];
+		for (int chunk = 0; chunk < chunkCopies.length; chunk++) {
+			ArrayList<Integer> copies = chunks.get(chunk);
+			chunkCopies[chunk] = new int[copies.size()];
+			for (int copy = 0; copy < copies.size(); copy++) {
+				chunkCopies[chunk][copy] = copies.get(copy).intValue();
+			}
+		}
+		return chunkCopies;
+	}
+
+	/**
+	 * Bakes some placed copies of a mesh into one mesh in world space
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 * @param copies the numbers of the copies to bake
+	 * @param positions the position of every copy
+	 * @param lookAts the look at point of every copy
+	 * @param upVectors the up vector of every copy
+	 * @return the baked mesh, using the same materials
+	 */
+	public static Mesh batch(Mesh mesh, int[] copies, Vector[] positions,
+			Vector[] lookAts, Vector[] upVectors) {
+		IndexedMesh indexedMesh = mesh.indexedMesh;
+		int noOfCopies = copies.length;
+		int noOfVertices = mesh.numVertices;
+		int noOfWelded = indexedMesh.noOfVertices;
+		boolean hasNormals = indexedMesh.normals != null;
+		boolean hasTextureCoords = indexedMesh.textureCoords != null;
+
+		// Place the vertices and welded vertices of every copy
+		float[] newPositions = new float[noOfVertices * noOfCopies * 3];
+		int[] vertexIDs = new int[noOfWelded * noOfCopies];
+		float[] normals = hasNormals ? new float[noOfWelded * noOfCopies * 3]
+				: null;
+		float[] textureCoords = hasTextureCoords ? new float[noOfWelded
+				* noOfCopies * 2] : null;
+		float[] matrix = new float[12];
+		for (int next = 0; next < noOfCopies; next++) {
+			int copy = copies[next];
+			makeMatrix(positions[copy], lookAts[copy], upVectors[copy], matrix);
+			for (int vertex = 0; vertex < noOfVertices; vertex++) {
+				transform(matrix, mesh.vertices[vertex].pos, newPositions,
+						(next * noOfVertices + vertex) * 3);
+			}
+			for (int welded = 0; welded < noOfWelded; welded++) {
+				int newWelded = next * noOfWelded + welded;
+				vertexIDs[newWelded] = next * noOfVertices
+						+ indexedMesh.vertexIDs[welded];
+				if (hasNormals) {
+					rotate(matrix, indexedMesh.normals, welded * 3, normals,
+							newWelded * 3);
+				}
+			}
+			if (hasTextureCoords) {
+				System.arraycopy(indexedMesh.textureCoords, 0, textureCoords,
+						next * noOfWelded * 2, noOfWelded * 2);
+			}
+		}
+
+		// Copy the triangles of each material run for every copy. Each run
+		// becomes a group named after the first group in it.
+		int noOfRuns = mesh.getNoOfMaterialRuns();
+		int[] indices = new int[indexedMesh.indices.length * noOfCopies];
+		String[] groupNames = new String[noOfRuns];
+		String[] groupMaterialNames = new String[noOfRuns];
+		int[] runEnds = new int[noOfRuns];
+		int[] runGroupIDs = new int[noOfRuns];
+		int[] runIDs = new int[noOfRuns];
+		int noOfIndices = 0;
+		for (int run = 0; run < noOfRuns; run++) {
+			int start = mesh.getMaterialRunStart(run) * 3;
+			int size = mesh.getMaterialRunSize(run) * 3;
+			for (int next = 0; next < noOfCopies; next++) {
+				for (int index = start; index < start + size; index++) {
+					indices[noOfIndices++] = next * noOfWelded
+							+ indexedMesh.indices[index];
+				}
+			}
+			int group = mesh.triangles[mesh.getMaterialRunStart(run)].groupID;
+			groupNames[run] = mesh.getGroupName(group);
+			groupMaterialNames[run] = mesh.getGroupMaterialName(group);
+			runEnds[run] = noOfIndices / 3;
+			runGroupIDs[run] = run;
+			runIDs[run] = mesh.getMaterialRunID(run);
+		}
+
+		// The copies are already in cache order, so the triangles aren't
+		// reordered
+		Mesh batched = BakedMesh.makeMesh(mesh.name, mesh.materialLibraryName,
+				newPositions, vertexIDs, normals, textureCoords, indices,
+				groupNames, groupMaterialNames, runEnds, runGroupIDs, runIDs,
+				false);
+		if (mesh.materials != null) {
+			batched.importMaterials(mesh.materials);
+		}
+		return batched;
+	}
+
+	/**
+	 * Makes the matrix that places a copy, with the same axes as
+	 * KouchKarting.billboardPoint()
+	 *
+	 * @param position the position of the copy
+	 * @param lookAt the point the copy looks at
+	 * @param up the up vector of the copy
+	 * @param matrix the array to store the right, up and look axes and the
+	 *            position in (3 values each)
+	 */
+	private static void makeMatrix(Vector position, Vector lookAt, Vector up,
+			float[] matrix) {
+		Vector look = Vector.sub(lookAt, position).normalize();
+		Vector right = Vector.crossProduct(up, look).normalize();
+		Vector newUp = Vector.crossProduct(look, right).normalize();
+		Vector[] axes = { right, newUp, look, position };
+		for (int axis = 0; axis < 4; axis++) {
+			matrix[axis * 3] = axes[axis].x;
+			matrix[axis * 3 + 1] = axes[axis].y;
+			matrix[axis * 3 + 2] = axes[axis].z;
+		}
+	}
+
+	/**
+	 * Places a position with a matrix
+	 *
+	 * @param matrix the matrix (see makeMatrix())
+	 * @param position the position in the mesh
+	 * @param output the array to store the placed x, y and z in
+	 * @param offset where to store them
+	 */
+	private static void transform(float[] matrix, Vector position,
+			float[] output, int offset) {
+		for (int axis = 0; axis < 3; axis++) {
+			output[offset + axis] = matrix[axis] * position.x
+					+ matrix[3 + axis] * position.y + matrix[6 + axis]
+					* position.z + matrix[9 + axis];
+		}
+	}
+
+	/**
+	 * Turns a normal with a matrix (without moving it)
+	 *
+	 * @param matrix the matrix (see makeMatrix())
+	 * @param normals the array with the normal
+	 * @param offset the position of the normal's x value
+	 * @param output the array to store the turned x, y and z in
+	 * @param outputOffset where to store them
+	 */
+	private static void rotate(float[] matrix, float[] normals, int offset,
+			float[] output, int outputOffset) {
+		float x = normals[offset];
+		float y = normals[offset + 1];
+		float z = normals[offset + 2];
+		for (int axis = 0; axis < 3; axis++) {
+			output[outputOffset + axis] = matrix[axis] * x + matrix[3 + axis]
+					* y + matrix[6 + axis] * z;
+		}
+	}
+}
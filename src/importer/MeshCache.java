@@ -0,0 +1,316 @@
+package importer;
+
+import java.io.File;
+import java.util.Hashtable;
+
+import material.MaterialLibrary;
+import mesh.Mesh;
+
+/**
+ * The "MeshCache" Class.
+ * Purpose: Keeps every mesh and material library loaded by the game, so
+ * restarting a race or coming back to a menu doesn't import the same files
+ * (and make the same textures) again. Different files can be loaded on
+ * different threads at once; a thread that needs a file that is already
+ * being loaded waits for it. Each entry is stored under the name of
+ * its file with a stamp of the file's size and modification time, so a file
+ * that changed on disk is loaded again. A mesh that let go of its data after
+ * it was put in a display list is loaded again too.
+ * <P>
+ * With GPU resident meshes (see Mesh.setGPUResident(), on in the game) every
+ * model lets go of its meshes once they are in display lists, so the cache
+ * only saves imports while a mesh is still loading (like the full mesh of a
+ * model's levels of detail) or in tools that don't make display lists.
+ * Restarting a race doesn't rely on the cache: the game keeps its track,
+ * trees, coins and couches with their display lists (see
+ * KouchKarting.setupGame()).
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class MeshCache {
+
+	// The cached meshes and material libraries, by file name
+	private static Hashtable<String, Entry> meshes =
+			new Hashtable<String, Entry>();
+	private static Hashtable<String, Entry> materialLibraries =
+			new Hashtable<String, Entry>();
+
+	// The levels of detail of the meshes, by file name
+	private static Hashtable<String, Entry> levelsOfDetail =
+			new Hashtable<String, Entry>();
+
+	// How many times a file was loaded and how many times the cache was used
+	private static int noOfLoads = 0;
+	private static int noOfHits = 0;
+
+	// How many times each .obj file was imported
+	private static Hashtable<String, Integer> noOfImports =
+			new Hashtable<String, Integer>();
+
+	/**
+	 * Returns the mesh in an .obj file, importing it the first time
+	 *
+	 * @param filename the name of the .obj file
+	 * @return the mesh
+	 */
+	public static Mesh getMesh(String filename) {
+		Entry entry = claim(meshes, filename, getStamp(filename));
+		if (!entry.loaded) {
+			Mesh mesh = null;
+			try {
+				mesh = new OBJImporter().load(filename);
+				countImport(filename);
+			} finally {
+				finish(meshes, filename, entry, mesh);
+			}
+		}
+		return (Mesh) entry.value;
+	}
+
+	/**
+	 * Returns the levels of detail of the mesh in an .obj file (see
+	 * MeshSimplifier), loading or making them the first time
+	 *
+	 * @param filename the name of the .obj file
+	 * @return the levels, from the full mesh to the simplest one
+	 */
+	public static Mesh[] getLevelsOfDetail(String filename) {
+		Entry entry = claim(levelsOfDetail, filename, getStamp(filename));
+		if (!entry.loaded) {
+			Mesh[] levels = null;
+			try {
+				levels = MeshSimplifier.loadLevelsOfDetail(filename,
+						getMesh(filename), MeshSimplifier.NO_OF_LEVELS);
+			} finally {
+				finish(levelsOfDetail, filename, entry, levels);
+			}
+		}
+		return (Mesh[]) entry.value;
+	}
+
+	/**
+	 * Returns the material library in an .mtl file, loading it the first time
+	 *
+	 * @param filename the name of the .mtl file
+	 * @param loadTextures whether the library makes its textures
+	 * @return the material library
+	 */
+	public static MaterialLibrary getMaterialLibrary(String filename,
+			boolean loadTextures) {
+		// Libraries without textures are kept apart from the ones with them
+		String key = loadTextures ? filename : filename + "#noTextures";
+		Entry entry = claim(materialLibraries, key, getStamp(filename));
+		if (!entry.loaded) {
+			MaterialLibrary library = null;
+			try {
+				library = new MaterialLibrary(filename, loadTextures);
+			} finally {
+				finish(materialLibraries, key, entry, library);
+			}
+		}
+		return (MaterialLibrary) entry.value;
+	}
+
+	/**
+	 * Returns the loaded entry for a file, waiting if another thread is
+	 * loading it. If the file isn't loaded (or changed), an empty entry is
+	 * put in the cache and returned, and the caller must load the file and
+	 * call finish(). Only the table is locked, so different files can load
+	 * at the same time.
+	 *
+	 * @param table the cache to look in
+	 * @param key the name the file is cached under
+	 * @param stamp the current stamp of the file
+	 * @return the entry
+	 */
+	private static Entry claim(Hashtable<String, Entry> table, String key,
+			long stamp) {
+		synchronized (table) {
+			while (true) {
+				Entry entry = table.get(key);
+				if (entry == null || entry.stamp != stamp
+						|| (entry.loaded && isReleased(entry.value))) {
+					entry = new Entry(null, stamp);
+					table.put(key, entry);
+					return entry;
+				}
+				if (entry.loaded) {
+					count(true);
+					return entry;
+				}
+				// Another thread is loading the file
+				try {
+					table.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a cached mesh (or one of a mesh's levels of detail) let go of
+	 * its data once it was put in a display list, so it has to be loaded
+	 * again before it can be used (see Mesh.releaseCPUData())
+	 *
+	 * @param value the mesh, levels of detail or material library
+	 * @return true if a mesh was released
+	 */
+	private static boolean isReleased(Object value) {
+		if (value instanceof Mesh) {
+			return ((Mesh) value).isReleased();
+		}
+		if (value instanceof Mesh[]) {
+			Mesh[] levels = (Mesh[]) value;
+			for (int level = 0; level < levels.length; level++) {
+				if (levels[level].isReleased()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stores a loaded file in its entry and wakes the threads waiting for it.
+	 * If the file could not be loaded, the entry is removed.
+	 *
+	 * @param table the cache the entry is in
+	 * @param key the name the file is cached under
+	 * @param entry the entry given by claim()
+	 * @param value the mesh or material library (null if loading failed)
+	 */
+	private static void finish(Hashtable<String, Entry> table, String key,
+			Entry entry, Object value) {
+		synchronized (table) {
+			entry.value = value;
+			entry.loaded = true;
+			if (value == null && table.get(key) == entry) {
+				table.remove(key);
+			}
+			count(false);
+			table.notifyAll();
+		}
+	}
+
+	/**
+	 * Counts a load or a cache hit
+	 *
+	 * @param hit whether the cache was used
+	 */
+	private static synchronized void count(boolean hit) {
+		if (hit) {
+			noOfHits++;
+		} else {
+			noOfLoads++;
+		}
+	}
+
+	/**
+	 * Counts an import of an .obj file
+	 *
+	 * @param filename the name of the .obj file
+	 */
+	private static void countImport(String filename) {
+		synchronized (noOfImports) {
+			Integer count = noOfImports.get(filename);
+			noOfImports.put(filename, Integer.valueOf((count == null) ? 1
+					: count.intValue() + 1));
+		}
+	}
+
+	/**
+	 * Removes a mesh (and its levels of detail) from the cache, so it is
+	 * imported again the next time
+	 * it is needed
+	 *
+	 * @param filename the name of the .obj file
+	 */
+	public static void release(String filename) {
+		synchronized (meshes) {
+			meshes.remove(filename);
+		}
+		synchronized (levelsOfDetail) {
+			levelsOfDetail.remove(filename);
+		}
+	}
+
+	/**
+	 * Removes all the meshes and material libraries from the cache
+	 */
+	public static void clear() {
+		synchronized (meshes) {
+			meshes.clear();
+		}
+		synchronized (levelsOfDetail) {
+			levelsOfDetail.clear();
+		}
+		synchronized (materialLibraries) {
+			materialLibraries.clear();
+		}
+	}
+
+	/**
+	 * Returns how many meshes and material libraries were loaded from their
+	 * files (not from the cache)
+	 *
+	 * @return the number of loads
+	 */
+	public static int getNoOfLoads() {
+		return noOfLoads;
+	}
+
+	/**
+	 * Returns how many times a mesh or material library came from the cache
+	 *
+	 * @return the number of cache hits
+	 */
+	public static int getNoOfHits() {
+		return noOfHits;
+	}
+
+	/**
+	 * Returns how many times an .obj file was imported (not taken from the
+	 * cache), including the times it was imported again because it changed
+	 * or was released
+	 *
+	 * @param filename the name of the .obj file
+	 * @return the number of imports
+	 */
+	public static int getNoOfImports(String filename) {
+		Integer count = noOfImports.get(filename);
+		return (count == null) ? 0 : count.intValue();
+	}
+
+	/**
+	 * Returns a stamp that changes when the file changes
+	 *
+	 * @param filename the name of the file
+	 * @return the stamp made from the size and modification time of the file
+	 */
+	private static long getStamp(String filename) {
+		File file = new File(filename);
+		return file.lastModified() * 31 + file.length();
+	}
+
+	/**
+	 * Holds a cached mesh or material library with the stamp of its file
+	 */
+	private static class Entry {
+		Object value;
+		long stamp;
+		boolean loaded;
+
+		/**
+		 * Create a new entry
+		 *
+		 * @param value the mesh or material library
+		 * @param stamp the stamp of its file
+		 */
+		Entry(Object value, long stamp) {
+			this.value = value;
+			this.stamp = stamp;
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package importer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import material.MaterialLibrary;
+import mesh.Mesh;
+import mesh.Triangle;
+import application.AssetArchive;
+import application.KouchKarting;
+
+/**
+ * The "MeshRegions" Class.
+ * Purpose: Splits a large mesh (like a track) into square regions on the
+ * ground, so the regions can be loaded and thrown away separately instead of
+ * keeping the whole mesh in memory. Each triangle belongs to the region its
+ * centre is in, and the bounds of a region cover all of its triangles.
+ * <P>
+ * The regions of an .obj file are baked into one file next to it
+ * (Track.obj.regions): a table with the bounds of every region, followed by
+ * each region as a baked mesh (see BakedMesh). The file is memory mapped, so
+ * only the regions that are loaded take up memory. Like a baked mesh, the
+ * file is checked before it is mapped, so a stale one can be written over.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class MeshRegions {
+
+	// The first bytes of every regions file ("KKMR") and the version of the
+	// format. Files with a different version are made again.
+	public static final int MAGIC = 0x4B4B4D52;
+	public static final int VERSION = 1;
+
+	// The extension added to the name of the .obj file
+	public static final String EXTENSION = ".regions";
+
+	// The size of the regions used if none is given
+	public static final float DEFAULT_REGION_SIZE = 1000;
+
+	// The .obj file the regions were made from
+	private String objFilename;
+
+	// The contents of the regions file
+	private ByteBuffer buffer;
+
+	// The size of each region, and the number of regions
+	private float regionSize;
+	private int noOfRegions;
+
+	// The bounds of each region (the lowest x, y and z followed by the
+	// highest x, y and z), its number of triangles and where its baked mesh
+	// is in the file
+	private float[] bounds;
+	private int[] noOfTriangles;
+	private int[] positions;
+	private int[] lengths;
+
+	/**
+	 * Returns the name of the regions file for an .obj file
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @return the name of the regions file
+	 */
+	public static String getRegionsFilename(String objFilename) {
+		return objFilename + EXTENSION;
+	}
+
+	/**
+	 * Opens the regions of an .obj file. They are read from the mounted asset
+	 * archives, or else from the regions file if it is up to date. Otherwise
+	 * the .obj file is imported once and its regions are baked.
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @param regionSize the size of each region (for new regions files)
+	 * @return the regions, or null if they could not be made
+	 */
+	public static MeshRegions open(String objFilename, float regionSize) {
+		String regionsFilename = getRegionsFilename(objFilename);
+		try {
+			ByteBuffer archived = AssetArchive.find(regionsFilename);
+			if (archived != null) {
+				return new MeshRegions(objFilename, archived);
+			}
+			File regionsFile = new File(regionsFilename);
+			if (regionsFile.isFile()
+					&& isUpToDate(regionsFilename, objFilename, regionSize)) {
+				return new MeshRegions(objFilename,
+						OBJBufferParser.map(regionsFilename));
+			}
+
+			// Import the whole mesh once to split it
+			OBJImporter importer = new OBJImporter();
+			importer.setLoadTextures(false);
+			write(importer.load(objFilename), objFilename, regionSize);
+			return new MeshRegions(objFilename, OBJBufferParser.map(regionsFilename));
+		} catch (IOException exception) {
+			System.out.println("MeshRegions.open(): could not open the regions of "
+					+ objFilename + ", " + exception);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the table of regions from the contents of a regions file
+	 *
+	 * @param objFilename the name of the .obj file
+	 * @param buffer the contents of the regions file
+	 * @throws IOException if the buffer is not a regions file
+	 */
+	private MeshRegions(String objFilename, ByteBuffer buffer)
+			throws IOException {
+		this.objFilename = objFilename;
+		this.buffer = buffer;
+		ByteBuffer header = buffer.duplicate();
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("not a regions file (version " + VERSION + ")");
+		}
+		regionSize = header.getFloat();
+		noOfRegions = header.getInt();
+		bounds = new float[noOfRegions * 6];
+		noOfTriangles = new int[noOfRegions];
+		positions = new int[noOfRegions];
+		lengths = new int[noOfRegions];
+		for (int region = 0; region < noOfRegions; region++) {
+			for (int bound = 0; bound < 6; bound++) {
+				bounds[region * 6 + bound] = header.getFloat();
+			}
+			noOfTriangles[region] = header.getInt();
+			positions[region] = header.getInt();
+			lengths[region] = header.getInt();
+		}
+	}
+
+	/**
+	 * Checks if a regions file was made from the current .obj and .mtl files
+	 * with the same region size, reading it without mapping the file
+	 *
+	 * @param regionsFilename the name of the regions file
+	 * @param objFilename the name of the .obj file
+	 * @param regionSize the size of each region
+	 * @return true if the regions can be used
+	 */
+	private static boolean isUpToDate(String regionsFilename,
+			String objFilename, float regionSize) {
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(regionsFilename)));
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION
+						|| input.readFloat() != regionSize) {
+					return false;
+				}
+				int noOfRegions = input.readInt();
+				if (noOfRegions == 0) {
+					return true;
+				}
+
+				// Every region has the stamps of the files, so skip to the
+				// first one (past its bounds and number of triangles) and
+				// check it
+				input.skipBytes(6 * 4 + 4);
+				int position = input.readInt();
+				int read = 16 + 6 * 4 + 4 + 4;
+				if (input.skipBytes(position - read) != position - read) {
+					return false;
+				}
+				return BakedMesh.isUpToDate(input, objFilename);
+			} finally {
+				input.close();
+			}
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Splits a mesh into regions and writes them to the regions file next to
+	 * its .obj file
+	 *
+	 * @param mesh the mesh imported from the file
+	 * @param objFilename the name of the .obj file
+	 * @param regionSize the size of each region
+	 * @throws IOException if the regions file could not be written
+	 */
+	public static void write(Mesh mesh, String objFilename, float regionSize)
+			throws IOException {
+		FileOutputStream output = new FileOutputStream(
+				getRegionsFilename(objFilename));
+		try {
+			output.write(toBytes(mesh, objFilename, regionSize));
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Splits a mesh into regions and makes the contents of its regions file
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 * @param objFilename the name of the .obj file the mesh was imported from
+	 * @param regionSize the size of each region
+	 * @return the bytes of the regions file
+	 * @throws IOException if a region could not be baked
+	 */
+	public static byte[] toBytes(Mesh mesh, String objFilename, float regionSize)
+			throws IOException {
+		// Find the square each triangle's centre is in
+		Triangle[] triangles = mesh.triangles;
+		float[] centreX = new float[triangles.length];
+		float[] centreZ = new float[triangles.length];
+		float minX = Float.MAX_VALUE;
+		float minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxZ = -Float.MAX_VALUE;
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			Triangle next = triangles[triangle];
+			centreX[triangle] = (next.point1.pos.x + next.point2.pos.x + next.point3.pos.x) / 3;
+			centreZ[triangle] = (next.point1.pos.z + next.point2.pos.z + next.point3.pos.z) / 3;
+			minX = Math.min(minX, centreX[triangle]);
+			minZ = Math.min(minZ, centreZ[triangle]);
+			maxX = Math.max(maxX, centreX[triangle]);
+			maxZ = Math.max(maxZ, centreZ[triangle]);
+		}
+		int noOfColumns = (triangles.length == 0) ? 0
+				: (int) ((maxX - minX) / regionSize) + 1;
+		int noOfRows = (triangles.length == 0) ? 0
+				: (int) ((maxZ - minZ) / regionSize) + 1;
+		int[] squares = new int[triangles.length];
+		int[] squareSizes = new int[noOfColumns * noOfRows];
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			int column = (int) ((centreX[triangle] - minX) / regionSize);
+			int row = (int) ((centreZ[triangle] - minZ) / regionSize);
+			squares[triangle] = row * noOfColumns + column;
+			squareSizes[squares[triangle]]++;
+		}
+
+		// Every square with triangles becomes a region, with its triangles
+		// in the same order as in the mesh
+		int noOfRegions = 0;
+		for (int square = 0; square < squareSizes.length; square++) {
+			if (squareSizes[square] > 0) {
+				noOfRegions++;
+			}
+		}
+		byte[][] regions = new byte[noOfRegions][];
+		float[] bounds = new float[noOfRegions * 6];
+		int[] regionSizes = new int[noOfRegions];
+		int region = 0;
+		for (int square = 0; square < squareSizes.length; square++) {
+			if (squareSizes[square] == 0) {
+				continue;
+			}
+			int[] regionTriangles = new int[squareSizes[square]];
+			int next = 0;
+			for (int triangle = 0; triangle < triangles.length; triangle++) {
+				if (squares[triangle] == square) {
+					regionTriangles[next++] = triangle;
+				}
+			}
+			regions[region] = BakedMesh.toBytes(mesh, objFilename, regionTriangles);
+			regionSizes[region] = regionTriangles.length;
+			getBounds(mesh, regionTriangles, bounds, region * 6);
+			region++;
+		}
+
+		// Write the table of regions followed by the baked regions
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeFloat(regionSize);
+		output.writeInt(noOfRegions);
+		int position = 16 + noOfRegions * (6 * 4 + 3 * 4);
+		for (region = 0; region < noOfRegions; region++) {
+			for (int bound = 0; bound < 6; bound++) {
+				output.writeFloat(bounds[region * 6 + bound]);
+			}
+			output.writeInt(regionSizes[region]);
+			output.writeInt(position);
+			output.writeInt(regions[region].length);
+			position += regions[region].length;
+		}
+		for (region = 0; region < noOfRegions; region++) {
+			output.write(regions[region]);
+		}
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Finds the bounds of some of the triangles of a mesh
+	 *
+	 * @param mesh the mesh
+	 * @param triangles the IDs of the triangles
+	 * @param bounds the array to store the lowest x, y and z and highest x, y
+	 *               and z in
+	 * @param start the index in the array to store them at
+	 */
+	private static void getBounds(Mesh mesh, int[] triangles, float[] bounds,
+			int start) {
+		for (int bound = 0; bound < 3; bound++) {
+			bounds[start + bound] = Float.MAX_VALUE;
+			bounds[start + bound + 3] = -Float.MAX_VALUE;
+		}
+		for (int next = 0; next < triangles.length; next++) {
+			Triangle triangle = mesh.triangles[triangles[next]];
+			addToBounds(triangle.point1.pos.x, triangle.point1.pos.y,
+					triangle.point1.pos.z, bounds, start);
+			addToBounds(triangle.point2.pos.x, triangle.point2.pos.y,
+					triangle.point2.pos.z, bounds, start);
+			addToBounds(triangle.point3.pos.x, triangle.point3.pos.y,
+					triangle.point3.pos.z, bounds, start);
+		}
+	}
+
+	/**
+	 * Grows bounds to hold a point
+	 *
+	 * @param x the x of the point
+	 * @param y the y of the point
+	 * @param z the z of the point
+	 * @param bounds the array with the bounds
+	 * @param start the index of the bounds in the array
+	 */
+	private static void addToBounds(float x, float y, float z, float[] bounds,
+			int start) {
+		bounds[start] = Math.min(bounds[start], x);
+		bounds[start + 1] = Math.min(bounds[start + 1], y);
+		bounds[start + 2] = Math.min(bounds[start + 2], z);
+		bounds[start + 3] = Math.max(bounds[start + 3], x);
+		bounds[start + 4] = Math.max(bounds[start + 4], y);
+		bounds[start + 5] = Math.max(bounds[start + 5], z);
+	}
+
+	/**
+	 * Loads the mesh of a region, with the materials of the .obj file
+	 *
+	 * @param region the region
+	 * @param loadTextures whether the materials get their textures
+	 * @return the mesh of the region, or null if it could not be read
+	 */
+	public Mesh loadRegion(int region, boolean loadTextures) {
+		try {
+			Mesh mesh = BakedMesh.read(getRegionBuffer(region));
+			if (mesh.materialLibraryName != null) {
+				MaterialLibrary library = MeshCache.getMaterialLibrary(
+						KouchKarting.getPathAndFile(objFilename)[0]
+								+ mesh.materialLibraryName, loadTextures);
+				mesh.importMaterials(library.getMaterials());
+			}
+			return mesh;
+		} catch (IOException exception) {
+			System.out.println("MeshRegions.loadRegion(): could not read region "
+					+ region + " of " + objFilename + ", " + exception);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the baked mesh of a region in the file
+	 *
+	 * @param region the region
+	 * @return the contents of the region's baked mesh
+	 */
+	private ByteBuffer getRegionBuffer(int region) {
+		ByteBuffer regionBuffer = buffer.duplicate();
+		regionBuffer.position(positions[region]);
+		regionBuffer.limit(positions[region] + lengths[region]);
+		return regionBuffer.slice();
+	}
+
+	/**
+	 * Returns the distance along the ground (ignoring height) from a point to
+	 * a region's bounds
+	 *
+	 * @param region the region
+	 * @param x the x of the point
+	 * @param z the z of the point
+	 * @return the distance (0 if the point is over the region)
+	 */
+	public float getDistanceTo(int region, float x, float z) {
+		int start = region * 6;
+		float distanceX = Math.max(0, Math.max(bounds[start] - x, x
+				- bounds[start + 3]));
+		float distanceZ = Math.max(0, Math.max(bounds[start + 2] - z, z
+				- bounds[start + 5]));
+		return (float) Math.sqrt(distanceX * distanceX + distanceZ * distanceZ);
+	}
+
+	/**
+	 * Returns the number of regions
+	 *
+	 * @return the number of regions
+	 */
+	public int getNoOfRegions() {
+		return noOfRegions;
+	}
+
+	/**
+	 * Returns the size of each region
+	 *
+	 * @return the size of the regions
+	 */
+	public float getRegionSize() {
+		return regionSize;
+	}
+
+	/**
+	 * Returns the number of triangles in a region
+	 *
+	 * @param region the region
+	 * @return the number of triangles
+	 */
+	public int getNoOfTriangles(int region) {
+		return noOfTriangles[region];
+	}
+
+	/**
+	 * Returns one of a region's bounds
+	 *
+	 * @param region the region
+	 * @param bound 0 to 2 for the lowest x, y and z, 3 to 5 for the highest
+	 * @return the bound
+	 */
+	public float getBound(int region, int bound) {
+		return bounds[region * 6 + bound];
+	}
+}
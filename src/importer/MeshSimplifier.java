@@ -0,0 +1,726 @@
+package importer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import math.Vector;
+import mesh.IndexedMesh;
+import mesh.Mesh;
+
+/**
+ * The "MeshSimplifier" Class.
+ * Purpose: Makes simpler levels of detail of a mesh, to draw instead of the
+ * full mesh when it is far away. Edges are collapsed (one end moved onto the
+ * other) in the order of the quadric error metric: each vertex keeps the sum
+ * of the squared distances to the planes of its original triangles, and the
+ * edge whose collapse moves a vertex the least from those planes goes first.
+ * <P>
+ * The vertices on the edge of the mesh and the vertices shared by different
+ * materials or groups never move, so the outline of the mesh and its
+ * material boundaries are kept. A vertex on a UV seam or a hard edge (with
+ * more than one welded vertex) is only moved if every welded vertex at it
+ * can be moved onto one welded vertex of the other end, so seams stay
+ * closed. The welded vertices keep their normals and texture coordinates.
+ * <P>
+ * The levels are made when a mesh is first loaded with MeshCache
+ * .getLevelsOfDetail() and baked next to the .obj file, like the mesh.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class MeshSimplifier {
+
+	// The number of levels of detail made for a mesh (including the full
+	// mesh), and how many of the triangles are kept from each level to the
+	// next
+	public static final int NO_OF_LEVELS = 4;
+	public static final float LEVEL_RATIO = 0.5f;
+
+	// How far away (in sizes of the mesh) level 1 is used from. Each level
+	// after it is used from twice as far as the level before.
+	public static final float DETAIL_DISTANCE = 12;
+
+	// The smallest cosine of the angle a triangle's normal can turn by when
+	// an edge is collapsed
+	private static final double MIN_NORMAL_COS = 0.2;
+
+	// The positions of the mesh's vertices and the vertex of each welded
+	// vertex
+	private float[] positions;
+	private int[] vertexIDs;
+
+	// Three welded vertices for every triangle, and the triangles that were
+	// removed
+	private int[] indices;
+	private boolean[] removed;
+	private int noOfTriangles;
+
+	// The material and group of every triangle
+	private int[] materialIDs;
+	private int[] groupIDs;
+
+	// The mesh being simplified, whose neighbour triangles are the
+	// triangles around each vertex to start with. A collapsed vertex's
+	// triangles go to the vertex it was collapsed onto, so the triangles
+	// around a vertex are the neighbours of every vertex in its chain of
+	// collapsed vertices (some of them may be removed).
+	private Mesh mesh;
+	private int[] nextCollapsed;
+	private int[] lastCollapsed;
+
+	// The triangles around a vertex that aren't removed (see listTriangles())
+	private int[] triangleList = new int[16];
+	private int noOfListed = 0;
+
+	// The error quadric of each vertex (10 values for the symmetric 4x4
+	// matrix), whether each vertex can't move or was collapsed, and how many
+	// times each vertex changed (to spot out of date collapses)
+	private double[] quadrics;
+	private boolean[] locked;
+	private boolean[] collapsed;
+	private int[] versions;
+
+	// The welded vertex each welded vertex of a collapsing vertex is moved
+	// onto, and marks for the vertices and welded vertices already seen
+	// (valid while they equal the current stamp)
+	private int[] collapseTo;
+	private int[] weldedMarks;
+	private int[] vertexMarks;
+	private int stamp = 0;
+
+	// The collapses to try, cheapest first
+	private PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>();
+
+	/**
+	 * Loads the levels of detail of a mesh from their baked files, or makes
+	 * (and bakes) the ones that aren't up to date
+	 *
+	 * @param objFilename the name of the .obj file of the mesh
+	 * @param mesh the full mesh
+	 * @param noOfLevels the number of levels (including the full mesh)
+	 * @return the levels, from the full mesh to the simplest one
+	 */
+	public static Mesh[] loadLevelsOfDetail(String objFilename, Mesh mesh,
+			int noOfLevels) {
+		Mesh[] levels = new Mesh[noOfLevels];
+		levels[0] = mesh;
+		for (int level = 1; level < noOfLevels; level++) {
+			levels[level] = BakedMesh.read(objFilename, level);
+			if (levels[level] != null) {
+				if (mesh.materials != null) {
+					levels[level].importMaterials(mesh.materials);
+				}
+			} else {
+				levels[level] = simplify(levels[level - 1],
+						(int) (levels[level - 1].numTriangles * LEVEL_RATIO));
+				try {
+					BakedMesh.write(levels[level], objFilename, level);
+				} catch (IOException exception) {
+					System.out.println("MeshSimplifier.loadLevelsOfDetail(): "
+							+ "could not bake level " + level + " of "
+							+ objFilename + ", " + exception);
+				}
+			}
+		}
+		return levels;
+	}
+
+	/**
+	 * Makes a simpler copy of a mesh. Edges are collapsed until the mesh has
+	 * the given number of triangles, or no more edges can be collapsed.
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 * @param targetTriangles the number of triangles to get down to
+	 * @return the simpler mesh, using the same materials
+	 */
+	public static Mesh simplify(Mesh mesh, int targetTriangles) {
+		MeshSimplifier simplifier = new MeshSimplifier(mesh);
+		simplifier.collapseEdges(targetTriangles);
+		Mesh simplified = simplifier.makeMesh(mesh);
+		if (mesh.materials != null) {
+			simplified.importMaterials(mesh.materials);
+		}
+		return simplified;
+	}
+
+	/**
+	 * Chooses the level of detail to draw a mesh with
+	 *
+	 * @param mesh the full mesh
+	 * @param noOfLevels the number of levels the mesh has
+	 * @param distance the distance from the camera to the mesh
+	 * @return the level of detail (0 for the full mesh)
+	 */
+	public static int chooseLevel(Mesh mesh, int noOfLevels, float distance) {
+		float levelDistance = mesh.getBounds().getLargestSide()
+				* DETAIL_DISTANCE;
+		int level = 0;
+		while (level < noOfLevels - 1 && distance > levelDistance) {
+			level++;
+			levelDistance *= 2;
+		}
+		return level;
+	}
+
+	/**
+	 * Sets up the simplifier with a copy of a mesh's triangles
+	 *
+	 * @param mesh the mesh (it must have an indexed mesh)
+	 */
+	private MeshSimplifier(Mesh mesh) {
+		this.mesh = mesh;
+		IndexedMesh indexedMesh = mesh.indexedMesh;
+		int noOfVertices = mesh.numVertices;
+		noOfTriangles = mesh.numTriangles;
+		positions = new float[noOfVertices * 3];
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			Vector position = mesh.vertices[vertex].pos;
+			positions[vertex * 3] = position.x;
+			positions[vertex * 3 + 1] = position.y;
+			positions[vertex * 3 + 2] = position.z;
+		}
+		vertexIDs = indexedMesh.vertexIDs;
+		indices = indexedMesh.indices.clone();
+		removed = new boolean[noOfTriangles];
+		materialIDs = new int[noOfTriangles];
+		groupIDs = new int[noOfTriangles];
+		for (int triangle = 0; triangle < noOfTriangles; triangle++) {
+			materialIDs[triangle] = mesh.triangles[triangle].materialID;
+			groupIDs[triangle] = mesh.triangles[triangle].groupID;
+		}
+
+		// Every vertex starts as a chain of its own
+		nextCollapsed = new int[noOfVertices];
+		lastCollapsed = new int[noOfVertices];
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			nextCollapsed[vertex] = -1;
+			lastCollapsed[vertex] = vertex;
+		}
+
+		quadrics = new double[noOfVertices * 10];
+		locked = new boolean[noOfVertices];
+		collapsed = new boolean[noOfVertices];
+		versions = new int[noOfVertices];
+		collapseTo = new int[indexedMesh.noOfVertices];
+		weldedMarks = new int[indexedMesh.noOfVertices];
+		vertexMarks = new int[noOfVertices];
+		addQuadrics();
+		lockVertices();
+	}
+
+	/**
+	 * Returns the vertex at a corner of a triangle
+	 *
+	 * @param corner the corner (three for every triangle)
+	 * @return the vertex
+	 */
+	private int getVertex(int corner) {
+		return vertexIDs[indices[corner]];
+	}
+
+	/**
+	 * Adds the plane of every triangle to the quadrics of its vertices,
+	 * weighted by the triangle's area
+	 */
+	private void addQuadrics() {
+		double[] normal = new double[3];
+		for (int triangle = 0; triangle < noOfTriangles; triangle++) {
+			int vertex1 = getVertex(triangle * 3);
+			int vertex2 = getVertex(triangle * 3 + 1);
+			int vertex3 = getVertex(triangle * 3 + 2);
+			double area = getNormal(vertex1, vertex2, vertex3, normal);
+			if (area == 0) {
+				continue;
+			}
+			double a = normal[0] / area;
+			double b = normal[1] / area;
+			double c = normal[2] / area;
+			double d = -(a * positions[vertex1 * 3] + b
+					* positions[vertex1 * 3 + 1] + c * positions[vertex1 * 3 + 2]);
+			double[] plane = { a * a, a * b, a * c, a * d, b * b, b * c, b * d,
+					c * c, c * d, d * d };
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = getVertex(triangle * 3 + corner);
+				for (int value = 0; value < 10; value++) {
+					quadrics[vertex * 10 + value] += plane[value] * area;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Locks the vertices on the edge of the mesh (on an edge that doesn't
+	 * have exactly two triangles) and the vertices used by more than one
+	 * material or group
+	 */
+	private void lockVertices() {
+		// Sort the edges (by their two vertices) to count the triangles on
+		// each one
+		long[] edges = new long[indices.length];
+		for (int corner = 0; corner < indices.length; corner++) {
+			int vertex1 = getVertex(corner);
+			int vertex2 = getVertex(corner - corner % 3 + (corner + 1) % 3);
+			edges[corner] = ((long) Math.min(vertex1, vertex2) << 32)
+					| Math.max(vertex1, vertex2);
+		}
+		Arrays.sort(edges);
+		int start = 0;
+		for (int next = 1; next <= edges.length; next++) {
+			if (next == edges.length || edges[next] != edges[start]) {
+				if (next - start != 2) {
+					locked[(int) (edges[start] >>> 32)] = true;
+					locked[(int) edges[start]] = true;
+				}
+				start = next;
+			}
+		}
+
+		// Lock the vertices between materials or groups
+		for (int vertex = 0; vertex < nextCollapsed.length; vertex++) {
+			int noOfNeighbours = mesh.getNoOfNeighbourTriangles(vertex);
+			for (int next = 1; next < noOfNeighbours; next++) {
+				int first = mesh.getNeighbourTriangle(vertex, 0);
+				int triangle = mesh.getNeighbourTriangle(vertex, next);
+				if (materialIDs[triangle] != materialIDs[first]
+						|| groupIDs[triangle] != groupIDs[first]) {
+					locked[vertex] = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collapses the cheapest edges until the mesh has the given number of
+	 * triangles or no more edges can be collapsed
+	 *
+	 * @param targetTriangles the number of triangles to get down to
+	 */
+	private void collapseEdges(int targetTriangles) {
+		// Try collapsing each edge both ways
+		for (int corner = 0; corner < indices.length; corner++) {
+			int vertex1 = getVertex(corner);
+			int vertex2 = getVertex(corner - corner % 3 + (corner + 1) % 3);
+			addCollapse(vertex1, vertex2);
+			addCollapse(vertex2, vertex1);
+		}
+
+		int remaining = noOfTriangles;
+		while (remaining > targetTriangles && !queue.isEmpty()) {
+			Collapse collapse = queue.poll();
+			int from = collapse.from;
+			int to = collapse.to;
+
+			// Skip collapses of vertices that changed since they were added
+			if (collapsed[from] || collapsed[to]
+					|| collapse.fromVersion != versions[from]
+					|| collapse.toVersion != versions[to]
+					|| !canCollapse(from, to)) {
+				continue;
+			}
+			remaining -= collapse(from, to);
+
+			// The collapses around the vertex that was kept cost more now
+			listTriangles(to);
+			for (int next = 0; next < noOfListed; next++) {
+				for (int corner = 0; corner < 3; corner++) {
+					int vertex = getVertex(triangleList[next] * 3 + corner);
+					if (vertex != to) {
+						addCollapse(vertex, to);
+						addCollapse(to, vertex);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the collapse of one vertex onto another to the queue, with its
+	 * cost (the error of the two quadrics at the kept vertex)
+	 *
+	 * @param from the vertex that is moved
+	 * @param to the vertex that is kept
+	 */
+	private void addCollapse(int from, int to) {
+		if (locked[from] || from == to) {
+			return;
+		}
+		double x = positions[to * 3];
+		double y = positions[to * 3 + 1];
+		double z = positions[to * 3 + 2];
+		double[] q = new double[10];
+		for (int value = 0; value < 10; value++) {
+			q[value] = quadrics[from * 10 + value] + quadrics[to * 10 + value];
+		}
+		double cost = q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2
+				* q[3] * x + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+				+ q[7] * z * z + 2 * q[8] * z + q[9];
+		queue.add(new Collapse(Math.abs(cost), from, to, versions[from],
+				versions[to]));
+	}
+
+	/**
+	 * Checks if a vertex can be moved onto another one without changing the
+	 * shape of the mesh too much. If it can, the welded vertex each of its
+	 * welded vertices moves onto is stored in collapseTo.
+	 *
+	 * @param from the vertex that is moved
+	 * @param to the vertex that is kept
+	 * @return true if the collapse is allowed
+	 */
+	private boolean canCollapse(int from, int to) {
+		stamp++;
+		listTriangles(from);
+		int[] triangles = triangleList;
+		int noOfListedFrom = noOfListed;
+		int noOfShared = 0;
+
+		// Match each welded vertex at the moved vertex with the welded vertex
+		// at the kept one in the triangles on the edge
+		for (int next = 0; next < noOfListedFrom; next++) {
+			int triangle = triangles[next];
+			int fromCorner = findCorner(triangle, from);
+			int toCorner = findCorner(triangle, to);
+			if (toCorner == -1) {
+				continue;
+			}
+			noOfShared++;
+			int fromWelded = indices[fromCorner];
+			if (weldedMarks[fromWelded] == stamp
+					&& collapseTo[fromWelded] != indices[toCorner]) {
+				return false;
+			}
+			weldedMarks[fromWelded] = stamp;
+			collapseTo[fromWelded] = indices[toCorner];
+		}
+		if (noOfShared != 2) {
+			return false;
+		}
+
+		// Every other triangle must have a welded vertex that was matched
+		// (so seams stay closed) and must not flip over
+		double[] oldNormal = new double[3];
+		double[] newNormal = new double[3];
+		for (int next = 0; next < noOfListedFrom; next++) {
+			int triangle = triangles[next];
+			if (findCorner(triangle, to) != -1) {
+				continue;
+			}
+			int fromCorner = findCorner(triangle, from);
+			if (weldedMarks[indices[fromCorner]] != stamp) {
+				return false;
+			}
+			int vertex1 = getVertex(triangle * 3);
+			int vertex2 = getVertex(triangle * 3 + 1);
+			int vertex3 = getVertex(triangle * 3 + 2);
+			double oldArea = getNormal(vertex1, vertex2, vertex3, oldNormal);
+			double newArea = getNormal((vertex1 == from) ? to : vertex1,
+					(vertex2 == from) ? to : vertex2, (vertex3 == from) ? to
+							: vertex3, newNormal);
+			if (newArea == 0
+					|| oldNormal[0] * newNormal[0] + oldNormal[1]
+							* newNormal[1] + oldNormal[2] * newNormal[2] < MIN_NORMAL_COS
+							* oldArea * newArea) {
+				return false;
+			}
+		}
+
+		// The two ends must only share the vertices across the edge from
+		// them, or the mesh would fold into itself
+		markNeighbours(to);
+		vertexMarks[from] = 0;
+		int noOfCommon = 0;
+		for (int next = 0; next < noOfListedFrom; next++) {
+			int triangle = triangles[next];
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = getVertex(triangle * 3 + corner);
+				if (vertexMarks[vertex] == stamp) {
+					vertexMarks[vertex] = 0;
+					noOfCommon++;
+				}
+			}
+		}
+		return noOfCommon == 2;
+	}
+
+	/**
+	 * Marks the vertices that share a triangle with a vertex (not counting
+	 * the vertex itself). The triangle list is left alone, so canCollapse()
+	 * can keep using it.
+	 *
+	 * @param vertex the vertex
+	 */
+	private void markNeighbours(int vertex) {
+		for (int chained = vertex; chained != -1; chained = nextCollapsed[chained]) {
+			int noOfNeighbours = mesh.getNoOfNeighbourTriangles(chained);
+			for (int next = 0; next < noOfNeighbours; next++) {
+				int triangle = mesh.getNeighbourTriangle(chained, next);
+				if (!removed[triangle]) {
+					for (int corner = 0; corner < 3; corner++) {
+						vertexMarks[getVertex(triangle * 3 + corner)] = stamp;
+					}
+				}
+			}
+		}
+		vertexMarks[vertex] = 0;
+	}
+
+	/**
+	 * Moves a vertex onto another one (after canCollapse() allowed it). The
+	 * triangles on the edge are removed, and the rest of the moved vertex's
+	 * triangles use the kept vertex.
+	 *
+	 * @param from the vertex that is moved
+	 * @param to the vertex that is kept
+	 * @return the number of triangles removed
+	 */
+	private int collapse(int from, int to) {
+		int noOfRemoved = 0;
+		listTriangles(from);
+		for (int next = 0; next < noOfListed; next++) {
+			int triangle = triangleList[next];
+			if (findCorner(triangle, to) != -1) {
+				removed[triangle] = true;
+				noOfRemoved++;
+			} else {
+				int corner = findCorner(triangle, from);
+				indices[corner] = collapseTo[indices[corner]];
+			}
+		}
+
+		// The moved vertex's chain (and so its triangles) joins the kept
+		// vertex's chain
+		nextCollapsed[lastCollapsed[to]] = from;
+		lastCollapsed[to] = lastCollapsed[from];
+		for (int value = 0; value < 10; value++) {
+			quadrics[to * 10 + value] += quadrics[from * 10 + value];
+		}
+		collapsed[from] = true;
+		versions[to]++;
+		return noOfRemoved;
+	}
+
+	/**
+	 * Lists the triangles around a vertex that aren't removed in
+	 * triangleList, in the order they were added to the vertex. A triangle
+	 * is only listed once, since a triangle that was around two vertices of
+	 * the chain was removed when they were collapsed.
+	 *
+	 * @param vertex the vertex
+	 */
+	private void listTriangles(int vertex) {
+		noOfListed = 0;
+		for (int chained = vertex; chained != -1; chained = nextCollapsed[chained]) {
+			int noOfNeighbours = mesh.getNoOfNeighbourTriangles(chained);
+			if (noOfListed + noOfNeighbours > triangleList.length) {
+				int[] triangles = new int[(noOfListed + noOfNeighbours) * 2];
+				System.arraycopy(triangleList, 0, triangles, 0, noOfListed);
+				triangleList = triangles;
+			}
+			for (int next = 0; next < noOfNeighbours; next++) {
+				int triangle = mesh.getNeighbourTriangle(chained, next);
+				if (!removed[triangle]) {
+					triangleList[noOfListed++] = triangle;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the corner of a triangle that is at a vertex
+	 *
+	 * @param triangle the triangle
+	 * @param vertex the vertex
+	 * @return the corner (three for every triangle), or -1 if the triangle
+	 *         doesn't use the vertex
+	 */
+	private int findCorner(int triangle, int vertex) {
+		for (int corner = triangle * 3; corner < triangle * 3 + 3; corner++) {
+			if (getVertex(corner) == vertex) {
+				return corner;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the (unnormalised) normal of a triangle of vertices
+	 *
+	 * @param vertex1 the first vertex
+	 * @param vertex2 the second vertex
+	 * @param vertex3 the third vertex
+	 * @param normal the array to store the normal in
+	 * @return the length of the normal (twice the area of the triangle)
+	 */
+	private double getNormal(int vertex1, int vertex2, int vertex3,
+			double[] normal) {
+		double x1 = positions[vertex2 * 3] - positions[vertex1 * 3];
+		double y1 = positions[vertex2 * 3 + 1] - positions[vertex1 * 3 + 1];
+		double z1 = positions[vertex2 * 3 + 2] - positions[vertex1 * 3 + 2];
+		double x2 = positions[vertex3 * 3] - positions[vertex1 * 3];
+		double y2 = positions[vertex3 * 3 + 1] - positions[vertex1 * 3 + 1];
+		double z2 = positions[vertex3 * 3 + 2] - positions[vertex1 * 3 + 2];
+		normal[0] = y1 * z2 - z1 * y2;
+		normal[1] = z1 * x2 - x1 * z2;
+		normal[2] = x1 * y2 - y1 * x2;
+		return Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]
+				+ normal[2] * normal[2]);
+	}
+
+	/**
+	 * Makes a mesh of the triangles that are left. The triangles are put in
+	 * the best order for drawing again, since collapses break up the order of
+	 * the original mesh.
+	 *
+	 * @param mesh the original mesh
+	 * @return the simpler mesh
+	 */
+	private Mesh makeMesh(Mesh mesh) {
+		IndexedMesh indexedMesh = mesh.indexedMesh;
+
+		// Give the welded vertices and vertices that are still used new IDs
+		int[] newWeldedIDs = new int[indexedMesh.noOfVertices];
+		int[] newVertexIDs = new int[mesh.numVertices];
+		Arrays.fill(newWeldedIDs, -1);
+		Arrays.fill(newVertexIDs, -1);
+		int noOfWelded = 0;
+		int noOfVertices = 0;
+		int noOfKept = 0;
+		for (int triangle = 0; triangle < removed.length; triangle++) {
+			if (removed[triangle]) {
+				continue;
+			}
+			noOfKept++;
+			for (int corner = triangle * 3; corner < triangle * 3 + 3; corner++) {
+				if (newWeldedIDs[indices[corner]] == -1) {
+					newWeldedIDs[indices[corner]] = noOfWelded++;
+				}
+				if (newVertexIDs[getVertex(corner)] == -1) {
+					newVertexIDs[getVertex(corner)] = noOfVertices++;
+				}
+			}
+		}
+
+		// Copy the data of the vertices that are still used
+		float[] newPositions = new float[noOfVertices * 3];
+		for (int vertex = 0; vertex < newVertexIDs.length; vertex++) {
+			if (newVertexIDs[vertex] != -1) {
+				System.arraycopy(positions, vertex * 3, newPositions,
+						newVertexIDs[vertex] * 3, 3);
+			}
+		}
+		int[] newWeldedVertexIDs = new int[noOfWelded];
+		float[] normals = (indexedMesh.normals != null) ? new float[noOfWelded * 3]
+				: null;
+		float[] textureCoords = (indexedMesh.textureCoords != null) ? new float[noOfWelded * 2]
+				: null;
+		for (int welded = 0; welded < newWeldedIDs.length; welded++) {
+			int newID = newWeldedIDs[welded];
+			if (newID == -1) {
+				continue;
+			}
+			newWeldedVertexIDs[newID] = newVertexIDs[vertexIDs[welded]];
+			if (normals != null) {
+				System.arraycopy(indexedMesh.normals, welded * 3, normals,
+						newID * 3, 3);
+			}
+			if (textureCoords != null) {
+				System.arraycopy(indexedMesh.textureCoords, welded * 2,
+						textureCoords, newID * 2, 2);
+			}
+		}
+
+		// Copy the triangles, finding where each run of triangles with the
+		// same group and material ends
+		int[] newIndices = new int[noOfKept * 3];
+		int[] runEnds = new int[noOfKept];
+		int[] runGroupIDs = new int[noOfKept];
+		int[] runIDs = new int[noOfKept];
+		int noOfRuns = 0;
+		int next = 0;
+		for (int triangle = 0; triangle < removed.length; triangle++) {
+			if (removed[triangle]) {
+				continue;
+			}
+			for (int corner = 0; corner < 3; corner++) {
+				newIndices[next * 3 + corner] = newWeldedIDs[indices[triangle
+						* 3 + corner]];
+			}
+			if (noOfRuns == 0 || runIDs[noOfRuns - 1] != materialIDs[triangle]
+					|| runGroupIDs[noOfRuns - 1] != groupIDs[triangle]) {
+				runGroupIDs[noOfRuns] = groupIDs[triangle];
+				runIDs[noOfRuns++] = materialIDs[triangle];
+			}
+			next++;
+			runEnds[noOfRuns - 1] = next;
+		}
+
+		// Keep every group (the ones that lost all their triangles are
+		// removed by the mesh)
+		int noOfGroups = mesh.getNoOfGroups();
+		String[] groupNames = new String[noOfGroups];
+		String[] groupMaterialNames = new String[noOfGroups];
+		for (int group = 0; group < noOfGroups; group++) {
+			groupNames[group] = mesh.getGroupName(group);
+			groupMaterialNames[group] = mesh.getGroupMaterialName(group);
+		}
+		return BakedMesh.makeMesh(mesh.name, mesh.materialLibraryName,
+				newPositions, newWeldedVertexIDs, normals, textureCoords,
+				newIndices, groupNames, groupMaterialNames,
+				trim(runEnds, noOfRuns), trim(runGroupIDs, noOfRuns),
+				trim(runIDs, noOfRuns), true);
+	}
+
+	/**
+	 * Returns the start of an array
+	 *
+	 * @param array the array
+	 * @param length the number of values to keep
+	 * @return a new array with the first values
+	 */
+	private static int[] trim(int[] array, int length) {
+		int[] trimmed = new int[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * A possible collapse of one vertex onto another, with its cost and the
+	 * versions of the vertices when it was added
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		double cost;
+		int from;
+		int to;
+		int fromVersion;
+		int toVersion;
+
+		/**
+		 * Create a new collapse
+		 *
+		 * @param cost the error the collapse adds
+		 * @param from the vertex that is moved
+		 * @param to the vertex that is kept
+		 * @param fromVersion the version of the moved vertex
+		 * @param toVersion the version of the kept vertex
+		 */
+		Collapse(double cost, int from, int to, int fromVersion, int toVersion) {
+			this.cost = cost;
+			this.from = from;
+			this.to = to;
+			this.fromVersion = fromVersion;
+			this.toVersion = toVersion;
+		}
+
+		/**
+		 * Compares the cost of two collapses
+		 *
+		 * @param other the other collapse
+		 * @return a negative number if this collapse is cheaper
+		 */
+		public int compareTo(Collapse other) {
+			double otherCost = other.cost;
+			return (cost < otherCost) ? -1 : (cost > otherCost) ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package importer;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The "OBJBufferParser" Class.
+ * Purpose: Parses a .obj file straight from its bytes. The file is mapped
+ * into memory and the v, vt, vn and f records are read with custom number
+ * parsing, so no Strings or arrays are made for each line. The records are
+ * handed to an OBJRecordHandler (usually the OBJImporter) in file order.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class OBJBufferParser {
+
+	// Powers of ten that can be represented exactly as doubles
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// The most digits that fit in the long mantissa without overflowing
+	private static final int MAX_DIGITS = 18;
+
+	// The handler the records are given to
+	private OBJRecordHandler handler;
+
+	// The bytes being parsed and the current position in them
+	private ByteBuffer buffer;
+	private int position;
+	private int limit;
+
+	// The number of lines with data parsed
+	private int noOfLines = 0;
+
+	// The values of the last v, vt or vn record
+	private float[] values = new float[3];
+
+	// Index arrays that are reused for every face
+	private int[] vertexIDs = new int[8];
+	private int[] textureIDs = new int[8];
+	private int[] normalIDs = new int[8];
+
+	/**
+	 * Create a new parser that gives its records to the given handler
+	 *
+	 * @param handler the handler that receives the records
+	 */
+	public OBJBufferParser(OBJRecordHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Maps the given file into memory and parses all of it
+	 *
+	 * @param filename the name of the .obj file
+	 * @throws IOException if the file could not be mapped
+	 */
+	public void parse(String filename) throws IOException {
+		parse(map(filename));
+	}
+
+	/**
+	 * Maps the given file into memory
+	 *
+	 * @param filename the name of the file
+	 * @return the buffer containing the contents of the file
+	 * @throws IOException if the file could not be mapped
+	 */
+	public static ByteBuffer map(String filename) throws IOException {
+		FileInputStream input = new FileInputStream(filename);
+		try {
+			FileChannel channel = input.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Parses all the records from the position to the limit of the buffer
+	 *
+	 * @param buffer the buffer containing the contents of a .obj file
+	 */
+	public void parse(ByteBuffer buffer) {
+		this.buffer = buffer;
+		position = buffer.position();
+		limit = buffer.limit();
+
+		// For each line in the buffer
+		while (position < limit) {
+			skipSpaces();
+			if (position >= limit) {
+				break;
+			}
+			if (!atLineEnd()) {
+				noOfLines++;
+			}
+			byte first = buffer.get(position);
+			byte second = (position + 1 < limit) ? buffer.get(position + 1) : 0;
+
+			// If the line has vertex, texture or normal data
+			if (first == 'v') {
+				if (isSpace(second)) {
+					position += 1;
+					readFloats();
+					handler.vertex(values[0], values[1], values[2]);
+				} else if (second == 't') {
+					position += 2;
+					readFloats();
+					handler.texture(values[0], values[1], values[2]);
+				} else if (second == 'n') {
+					position += 2;
+					readFloats();
+					handler.normal(values[0], values[1], values[2]);
+				}
+			}
+
+			// If the line has face data
+			else if (first == 'f' && isSpace(second)) {
+				position += 1;
+				readFace();
+			}
+
+			// If the line has group data
+			else if (first == 'g' && isSpace(second)) {
+				position += 1;
+				handler.group(readRestOfLine());
+			}
+
+			// If the line has material or material library data
+			else if (startsWith("usemtl")) {
+				position += 6;
+				handler.material(readRestOfLine());
+			} else if (startsWith("mtllib")) {
+				position += 6;
+				handler.materialLibrary(readRestOfLine());
+			}
+
+			// Move on to the next line (comments and other records are skipped)
+			skipLine();
+		}
+	}
+
+	/**
+	 * Returns the number of lines with data parsed so far (every line that
+	 * isn't blank, including comments and records that are skipped)
+	 *
+	 * @return the number of lines
+	 */
+	public int getNoOfLines() {
+		return noOfLines;
+	}
+
+	/**
+	 * Reads two or three floats from the current line into the values array.
+	 * If the line only has two values, the third one is 0.
+	 */
+	private void readFloats() {
+		values[0] = values[1] = values[2] = 0;
+		for (int value = 0; value < 3; value++) {
+			skipSpaces();
+			if (atLineEnd()) {
+				break;
+			}
+			values[value] = readFloat();
+		}
+	}
+
+	/**
+	 * Reads the vertex/texture/normal triplets of a face. Missing texture or
+	 * normal indices (as in v//vn or v) are read as 0.
+	 */
+	private void readFace() {
+		int noOfVertices = 0;
+		skipSpaces();
+		while (!atLineEnd()) {
+			int start = position;
+
+			// Grow the index arrays if the face is a large polygon
+			if (noOfVertices == vertexIDs.length) {
+				vertexIDs = grow(vertexIDs);
+				textureIDs = grow(textureIDs);
+				normalIDs = grow(normalIDs);
+			}
+			vertexIDs[noOfVertices] = readInt();
+			textureIDs[noOfVertices] = 0;
+			normalIDs[noOfVertices] = 0;
+
+			// Read the texture index
+			if (position < limit && buffer.get(position) == '/') {
+				position++;
+				if (position < limit && buffer.get(position) != '/') {
+					textureIDs[noOfVertices] = readInt();
+				}
+
+				// Read the normal index
+				if (position < limit && buffer.get(position) == '/') {
+					position++;
+					normalIDs[noOfVertices] = readInt();
+				}
+			}
+			noOfVertices++;
+
+			// Skip anything that isn't an index so a bad line can't stall
+			if (position == start) {
+				position++;
+				noOfVertices--;
+			}
+			skipSpaces();
+		}
+		handler.face(vertexIDs, textureIDs, normalIDs, noOfVertices);
+	}
+
+	/**
+	 * Reads a signed integer from the current position (0 if there are no
+	 * digits, even at the end of the buffer)
+	 *
+	 * @return the integer read
+	 */
+	private int readInt() {
+		boolean negative = false;
+		if (position < limit && buffer.get(position) == '-') {
+			negative = true;
+			position++;
+		} else if (position < limit && buffer.get(position) == '+') {
+			position++;
+		}
+		int value = 0;
+		while (position < limit) {
+			int digit = buffer.get(position) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			position++;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a decimal number (with an optional exponent) from the current
+	 * position. Numbers with too many digits or a large exponent are given to
+	 * Float.parseFloat() so they are always read exactly.
+	 *
+	 * @return the float read
+	 */
+	private float readFloat() {
+		int start = position;
+		boolean negative = false;
+		if (buffer.get(position) == '-') {
+			negative = true;
+			position++;
+		} else if (buffer.get(position) == '+') {
+			position++;
+		}
+
+		// Read all the digits into one mantissa, tracking the decimal point
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean afterPoint = false;
+		while (position < limit) {
+			byte character = buffer.get(position);
+			if (character >= '0' && character <= '9') {
+				if (digits < MAX_DIGITS) {
+					mantissa = mantissa * 10 + (character - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+					if (afterPoint) {
+						exponent--;
+					}
+				} else {
+					exact = false;
+				}
+			} else if (character == '.' && !afterPoint) {
+				afterPoint = true;
+			} else {
+				break;
+			}
+			position++;
+		}
+
+		// Read the exponent, if there is one
+		if (position < limit
+				&& (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+			position++;
+			exponent += readInt();
+
+			// An exponent without digits (like "1e") is left to
+			// Float.parseFloat(), so it fails the same way the reader does
+			byte last = buffer.get(position - 1);
+			if (last < '0' || last > '9') {
+				exact = false;
+			}
+		}
+
+		// Use the slow but exact parser for anything that doesn't fit
+		if (!exact || mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+			return Float.parseFloat(readString(start, position));
+		}
+
+		double value = mantissa;
+		if (exponent < 0) {
+			value /= POWERS_OF_TEN[-exponent];
+		} else {
+			value *= POWERS_OF_TEN[exponent];
+		}
+		return (float) (negative ? -value : value);
+	}
+
+	/**
+	 * Reads the rest of the current line as a trimmed String
+	 *
+	 * @return the rest of the line
+	 */
+	private String readRestOfLine() {
+		int start = position;
+		while (position < limit && buffer.get(position) != '\n'
+				&& buffer.get(position) != '\r') {
+			position++;
+		}
+		return readString(start, position).trim();
+	}
+
+	/**
+	 * Makes a String from the bytes between the given positions
+	 *
+	 * @param start the position of the first byte
+	 * @param end the position after the last byte
+	 * @return the String made
+	 */
+	private String readString(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		return new String(bytes);
+	}
+
+	/**
+	 * Checks if the bytes at the current position start with the given text
+	 *
+	 * @param text the text to look for
+	 * @return if the bytes match the text
+	 */
+	private boolean startsWith(String text) {
+		if (position + text.length() > limit) {
+			return false;
+		}
+		for (int index = 0; index < text.length(); index++) {
+			if (buffer.get(position + index) != text.charAt(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips spaces and tabs, but not the end of the line
+	 */
+	private void skipSpaces() {
+		while (position < limit && isSpace(buffer.get(position))) {
+			position++;
+		}
+	}
+
+	/**
+	 * Moves to the start of the next line
+	 */
+	private void skipLine() {
+		while (position < limit && buffer.get(position) != '\n') {
+			position++;
+		}
+		position++;
+	}
+
+	/**
+	 * Checks if the current position is at the end of the line or file
+	 *
+	 * @return if there is no more data on the line
+	 */
+	private boolean atLineEnd() {
+		return position >= limit || buffer.get(position) == '\n'
+				|| buffer.get(position) == '\r';
+	}
+
+	/**
+	 * Checks if the byte is a space or a tab
+	 *
+	 * @param character the byte to check
+	 * @return if it is a space or a tab
+	 */
+	private static boolean isSpace(byte character) {
+		return character == ' ' || character == '\t';
+	}
+
+	/**
+	 * Returns a copy of the array with twice the length
+	 *
+	 * @param array the array to grow
+	 * @return the larger array
+	 */
+	private static int[] grow(int[] array) {
+		int[] larger = new int[array.length * 2];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+}
@@ -0,0 +1,598 @@
+package importer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import math.Vector;
+import mesh.Mesh;
+import mesh.Triangle;
+import mesh.Vertex;
+
+/**
+ * The "OBJChunk" Class.
+ * Purpose: Holds the records parsed from one line-aligned chunk of a .obj
+ * file. Chunks are parsed at the same time on different threads, and are then
+ * replayed in file order to the real handler, so negative face indices are
+ * still converted with the number of elements read before them.
+ * <P>
+ * A chunk that is imported (see OBJImporter) does more of the work on its
+ * thread: it makes its own vertices and texture and normal vectors while it
+ * is parsed, and once the importer has added the elements of the chunks
+ * before it and selected their groups and materials (see setOffsets() and
+ * replayNames()), it makes the triangles of its faces with its own welded
+ * vertices (see makeTriangles()). The importer then only welds the
+ * chunk's welded vertices into its own, in file order, and adds the
+ * triangles to the mesh.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class OBJChunk implements OBJRecordHandler, Callable<OBJChunk> {
+
+	// The types of records, in the order they were read
+	private static final byte VERTEX = 0;
+	private static final byte TEXTURE = 1;
+	private static final byte NORMAL = 2;
+	private static final byte FACE = 3;
+	private static final byte GROUP = 4;
+	private static final byte MATERIAL = 5;
+	private static final byte MATERIAL_LIBRARY = 6;
+
+	// The bytes this chunk parses
+	private ByteBuffer buffer;
+
+	// The type of every record, and the data for all the records
+	private byte[] types = new byte[1024];
+	private int noOfRecords = 0;
+	private FloatList vertexData = new FloatList(3, 1024);
+	private FloatList textureData = new FloatList(3);
+	private FloatList normalData = new FloatList(3);
+	private int[] ints = new int[1024];
+	private int noOfInts = 0;
+	private ArrayList<String> names = new ArrayList<String>();
+
+	// The type of each group, material and material library record
+	private byte[] nameTypes = new byte[16];
+
+	// The number of lines with data in the chunk
+	private int noOfLines = 0;
+
+	// Whether the chunk is imported, and the vertices and the texture and
+	// normal vectors it made while it was parsed
+	private boolean importing;
+	private Vertex[] vertices = new Vertex[0];
+	private Vector[] textureVectors = new Vector[0];
+	private Vector[] normalVectors = new Vector[0];
+
+	// The number of vertices, texture coordinates and normals read before
+	// the chunk
+	private int vertexOffset = 0;
+	private int textureOffset = 0;
+	private int normalOffset = 0;
+
+	// The group and material used by the faces at the start of the chunk
+	// (the first element) and after each group, material and material
+	// library record
+	private int[] groups;
+	private int[] materialIDs;
+
+	// The number of faces and of triangles they are split into
+	private int noOfFaces = 0;
+	private int noOfTriangles = 0;
+
+	// The triangles made from the faces, and the welded vertices they use
+	// (numbered in the chunk until renumber() is called)
+	private Triangle[] triangles = new Triangle[0];
+	private VertexWelder welder;
+	private int[] weldIDs;
+
+	// The mesh and the vectors of the whole file used while the triangles
+	// are made
+	private Mesh mesh;
+	private Vector[] allTextureVectors;
+	private Vector[] allNormalVectors;
+
+	// Index arrays that are reused for every face
+	private int[] faceVertexIDs = new int[8];
+	private int[] faceTextureIDs = new int[8];
+	private int[] faceNormalIDs = new int[8];
+	private int[] faceWeldIDs = new int[8];
+
+	/**
+	 * Create a new chunk that will parse the given bytes
+	 *
+	 * @param buffer the bytes of the chunk, from its position to its limit
+	 */
+	public OBJChunk(ByteBuffer buffer) {
+		this(buffer, false);
+	}
+
+	/**
+	 * Create a new chunk that will parse the given bytes
+	 *
+	 * @param buffer the bytes of the chunk, from its position to its limit
+	 * @param importing whether the chunk makes its own vertices and
+	 *                  triangles (instead of being replayed)
+	 */
+	public OBJChunk(ByteBuffer buffer, boolean importing) {
+		this.buffer = buffer;
+		this.importing = importing;
+	}
+
+	/**
+	 * Parses the chunk (run on a worker thread)
+	 *
+	 * @return this chunk
+	 */
+	public OBJChunk call() {
+		OBJBufferParser parser = new OBJBufferParser(this);
+		parser.parse(buffer);
+		noOfLines = parser.getNoOfLines();
+		return this;
+	}
+
+	/**
+	 * Returns the number of lines with data in the chunk
+	 *
+	 * @return the number of lines
+	 */
+	public int getNoOfLines() {
+		return noOfLines;
+	}
+
+	/**
+	 * Gives all the records in the chunk to the handler, in file order
+	 *
+	 * @param handler the handler that receives the records
+	 */
+	public void replay(OBJRecordHandler handler) {
+		int vertex = 0;
+		int texture = 0;
+		int normal = 0;
+		int intIndex = 0;
+		int nameIndex = 0;
+		int[] vertexIDs = new int[8];
+		int[] textureIDs = new int[8];
+		int[] normalIDs = new int[8];
+
+		for (int record = 0; record < noOfRecords; record++) {
+			byte type = types[record];
+			if (type == VERTEX) {
+				handler.vertex(vertexData.get(vertex, 0),
+						vertexData.get(vertex, 1), vertexData.get(vertex, 2));
+				vertex++;
+			} else if (type == TEXTURE) {
+				handler.texture(textureData.get(texture, 0),
+						textureData.get(texture, 1), textureData.get(texture, 2));
+				texture++;
+			} else if (type == NORMAL) {
+				handler.normal(normalData.get(normal, 0),
+						normalData.get(normal, 1), normalData.get(normal, 2));
+				normal++;
+			} else if (type == FACE) {
+				int noOfVertices = ints[intIndex++];
+				if (noOfVertices > vertexIDs.length) {
+					vertexIDs = new int[noOfVertices];
+					textureIDs = new int[noOfVertices];
+					normalIDs = new int[noOfVertices];
+				}
+				for (int corner = 0; corner < noOfVertices; corner++) {
+					vertexIDs[corner] = ints[intIndex++];
+					textureIDs[corner] = ints[intIndex++];
+					normalIDs[corner] = ints[intIndex++];
+				}
+				handler.face(vertexIDs, textureIDs, normalIDs, noOfVertices);
+			} else if (type == GROUP) {
+				handler.group(names.get(nameIndex++));
+			} else if (type == MATERIAL) {
+				handler.material(names.get(nameIndex++));
+			} else if (type == MATERIAL_LIBRARY) {
+				handler.materialLibrary(names.get(nameIndex++));
+			}
+		}
+	}
+
+	/**
+	 * Gives the group, material and material library records of the chunk to
+	 * the importer in file order, and stores the group and material the
+	 * importer selects after each of them. The other records are left for
+	 * makeTriangles().
+	 *
+	 * @param importer the importer that receives the records
+	 */
+	public void replayNames(OBJImporter importer) {
+		groups = new int[names.size() + 1];
+		materialIDs = new int[names.size() + 1];
+		groups[0] = importer.getGroup();
+		materialIDs[0] = importer.getMaterialID();
+		for (int name = 0; name < names.size(); name++) {
+			if (nameTypes[name] == GROUP) {
+				importer.group(names.get(name));
+			} else if (nameTypes[name] == MATERIAL) {
+				importer.material(names.get(name));
+			} else {
+				importer.materialLibrary(names.get(name));
+			}
+			groups[name + 1] = importer.getGroup();
+			materialIDs[name + 1] = importer.getMaterialID();
+		}
+	}
+
+	/**
+	 * Sets the number of vertices, texture coordinates and normals read
+	 * before the chunk, so its negative face indices can be converted
+	 *
+	 * @param vertexOffset the number of vertices before the chunk
+	 * @param textureOffset the number of texture coordinates before the chunk
+	 * @param normalOffset the number of normals before the chunk
+	 */
+	public void setOffsets(int vertexOffset, int textureOffset,
+			int normalOffset) {
+		this.vertexOffset = vertexOffset;
+		this.textureOffset = textureOffset;
+		this.normalOffset = normalOffset;
+	}
+
+	/**
+	 * Makes the triangles of the chunk's faces (run on a worker thread, once
+	 * the elements of every chunk have been added to the importer). Each
+	 * face is made into a triangle fan like OBJImporter.face() does, with its
+	 * corners welded in the chunk's own welder.
+	 *
+	 * @param mesh the mesh with the vertices of the whole file
+	 * @param textureVectors the texture vectors of the whole file
+	 * @param normalVectors the normal vectors of the whole file
+	 */
+	public void makeTriangles(Mesh mesh, Vector[] textureVectors,
+			Vector[] normalVectors) {
+		this.mesh = mesh;
+		allTextureVectors = textureVectors;
+		allNormalVectors = normalVectors;
+		triangles = new Triangle[noOfTriangles];
+		welder = new VertexWelder();
+
+		// The number of each element read so far, to convert negative indices
+		int vertices = vertexOffset;
+		int textures = textureOffset;
+		int normals = normalOffset;
+		int state = 0;
+		int intIndex = 0;
+		int triangle = 0;
+		for (int record = 0; record < noOfRecords; record++) {
+			byte type = types[record];
+			if (type == VERTEX) {
+				vertices++;
+			} else if (type == TEXTURE) {
+				textures++;
+			} else if (type == NORMAL) {
+				normals++;
+			} else if (type == FACE) {
+				// Convert and weld the corners of the face
+				int noOfVertices = ints[intIndex++];
+				if (noOfVertices > faceVertexIDs.length) {
+					faceVertexIDs = new int[noOfVertices];
+					faceTextureIDs = new int[noOfVertices];
+					faceNormalIDs = new int[noOfVertices];
+					faceWeldIDs = new int[noOfVertices];
+				}
+				for (int corner = 0; corner < noOfVertices; corner++) {
+					faceVertexIDs[corner] = convertIndex(ints[intIndex++],
+							vertices);
+					int textureID = ints[intIndex++];
+					faceTextureIDs[corner] = (textureID == 0) ? 0
+							: convertIndex(textureID, textures);
+					int normalID = ints[intIndex++];
+					faceNormalIDs[corner] = (normalID == 0) ? 0
+							: convertIndex(normalID, normals);
+					faceWeldIDs[corner] = welder.weld(faceVertexIDs[corner],
+							faceTextureIDs[corner], faceNormalIDs[corner]);
+				}
+
+				// Make the triangle fan
+				for (int corner = 1; corner < noOfVertices - 1; corner++) {
+					triangles[triangle++] = makeTriangle(0, corner, corner + 1,
+							textures > 0, normals > 0, groups[state],
+							materialIDs[state]);
+				}
+			} else {
+				state++;
+			}
+		}
+		this.mesh = null;
+		allTextureVectors = null;
+		allNormalVectors = null;
+	}
+
+	/**
+	 * Welds the chunk's welded vertices into the importer's welder, so they
+	 * get the same numbers they would get if the file was read in one piece
+	 * (called in file order, after makeTriangles())
+	 *
+	 * @param fileWelder the welder of the whole file
+	 */
+	public void weld(VertexWelder fileWelder) {
+		weldIDs = new int[welder.size()];
+		for (int vertex = 0; vertex < weldIDs.length; vertex++) {
+			weldIDs[vertex] = fileWelder.weld(welder.getVertexID(vertex),
+					welder.getTextureID(vertex), welder.getNormalID(vertex));
+		}
+		welder = null;
+	}
+
+	/**
+	 * Gives the triangles the numbers of their welded vertices in the whole
+	 * file (run on a worker thread, after weld())
+	 */
+	public void renumber() {
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			Triangle next = triangles[triangle];
+			next.index1 = weldIDs[next.index1];
+			next.index2 = weldIDs[next.index2];
+			next.index3 = weldIDs[next.index3];
+		}
+		weldIDs = null;
+	}
+
+	/**
+	 * Returns the vertices made while the chunk was parsed
+	 *
+	 * @return the vertices, in file order
+	 */
+	public Vertex[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * Returns the number of vertices in the chunk
+	 *
+	 * @return the number of vertices
+	 */
+	public int getNoOfVertices() {
+		return vertexData.size();
+	}
+
+	/**
+	 * Returns the texture coordinates read in the chunk
+	 *
+	 * @return the u, v and w of each texture coordinate
+	 */
+	public FloatList getTextureData() {
+		return textureData;
+	}
+
+	/**
+	 * Returns the normals read in the chunk
+	 *
+	 * @return the x, y and z of each normal
+	 */
+	public FloatList getNormalData() {
+		return normalData;
+	}
+
+	/**
+	 * Returns the texture vectors made while the chunk was parsed
+	 *
+	 * @return a vector for each texture coordinate, in file order
+	 */
+	public Vector[] getTextureVectors() {
+		return textureVectors;
+	}
+
+	/**
+	 * Returns the normal vectors made while the chunk was parsed
+	 *
+	 * @return a vector for each normal, in file order
+	 */
+	public Vector[] getNormalVectors() {
+		return normalVectors;
+	}
+
+	/**
+	 * Returns the number of faces in the chunk
+	 *
+	 * @return the number of faces
+	 */
+	public int getNoOfFaces() {
+		return noOfFaces;
+	}
+
+	/**
+	 * Returns the triangles made from the chunk's faces
+	 *
+	 * @return the triangles, in file order
+	 */
+	public Triangle[] getTriangles() {
+		return triangles;
+	}
+
+	/**
+	 * Records a vertex
+	 */
+	public void vertex(float x, float y, float z) {
+		addType(VERTEX);
+		if (importing) {
+			vertices = grow(vertices, vertexData.size());
+			vertices[vertexData.size()] = new Vertex(x, y, z);
+		}
+		vertexData.add(x, y, z);
+	}
+
+	/**
+	 * Records a texture coordinate
+	 */
+	public void texture(float u, float v, float w) {
+		addType(TEXTURE);
+		if (importing) {
+			textureVectors = grow(textureVectors, textureData.size());
+			textureVectors[textureData.size()] = new Vector(u, v, w);
+		}
+		textureData.add(u, v, w);
+	}
+
+	/**
+	 * Records a normal
+	 */
+	public void normal(float x, float y, float z) {
+		addType(NORMAL);
+		if (importing) {
+			normalVectors = grow(normalVectors, normalData.size());
+			normalVectors[normalData.size()] = new Vector(x, y, z);
+		}
+		normalData.add(x, y, z);
+	}
+
+	/**
+	 * Records a face with its indices as written in the file
+	 */
+	public void face(int[] vertexIDs, int[] textureIDs, int[] normalIDs,
+			int noOfVertices) {
+		addType(FACE);
+		noOfFaces++;
+		noOfTriangles += Math.max(0, noOfVertices - 2);
+		if (noOfInts + 1 + noOfVertices * 3 > ints.length) {
+			int[] larger = new int[Math.max(ints.length * 2, noOfInts + 1
+					+ noOfVertices * 3)];
+			System.arraycopy(ints, 0, larger, 0, noOfInts);
+			ints = larger;
+		}
+		ints[noOfInts++] = noOfVertices;
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			ints[noOfInts++] = vertexIDs[vertex];
+			ints[noOfInts++] = textureIDs[vertex];
+			ints[noOfInts++] = normalIDs[vertex];
+		}
+	}
+
+	/**
+	 * Records a group
+	 */
+	public void group(String name) {
+		addName(GROUP, name);
+	}
+
+	/**
+	 * Records a material
+	 */
+	public void material(String name) {
+		addName(MATERIAL, name);
+	}
+
+	/**
+	 * Records a material library
+	 */
+	public void materialLibrary(String name) {
+		addName(MATERIAL_LIBRARY, name);
+	}
+
+	/**
+	 * Makes a triangle from three corners of the current face, the same way
+	 * OBJImporter.addTriangle() does
+	 *
+	 * @param one the first corner of the triangle in the face
+	 * @param two the second corner of the triangle in the face
+	 * @param three the third corner of the triangle in the face
+	 * @param hasTextures whether texture coordinates were read before the face
+	 * @param hasNormals whether normals were read before the face
+	 * @param group the group of the face
+	 * @param materialID the material of the face
+	 * @return the triangle
+	 */
+	private Triangle makeTriangle(int one, int two, int three,
+			boolean hasTextures, boolean hasNormals, int group, int materialID) {
+		Triangle triangle = new Triangle(mesh.getVertex(faceVertexIDs[one]),
+				mesh.getVertex(faceVertexIDs[two]),
+				mesh.getVertex(faceVertexIDs[three]));
+		if (hasTextures) {
+			triangle.texture1 = allTextureVectors[faceTextureIDs[one]];
+			triangle.texture2 = allTextureVectors[faceTextureIDs[two]];
+			triangle.texture3 = allTextureVectors[faceTextureIDs[three]];
+		}
+		if (hasNormals) {
+			triangle.normal1 = allNormalVectors[faceNormalIDs[one]];
+			triangle.normal2 = allNormalVectors[faceNormalIDs[two]];
+			triangle.normal3 = allNormalVectors[faceNormalIDs[three]];
+		}
+		triangle.index1 = faceWeldIDs[one];
+		triangle.index2 = faceWeldIDs[two];
+		triangle.index3 = faceWeldIDs[three];
+		triangle.groupID = group;
+		triangle.materialID = materialID;
+		return triangle;
+	}
+
+	/**
+	 * Converts an index read from the file into an array index (see
+	 * OBJImporter.convertIndex())
+	 *
+	 * @param index the index as it was written in the file (starts at 1)
+	 * @param noOfElements the number of elements read so far
+	 * @return the index in the array
+	 */
+	private static int convertIndex(int index, int noOfElements) {
+		return (index < 0) ? index + noOfElements : index - 1;
+	}
+
+	/**
+	 * Returns the array, or a copy twice as large if it is full
+	 *
+	 * @param array the array
+	 * @param size the number of elements used in the array
+	 * @return an array with room for one more element
+	 */
+	private static Vertex[] grow(Vertex[] array, int size) {
+		if (size < array.length) {
+			return array;
+		}
+		Vertex[] larger = new Vertex[Math.max(16, array.length * 2)];
+		System.arraycopy(array, 0, larger, 0, size);
+		return larger;
+	}
+
+	/**
+	 * Returns the array, or a copy twice as large if it is full
+	 *
+	 * @param array the array
+	 * @param size the number of elements used in the array
+	 * @return an array with room for one more element
+	 */
+	private static Vector[] grow(Vector[] array, int size) {
+		if (size < array.length) {
+			return array;
+		}
+		Vector[] larger = new Vector[Math.max(16, array.length * 2)];
+		System.arraycopy(array, 0, larger, 0, size);
+		return larger;
+	}
+
+	/**
+	 * Stores a group, material or material library record
+	 *
+	 * @param type the type of the record
+	 * @param name the name in the record
+	 */
+	private void addName(byte type, String name) {
+		addType(type);
+		if (names.size() == nameTypes.length) {
+			byte[] larger = new byte[nameTypes.length * 2];
+			System.arraycopy(nameTypes, 0, larger, 0, names.size());
+			nameTypes = larger;
+		}
+		nameTypes[names.size()] = type;
+		names.add(name);
+	}
+
+	/**
+	 * Stores the type of the next record
+	 *
+	 * @param type the type of the record
+	 */
+	private void addType(byte type) {
+		if (noOfRecords == types.length) {
+			byte[] larger = new byte[types.length * 2];
+			System.arraycopy(types, 0, larger, 0, noOfRecords);
+			types = larger;
+		}
+		types[noOfRecords++] = type;
+	}
+}
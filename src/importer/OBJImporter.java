@@ -1,14 +1,20 @@
 package importer;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
 import java.util.StringTokenizer;
 
 import material.MaterialLibrary;
 import math.Vector;
+import mesh.IndexedMesh;
 import mesh.Mesh;
 import mesh.Triangle;
+import mesh.Vertex;
+import mesh.VertexCacheOptimiser;
 
 import application.KouchKarting;
 
@@ -19,20 +25,33 @@ import application.KouchKarting;
  * @author Peter G.
  * @version Jan. 24, 2012
  */
-public class OBJImporter {
+public class OBJImporter implements OBJRecordHandler {
 
-	// The vertex data loaded
-	private ArrayList vertexData = new ArrayList ();
-	private ArrayList normalData = new ArrayList ();
-	private ArrayList textureData = new ArrayList ();
+	// The normal and texture data loaded (the vertices go straight into the mesh)
+	private FloatList normalData = new FloatList (3);
+	private FloatList textureData = new FloatList (3);
 	
-	// The groups loaded
-	private ArrayList groups = new ArrayList ();
+	// The vectors made for each normal and texture coordinate, so triangles
+	// that use the same normal or texture coordinate share one vector
+	private Vector[] normalVectors = new Vector[0];
+	private Vector[] textureVectors = new Vector[0];
 	
-	// The faces loaded
-	private ArrayList faces = new ArrayList ();
+	// The values read from the last v, vt or vn line (see readFloats())
+	private float[] values = new float[3];
 	
-	// The mesh for this object
+	// The index of each group loaded in the mesh's groups, by name
+	private Hashtable<String, Integer> groupIDs = new Hashtable<String, Integer> ();
+	
+	// The number of times a group or material was looked up by name
+	private int noOfLookups = 0;
+	
+	// What was loaded and how long it took
+	private ImportStats stats;
+	
+	// The number of faces loaded
+	private int noOfFaces = 0;
+	
+	// The mesh for this object, built while the file is being read
 	private Mesh mesh;
 	
 	// The matrialLibrary name and object
@@ -44,12 +63,88 @@ public class OBJImporter {
 	private String filename = "";
 	private String fullFilename = "";   
 	
+	// The current group and material while the file is being read
+	private int group;
+	private String materialName = "";
+	private int materialID = -1;
+	
+	// Index arrays that are reused to convert the indices of every face
+	private int[] faceVertexIDs = new int[8];
+	private int[] faceTextureIDs = new int[8];
+	private int[] faceNormalIDs = new int[8];
+	private int[] faceWeldIDs = new int[8];
+	
+	// Gives each unique v/vt/vn combination one welded vertex
+	private VertexWelder welder = new VertexWelder();
+	
+	// The ways the .obj file can be parsed (see setParseMode())
+	public static final int PARSE_READER = 0;
+	public static final int PARSE_MAPPED = 1;
+	public static final int PARSE_PARALLEL = 2;
+	private int parseMode = PARSE_PARALLEL;
+	
+	// Whether PARSE_PARALLEL splits the file even if it is small
+	private boolean alwaysSplit = false;
+	
+	// Whether the textures of the materials are loaded
+	private boolean loadTextures = true;
+	
+	// Whether baked meshes are loaded and written (see BakedMesh)
+	private boolean useBakedMeshes = true;
+	
 	/**
 	 * Creates an empty OBJImporter for loading later
 	 */
 	public OBJImporter () {
 	}
 	
+	/**
+	 * Sets how the .obj file will be parsed. PARSE_READER reads the file line
+	 * by line as Strings, PARSE_MAPPED maps the file into memory and parses the
+	 * records straight from the bytes, and PARSE_PARALLEL does the same with
+	 * chunks of a large file parsed at the same time on all the processors,
+	 * which also make the triangles of their faces (see OBJChunk).
+	 * All of them create the same mesh.
+	 * 
+	 * @param parseMode PARSE_READER, PARSE_MAPPED or PARSE_PARALLEL
+	 */
+	public void setParseMode (int parseMode) {
+		this.parseMode = parseMode;
+	}
+	
+	/**
+	 * Sets whether PARSE_PARALLEL splits the file into chunks even if it is
+	 * small or there is only one processor, so the chunks can be checked
+	 * against the other parse modes (see ParserCheck)
+	 * 
+	 * @param alwaysSplit true to always split the file
+	 */
+	public void setAlwaysSplit (boolean alwaysSplit) {
+		this.alwaysSplit = alwaysSplit;
+	}
+	
+	/**
+	 * Sets whether the textures of the materials are loaded. Making textures
+	 * needs a GL context, so tools that only need the geometry and materials
+	 * can turn it off.
+	 * 
+	 * @param loadTextures true to load the textures
+	 */
+	public void setLoadTextures (boolean loadTextures) {
+		this.loadTextures = loadTextures;
+	}
+	
+	/**
+	 * Sets whether a baked mesh is loaded instead of the .obj file when there
+	 * is an up to date one, and whether a baked mesh is written after the .obj
+	 * file is imported
+	 * 
+	 * @param useBakedMeshes true to use baked meshes
+	 */
+	public void setUseBakedMeshes (boolean useBakedMeshes) {
+		this.useBakedMeshes = useBakedMeshes;
+	}
+	
 	/**
 	 * Loads an object from the .obj file specified,
 	 * and makes a mesh for that object
@@ -58,140 +153,478 @@ public class OBJImporter {
 	 * @return the mesh created
 	 */
 	public Mesh load (String fullFilename) {
+		long startTime = System.nanoTime();
 		this.fullFilename = fullFilename;
+		stats = new ImportStats(fullFilename);
 		// Split up the filename into the path and the real filename
 		String[] pathParts = KouchKarting.getPathAndFile(fullFilename);
         filepath = pathParts[0];
         filename = pathParts[1];
-        System.out.println("The filepath is: " + filepath);
-        System.out.println("The filename is: " + filename);
+        ImportStats.log("The filepath is: " + filepath);
+        ImportStats.log("The filename is: " + filename);
+        
+        // Use the baked mesh if it is up to date
+        if (useBakedMeshes) {
+        	mesh = BakedMesh.read(fullFilename);
+        	if (mesh != null) {
+        		stats.baked = true;
+        		stats.parseTime = System.nanoTime() - startTime;
+        		ImportStats.log("OBJImporter.load(): Loaded baked mesh from " 
+        						   + BakedMesh.getBakeFilename(filename));
+        		if (mesh.materialLibraryName != null) {
+        			loadMaterialLibrary(mesh.materialLibraryName);
+        		}
+        		finishStats(startTime);
+        		return mesh;
+        	}
+        }
+        
         // Show debugging messages and load the object
-		System.out.println("OBJImporter.import(): Loading object from " + filename);
+		ImportStats.log("OBJImporter.import(): Loading object from " + filename);
 		loadObject();
-		System.out.println("OBJImporter.importFromStream(): model has " + faces.size() + 
-						   " faces and " + vertexData.size() + " vertices.  Mtl file is " + 
+		ImportStats.log("OBJImporter.importFromStream(): model has " + noOfFaces + 
+						   " faces and " + mesh.numVertices + " vertices.  Mtl file is " + 
 						   materialLibraryName);
-		return makeMeshObject ();
+		
+        // Calculate the dimensions for the mesh
+		long optimiseStart = System.nanoTime();
+        mesh.calculateDimensions();
+        stats.optimiseTime += System.nanoTime() - optimiseStart;
+        
+        // Bake the mesh so it loads faster next time
+        if (useBakedMeshes) {
+        	try {
+        		BakedMesh.write(mesh, fullFilename);
+        	}
+        	catch (IOException exception) {
+        		System.out.println("OBJImporter.load(): could not bake " + filename + ", " + exception);
+        	}
+        }
+        finishStats(startTime);
+		return mesh;
+	}
+	
+	/**
+	 * Fills in the rest of the statistics once the mesh is loaded, and adds
+	 * them to the total
+	 * 
+	 * @param startTime when the load started (from System.nanoTime())
+	 */
+	private void finishStats(long startTime) {
+		if (stats.baked) {
+			stats.bytesRead = new File(BakedMesh.getBakeFilename(fullFilename)).length();
+		}
+		else {
+			stats.bytesRead = new File(fullFilename).length();
+			stats.noOfTextureCoords = textureData.size();
+			stats.noOfNormals = normalData.size();
+			stats.noOfFaces = noOfFaces;
+		}
+		stats.noOfVertices = mesh.numVertices;
+		stats.noOfTriangles = mesh.numTriangles;
+		stats.noOfGroups = mesh.getNoOfGroups();
+		if (materialLibrary != null) {
+			stats.noOfMaterials = materialLibrary.getMaterials().length;
+			stats.noOfTextures = materialLibrary.getNoOfTextures();
+		}
+		stats.noOfLookups = noOfLookups;
+		stats.noOfMaterialChanges = mesh.getNoOfMaterialRuns();
+		stats.noOfCacheMisses = VertexCacheOptimiser
+				.countCacheMisses(mesh.triangles);
+		if (stats.baked) {
+			// Baked meshes were reordered before they were saved
+			stats.noOfMaterialChangesBefore = stats.noOfMaterialChanges;
+			stats.noOfCacheMissesBefore = stats.noOfCacheMisses;
+		}
+		stats.totalTime = System.nanoTime() - startTime;
+		ImportStats.addToTotal(stats);
+		ImportStats.log("OBJImporter.load(): " + stats);
+	}
+	
+	/**
+	 * Returns what the last load read and how long it took
+	 * 
+	 * @return the statistics of the last load (null before the first load)
+	 */
+	public ImportStats getStats() {
+		return stats;
 	}
 	
 	/**
-	 * Loads an object from the file the OBJImporter has.
+	 * Loads an object from the file the OBJImporter has, building its mesh
+	 * while the file is read.
 	 */
 	public void loadObject(){
+		// Make a new mesh, with a default group in case the obj file doesn't have groups
+		mesh = new Mesh(filename, materialLibraryName);
+		group = mesh.addGroup("default", materialName);
+		groupIDs.put("default", Integer.valueOf(group));
+		
+		long parseStart = System.nanoTime();
 		try {
-			// Create a new buffered reader to read the file from
-			BufferedReader OBJFile = new BufferedReader (new FileReader (fullFilename));
-			String line = "";
-			String materialName = "";
-			int materialID = -1;
+			if (parseMode == PARSE_PARALLEL) {
+				stats.noOfLines = loadChunks();
+			}
+			else if (parseMode == PARSE_MAPPED) {
+				OBJBufferParser parser = new OBJBufferParser(this);
+				parser.parse(fullFilename);
+				stats.noOfLines = parser.getNoOfLines();
+			}
+			else {
+				readObject();
+			}
+		} 
+		catch (Exception exception) {
+			System.out.println("OBJImporter.loadObject() failed to load file: " + filename);
+		}
+		// The faces are made into triangles while the file is parsed
+		stats.parseTime = System.nanoTime() - parseStart - stats.triangulateTime;
+		
+		// Optimise the Mesh (this also removes any empty groups)
+		// and make its welded vertices
+		long optimiseStart = System.nanoTime();
+		Triangle[] loadedTriangles = (Triangle[]) mesh.triangleData
+				.toArray(new Triangle[mesh.triangleData.size()]);
+		stats.noOfMaterialChangesBefore = VertexCacheOptimiser
+				.countMaterialChanges(loadedTriangles);
+		stats.noOfCacheMissesBefore = VertexCacheOptimiser
+				.countCacheMisses(loadedTriangles);
+		mesh.optimise();
+		makeIndexedMesh();
+		stats.optimiseTime = System.nanoTime() - optimiseStart;
+
+		// For debugging purposes
+		ImportStats.log("OBJImporter: imported " + getNoOfPolygons()
+						   + " faces in " + mesh.getNoOfGroups() + " groups ("
+						   + noOfLookups + " group and material lookups)");
+		// For debugging purposes
+		if (ImportStats.isLogging()) {
+	        for (int group = 0; group < mesh.getNoOfGroups(); group++) {
+	            ImportStats.log("Group " + group + " " + mesh.getGroupName(group) + 
+	            				   " has " + mesh.getGroupSize(group) + " triangles, material is " 
+	            				   + mesh.getGroupMaterialName(group));
+	        }
+		}
+	}
+	
+	/**
+	 * Parses the .obj file in chunks on all the processors. Each chunk makes
+	 * its vertices and the triangles of its faces on its own thread, so this
+	 * thread only adds them to the mesh in file order, and welds each chunk's
+	 * welded vertices into the mesh's.
+	 * 
+	 * @return the number of lines with data parsed
+	 * @throws IOException if the file could not be mapped or parsed
+	 */
+	private int loadChunks() throws IOException {
+		ByteBuffer buffer = OBJBufferParser.map(fullFilename);
+		OBJChunk[] chunks = OBJParallelParser.parseChunks(buffer, alwaysSplit, true);
+		if (chunks == null) {
+			OBJBufferParser parser = new OBJBufferParser(this);
+			parser.parse(buffer);
+			return parser.getNoOfLines();
+		}
+		
+		// Add the vertices, texture coordinates and normals of each chunk,
+		// and select its groups and materials, in file order
+		int noOfLines = 0;
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			addChunk(chunks[chunk]);
+			noOfLines += chunks[chunk].getNoOfLines();
+		}
+		
+		// Make the triangles of all the chunks at the same time, then number
+		// their welded vertices in file order
+		long triangulateStart = System.nanoTime();
+		OBJParallelParser.makeTriangles(chunks, mesh, textureVectors, normalVectors);
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			chunks[chunk].weld(welder);
+		}
+		OBJParallelParser.renumber(chunks);
+		
+		// Add the triangles of each chunk to the mesh
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			Triangle[] triangles = chunks[chunk].getTriangles();
+			for (int triangle = 0; triangle < triangles.length; triangle++) {
+				mesh.addTriangle(triangles[triangle]);
+			}
+			noOfFaces += chunks[chunk].getNoOfFaces();
+		}
+		stats.triangulateTime += System.nanoTime() - triangulateStart;
+		return noOfLines;
+	}
+	
+	/**
+	 * Adds the vertices, texture coordinates and normals a chunk made on its
+	 * own thread, and gives it the group and material records (see
+	 * OBJChunk.replayNames())
+	 * 
+	 * @param chunk the next chunk of the file
+	 */
+	private void addChunk(OBJChunk chunk) {
+		chunk.setOffsets(mesh.vertexData.size(), textureData.size(),
+				normalData.size());
+		Vertex[] vertices = chunk.getVertices();
+		for (int vertex = 0; vertex < chunk.getNoOfVertices(); vertex++) {
+			mesh.addVertex(vertices[vertex]);
+		}
+		textureVectors = addVectors(textureVectors, textureData.size(),
+				chunk.getTextureVectors(), chunk.getTextureData().size());
+		textureData.addAll(chunk.getTextureData());
+		normalVectors = addVectors(normalVectors, normalData.size(),
+				chunk.getNormalVectors(), chunk.getNormalData().size());
+		normalData.addAll(chunk.getNormalData());
+		chunk.replayNames(this);
+	}
+	
+	/**
+	 * Returns the current group while the file is being read
+	 * 
+	 * @return the number of the group
+	 */
+	int getGroup() {
+		return group;
+	}
+	
+	/**
+	 * Returns the current material while the file is being read
+	 * 
+	 * @return the material's index in the library, or -1 if it wasn't found
+	 */
+	int getMaterialID() {
+		return materialID;
+	}
+	
+	/**
+	 * Reads the .obj file line by line with a BufferedReader
+	 * 
+	 * @throws IOException if the file could not be read
+	 */
+	private void readObject() throws IOException {
+		// Create a new buffered reader to read the file from
+		BufferedReader OBJFile = new BufferedReader (new FileReader (fullFilename));
+		String line = "";
+		
+		// While you haven't read the entire file
+		while ((line = OBJFile.readLine()) != null) {
 			
-			// Create a default group in case the obj file doesn't have groups
-			Group group = new Group ("default");
-			groups.add(group);
+			// Remove all the extra spaces from the next line
+			line = line.trim();
+			line = line.replaceAll("  ", " ");
 			
-			// While you haven't read the entire file
-			while ((line = OBJFile.readLine()) != null) {
-				
-				// Remove all the extra spaces from the next line
-				line = line.trim();
-				line = line.replaceAll("  ", " ");
+			// If the line contains data
+			if (line.length() > 0) {
+				stats.noOfLines++;
 				
-				// If the line contains data
-				if (line.length() > 0) {
-					
-					// If the line has vertex data (In the form: v xCoord yCoord zCoord)
-					if (line.startsWith("v ")) {
-						vertexData.add(readFloats(line));
+				// If the line has vertex data (In the form: v xCoord yCoord zCoord)
+				if (line.startsWith("v ")) {
+					if (readFloats(line)) {
+						vertex(values[0], values[1], values[2]);
 					}
-					
-					// If the line has texture data (In the form: vt uCoord vCoord wCoord-(usually 0))
-					else if (line.startsWith("vt")) {
-						textureData.add(readFloats(line));
-					}
-					
-					// If the line has normal data (In the form: vn xCoord yCoord zCoord)
-					else if (line.startsWith("vn")) {
-						normalData.add(readFloats(line));
+				}
+				
+				// If the line has texture data (In the form: vt uCoord vCoord wCoord-(usually 0))
+				else if (line.startsWith("vt")) {
+					if (readFloats(line)) {
+						texture(values[0], values[1], values[2]);
 					}
-					
-					// If the line has face data (In the form: v1/vt1/vn1 v2/vt2/vn2 v3/vt3/vn3)
-					else if (line.startsWith("f ")) {
-						Face newFace = readFace(line);
-						
-						// Assign the material ID for that group
-						newFace.assignMaterial(materialID);
-						faces.add(newFace);           					// Add face to complete face list
-						group.addFace(newFace);     					// Add face to current group
-						group.addTriangles(newFace.getNoOfTriangles()); // Track the number of triangles in the group
+				}
+				
+				// If the line has normal data (In the form: vn xCoord yCoord zCoord)
+				else if (line.startsWith("vn")) {
+					if (readFloats(line)) {
+						normal(values[0], values[1], values[2]);
 					}
-					
-					// If the line has group data (In the form: g groupName)
-                    else if (line.startsWith("g ")) {
-                        String groupname = (line.length() > 1) ? line.substring(2).trim() : "";
-                        
-                        // "Select" the given group
-                        group = findGroup(groupname);
-                        
-                        // If group not found: start a new group
-                        if (group == null) {
-                            group = new Group(groupname);
-                            group.assignMaterial(materialName, materialID);  // Assign current material to new group
-                            groups.add(group);
-                        }
-                    }
-					
-					//If the line contains material data (In the form: usemtl materialName)
-                    else if (line.startsWith("usemtl")) {
-                        materialName = line.substring(7).trim();
-                        
-                        // Look for the material name in the library if there is a library
-                        // and assign that material to the current group
-                        materialID = (materialLibrary == null) ? -1 : materialLibrary.findID(materialName);
-                        group.assignMaterial(materialName, materialID);
-                    }
-					
-					// If the line contains material library data (In the form: mtllib materialLibraryFile.mtl)
-                    else if (line.startsWith("mtllib")) {
-                        // Load the material library
-                        materialLibraryName = line.substring(7).trim();
-                        if (materialLibraryName.startsWith("./")) {
-                            materialLibraryName = materialLibraryName.substring(2);
-                        }
-                        materialLibrary = new MaterialLibrary(filepath + materialLibraryName);
-                    }
 				}
+				
+				// If the line has face data (In the form: v1/vt1/vn1 v2/vt2/vn2 v3/vt3/vn3)
+				else if (line.startsWith("f ")) {
+					readFace(line);
+				}
+				
+				// If the line has group data (In the form: g groupName)
+                else if (line.startsWith("g ")) {
+                    selectGroup((line.length() > 1) ? line.substring(2).trim() : "");
+                }
+				
+				//If the line contains material data (In the form: usemtl materialName)
+                else if (line.startsWith("usemtl")) {
+                    useMaterial(line.substring(7).trim());
+                }
+				
+				// If the line contains material library data (In the form: mtllib materialLibraryFile.mtl)
+                else if (line.startsWith("mtllib")) {
+                    loadMaterialLibrary(line.substring(7).trim());
+                }
 			}
-		} 
-		catch (Exception exception) {
-			System.out.println("OBJImporter.loadObject() failed to load file: " + filename);
 		}
-		// Remove any empty groups
-        for (int group = groups.size() - 1; group >= 0; group--) {
-            if (((Group)groups.get(group)).faces.size() <= 0) {
-                System.out.println("REMOVED EMPTY GROUP: " + ((Group) groups.get(group)).getName());
-                groups.remove(group);
-            }
+		OBJFile.close();
+	}
+	
+	/**
+	 * Adds a vertex read from the file
+	 * 
+	 * @param x the x coordinate of the vertex
+	 * @param y the y coordinate of the vertex
+	 * @param z the z coordinate of the vertex
+	 */
+	public void vertex(float x, float y, float z) {
+		mesh.addVertex(x, y, z);
+	}
+	
+	/**
+	 * Adds a texture coordinate read from the file
+	 * 
+	 * @param u the u coordinate
+	 * @param v the v coordinate
+	 * @param w the w coordinate (usually 0)
+	 */
+	public void texture(float u, float v, float w) {
+		textureData.add(u, v, w);
+	}
+	
+	/**
+	 * Adds a normal read from the file
+	 * 
+	 * @param x the x component of the normal
+	 * @param y the y component of the normal
+	 * @param z the z component of the normal
+	 */
+	public void normal(float x, float y, float z) {
+		normalData.add(x, y, z);
+	}
+	
+	/**
+	 * Converts the indices of a face read from the file and adds the face to
+	 * the mesh. Missing texture or normal indices (written as 0) point to the
+	 * first element.
+	 * 
+	 * @param vertexIDs the vertex indices as written in the file
+	 * @param textureIDs the texture indices as written in the file
+	 * @param normalIDs the normal indices as written in the file
+	 * @param noOfVertices the number of vertices in the face
+	 */
+	public void face(int[] vertexIDs, int[] textureIDs, int[] normalIDs, int noOfVertices) {
+		// Grow the index arrays if the face is a large polygon
+		if (noOfVertices > faceVertexIDs.length) {
+			faceVertexIDs = new int[noOfVertices];
+			faceTextureIDs = new int[noOfVertices];
+			faceNormalIDs = new int[noOfVertices];
+			faceWeldIDs = new int[noOfVertices];
+		}
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			faceVertexIDs[vertex] = convertIndex(vertexIDs[vertex], mesh.vertexData.size());
+			faceTextureIDs[vertex] = (textureIDs[vertex] == 0) ? 0 
+					: convertIndex(textureIDs[vertex], textureData.size());
+			faceNormalIDs[vertex] = (normalIDs[vertex] == 0) ? 0 
+					: convertIndex(normalIDs[vertex], normalData.size());
+		}
+		long triangulateStart = System.nanoTime();
+		addFace(noOfVertices);
+		stats.triangulateTime += System.nanoTime() - triangulateStart;
+	}
+	
+	/**
+	 * "Selects" the group read from the file
+	 * 
+	 * @param name the name of the group
+	 */
+	public void group(String name) {
+		selectGroup(name);
+	}
+	
+	/**
+	 * Makes the material read from the file the current material
+	 * 
+	 * @param name the name of the material
+	 */
+	public void material(String name) {
+		useMaterial(name);
+	}
+	
+	/**
+	 * Loads the material library read from the file
+	 * 
+	 * @param name the name of the .mtl file
+	 */
+	public void materialLibrary(String name) {
+		loadMaterialLibrary(name);
+	}
+	
+	/**
+	 * Adds the face in the index arrays to the mesh as triangles in the
+	 * current group, using the current material.
+	 * A face may be a triangle, quad or polygon, so it is converted to a
+	 * triangle fan, with first vertex (0) at centre:  0,1,2   0,2,3   0,3,4
+	 * 
+	 * @param noOfVertices the number of vertices in the face
+	 */
+	private void addFace(int noOfVertices) {
+		noOfFaces++;
+		
+		// Weld each corner of the face
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			faceWeldIDs[vertex] = welder.weld(faceVertexIDs[vertex], 
+					faceTextureIDs[vertex], faceNormalIDs[vertex]);
+		}
+		for (int triangle = 1; triangle < noOfVertices - 1; triangle++) {
+			addTriangle(0, triangle, triangle + 1);
+		}
+	}
+	
+	/**
+	 * "Selects" the group with the given name, starting a new group if
+	 * there is no group with that name yet
+	 * 
+	 * @param groupname the name of the group
+	 */
+	private void selectGroup(String groupname) {
+        group = findGroup(groupname);
+        
+        // If group not found: start a new group with the current material
+        if (group < 0) {
+            group = mesh.addGroup(groupname, materialName);
+            groupIDs.put(groupname, Integer.valueOf(group));
         }
-
-		// For debugging purposes
-		System.out.println("OBJImporter: imported " + getNoOfPolygons()
-						   + " faces in " + groups.size() + " groups");
-		// For debugging purposes
-        for (int group = 0; group < groups.size(); group++) {
-            System.out.println("Group " + group + " " + ((Group)groups.get(group)).getName() + 
-            				   " has " + ((Group)groups.get(group)).faces.size() + " faces, material is " 
-            				   + ((Group)groups.get(group)).getMaterialName());
+	}
+	
+	/**
+	 * Makes the material with the given name the current material
+	 * 
+	 * @param name the name of the material
+	 */
+	private void useMaterial(String name) {
+        materialName = name;
+        
+        // Look for the material name in the library if there is a library
+        // and assign that material to the current group
+        noOfLookups++;
+        materialID = (materialLibrary == null) ? -1 : materialLibrary.findID(materialName);
+        mesh.setGroupMaterial(group, materialName);
+	}
+	
+	/**
+	 * Loads the material library with the given name
+	 * 
+	 * @param name the name of the .mtl file, relative to the .obj file
+	 */
+	private void loadMaterialLibrary(String name) {
+        materialLibraryName = name;
+        if (materialLibraryName.startsWith("./")) {
+            materialLibraryName = materialLibraryName.substring(2);
         }
+        mesh.materialLibraryName = materialLibraryName;
+        materialLibrary = MeshCache.getMaterialLibrary(filepath + materialLibraryName, loadTextures);
+        mesh.importMaterials(materialLibrary.getMaterials());
 	}
 	
 	/**
-	 * Read the values from the line given and create
-	 * a new float array with those values
+	 * Read the values from the line given into the values array
 	 * 
 	 * @param line the line to read the values from
-	 * @return an array containing the float values
+	 * @return true if the values were read, false if the line had an error
 	 */
-	private float[] readFloats(String line)
+	private boolean readFloats(String line)
 	{
 		try
 		{
@@ -199,51 +632,40 @@ public class OBJImporter {
 			StringTokenizer st = new StringTokenizer(line, " ");
 			st.nextToken();
 			
-			// Create and return a new float array with the values read
-			// from the given line
-			if (st.countTokens() == 2) {
-				return new float[] {Float.parseFloat(st.nextToken()),
-									Float.parseFloat(st.nextToken()),
-									0};
-			}
-			else {
-				return new float[] {Float.parseFloat(st.nextToken()),
-									Float.parseFloat(st.nextToken()),
-									Float.parseFloat(st.nextToken())};
-			}
+			// Read the values from the given line
+			values[0] = Float.parseFloat(st.nextToken());
+			values[1] = Float.parseFloat(st.nextToken());
+			values[2] = (st.hasMoreTokens()) ? Float.parseFloat(st.nextToken()) : 0;
+			return true;
 		}
 		catch (Exception e)
 		{
 			System.out.println("OBJImporter.readFloats(): error on line '" + line + "', " + e);
-			return null;
+			return false;
 		}
 	}
 	
 	/**
-	 * Look through all the groups for the group with the given name
+	 * Find the group with the given name
 	 * 
 	 * @param name the name of the group
-	 * @return the group with that name or null if no group was found
+	 * @return the number of the group with that name or -1 if no group was found
 	 */
-	public Group findGroup(String name) {
-        for (int group = 0; group < groups.size(); group++) {
-            if (((Group)groups.get(group)).getName().equals(name)) {
-                return (Group)groups.get(group);
-            }
-        }
-        return null;
+	public int findGroup(String name) {
+		noOfLookups++;
+        Integer group = groupIDs.get(name);
+        return (group == null) ? -1 : group.intValue();
     }
 	
 	/**
-	 * Read face data from the given line and return a Face object.
+	 * Read face data from the given line and add the face.
 	 * Face line is in the form: f 1/3/1 13/20/13 16/29/16
      * Three or more sets of numbers, each set contains vertex/texture/normal
      * indices
      * 
 	 * @param line   the string to read the data from
-	 * @return       the Face object created
 	 */
-	private Face readFace(String line) {
+	private void readFace(String line) {
         // Throw out the "f" at the start of the line, and then split
         String[] triplets = line.substring(2).split(" ");
         // Create new arrays for the vertices, textures and normals
@@ -254,149 +676,174 @@ public class OBJImporter {
         for (int triplet = 0; triplet < triplets.length; triplet++) {
             // If the texture coordinate was not assigned, make it 0
             String[] vertTxtrNorm = triplets[triplet].replaceAll("//", "/0/").split("/");
-            // Convert the data into the arrays
+            // Read the data into the arrays, as written in the file
             if (vertTxtrNorm.length > 0) {
-            	vertices[triplet] = convertIndex(vertTxtrNorm[0],vertexData.size());
+            	vertices[triplet] = Integer.parseInt(vertTxtrNorm[0]);
             }
             if (vertTxtrNorm.length > 1) {
-                textures[triplet] = convertIndex(vertTxtrNorm[1],textureData.size());
+                textures[triplet] = Integer.parseInt(vertTxtrNorm[1]);
             }
             if (vertTxtrNorm.length > 2) {
-                normals[triplet] = convertIndex(vertTxtrNorm[2],normalData.size());
+                normals[triplet] = Integer.parseInt(vertTxtrNorm[2]);
             }
         }
         
-        // Create a new face and return it
-        return new Face(vertices, textures, normals);
-	}
-	
-	/**
-	 * Create a Mesh object from the data read by the OBJImporter
-	 * 
-	 * @return the mesh object created
-	 */
-    public Mesh makeMeshObject() {
-
-        // Make a new mesh
-        mesh = new Mesh(filename, materialLibraryName);
-        if (materialLibrary != null) {
-        	mesh.importMaterials(materialLibrary.getMaterials());
-        }
-
-        // Add the vertices to the Mesh
-        for (int vertex = 0; vertex < vertexData.size(); vertex++) {
-            float[] coords = (float[]) vertexData.get(vertex);
-			mesh.addVertex(coords[0], coords[1], coords[2]);
-        }
-
-        // Allocate space for groups
-        mesh.makeGroups(groups.size());
-
-        // For each group
-        for (int group = 0; group < groups.size(); group++) {
-        	// Import its data, allocating space for triangles
-            mesh.importGroup(group,
-                          ((Group)groups.get(group)).getName(),
-                          ((Group)groups.get(group)).getMaterialName(),
-                          ((Group)groups.get(group)).getNoOfTriangles());
-        }
-
-        // Import triangles to the Mesh. 
-        // A Face may be a triangle, quad or polygon.  
-        // Convert all faces to triangles.
-        
-        // For each group
-        for (int group = 0; group < groups.size(); group++) {
-            int noOfTriangles = 0;
-            // Stores its faces
-            faces = ((Group)groups.get(group)).getFaces();
-            // For each face
-            for (int face = 0; face < faces.size(); face++) {
-                Face addFace = (Face) faces.get(face);
-                // Put vertices, normals, and texture coordinates into the mesh
-                // by converting any polygon to a triangle fan, with first vertex (0)
-                // at centre:  0,1,2   0,2,3   0,3,4   0,4,5
-                for (int triangle = 0; triangle < addFace.getNoOfTriangles(); triangle++) {
-                    addTriangle(mesh, group, noOfTriangles, addFace, 0, triangle + 1, triangle + 2, addFace.getMaterialID());
-                    noOfTriangles++;
-                }
-            }
-        }
-
-		// Optimise the Mesh
-		mesh.optimise();
-
-        // Calculate the dimensions for the mesh
-        mesh.calculateDimensions();
-        
-		return mesh;
+        // Convert the indices and add the face
+        face(vertices, textures, normals, triplets.length);
 	}
     
     /**
-     * Add a new triangle to the Mesh.  
-     * This assumes that the vertices have already been added to the Mesh, 
-     * in the same order that they were in the OBJ.  
-     * Also that the mesh has groups allocated with triangle arrays.
+     * Add a new triangle to the Mesh, in the current group and with the
+     * current material. The vertices of the triangle are picked from the face
+     * in the index arrays.
      *
-     * @param mesh the Mesh object
-     * @param groupNum the group to add the triangle to
-     * @param triangleNum the index of the triangle to add in the group
-     * @param face the face from which the triangle is from
-     * @param vertexOne the index of the first vertex of the triangle
-     * @param vertexTwo the index of the second vertex of the triangle
-     * @param vertexThree the index of the third vertex of the triangle
-     * @param materialID the index of the material of the triangle
+     * @param vertexOne the index of the first vertex of the triangle in the face
+     * @param vertexTwo the index of the second vertex of the triangle in the face
+     * @param vertexThree the index of the third vertex of the triangle in the face
      */
-    public void addTriangle(Mesh mesh, int groupNum, int triNum, Face face,
-                                   int vertexOne, int vertexTwo, int vertexThree, int materialID) {
+    private void addTriangle(int vertexOne, int vertexTwo, int vertexThree) {
         // A face may have many vertices (can be a polygon).
         // Make a new triangle with the specified three vertices.
         Triangle triangle = new Triangle(
-            mesh.getVertex(face.getVertexIDs () [vertexOne]),
-            mesh.getVertex(face.getVertexIDs () [vertexTwo]),
-            mesh.getVertex(face.getVertexIDs () [vertexThree]));
+            mesh.getVertex(faceVertexIDs[vertexOne]),
+            mesh.getVertex(faceVertexIDs[vertexTwo]),
+            mesh.getVertex(faceVertexIDs[vertexThree]));
 
         // Import texture coordinates into triangle
         // if texture coordinates were loaded
         if (textureData.size() > 0) {
-            float[] textureCoord;
-            
-            // Set the texture coordinate for vertex 1 
-            textureCoord = (float[]) textureData.get(face.getTextureIDs () [vertexOne]); 
-            triangle.texture1 = new Vector (textureCoord[0], textureCoord[1], textureCoord[2]);
-            
-            // Set the texture coordinate for vertex 2
-            textureCoord = (float[]) textureData.get(face.getTextureIDs () [vertexTwo]); 
-            triangle.texture2 = new Vector (textureCoord[0], textureCoord[1], textureCoord[2]);
-             
-            // Set the texture coordinate for vertex 3
-            textureCoord = (float[]) textureData.get(face.getTextureIDs () [vertexThree]);
-            triangle.texture3 = new Vector (textureCoord[0], textureCoord[1], textureCoord[2]);
+            triangle.texture1 = getTextureVector(faceTextureIDs[vertexOne]);
+            triangle.texture2 = getTextureVector(faceTextureIDs[vertexTwo]);
+            triangle.texture3 = getTextureVector(faceTextureIDs[vertexThree]);
         }
 
         // Import normals into triangle
         // if normal data was loaded
         if (normalData.size() > 0) {
-            float[] normal;
-            
-            // Set the normal coordinate for vertex 1 
-            normal = (float[]) normalData.get(face.getNormalIDs () [vertexOne]); 
-            triangle.normal1 = new Vector (normal[0], normal[1], normal[2]);
-            
-            // Set the normal coordinate for vertex 2 
-            normal = (float[]) normalData.get(face.getNormalIDs () [vertexTwo]); 
-            triangle.normal2 = new Vector (normal[0], normal[1], normal[2]);
-            
-            // Set the normal coordinate for vertex 2 
-            normal = (float[]) normalData.get(face.getNormalIDs () [vertexThree]); 
-            triangle.normal3 = new Vector (normal[0], normal[1], normal[2]);
+            triangle.normal1 = getNormalVector(faceNormalIDs[vertexOne]);
+            triangle.normal2 = getNormalVector(faceNormalIDs[vertexTwo]);
+            triangle.normal3 = getNormalVector(faceNormalIDs[vertexThree]);
         }
 
-        // Store the material index in the triangle
+        // Store the welded vertex, group and material indices in the triangle
+        triangle.index1 = faceWeldIDs[vertexOne];
+        triangle.index2 = faceWeldIDs[vertexTwo];
+        triangle.index3 = faceWeldIDs[vertexThree];
+        triangle.groupID = group;
         triangle.materialID = materialID;
 
-        // Add triangle to the given group in the Mesh
-        mesh.addTriangle(triangle, groupNum, triNum);
+        // Add triangle to the Mesh
+        mesh.addTriangle(triangle);
+    }
+	
+    /**
+     * Makes the welded vertex arrays and the triangle indices of the mesh.
+     * The indices follow the mesh's (optimised) triangle order, so every
+     * group is a range of the indices.
+     */
+    private void makeIndexedMesh() {
+        // Copy the data of each welded vertex
+        int noOfVertices = welder.size();
+        float[] positions = new float[noOfVertices * 3];
+        float[] normals = (normalData.size() > 0) ? new float[noOfVertices * 3] : null;
+        float[] textureCoords = (textureData.size() > 0) ? new float[noOfVertices * 2] : null;
+        int[] vertexIDs = new int[noOfVertices];
+        for (int vertex = 0; vertex < noOfVertices; vertex++) {
+            vertexIDs[vertex] = welder.getVertexID(vertex);
+            Vector position = mesh.getVertex(vertexIDs[vertex]).pos;
+            positions[vertex * 3] = position.x;
+            positions[vertex * 3 + 1] = position.y;
+            positions[vertex * 3 + 2] = position.z;
+            if (normals != null) {
+                int normal = welder.getNormalID(vertex);
+                normals[vertex * 3] = normalData.get(normal, 0);
+                normals[vertex * 3 + 1] = normalData.get(normal, 1);
+                normals[vertex * 3 + 2] = normalData.get(normal, 2);
+            }
+            if (textureCoords != null) {
+                int textureCoord = welder.getTextureID(vertex);
+                textureCoords[vertex * 2] = textureData.get(textureCoord, 0);
+                textureCoords[vertex * 2 + 1] = textureData.get(textureCoord, 1);
+            }
+        }
+        
+        // Copy the welded indices of each triangle
+        int[] indices = new int[mesh.numTriangles * 3];
+        for (int triangle = 0; triangle < mesh.numTriangles; triangle++) {
+            indices[triangle * 3] = mesh.triangles[triangle].index1;
+            indices[triangle * 3 + 1] = mesh.triangles[triangle].index2;
+            indices[triangle * 3 + 2] = mesh.triangles[triangle].index3;
+        }
+        mesh.indexedMesh = new IndexedMesh(positions, normals, textureCoords, 
+        		vertexIDs, indices);
+        welder = null;
+    }
+    
+    /**
+     * Returns the vector for the texture coordinate with the given index,
+     * making it the first time the texture coordinate is used
+     * 
+     * @param index the index of the texture coordinate
+     * @return the vector with the texture coordinate
+     */
+    private Vector getTextureVector(int index) {
+        if (index >= textureVectors.length) {
+            textureVectors = grow(textureVectors, textureData.size());
+        }
+        if (textureVectors[index] == null) {
+            textureVectors[index] = new Vector (textureData.get(index, 0),
+            		textureData.get(index, 1), textureData.get(index, 2));
+        }
+        return textureVectors[index];
+    }
+    
+    /**
+     * Returns the vector for the normal with the given index,
+     * making it the first time the normal is used
+     * 
+     * @param index the index of the normal
+     * @return the vector with the normal
+     */
+    private Vector getNormalVector(int index) {
+        if (index >= normalVectors.length) {
+            normalVectors = grow(normalVectors, normalData.size());
+        }
+        if (normalVectors[index] == null) {
+            normalVectors[index] = new Vector (normalData.get(index, 0),
+            		normalData.get(index, 1), normalData.get(index, 2));
+        }
+        return normalVectors[index];
+    }
+    
+    /**
+     * Copies vectors to the end of a vector array, growing it if needed
+     * 
+     * @param vectors the array
+     * @param length the number of vectors used in the array
+     * @param newVectors the vectors to add
+     * @param noOfNewVectors the number of vectors to add
+     * @return the array with the new vectors
+     */
+    private static Vector[] addVectors(Vector[] vectors, int length,
+    		Vector[] newVectors, int noOfNewVectors) {
+        if (length + noOfNewVectors > vectors.length) {
+            vectors = grow(vectors, length + noOfNewVectors);
+        }
+        System.arraycopy(newVectors, 0, vectors, length, noOfNewVectors);
+        return vectors;
+    }
+    
+    /**
+     * Returns a copy of the vector array with the given length
+     * 
+     * @param vectors the array to grow
+     * @param length the new length of the array
+     * @return the larger array
+     */
+    private static Vector[] grow(Vector[] vectors, int length) {
+        Vector[] larger = new Vector[length];
+        System.arraycopy(vectors, 0, larger, 0, vectors.length);
+        return larger;
     }
 	
 	/**
@@ -411,7 +858,17 @@ public class OBJImporter {
      * @return index the proper index in the array 
      */
     public int convertIndex(String token, int noOfElements) {
-        int index = Integer.valueOf(token).intValue(); // OBJ file index starts at 1
+        return convertIndex(Integer.valueOf(token).intValue(), noOfElements);
+    }
+    
+    /**
+     * Converts an index read from the file into the proper array index.
+     * 
+     * @param index the index as it was written in the OBJ file (starts at 1)
+     * @param noOfElements the number of elements in the array
+     * @return index the proper index in the array 
+     */
+    public int convertIndex(int index, int noOfElements) {
         // Convert index to start at 0
         if (index < 0) {
         	index += noOfElements;  
@@ -428,103 +885,16 @@ public class OBJImporter {
      * @return the total number of polygons imported
      */
     public int getNoOfPolygons() {
-    	// For each group, add the number of polygons in that group to the total
-        int total = 0;
-        for (int group = 0; group < groups.size(); group++) {
-            total += ((Group)groups.get(group)).faces.size();
-        }
-        return total;
+        return noOfFaces;
     }
     
-    //========================================================================
-    // Group class holds a group of faces with a name and material
-    //========================================================================
-
-    @SuppressWarnings("unused")
-	public class Group {
-    	
-    	// The variables for the name, material name and ID, 
-    	// total number of triangles and an array for all the faces in that group
-        private String name;
-        private String materialName;
-		private int materialID;
-        private int noOfTriangles;
-        private ArrayList faces;
-
-        /**
-         * Create a new group with the given name
-         * 
-         * @param name the name of the group
-         */
-        public Group(String name) {
-            this.name = name;
-            this.materialName = "";
-            this.faces = new ArrayList();
-        }
-
-        /**
-         * Add a new face to the group
-         * 
-         * @param f the face to add
-         */
-		public void addFace (Face f) {
-        	this.faces.add(f);
-        }
-        
-        /**
-         * Add a given number of triangles to the group
-         * 
-         * @param noOfTriangles the number of triangles to add
-         */
-        public void addTriangles (int noOfTriangles) {
-        	this.noOfTriangles += noOfTriangles;
-        }
-        
-        /**
-         * Assign the given material name and ID to the group
-         * 
-         * @param materialName
-         * @param materialID
-         */
-        public void assignMaterial (String materialName, int materialID) {
-        	this.materialName = materialName;
-        	this.materialID = materialID;
-        }
-        
-        /**
-         * Returns the name of the group
-         * 
-         * @return the name of the group
-         */
-        public String getName () {
-        	return this.name;
-        }
-        
-        /**
-         * Returns the name of the material of this group
-         * 
-         * @return the name of the material
-         */
-        public String getMaterialName() {
-        	return this.materialName;
-        }
-        
-        /**
-         * Returns the number of triangles in the group
-         * 
-         * @return the number of triangles
-         */
-        public int getNoOfTriangles() {
-        	return this.noOfTriangles;
-        }
-        
-        /**
-         * Returns the faces in the group
-         * 
-         * @return the array list containing the faces
-         */
-        public ArrayList getFaces() {
-        	return this.faces;
-        }
+    /**
+     * Returns the number of times a group or material was looked up by name
+     * while importing (each lookup is a hash table lookup)
+     * 
+     * @return the number of lookups
+     */
+    public int getNoOfLookups() {
+        return noOfLookups;
     }
 }
@@ -0,0 +1,249 @@
+package importer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import math.Vector;
+import mesh.Mesh;
+
+/**
+ * The "OBJParallelParser" Class.
+ * Purpose: Parses a large .obj file on all the processors. The mapped file is
+ * split into line-aligned chunks that are parsed at the same time, and the
+ * records of each chunk are then given to the handler in file order.
+ * <P>
+ * When the OBJImporter parses a file, the chunks also make their vertices
+ * and the triangles of their faces on the same threads (see OBJChunk), since
+ * that takes longer than reading the records.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class OBJParallelParser {
+
+	// Files smaller than this are parsed on the calling thread
+	public static final int MIN_PARALLEL_SIZE = 64 * 1024;
+
+	// The smallest chunk worth giving to another thread
+	private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+	// The fewest chunks a file is split into when it is always split, so
+	// the chunks are used even with one processor
+	private static final int MIN_SPLIT_CHUNKS = 4;
+
+	// The threads that parse the chunks (shared by all imports)
+	private static ExecutorService workers;
+
+	/**
+	 * Maps the given file and parses it, in parallel if it is large enough
+	 *
+	 * @param filename the name of the .obj file
+	 * @param handler the handler that receives the records
+	 * @return the number of lines with data parsed
+	 * @throws IOException if the file could not be mapped or parsed
+	 */
+	public static int parse(String filename, OBJRecordHandler handler)
+			throws IOException {
+		return parse(OBJBufferParser.map(filename), handler);
+	}
+
+	/**
+	 * Parses the buffer, in parallel if it is large enough
+	 *
+	 * @param buffer the contents of a .obj file
+	 * @param handler the handler that receives the records
+	 * @return the number of lines with data parsed
+	 * @throws IOException if a chunk could not be parsed
+	 */
+	public static int parse(ByteBuffer buffer, OBJRecordHandler handler)
+			throws IOException {
+		return parse(buffer, handler, false);
+	}
+
+	/**
+	 * Parses the buffer in chunks
+	 *
+	 * @param buffer the contents of a .obj file
+	 * @param handler the handler that receives the records
+	 * @param alwaysSplit whether to split the buffer even if it is small
+	 * @return the number of lines with data parsed
+	 * @throws IOException if a chunk could not be parsed
+	 */
+	public static int parse(ByteBuffer buffer, OBJRecordHandler handler,
+			boolean alwaysSplit) throws IOException {
+		OBJChunk[] chunks = parseChunks(buffer, alwaysSplit, false);
+		if (chunks == null) {
+			OBJBufferParser parser = new OBJBufferParser(handler);
+			parser.parse(buffer);
+			return parser.getNoOfLines();
+		}
+
+		// Give the records of each chunk to the handler in file order
+		int noOfLines = 0;
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			chunks[chunk].replay(handler);
+			noOfLines += chunks[chunk].getNoOfLines();
+		}
+		return noOfLines;
+	}
+
+	/**
+	 * Splits the buffer into chunks and parses all of them at the same time
+	 *
+	 * @param buffer the contents of a .obj file
+	 * @param alwaysSplit whether to split the buffer even if it is small
+	 * @param importing whether the chunks are imported (see OBJChunk)
+	 * @return the parsed chunks in file order, or null if the buffer is too
+	 *         small to split
+	 * @throws IOException if a chunk could not be parsed
+	 */
+	static OBJChunk[] parseChunks(ByteBuffer buffer, boolean alwaysSplit,
+			boolean importing) throws IOException {
+		int noOfChunks = getNoOfThreads();
+		if (alwaysSplit) {
+			noOfChunks = Math.max(noOfChunks, MIN_SPLIT_CHUNKS);
+		} else {
+			noOfChunks = Math.min(noOfChunks, buffer.remaining() / MIN_CHUNK_SIZE);
+		}
+		if (noOfChunks < 2
+				|| (!alwaysSplit && buffer.remaining() < MIN_PARALLEL_SIZE)) {
+			return null;
+		}
+
+		// Split the buffer into chunks and start parsing all of them
+		ArrayList<Callable<OBJChunk>> tasks = new ArrayList<Callable<OBJChunk>>();
+		int start = buffer.position();
+		for (int chunk = 0; chunk < noOfChunks; chunk++) {
+			int end = (chunk == noOfChunks - 1) ? buffer.limit() : findLineEnd(
+					buffer, start + buffer.remaining() / noOfChunks);
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(end);
+			slice.position(start);
+			tasks.add(new OBJChunk(slice, importing));
+			start = end;
+		}
+		return runAll(tasks).toArray(new OBJChunk[noOfChunks]);
+	}
+
+	/**
+	 * Makes the triangles of imported chunks at the same time (see
+	 * OBJChunk.makeTriangles())
+	 *
+	 * @param chunks the chunks, with the elements of all of them in the mesh
+	 * @param mesh the mesh with the vertices of the whole file
+	 * @param textureVectors the texture vectors of the whole file
+	 * @param normalVectors the normal vectors of the whole file
+	 * @throws IOException if the triangles of a chunk could not be made
+	 */
+	static void makeTriangles(OBJChunk[] chunks, final Mesh mesh,
+			final Vector[] textureVectors, final Vector[] normalVectors)
+			throws IOException {
+		ArrayList<Callable<OBJChunk>> tasks = new ArrayList<Callable<OBJChunk>>();
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			final OBJChunk next = chunks[chunk];
+			tasks.add(new Callable<OBJChunk>() {
+				public OBJChunk call() {
+					next.makeTriangles(mesh, textureVectors, normalVectors);
+					return next;
+				}
+			});
+		}
+		runAll(tasks);
+	}
+
+	/**
+	 * Gives the triangles of imported chunks the numbers of their welded
+	 * vertices in the whole file, at the same time (see OBJChunk.renumber())
+	 *
+	 * @param chunks the chunks, each welded into the importer's welder
+	 * @throws IOException if the triangles of a chunk could not be renumbered
+	 */
+	static void renumber(OBJChunk[] chunks) throws IOException {
+		ArrayList<Callable<OBJChunk>> tasks = new ArrayList<Callable<OBJChunk>>();
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			final OBJChunk next = chunks[chunk];
+			tasks.add(new Callable<OBJChunk>() {
+				public OBJChunk call() {
+					next.renumber();
+					return next;
+				}
+			});
+		}
+		runAll(tasks);
+	}
+
+	/**
+	 * Runs tasks on the worker threads and waits for all of them
+	 *
+	 * @param tasks the tasks
+	 * @return the chunk each task returned, in the same order
+	 * @throws IOException if a task failed or the wait was interrupted
+	 */
+	private static ArrayList<OBJChunk> runAll(ArrayList<Callable<OBJChunk>> tasks)
+			throws IOException {
+		ArrayList<OBJChunk> chunks = new ArrayList<OBJChunk>();
+		try {
+			ArrayList<Future<OBJChunk>> results = new ArrayList<Future<OBJChunk>>(
+					getWorkers().invokeAll(tasks));
+			for (int task = 0; task < results.size(); task++) {
+				chunks.add(results.get(task).get());
+			}
+		} catch (InterruptedException exception) {
+			throw new IOException("OBJParallelParser.parse() interrupted");
+		} catch (ExecutionException exception) {
+			throw new IOException("OBJParallelParser.parse() failed: "
+					+ exception.getCause());
+		}
+		return chunks;
+	}
+
+	/**
+	 * Finds the position after the end of the line containing the given
+	 * position
+	 *
+	 * @param buffer the buffer to search
+	 * @param position the position to start searching from
+	 * @return the position of the start of the next line
+	 */
+	private static int findLineEnd(ByteBuffer buffer, int position) {
+		while (position < buffer.limit() && buffer.get(position) != '\n') {
+			position++;
+		}
+		return Math.min(position + 1, buffer.limit());
+	}
+
+	/**
+	 * Returns the number of threads used to parse
+	 *
+	 * @return the number of processors
+	 */
+	public static int getNoOfThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns the worker threads, creating them the first time
+	 *
+	 * @return the worker threads
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(getNoOfThreads(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable task) {
+							Thread thread = new Thread(task, "OBJ parser");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return workers;
+	}
+}
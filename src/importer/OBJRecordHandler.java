@@ -0,0 +1,51 @@
+package importer;
+
+/**
+ * The "OBJRecordHandler" Interface.
+ * Purpose: Receives the records of a .obj file from a parser, in the order
+ * they were written in the file. Face indices are given exactly as they were
+ * written (starting at 1, or negative from the back), with 0 for a missing
+ * texture or normal index.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public interface OBJRecordHandler {
+
+	/**
+	 * Receives a vertex (In the form: v xCoord yCoord zCoord)
+	 */
+	public void vertex(float x, float y, float z);
+
+	/**
+	 * Receives a texture coordinate (In the form: vt uCoord vCoord wCoord)
+	 */
+	public void texture(float u, float v, float w);
+
+	/**
+	 * Receives a normal (In the form: vn xCoord yCoord zCoord)
+	 */
+	public void normal(float x, float y, float z);
+
+	/**
+	 * Receives a face (In the form: f v1/vt1/vn1 v2/vt2/vn2 v3/vt3/vn3). The
+	 * arrays may be reused by the parser after this method returns.
+	 */
+	public void face(int[] vertexIDs, int[] textureIDs, int[] normalIDs,
+			int noOfVertices);
+
+	/**
+	 * Receives a group (In the form: g groupName)
+	 */
+	public void group(String name);
+
+	/**
+	 * Receives a material (In the form: usemtl materialName)
+	 */
+	public void material(String name);
+
+	/**
+	 * Receives a material library (In the form: mtllib materialLibraryFile.mtl)
+	 */
+	public void materialLibrary(String name);
+}
@@ -0,0 +1,180 @@
+package importer;
+
+import java.util.Arrays;
+
+import mesh.IndexedMesh;
+import mesh.Mesh;
+import mesh.Triangle;
+
+/**
+ * The "ParserCheck" Class.
+ * Purpose: A small command line check that loads each .obj file with the
+ * line by line reader and with the mapped and parallel parsers, and makes
+ * sure all of them give the same mesh (the same triangles, positions,
+ * normals, texture coordinates, groups and materials). The parallel parser
+ * always splits the file into chunks, so the chunks are checked even for
+ * small files or with one processor. It exits with an error if any of them
+ * differ.
+ * <P>
+ * Usage: java importer.ParserCheck [file.obj ...]
+ * (with no files, the models shipped with the game are used)
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class ParserCheck {
+
+	// The models shipped with the game
+	private static final String[] DEFAULT_FILES = { "Track/Track.obj",
+			"Tree/Tree.obj", "Coin/Coin.obj", "Couch/NormalCouch.obj",
+			"Couch/ModernCouch.obj", "Couch/OffRoadCouch.obj",
+			"Couch/SuperCouch.obj" };
+
+	// The parse modes compared with the reader, and their names
+	private static final int[] PARSE_MODES = { OBJImporter.PARSE_MAPPED,
+			OBJImporter.PARSE_PARALLEL };
+	private static final String[] PARSE_MODE_NAMES = { "mapped", "parallel" };
+
+	/**
+	 * Runs the check on the given files
+	 */
+	public static void main(String[] args) {
+		String[] files = (args.length > 0) ? args : DEFAULT_FILES;
+		int noOfFailures = 0;
+		for (int file = 0; file < files.length; file++) {
+			Mesh expected = load(files[file], OBJImporter.PARSE_READER);
+			for (int mode = 0; mode < PARSE_MODES.length; mode++) {
+				Mesh mesh = load(files[file], PARSE_MODES[mode]);
+				String difference = compare(expected, mesh);
+				if (difference == null) {
+					System.out.println(files[file] + ": " + PARSE_MODE_NAMES[mode]
+							+ " matches the reader (" + mesh.numTriangles
+							+ " triangles)");
+				} else {
+					System.out.println(files[file] + ": " + PARSE_MODE_NAMES[mode]
+							+ " differs from the reader, " + difference);
+					noOfFailures++;
+				}
+			}
+		}
+		if (noOfFailures > 0) {
+			System.out.println(noOfFailures + " parses differ");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Loads the mesh in the file with one of the parsers (without textures or
+	 * baked meshes, and always in chunks for the parallel parser)
+	 *
+	 * @param filename the name of the .obj file
+	 * @param parseMode the parse mode (see OBJImporter.setParseMode())
+	 * @return the loaded mesh
+	 */
+	private static Mesh load(String filename, int parseMode) {
+		OBJImporter importer = new OBJImporter();
+		importer.setParseMode(parseMode);
+		importer.setAlwaysSplit(true);
+		importer.setLoadTextures(false);
+		importer.setUseBakedMeshes(false);
+		return importer.load(filename);
+	}
+
+	/**
+	 * Finds the first difference between two meshes
+	 *
+	 * @param expected the mesh from the reader
+	 * @param mesh the mesh from another parser
+	 * @return what differs, or null if the meshes are the same
+	 */
+	private static String compare(Mesh expected, Mesh mesh) {
+		// The triangles, with their vertices, groups and materials
+		if (mesh.numTriangles != expected.numTriangles) {
+			return "triangles " + mesh.numTriangles + " instead of "
+					+ expected.numTriangles;
+		}
+		if (mesh.numVertices != expected.numVertices) {
+			return "vertices " + mesh.numVertices + " instead of "
+					+ expected.numVertices;
+		}
+		for (int triangle = 0; triangle < mesh.numTriangles; triangle++) {
+			Triangle next = mesh.triangles[triangle];
+			Triangle other = expected.triangles[triangle];
+			if (next.point1.ID != other.point1.ID
+					|| next.point2.ID != other.point2.ID
+					|| next.point3.ID != other.point3.ID
+					|| next.index1 != other.index1
+					|| next.index2 != other.index2
+					|| next.index3 != other.index3) {
+				return "vertices of triangle " + triangle;
+			}
+			if (next.groupID != other.groupID) {
+				return "group of triangle " + triangle;
+			}
+			if (next.materialID != other.materialID) {
+				return "material of triangle " + triangle;
+			}
+		}
+
+		// The welded vertices
+		IndexedMesh indexed = mesh.indexedMesh;
+		IndexedMesh expectedIndexed = expected.indexedMesh;
+		if (indexed.noOfVertices != expectedIndexed.noOfVertices
+				|| !Arrays.equals(indexed.vertexIDs, expectedIndexed.vertexIDs)
+				|| !Arrays.equals(indexed.indices, expectedIndexed.indices)) {
+			return "welded vertices";
+		}
+		if (!Arrays.equals(indexed.positions, expectedIndexed.positions)) {
+			return "positions";
+		}
+		if (!Arrays.equals(indexed.normals, expectedIndexed.normals)) {
+			return "normals";
+		}
+		if (!Arrays.equals(indexed.textureCoords,
+				expectedIndexed.textureCoords)) {
+			return "texture coordinates";
+		}
+
+		// The groups and materials
+		if (mesh.getNoOfGroups() != expected.getNoOfGroups()) {
+			return "groups " + mesh.getNoOfGroups() + " instead of "
+					+ expected.getNoOfGroups();
+		}
+		for (int group = 0; group < mesh.getNoOfGroups(); group++) {
+			if (!equal(mesh.getGroupName(group), expected.getGroupName(group))
+					|| !equal(mesh.getGroupMaterialName(group), expected
+							.getGroupMaterialName(group))
+					|| mesh.getGroupSize(group) != expected.getGroupSize(group)) {
+				return "group " + group;
+			}
+		}
+		if (!equal(mesh.materialLibraryName, expected.materialLibraryName)) {
+			return "material library";
+		}
+		int noOfMaterials = (mesh.materials == null) ? 0 : mesh.materials.length;
+		int expectedMaterials = (expected.materials == null) ? 0
+				: expected.materials.length;
+		if (noOfMaterials != expectedMaterials) {
+			return "materials " + noOfMaterials + " instead of "
+					+ expectedMaterials;
+		}
+		for (int material = 0; material < noOfMaterials; material++) {
+			if (!equal(mesh.materials[material].getName(),
+					expected.materials[material].getName())) {
+				return "material " + material;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if two strings are the same (either can be null)
+	 *
+	 * @param first the first string
+	 * @param second the second string
+	 * @return true if they are both null or equal
+	 */
+	private static boolean equal(String first, String second) {
+		return (first == null) ? second == null : first.equals(second);
+	}
+}
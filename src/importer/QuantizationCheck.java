@@ -0,0 +1,209 @@
+package importer;
+
+import java.nio.ByteBuffer;
+
+import mesh.Mesh;
+import mesh.MeshBuffers;
+import mesh.PackedMesh;
+import mesh.QuantizedMesh;
+
+/**
+ * The "QuantizationCheck" Class.
+ * Purpose: A small command line check that decodes the quantized vertex data
+ * of each mesh (see QuantizedMesh) and compares it with the full vertex data.
+ * A position or texture coordinate must be within getMaxPositionError() or
+ * getMaxTextureCoordError() of the original on every axis, and a normal
+ * must be within MAX_NORMAL_ERROR_DEGREES of the original, both as decoded
+ * on the CPU and as the bytes given to openGL in the compressed buffers. It
+ * exits with an error if any vertex is out of bounds.
+ * <P>
+ * Usage: java importer.QuantizationCheck [file.obj ...]
+ * (with no files, the models shipped with the game are used)
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class QuantizationCheck {
+
+	// The models shipped with the game
+	private static final String[] DEFAULT_FILES = { "Track/Track.obj",
+			"Tree/Tree.obj", "Coin/Coin.obj", "Couch/NormalCouch.obj",
+			"Couch/ModernCouch.obj", "Couch/OffRoadCouch.obj",
+			"Couch/SuperCouch.obj" };
+
+	// The largest angle allowed between a decoded normal and the original
+	public static final double MAX_NORMAL_ERROR_DEGREES = 2;
+
+	// Where the normal starts in a compressed vertex (see MeshBuffers)
+	private static final int COMPRESSED_NORMAL_OFFSET = 8;
+
+	// The largest errors found by the last check
+	private static double maxPositionError;
+	private static double maxTextureCoordError;
+	private static double maxNormalError;
+	private static double maxDrawnNormalError;
+
+	/**
+	 * Runs the check on the given files
+	 */
+	public static void main(String[] args) {
+		String[] files = (args.length > 0) ? args : DEFAULT_FILES;
+		int noOfFailures = 0;
+		for (int file = 0; file < files.length; file++) {
+			OBJImporter importer = new OBJImporter();
+			importer.setLoadTextures(false);
+			importer.setUseBakedMeshes(false);
+			Mesh mesh = importer.load(files[file]);
+			PackedMesh packedMesh = mesh.getPackedMesh();
+			QuantizedMesh quantizedMesh = mesh.getQuantizedMesh();
+			MeshBuffers buffers = new MeshBuffers(quantizedMesh);
+			String problem = check(packedMesh, quantizedMesh, buffers);
+			if (problem != null) {
+				noOfFailures++;
+			}
+
+			// Show the errors and how much smaller the vertex data is
+			int vertexSize = MeshBuffers.getVertexSize(packedMesh.normals != null);
+			long quantizedBytes = quantizedMesh.getNoOfBytes();
+			long compressedBytes = (long) packedMesh.noOfVertices
+					* MeshBuffers.COMPRESSED_VERTEX_SIZE;
+			long fullBytes = (long) packedMesh.noOfVertices * vertexSize;
+			System.out.println(files[file] + ": " + packedMesh.noOfVertices
+					+ " vertices, position error " + format(maxPositionError)
+					+ " (bound " + format(quantizedMesh.getMaxPositionError())
+					+ "), texture error " + format(maxTextureCoordError)
+					+ " (bound "
+					+ format(quantizedMesh.getMaxTextureCoordError())
+					+ "), normal error " + format(maxNormalError)
+					+ " degrees (drawn " + format(maxDrawnNormalError)
+					+ ", bound " + format(MAX_NORMAL_ERROR_DEGREES) + ")");
+			System.out.println("    vertex data " + fullBytes
+					+ " bytes, quantized " + quantizedBytes + " bytes ("
+					+ format(fullBytes / (double) quantizedBytes)
+					+ "x smaller), compressed buffers " + compressedBytes
+					+ " bytes (" + format(fullBytes / (double) compressedBytes)
+					+ "x smaller)");
+			if (problem != null) {
+				System.out.println("    FAILED: " + problem);
+			}
+		}
+		if (noOfFailures > 0) {
+			System.out.println(noOfFailures + " meshes are out of bounds");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compares every decoded vertex with the original, and stores the
+	 * largest errors
+	 *
+	 * @param packedMesh the full vertex data
+	 * @param quantizedMesh the quantized vertex data
+	 * @param buffers the compressed buffers made from the quantized data
+	 * @return the first vertex out of bounds, or null if they all fit
+	 */
+	private static String check(PackedMesh packedMesh,
+			QuantizedMesh quantizedMesh, MeshBuffers buffers) {
+		maxPositionError = 0;
+		maxTextureCoordError = 0;
+		maxNormalError = 0;
+		maxDrawnNormalError = 0;
+		String problem = null;
+		float positionBound = quantizedMesh.getMaxPositionError();
+		float textureCoordBound = quantizedMesh.getMaxTextureCoordError();
+		float[] decoded = new float[3];
+		float[] drawn = new float[3];
+		ByteBuffer vertexData = buffers.vertexData;
+		for (int vertex = 0; vertex < packedMesh.noOfVertices; vertex++) {
+			// The position on each axis
+			float[] positions = packedMesh.positions;
+			decoded[0] = quantizedMesh.getX(vertex);
+			decoded[1] = quantizedMesh.getY(vertex);
+			decoded[2] = quantizedMesh.getZ(vertex);
+			for (int axis = 0; axis < 3; axis++) {
+				float original = positions[vertex * 3 + axis];
+				double error = Math.abs((double) decoded[axis] - original);
+				maxPositionError = Math.max(maxPositionError, error);
+				if (error > positionBound && problem == null) {
+					problem = "position of vertex " + vertex + " is " + error
+							+ " off";
+				}
+			}
+
+			// The texture coordinate on each axis
+			if (packedMesh.textureCoords != null) {
+				float[] textureCoords = packedMesh.textureCoords;
+				decoded[0] = quantizedMesh.getU(vertex);
+				decoded[1] = quantizedMesh.getV(vertex);
+				for (int axis = 0; axis < 2; axis++) {
+					float original = textureCoords[vertex * 2 + axis];
+					double error = Math.abs((double) decoded[axis]
+							- original);
+					maxTextureCoordError = Math.max(maxTextureCoordError,
+							error);
+					if (error > textureCoordBound && problem == null) {
+						problem = "texture coordinate of vertex " + vertex
+								+ " is " + error + " off";
+					}
+				}
+			}
+
+			// The angle of the normal, decoded and as drawn
+			if (packedMesh.normals != null) {
+				quantizedMesh.getNormal(vertex, decoded);
+				int offset = vertex * MeshBuffers.COMPRESSED_VERTEX_SIZE
+						+ COMPRESSED_NORMAL_OFFSET;
+				for (int axis = 0; axis < 3; axis++) {
+					drawn[axis] = vertexData.get(offset + axis) / 127f;
+				}
+				double angle = getAngle(packedMesh.normals, vertex * 3,
+						decoded);
+				double drawnAngle = getAngle(packedMesh.normals, vertex * 3,
+						drawn);
+				maxNormalError = Math.max(maxNormalError, angle);
+				maxDrawnNormalError = Math.max(maxDrawnNormalError,
+						drawnAngle);
+				if (Math.max(angle, drawnAngle) > MAX_NORMAL_ERROR_DEGREES
+						&& problem == null) {
+					problem = "normal of vertex " + vertex + " is "
+							+ Math.max(angle, drawnAngle) + " degrees off";
+				}
+			}
+		}
+		return problem;
+	}
+
+	/**
+	 * Returns the angle between an original normal and a decoded one (0 if
+	 * the original has no length, since it can't be encoded)
+	 *
+	 * @param normals the array with the original x, y, z normal
+	 * @param offset the position of the x value
+	 * @param normal the decoded normal (it doesn't need to be unit length)
+	 * @return the angle in degrees
+	 */
+	private static double getAngle(float[] normals, int offset, float[] normal) {
+		double x = normals[offset];
+		double y = normals[offset + 1];
+		double z = normals[offset + 2];
+		double length = Math.sqrt(x * x + y * y + z * z);
+		double decodedLength = Math.sqrt(normal[0] * normal[0] + normal[1]
+				* normal[1] + normal[2] * normal[2]);
+		if (length == 0 || decodedLength == 0) {
+			return 0;
+		}
+		double cos = (x * normal[0] + y * normal[1] + z * normal[2])
+				/ (length * decodedLength);
+		return Math.toDegrees(Math.acos(Math.min(1, Math.max(-1, cos))));
+	}
+
+	/**
+	 * Formats a number with the precision of a float
+	 *
+	 * @param value the number
+	 * @return the formatted number
+	 */
+	private static String format(double value) {
+		return String.valueOf((float) value);
+	}
+}
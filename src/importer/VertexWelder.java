@@ -0,0 +1,140 @@
+package importer;
+
+import java.util.Arrays;
+
+/**
+ * The "VertexWelder" Class.
+ * Purpose: Gives every unique combination of vertex, texture and normal
+ * index (v/vt/vn in a .obj face) one welded vertex index, so corners that are
+ * shared by several triangles are only stored once. The combinations are kept
+ * in an open addressing hash table of ints, so no objects are made for each
+ * corner.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class VertexWelder {
+
+	// The v, vt and vn index of every welded vertex, in the order they were made
+	private int[] tuples = new int[3 * 1024];
+	private int noOfVertices = 0;
+
+	// The hash table of welded vertex indices (-1 for an empty slot). Its size
+	// is always a power of two.
+	private int[] table = new int[2048];
+
+	/**
+	 * Create a new empty welder
+	 */
+	public VertexWelder() {
+		Arrays.fill(table, -1);
+	}
+
+	/**
+	 * Returns the welded vertex index of the given combination of indices,
+	 * making a new welded vertex the first time the combination is used
+	 *
+	 * @param vertexID the index of the position
+	 * @param textureID the index of the texture coordinate
+	 * @param normalID the index of the normal
+	 * @return the welded vertex index
+	 */
+	public int weld(int vertexID, int textureID, int normalID) {
+		int mask = table.length - 1;
+		int slot = hash(vertexID, textureID, normalID) & mask;
+
+		// Look for the combination, stopping at the first empty slot
+		while (table[slot] >= 0) {
+			int tuple = table[slot] * 3;
+			if (tuples[tuple] == vertexID && tuples[tuple + 1] == textureID
+					&& tuples[tuple + 2] == normalID) {
+				return table[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// Make a new welded vertex
+		if (noOfVertices * 3 + 3 > tuples.length) {
+			int[] larger = new int[tuples.length * 2];
+			System.arraycopy(tuples, 0, larger, 0, noOfVertices * 3);
+			tuples = larger;
+		}
+		tuples[noOfVertices * 3] = vertexID;
+		tuples[noOfVertices * 3 + 1] = textureID;
+		tuples[noOfVertices * 3 + 2] = normalID;
+		table[slot] = noOfVertices++;
+
+		// Keep the table at most half full so searches stay short
+		if (noOfVertices * 2 > table.length) {
+			rehash();
+		}
+		return noOfVertices - 1;
+	}
+
+	/**
+	 * Returns the number of welded vertices
+	 *
+	 * @return the number of welded vertices
+	 */
+	public int size() {
+		return noOfVertices;
+	}
+
+	/**
+	 * Returns the position index of a welded vertex
+	 *
+	 * @param vertex the welded vertex index
+	 * @return the index of its position
+	 */
+	public int getVertexID(int vertex) {
+		return tuples[vertex * 3];
+	}
+
+	/**
+	 * Returns the texture coordinate index of a welded vertex
+	 *
+	 * @param vertex the welded vertex index
+	 * @return the index of its texture coordinate
+	 */
+	public int getTextureID(int vertex) {
+		return tuples[vertex * 3 + 1];
+	}
+
+	/**
+	 * Returns the normal index of a welded vertex
+	 *
+	 * @param vertex the welded vertex index
+	 * @return the index of its normal
+	 */
+	public int getNormalID(int vertex) {
+		return tuples[vertex * 3 + 2];
+	}
+
+	/**
+	 * Doubles the size of the hash table and puts every welded vertex back in
+	 */
+	private void rehash() {
+		table = new int[table.length * 2];
+		Arrays.fill(table, -1);
+		int mask = table.length - 1;
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			int slot = hash(tuples[vertex * 3], tuples[vertex * 3 + 1],
+					tuples[vertex * 3 + 2]) & mask;
+			while (table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = vertex;
+		}
+	}
+
+	/**
+	 * Mixes the three indices into a hash code
+	 *
+	 * @return the hash code
+	 */
+	private static int hash(int vertexID, int textureID, int normalID) {
+		int hash = vertexID * 0x9E3779B1 + textureID * 0x85EBCA77 + normalID
+				* 0xC2B2AE3D;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -48,6 +48,8 @@ public class Material {
     private String materialName = "noname";  	// Name of this material in the .mtl and .obj files
     private String textureFile = null;  	// Texture filename (null if no texture)
     private int textureHandle = 0;      	// OpenGL handle to the texture (0 if no texture)
+    private Texture texture = null;     	// Texture made when first bound (null if none)
+    private int surfaceID = -1;         	// How couches drive on it (-1 until it is resolved)
     
     /**
      * Create a default material
@@ -185,6 +187,47 @@ public class Material {
         textureHandle = handleValue;
     }
     
+    /**
+     * Assign a texture that is loaded the first time it is bound
+     * 
+     * @param texture the texture
+     */
+    public void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+    
+    /**
+     * Decodes the texture image (if there is one) without making the texture,
+     * so it can be called on any thread
+     */
+    public void prefetchTexture() {
+    	if (textureHandle == 0 && texture != null) {
+    		texture.prefetch();
+    	}
+    }
+    
+    /**
+     * Set how couches drive on the material
+     * 
+     * @param surfaceID the ID of the surface (see Surface)
+     */
+    public void setSurfaceID(int surfaceID) {
+        this.surfaceID = surfaceID;
+    }
+    
+    /**
+     * Returns how couches drive on the material. If no surface was set, the
+     * surface with the same name as the material is used.
+     * 
+     * @return the ID of the surface (see Surface)
+     */
+    public int getSurfaceID() {
+    	if (surfaceID < 0) {
+    		surfaceID = Surface.findID(materialName);
+    	}
+    	return surfaceID;
+    }
+    
     /**
      * Gives the name of the material
      * 
@@ -195,14 +238,46 @@ public class Material {
     }
     
     /**
-     * Returns the texture handle for the material
+     * Returns the texture handle for the material, making the texture the
+     * first time it is needed
      * 
      * @return the texture handle for the material
      */
     public int getTextureHandle () {
+    	if (textureHandle == 0 && texture != null) {
+    		textureHandle = texture.getHandle();
+    	}
     	return textureHandle;
     }
     
+    /**
+     * Decodes the texture images of the given materials (on any thread)
+     * 
+     * @param materials the materials (can be null)
+     */
+    public static void prefetchTextures(Material[] materials) {
+    	if (materials != null) {
+    		for (int material = 0; material < materials.length; material++) {
+    			materials[material].prefetchTexture();
+    		}
+    	}
+    }
+    
+    /**
+     * Makes the textures of the given materials. This must be called on the
+     * GL thread before the materials are drawn into a display list, since
+     * textures can't be made while a list is being compiled.
+     * 
+     * @param materials the materials (can be null)
+     */
+    public static void makeTextures(Material[] materials) {
+    	if (materials != null) {
+    		for (int material = 0; material < materials.length; material++) {
+    			materials[material].getTextureHandle();
+    		}
+    	}
+    }
+    
     /**
      *  Call glMaterial() to activate these material properties in the OpenGL environment.
      *  These properties will stay in effect until you change them or disable lighting.
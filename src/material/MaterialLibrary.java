@@ -1,7 +1,6 @@
 package material;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -17,8 +16,11 @@ import org.lwjgl.opengl.EXTTextureFilterAnisotropic;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.glu.GLU;
 
+import application.AssetArchive;
 import application.CustomImage;
 import application.KouchKarting;
+import application.ResourceRegistry;
+import importer.ImportStats;
 
 /**
  * The "MaterialLibrary" Class.
@@ -37,15 +39,36 @@ public class MaterialLibrary {
 	// The materials that will be loaded
 	private Material [] materials;
 	
+	// The index of each material, by name
+	private Hashtable<String, Integer> materialIDs = new Hashtable<String, Integer>();
+	
+	// Whether the textures of the materials are made
+	private boolean loadTextures = true;
+	
+	// The number of materials with a texture file
+	private int noOfTextures = 0;
+	
 	/**
 	 * Create a new material library and load the materials from the given file
 	 * 
 	 * @param mtlFilename the name of the file from which to load the materials
 	 */
 	public MaterialLibrary (String mtlFilename) {
+		this (mtlFilename, true);
+	}
+	
+	/**
+	 * Create a new material library and load the materials from the given file
+	 * 
+	 * @param mtlFilename the name of the file from which to load the materials
+	 * @param loadTextures whether to give the materials their textures (the
+	 *                     textures are made when they are first drawn)
+	 */
+	public MaterialLibrary (String mtlFilename, boolean loadTextures) {
 		String[] pathParts = KouchKarting.getPathAndFile(mtlFilename);
         filepath = pathParts[0];
         filename = pathParts[1];
+        this.loadTextures = loadTextures;
     	loadMaterials(mtlFilename);
 	}
 	
@@ -56,13 +79,14 @@ public class MaterialLibrary {
 	 */
 	public void loadMaterials (String filename) {
 		// Temporary array list for loaded materials
-		ArrayList loadedMaterials = new ArrayList();
+		ArrayList<Material> loadedMaterials = new ArrayList<Material>();
 		String line = "";
 		
 		try {
 			// Create a buffered reader to load the material file
-			BufferedReader MTLFile = new BufferedReader (new FileReader (filename));
+			BufferedReader MTLFile = AssetArchive.openReader(filename);
 			Material newMaterial = null;
+			Surface newSurface = null;
 			float [] rgba;
 			
 			while ((line = MTLFile.readLine()) != null){
@@ -76,6 +100,25 @@ public class MaterialLibrary {
     					newMaterial = new Material();
     					newMaterial.setName(line.substring(7));
     					loadedMaterials.add(newMaterial);
+    					newSurface = null;
+    				}
+    				
+    				// Create a new surface, or replace the one with the same
+    				// name (In the form: newsurface surfaceName)
+    				else if (line.startsWith("newsurface")) {
+    					newSurface = new Surface(line.substring(11).trim(), false,
+    							false, 0, 0, 0, true);
+    					Surface.register(newSurface);
+    					newMaterial = null;
+    				}
+    				
+    				// The lines after newsurface are the values of the surface
+    				// (see Surface.readValue())
+    				else if (newSurface != null) {
+    					if (!newSurface.readValue(line)) {
+    						ImportStats.log("MaterialLibrary.loadMaterials(): "
+    								+ "unknown surface value: " + line);
+    					}
     				}
     				
     				// If the line contains diffuse data (In the form: Kd 1.0 0.0 0.5)
@@ -129,24 +172,23 @@ public class MaterialLibrary {
     					}
     				}
 				
+					// If the line names the surface of the material (In the form: surface Grass)
+    				else if (line.startsWith("surface")) {
+    					newMaterial.setSurfaceID(Surface.findID(line.substring(8)));
+    				}
+				
 					// If the line contains data for a filename (In the form: map_Kd filename)
     				else if (line.startsWith("map_Kd")) {
     					// Add a texture to the material
     					String textureFile = line.substring(7);
     			        if (textureFile != null && !textureFile.equals("")) {
-        					int textureHandle = 0;
-        					
-        					// Make the texture
-    			        	try {
-    					    	textureHandle = makeTexture(filepath + textureFile);
-    			        	}
-    			        	catch (Exception e) {
-    			        		System.out.println("MaterialLibrary.loadMaterials(): could not load texture file (" + textureFile + ") " + e);
-    			        	}
-    			        	
-    			        	// Set the texture to the new material
+        					// Set the texture to the new material (the image is
+        					// only loaded when the material is first drawn)
         					newMaterial.setTextureFile(textureFile);
-        					newMaterial.setTexture(textureHandle);
+        					noOfTextures++;
+        					if (loadTextures) {
+        						newMaterial.setTexture(new Texture(filepath + textureFile));
+        					}
     			        }
     				}
 				}
@@ -158,11 +200,24 @@ public class MaterialLibrary {
 		}
 		
 		// For debugging purposes:
-		System.out.println("GLMaterialLib.loadMaterials(): loaded " + loadedMaterials.size() + " materials ");
+		ImportStats.log("GLMaterialLib.loadMaterials(): loaded " + loadedMaterials.size() + " materials ");
 		
 	    // Return the array of materials
 	    materials = new Material[loadedMaterials.size()];
 	    loadedMaterials.toArray(materials);
+	    
+	    // Index the materials by name (the first material with a name is used,
+	    // like in the file)
+	    materialIDs.clear();
+	    for (int material = materials.length - 1; material >= 0; material--) {
+	    	materialIDs.put(materials[material].getName(), Integer.valueOf(material));
+	    }
+	    
+	    // Resolve the surface of every material now, so the physics doesn't
+	    // have to compare names
+	    for (int material = 0; material < materials.length; material++) {
+	    	materials[material].getSurfaceID();
+	    }
 	}
 	
 	/**
@@ -208,11 +263,10 @@ public class MaterialLibrary {
      * @return the index of the material in the array (or -1 if not found)
      */
     public int findID (String materialName) {
-    	if (materials != null && materialName != null) {
-    		for (int material = 0; material < materials.length; material++) {
-    			if (materials[material].getName().equals(materialName)) {
-    				return material;
-    			}
+    	if (materialName != null) {
+    		Integer material = materialIDs.get(materialName);
+    		if (material != null) {
+    			return material.intValue();
     		}
     	}
     	return -1;
@@ -255,7 +309,7 @@ public class MaterialLibrary {
     public static int makeTexture(CustomImage textureImage)
     {
     	if (textureImage != null ) {
-    		return makeTexture(textureImage.pixelBufferRGBA, textureImage.getWidth(), textureImage.getHeight(), false);
+    		return makeTexture(textureImage.filename, textureImage.pixelBufferRGBA, textureImage.getWidth(), textureImage.getHeight(), false);
     	}
     	return 0;
     }
@@ -269,6 +323,15 @@ public class MaterialLibrary {
     	return materials;
     }
     
+    /**
+     * Returns the number of materials with a texture file
+     * 
+     * @return the number of textures
+     */
+    public int getNoOfTextures () {
+    	return noOfTextures;
+    }
+    
     /**
      * Returns a material from the material library
      * 
@@ -289,6 +352,19 @@ public class MaterialLibrary {
      * @return  the texture handle
      */
     public static int makeTexture(ByteBuffer pixels, int w, int h, boolean anisotropic)
+    {
+    	return makeTexture(null, pixels, w, h, anisotropic);
+    }
+    
+    /**
+     * Create a texture from the given pixels (see above), and register it
+     * with the resource registry under the given name
+     * 
+     * @param name the name of the image file the pixels are from (or null)
+     * @param pixels the ByteBuffer containing the pixels for the texture
+     * @return  the texture handle
+     */
+    public static int makeTexture(String name, ByteBuffer pixels, int w, int h, boolean anisotropic)
     {
     	// a new empty texture handle
     	int textureHandle = allocateTexture();
@@ -325,6 +401,9 @@ public class MaterialLibrary {
     	// restore previous texture settings
     	GL11.glPopAttrib();
 
+    	// The texture uses 4 bytes for every pixel on the graphics card
+    	ResourceRegistry.addTexture(textureHandle, name, (long) w * h * 4);
+
     	return textureHandle;
     }
     
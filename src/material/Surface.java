@@ -0,0 +1,248 @@
+package material;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * The "Surface" Class.
+ * Purpose: Describes how a couch drives on a material (whether it is grass or
+ * road, how much friction it has, and if it bounces or boosts the couch).
+ * Every material is given a surface ID when its library is loaded, and the ID
+ * is copied to the triangles that use the material, so the physics only has
+ * to look the surface up by its ID. A material uses the surface with the same
+ * name, unless its .mtl entry names another one (In the form: surface Grass).
+ * <P>
+ * Besides the surfaces made here, an .mtl file can add surfaces (or change
+ * these ones) with a surface block, before the materials that use it:
+ * <PRE>
+ * newsurface Mud
+ *     grass 1
+ *     friction 1.5
+ *     impulse 0 0
+ *     align 1
+ * </PRE>
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class Surface {
+
+	// The surfaces by ID, and their IDs by name
+	private static ArrayList<Surface> surfaces = new ArrayList<Surface>();
+	private static Hashtable<String, Integer> surfaceIDs =
+			new Hashtable<String, Integer>();
+
+	// The surfaces the game knows about
+	public static final int NONE = register(new Surface("none", false, false,
+			0, 0, 0, true));
+	public static final int GRASS = register(new Surface("Grass", true, false,
+			1, 0, 0, true));
+	public static final int ROAD = register(new Surface("Road", false, true,
+			0, 0, 0, true));
+	public static final int CHECKERBOARD = register(new Surface(
+			"Checkerboard", false, true, 0, 0, 0, true));
+	public static final int BOUNCE = register(new Surface("Bounce", false,
+			false, 0, -200, 100, false));
+	public static final int BOOST = register(new Surface("Boost", false, false,
+			0, 1000, 50, true));
+
+	// The ID and name of the surface
+	private int id;
+	private String name;
+
+	// Whether the surface is off the road (where couches aren't reset to),
+	// and whether it counts as the road
+	private boolean grass;
+	private boolean road;
+
+	// How rough the surface is: 0 gives a couch its normal friction, 1 its
+	// grass friction, and other values go between (or past) them
+	private float friction;
+
+	// The speed a couch is given when it touches the surface (0 for none),
+	// and how fast it is thrown up
+	private float impulseSpeed;
+	private float impulseLift;
+
+	// Whether a couch on the surface keeps moving the way it faces
+	private boolean alignsVelocity;
+
+	/**
+	 * Create a new surface
+	 *
+	 * @param name the name of the surface (the material name that uses it)
+	 * @param grass whether it is off the road
+	 * @param road whether it counts as the road
+	 * @param friction how rough it is (0 for a couch's normal friction, 1 for
+	 *                 its grass friction)
+	 * @param impulseSpeed the speed a couch is given on it (negative to bounce
+	 *                     back, 0 for none)
+	 * @param impulseLift how fast a couch is thrown up when it is given the
+	 *                    speed
+	 * @param alignsVelocity whether a couch keeps moving the way it faces
+	 */
+	public Surface(String name, boolean grass, boolean road, float friction,
+			float impulseSpeed, float impulseLift, boolean alignsVelocity) {
+		this.name = name;
+		this.grass = grass;
+		this.road = road;
+		this.friction = friction;
+		this.impulseSpeed = impulseSpeed;
+		this.impulseLift = impulseLift;
+		this.alignsVelocity = alignsVelocity;
+	}
+
+	/**
+	 * Adds a surface, replacing any surface with the same name
+	 *
+	 * @param surface the surface
+	 * @return the ID of the surface
+	 */
+	public static synchronized int register(Surface surface) {
+		Integer id = surfaceIDs.get(surface.name);
+		if (id != null) {
+			surface.id = id.intValue();
+			surfaces.set(surface.id, surface);
+		} else {
+			surface.id = surfaces.size();
+			surfaces.add(surface);
+			surfaceIDs.put(surface.name, Integer.valueOf(surface.id));
+		}
+		return surface.id;
+	}
+
+	/**
+	 * Sets one of the surface's values from a line of a surface block in an
+	 * .mtl file (In the form: grass 1, road 0, friction 0.5, impulse 1000 50
+	 * or align 1)
+	 *
+	 * @param line the line, without extra spaces
+	 * @return false if the line isn't one of the surface's values
+	 * @throws NumberFormatException if a value isn't a number
+	 */
+	public boolean readValue(String line) {
+		String[] parts = line.split("\\s+");
+		if (parts[0].equals("grass") && parts.length > 1) {
+			grass = Float.parseFloat(parts[1]) != 0;
+		} else if (parts[0].equals("road") && parts.length > 1) {
+			road = Float.parseFloat(parts[1]) != 0;
+		} else if (parts[0].equals("friction") && parts.length > 1) {
+			friction = Float.parseFloat(parts[1]);
+		} else if (parts[0].equals("impulse") && parts.length > 2) {
+			impulseSpeed = Float.parseFloat(parts[1]);
+			impulseLift = Float.parseFloat(parts[2]);
+		} else if (parts[0].equals("align") && parts.length > 1) {
+			alignsVelocity = Float.parseFloat(parts[1]) != 0;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the ID of the surface with the given name
+	 *
+	 * @param name the name of the surface
+	 * @return the ID of the surface (or NONE if there isn't one)
+	 */
+	public static int findID(String name) {
+		if (name != null) {
+			Integer id = surfaceIDs.get(name.trim());
+			if (id != null) {
+				return id.intValue();
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Returns the surface with the given ID
+	 *
+	 * @param id the ID of the surface
+	 * @return the surface
+	 */
+	public static Surface get(int id) {
+		return surfaces.get(id);
+	}
+
+	/**
+	 * Returns the ID of the surface
+	 *
+	 * @return the ID
+	 */
+	public int getID() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the surface
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the surface is off the road
+	 *
+	 * @return true if the surface is grass
+	 */
+	public boolean isGrass() {
+		return grass;
+	}
+
+	/**
+	 * Returns how rough the surface is
+	 *
+	 * @return 0 for a couch's normal friction, 1 for its grass friction
+	 */
+	public float getFriction() {
+		return friction;
+	}
+
+	/**
+	 * Returns whether the surface counts as the road
+	 *
+	 * @return true if the surface is road
+	 */
+	public boolean isRoad() {
+		return road;
+	}
+
+	/**
+	 * Returns whether a couch is given a new speed on the surface
+	 *
+	 * @return true if the surface bounces or boosts couches
+	 */
+	public boolean hasImpulse() {
+		return impulseSpeed != 0;
+	}
+
+	/**
+	 * Returns the speed a couch is given on the surface
+	 *
+	 * @return the speed (negative to bounce back)
+	 */
+	public float getImpulseSpeed() {
+		return impulseSpeed;
+	}
+
+	/**
+	 * Returns how fast a couch is thrown up when it is given the speed
+	 *
+	 * @return the upward speed
+	 */
+	public float getImpulseLift() {
+		return impulseLift;
+	}
+
+	/**
+	 * Returns whether a couch on the surface keeps moving the way it faces
+	 *
+	 * @return false if the couch is left moving the way it was pushed
+	 */
+	public boolean alignsVelocity() {
+		return alignsVelocity;
+	}
+}
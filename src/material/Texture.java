@@ -0,0 +1,98 @@
+package material;
+
+import application.AssetLoader;
+import application.CustomImage;
+import importer.ImportStats;
+
+/**
+ * The "Texture" Class.
+ * Purpose: A texture image that is only loaded when it is needed. The image
+ * is decoded the first time it is prefetched or bound, and the openGL texture
+ * is made the first time it is bound on the GL thread, so materials that are
+ * never drawn don't cost anything.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class Texture {
+
+	// The path and name of the image file
+	private String filename;
+
+	// The decoded image (only kept until the texture is made)
+	private CustomImage image;
+
+	// The openGL handle to the texture (0 until it is made)
+	private int handle = 0;
+
+	// Whether the image could not be loaded (so it isn't tried again)
+	private boolean failed = false;
+
+	/**
+	 * Create a texture that will be loaded from the given image file
+	 *
+	 * @param filename the path and name of the image file
+	 */
+	public Texture(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * Decodes the image if it hasn't been already. This doesn't use openGL,
+	 * so it can be called on any thread.
+	 */
+	public synchronized void prefetch() {
+		if (handle == 0 && image == null && !failed) {
+			long startTime = System.nanoTime();
+			image = MaterialLibrary.loadImage(filename);
+			ImportStats stats = new ImportStats(filename);
+			stats.textureDecodeTime = System.nanoTime() - startTime;
+			ImportStats.addToTotal(stats);
+			if (image == null) {
+				failed = true;
+				System.out.println("Texture.prefetch(): could not load texture file ("
+						+ filename + ")");
+			}
+		}
+	}
+
+	/**
+	 * Returns the openGL handle to the texture, making the texture the first
+	 * time it is called on the GL thread. On any other thread, 0 is returned
+	 * until the texture is made.
+	 *
+	 * @return the texture handle (0 if the texture isn't made)
+	 */
+	public synchronized int getHandle() {
+		if (handle == 0 && !failed && AssetLoader.isGLThread()) {
+			prefetch();
+			if (image != null) {
+				long startTime = System.nanoTime();
+				handle = MaterialLibrary.makeTexture(image);
+				image = null;
+				ImportStats stats = new ImportStats(filename);
+				stats.uploadTime = System.nanoTime() - startTime;
+				ImportStats.addToTotal(stats);
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Returns whether the openGL texture was made
+	 *
+	 * @return true if the texture has a handle
+	 */
+	public synchronized boolean isMade() {
+		return handle != 0;
+	}
+
+	/**
+	 * Returns the name of the image file
+	 *
+	 * @return the path and name of the image file
+	 */
+	public String getFilename() {
+		return filename;
+	}
+}
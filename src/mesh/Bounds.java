@@ -0,0 +1,194 @@
+package mesh;
+
+import math.Vector;
+
+/**
+ * The "Bounds" Class.
+ * Purpose: Holds the box and sphere around some triangles of a mesh (the
+ * whole mesh, a group or a material run). The box is the smallest box lined
+ * up with the axes that holds every vertex of the triangles. The sphere is
+ * centred on the box, and its radius is the distance to the vertex furthest
+ * from the centre, so it holds every vertex too. Culling and collision
+ * checks can test the box or sphere first and skip the triangles when they
+ * are out of reach.
+ * <P>
+ * Note: The data fields for this class are public for efficiency when they
+ * are used for culling and collisions
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class Bounds {
+
+	// The smallest and largest x, y and z of the vertices (all 0 if there
+	// are no triangles)
+	public float minX = 0;
+	public float minY = 0;
+	public float minZ = 0;
+	public float maxX = 0;
+	public float maxY = 0;
+	public float maxZ = 0;
+
+	// The centre and radius of the sphere
+	public float centreX = 0;
+	public float centreY = 0;
+	public float centreZ = 0;
+	public float radius = 0;
+
+	// Whether there were no triangles
+	private boolean empty = true;
+
+	/**
+	 * Create the bounds of a range of triangles
+	 *
+	 * @param triangles
+	 *            the triangles
+	 * @param start
+	 *            the index of the first triangle in the range
+	 * @param count
+	 *            the number of triangles in the range
+	 */
+	public Bounds(Triangle[] triangles, int start, int count) {
+		// Find the box
+		for (int triangle = start; triangle < start + count; triangle++) {
+			for (int vertex = 1; vertex <= 3; vertex++) {
+				Vector position = triangles[triangle].getPoint(vertex).pos;
+				if (empty) {
+					minX = maxX = position.x;
+					minY = maxY = position.y;
+					minZ = maxZ = position.z;
+					empty = false;
+				}
+				minX = Math.min(minX, position.x);
+				maxX = Math.max(maxX, position.x);
+				minY = Math.min(minY, position.y);
+				maxY = Math.max(maxY, position.y);
+				minZ = Math.min(minZ, position.z);
+				maxZ = Math.max(maxZ, position.z);
+			}
+		}
+
+		// Find the vertex furthest from the centre of the box
+		centreX = (minX + maxX) / 2;
+		centreY = (minY + maxY) / 2;
+		centreZ = (minZ + maxZ) / 2;
+		float radiusSquared = 0;
+		for (int triangle = start; triangle < start + count; triangle++) {
+			for (int vertex = 1; vertex <= 3; vertex++) {
+				Vector position = triangles[triangle].getPoint(vertex).pos;
+				float x = position.x - centreX;
+				float y = position.y - centreY;
+				float z = position.z - centreZ;
+				radiusSquared = Math.max(radiusSquared, x * x + y * y + z * z);
+			}
+		}
+		radius = (float) Math.sqrt(radiusSquared);
+	}
+
+	/**
+	 * Checks if there were no triangles in the bounds
+	 *
+	 * @return true if the bounds are empty
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Returns the centre of the box (and sphere)
+	 *
+	 * @return the centre
+	 */
+	public Vector getCentre() {
+		return new Vector(centreX, centreY, centreZ);
+	}
+
+	/**
+	 * Returns the width, height and depth of the box
+	 *
+	 * @return the size of the box
+	 */
+	public Vector getSize() {
+		return new Vector(maxX - minX, maxY - minY, maxZ - minZ);
+	}
+
+	/**
+	 * Returns the largest of the width, height and depth of the box
+	 *
+	 * @return the largest side of the box
+	 */
+	public float getLargestSide() {
+		return Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+	}
+
+	/**
+	 * Returns the distance from a point to the closest point of the box
+	 *
+	 * @param point
+	 *            the point
+	 * @return the distance (0 if the point is in the box)
+	 */
+	public float getDistance(Vector point) {
+		float x = point.x - Math.max(minX, Math.min(maxX, point.x));
+		float y = point.y - Math.max(minY, Math.min(maxY, point.y));
+		float z = point.z - Math.max(minZ, Math.min(maxZ, point.z));
+		return (float) Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * Checks if a point is in the box
+	 *
+	 * @param point
+	 *            the point
+	 * @return true if the point is in (or on) the box
+	 */
+	public boolean contains(Vector point) {
+		return !empty && point.x >= minX && point.x <= maxX
+				&& point.y >= minY && point.y <= maxY && point.z >= minZ
+				&& point.z <= maxZ;
+	}
+
+	/**
+	 * Checks if a box overlaps this box
+	 *
+	 * @param other
+	 *            the bounds with the other box
+	 * @return true if the boxes overlap (or touch)
+	 */
+	public boolean intersects(Bounds other) {
+		return !empty && !other.empty && minX <= other.maxX
+				&& maxX >= other.minX && minY <= other.maxY
+				&& maxY >= other.minY && minZ <= other.maxZ
+				&& maxZ >= other.minZ;
+	}
+
+	/**
+	 * Checks if a sphere overlaps the box. The closest point of the box to
+	 * the sphere's centre is found, so the check is exact.
+	 *
+	 * @param centre
+	 *            the centre of the sphere
+	 * @param sphereRadius
+	 *            the radius of the sphere
+	 * @return true if the sphere overlaps (or touches) the box
+	 */
+	public boolean intersectsSphere(Vector centre, float sphereRadius) {
+		if (empty) {
+			return false;
+		}
+		float x = centre.x - Math.max(minX, Math.min(maxX, centre.x));
+		float y = centre.y - Math.max(minY, Math.min(maxY, centre.y));
+		float z = centre.z - Math.max(minZ, Math.min(maxZ, centre.z));
+		return x * x + y * y + z * z <= sphereRadius * sphereRadius;
+	}
+
+	/**
+	 * Returns the bounds as text
+	 *
+	 * @return the box and sphere
+	 */
+	public String toString() {
+		return "(" + minX + ", " + minY + ", " + minZ + ") to (" + maxX + ", "
+				+ maxY + ", " + maxZ + "), radius " + radius;
+	}
+}
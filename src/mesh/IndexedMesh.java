@@ -0,0 +1,133 @@
+package mesh;
+
+/**
+ * The "IndexedMesh" Class.
+ * Purpose: Holds the welded vertex data of a mesh, where every unique
+ * combination of position, normal and texture coordinate is stored once, and
+ * the triangles are lists of indices into those vertices. The indices are in
+ * the same order as the mesh's triangles, so each group (and each material
+ * run) of the mesh is a range of the index array that can be drawn with
+ * glDrawElements.
+ * <P>
+ * Note: The data fields for this class are public for efficiency when they
+ * are used for drawing
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class IndexedMesh {
+
+	// The largest number of vertices that can be indexed with shorts
+	public static final int MAX_SHORT_VERTICES = 65536;
+
+	// The number of welded vertices
+	public int noOfVertices;
+
+	// The data of each welded vertex (x, y, z positions and normals, and u, v
+	// texture coordinates). The normals or texture coordinates are null if the
+	// mesh doesn't have them.
+	public float[] positions;
+	public float[] normals;
+	public float[] textureCoords;
+
+	// The index of each welded vertex's position in the mesh's vertices
+	public int[] vertexIDs;
+
+	// Three indices for every triangle, and the same indices as (unsigned)
+	// shorts if there are few enough vertices, otherwise null
+	public int[] indices;
+	public short[] shortIndices;
+
+	/**
+	 * Create a new indexed mesh from the given welded data
+	 *
+	 * @param positions
+	 *            the x, y and z positions of the vertices
+	 * @param normals
+	 *            the x, y and z normals of the vertices, or null
+	 * @param textureCoords
+	 *            the u and v texture coordinates of the vertices, or null
+	 * @param vertexIDs
+	 *            the index of each vertex's position in the mesh's vertices
+	 * @param indices
+	 *            three vertex indices for every triangle
+	 */
+	public IndexedMesh(float[] positions, float[] normals,
+			float[] textureCoords, int[] vertexIDs, int[] indices) {
+		this.positions = positions;
+		this.normals = normals;
+		this.textureCoords = textureCoords;
+		this.vertexIDs = vertexIDs;
+		this.indices = indices;
+		noOfVertices = positions.length / 3;
+
+		// Store the indices as shorts too if they fit, since they use half the
+		// memory
+		if (noOfVertices <= MAX_SHORT_VERTICES) {
+			shortIndices = new short[indices.length];
+			for (int index = 0; index < indices.length; index++) {
+				shortIndices[index] = (short) indices[index];
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first index of a range of triangles, such
+	 * as a group of the mesh
+	 *
+	 * @param firstTriangle
+	 *            the index of the first triangle
+	 * @return the position of its first index
+	 */
+	public static int getIndexStart(int firstTriangle) {
+		return firstTriangle * 3;
+	}
+
+	/**
+	 * Returns the number of indices in a range of triangles
+	 *
+	 * @param noOfTriangles
+	 *            the number of triangles
+	 * @return the number of indices
+	 */
+	public static int getIndexCount(int noOfTriangles) {
+		return noOfTriangles * 3;
+	}
+
+	/**
+	 * Returns the number of indices in the mesh
+	 *
+	 * @return the number of indices
+	 */
+	public int getNoOfIndices() {
+		return indices.length;
+	}
+
+	/**
+	 * Returns roughly how many bytes the arrays of the indexed mesh use
+	 *
+	 * @return the number of bytes
+	 */
+	public long getNoOfBytes() {
+		long noOfBytes = (positions.length + vertexIDs.length + indices.length) * 4L;
+		if (normals != null) {
+			noOfBytes += normals.length * 4L;
+		}
+		if (textureCoords != null) {
+			noOfBytes += textureCoords.length * 4L;
+		}
+		if (shortIndices != null) {
+			noOfBytes += shortIndices.length * 2L;
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Checks if the indices can be drawn as shorts
+	 *
+	 * @return true if there are short indices
+	 */
+	public boolean hasShortIndices() {
+		return shortIndices != null;
+	}
+}
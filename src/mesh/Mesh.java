@@ -1,13 +1,13 @@
 package mesh;
 
-import importer.OBJImporter.Group;
-
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import material.Material;
+import material.Surface;
 
 import application.KouchKarting;
+import application.ResourceRegistry;
 
 /**
  * The "Mesh" Class. 
@@ -39,14 +39,54 @@ public class Mesh {
 	public String materialLibraryName = null;
 	public Material[] materials = null;
 
-	// Store all the triangles for easy access, with one default group (See
-	// makeGroups())
-	Triangle[][] groupTriangles = new Triangle[1][];
-	String[] groupNames = { "default" };
-	String[] groupMaterialNames = { null };
+	// The welded vertices and triangle indices of the mesh, for drawing with
+	// indexed primitives (made by the importer, null if the mesh has none)
+	public IndexedMesh indexedMesh = null;
+
+	// The mesh in flat arrays, for drawing and collisions (made the first
+	// time it is needed, see getPackedMesh())
+	private PackedMesh packedMesh = null;
+
+	// The vertex data and indices in direct buffers, ready for openGL (made
+	// the first time they are needed, or read from a baked file)
+	private MeshBuffers meshBuffers = null;
+
+	// The vertex data quantized to fewer bytes (made the first time it is
+	// needed, see getQuantizedMesh())
+	private QuantizedMesh quantizedMesh = null;
+
+	// Whether meshes are drawn from compressed buffers (made from the
+	// quantized vertex data)
+	private static boolean compressVertices = false;
+
+	// Whether meshes that were put in display lists let go of their data on
+	// the CPU (see releaseCPUData()), and whether this mesh did
+	private static boolean gpuResident = false;
+	private boolean released = false;
+
+	// Temporary lists for the group names and material names while the mesh
+	// is being loaded
+	ArrayList<String> groupNameData = new ArrayList<String>();
+	ArrayList<String> groupMaterialData = new ArrayList<String>();
+
+	// The groups after the mesh is done being loaded, with the number of
+	// triangles in each. The triangles are sorted by material across the
+	// groups, so a group isn't a range of the triangle array: only the
+	// triangles' groupIDs say which group they are in (see optimise())
+	String[] groupNames = {};
+	String[] groupMaterialNames = {};
+	int[] groupSizes = {};
 
-	// The group currently "selected" in the mesh
-	int currentGroup = 0;
+	// The neighbour triangles of every vertex, stored one vertex after
+	// another: the neighbours of a vertex are the triangle indices from
+	// neighbourStarts[vertex] up to neighbourStarts[vertex + 1]
+	int[] neighbourStarts = { 0 };
+	int[] neighbourTriangles = {};
+
+	// The runs of triangles in the triangle array that use the same material
+	int[] materialRunStarts = {};
+	int[] materialRunSizes = {};
+	int[] materialRunIDs = {};
 
 	// The outside points for the mesh
 	public float leftmostPoint = 0;
@@ -56,6 +96,19 @@ public class Mesh {
 	public float farthestPoint = 0;
 	public float nearestPoint = 0;
 
+	// The box and sphere around the whole mesh, each group and each material
+	// run (see calculateDimensions())
+	private Bounds bounds = null;
+	private Bounds[] groupBounds = {};
+	private Bounds[] materialRunBounds = {};
+
+	// Roughly how many bytes a vertex, a triangle and a bounds object use on
+	// the heap, with the vectors they own (on a 64 bit JVM with compressed
+	// pointers)
+	private static final int VERTEX_BYTES = 72;
+	private static final int TRIANGLE_BYTES = 208;
+	private static final int BOUNDS_BYTES = 56;
+
 	/**
 	 * Create a new default empty mesh with the given name and material library
 	 * name
@@ -66,6 +119,7 @@ public class Mesh {
 	public Mesh(String name, String materialLibraryName) {
 		this.name = name;
 		this.materialLibraryName = materialLibraryName;
+		ResourceRegistry.add(this);
 	}
 
 	/**
@@ -73,6 +127,28 @@ public class Mesh {
 	 */
 	public void importMaterials(Material[] materials) {
 		this.materials = materials;
+		resolveSurfaces();
+	}
+
+	/**
+	 * Gives each triangle the surface of its material, so the physics can
+	 * find it without looking at the material. This is done when both the
+	 * triangles and the materials are loaded (in whichever order they are).
+	 */
+	public void resolveSurfaces() {
+		if (triangles == null) {
+			return;
+		}
+		synchronized (this) {
+			packedMesh = null;
+			quantizedMesh = null;
+		}
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			int materialID = triangles[triangle].materialID;
+			triangles[triangle].surfaceID = (materials != null
+					&& materialID >= 0 && materialID < materials.length) ? materials[materialID]
+					.getSurfaceID() : Surface.NONE;
+		}
 	}
 
 	/**
@@ -101,57 +177,52 @@ public class Mesh {
 	}
 
 	/**
-	 * add triangle to given group. used by Importer to load mesh groups. Groups
-	 * had to be allocated first by makeGroups() and inited with initGroup().
+	 * Adds a triangle to the mesh. The triangle's groupID must already be set
+	 * to a group made with addGroup().
 	 * 
 	 * @param newTriangle
-	 * @param groupNum
-	 * @param triangleNum
-	 * @see makeGroups()
-	 * @see setGroup()
+	 *            the triangle to add
 	 */
-	public void addTriangle(Triangle newTriangle, int groupNum, int triangleNum) {
-		// set IDs into the triangle
+	public void addTriangle(Triangle newTriangle) {
+		// set the ID into the triangle and store it
 		newTriangle.ID = triangleData.size();
-		newTriangle.groupID = groupNum;
-		// store the triangle
 		triangleData.add(newTriangle);
-		groupTriangles[groupNum][triangleNum] = newTriangle;
 	}
 
 	/**
-	 * Allocate space for the number of groups needed
+	 * Adds a new group to the mesh
 	 * 
-	 * @param noOfGroups
-	 *            the number of groups needed
+	 * @param name
+	 *            the name of the group
+	 * @param materialName
+	 *            the name of the group's material
+	 * @return the number of the new group
 	 */
-	public void makeGroups(int noOfGroups) {
-		groupTriangles = new Triangle[noOfGroups][];
-		groupNames = new String[noOfGroups];
-		groupMaterialNames = new String[noOfGroups];
+	public int addGroup(String name, String materialName) {
+		groupNameData.add(name);
+		groupMaterialData.add(materialName);
+		return groupNameData.size() - 1;
 	}
 
 	/**
-	 * Allocate a triangle array for a group. Also set the name and material
-	 * name of the group.
+	 * Sets the material name of a group that is still being loaded
 	 * 
 	 * @param groupNum
 	 *            the group number
-	 * @param name
-	 *            the name of the group
 	 * @param materialName
 	 *            the name of the group's material
-	 * @param noOfTriangles
-	 *            the number of triangles in the group
 	 */
-	public void importGroup(int groupNum, String name, String materialName,
-			int noOfTriangles) {
-		groupTriangles[groupNum] = new Triangle[noOfTriangles];
-		groupNames[groupNum] = name;
-		groupMaterialNames[groupNum] = materialName;
-		currentGroup = groupNum;
+	public void setGroupMaterial(int groupNum, String materialName) {
+		groupMaterialData.set(groupNum, materialName);
 	}
 
+	/**
+	 * Returns the vertex with the given index
+	 * 
+	 * @param index
+	 *            the index of the vertex
+	 * @return the vertex
+	 */
 	public Vertex getVertex(int index) {
 		if (vertexData != null) {
 			return (Vertex) vertexData.get(index);
@@ -162,14 +233,36 @@ public class Mesh {
 
 	/**
 	 * Optimises the mesh for faster performance. The method does this by
-	 * converting the array lists to arrays, making performance faster. It also
-	 * stores all the neighbour triangles of each vertex for faster performance
-	 * later.
+	 * converting the array lists to arrays, making performance faster. Empty
+	 * groups are removed, and the triangles are put in the best order for
+	 * drawing, so every material is one range of the triangle array (see
+	 * optimise(boolean)). It also stores all the neighbour triangles of each
+	 * vertex for faster performance later (see makeNeighbours()).
 	 */
 	public void optimise() {
+		optimise(true);
+	}
+
+	/**
+	 * Optimises the mesh for faster performance (see optimise()). When the
+	 * triangles are reordered, they are sorted by material across all the
+	 * groups (the triangles of each group stay together within a material),
+	 * so each material is set once when the mesh is drawn. Drawing only goes
+	 * by the material runs, so a group is spread over the runs of the
+	 * materials it uses. Then the triangles of each material are put in the
+	 * order that reuses the most vertices from the graphics card's vertex
+	 * cache (see VertexCacheOptimiser). Otherwise the triangles keep the
+	 * order they were loaded in (for meshes that were reordered before they
+	 * were saved).
+	 * 
+	 * @param reorderTriangles
+	 *            whether to put the triangles in the best order for drawing
+	 */
+	public void optimise(boolean reorderTriangles) {
 		if (vertexData == null || triangleData == null) {
 			System.out
 					.println("Mesh.optimise(): cannot optimise after finalised");
+			return;
 		}
 
 		// Create a new array with the same size as the triangle array list
@@ -178,63 +271,576 @@ public class Mesh {
 
 		// For each vertex,
 		for (int vertex = 0; vertex < numVertices; vertex++) {
-			// Get the vertex, set its new ID and reset its neighbour triangles
+			// Get the vertex and set its new ID
 			vertices[vertex] = getVertex(vertex);
 			vertices[vertex].ID = vertex;
-			vertices[vertex].resetNeighbours();
 		}
 
 		// Create a new array with the same size as the triangle array list
-		Triangle newTriangle;
 		numTriangles = triangleData.size();
 		triangles = new Triangle[numTriangles];
+		makeGroups(reorderTriangles);
+		if (reorderTriangles) {
+			sortByMaterial();
+			optimiseVertexCache();
+		}
+
+		// Set the new ID of each triangle
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			triangles[triangle].ID = triangle;
+		}
+		makeNeighbours();
+		makeMaterialRuns();
+		resolveSurfaces();
+
+		// The loading lists aren't needed now that the arrays are made
+		vertexData = null;
+		triangleData = null;
+	}
+
+	/**
+	 * Fills the triangle array with the loaded triangles and counts the
+	 * triangles of each group. Groups without any triangles are removed.
+	 * 
+	 * @param sortGroups
+	 *            whether the triangles are put in the order of their groups
+	 *            (otherwise they stay in the order they were loaded in)
+	 */
+	private void makeGroups(boolean sortGroups) {
+		// Count the triangles in each group
+		int noOfGroups = groupNameData.size();
+		int[] counts = new int[noOfGroups];
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			counts[((Triangle) triangleData.get(triangle)).groupID]++;
+		}
 
-		// For each triangle,
+		// Give every group that isn't empty a new number and a start position
+		// (used when the triangles are put in group order)
+		int[] newIDs = new int[noOfGroups];
+		int[] positions = new int[noOfGroups];
+		int noOfUsedGroups = 0;
+		int start = 0;
+		for (int group = 0; group < noOfGroups; group++) {
+			newIDs[group] = noOfUsedGroups;
+			positions[group] = start;
+			start += counts[group];
+			if (counts[group] > 0) {
+				noOfUsedGroups++;
+			}
+		}
+
+		// Store the names and sizes of the groups that are left
+		groupNames = new String[noOfUsedGroups];
+		groupMaterialNames = new String[noOfUsedGroups];
+		groupSizes = new int[noOfUsedGroups];
+		for (int group = 0; group < noOfGroups; group++) {
+			if (counts[group] > 0) {
+				groupNames[newIDs[group]] = groupNameData.get(group);
+				groupMaterialNames[newIDs[group]] = groupMaterialData.get(group);
+				groupSizes[newIDs[group]] = counts[group];
+			}
+		}
+
+		// Put each triangle in the next spot of its group's range, or in the
+		// spot it was loaded in
 		for (int triangle = 0; triangle < numTriangles; triangle++) {
-			// Get the triangle and set its new ID
-			triangles[triangle] = newTriangle = (Triangle) triangleData
-					.get(triangle);
-			newTriangle.ID = triangle;
+			Triangle nextTriangle = (Triangle) triangleData.get(triangle);
+			if (sortGroups) {
+				triangles[positions[nextTriangle.groupID]++] = nextTriangle;
+			} else {
+				triangles[triangle] = nextTriangle;
+			}
+			nextTriangle.groupID = newIDs[nextTriangle.groupID];
+		}
+	}
 
-			// Register the triangle as a "neighbour" of its vertices
-			newTriangle.point1.addNeighbourTriangle(newTriangle);
-			newTriangle.point2.addNeighbourTriangle(newTriangle);
-			newTriangle.point3.addNeighbourTriangle(newTriangle);
+	/**
+	 * Sorts all the triangles by material, keeping the order of triangles
+	 * with the same material (so the groups stay in order within each
+	 * material)
+	 */
+	private void sortByMaterial() {
+		// Sort the material and position of each triangle together
+		long[] keys = new long[numTriangles];
+		for (int next = 0; next < numTriangles; next++) {
+			keys[next] = ((long) triangles[next].materialID << 32) | next;
 		}
+		Arrays.sort(keys);
+
+		// Put the triangles in their sorted positions
+		Triangle[] sorted = new Triangle[numTriangles];
+		for (int next = 0; next < numTriangles; next++) {
+			sorted[next] = triangles[(int) keys[next]];
+		}
+		System.arraycopy(sorted, 0, triangles, 0, numTriangles);
 	}
 
 	/**
-	 * Find and store the outside points of the mesh (the rightmost, leftmost,
-	 * highest, lowest, etc.)
+	 * Reorders the triangles of each material for the vertex cache. The
+	 * triangles must already be sorted by material.
 	 */
-	public void calculateDimensions() {
-		// Reset all the outside points to 0
-		leftmostPoint = rightmostPoint = 0;
-		lowestPoint = highestPoint = 0;
-		farthestPoint = nearestPoint = 0;
-		// For each triangle,
-		for (int triangle = 0; triangle < triangles.length; triangle++) {
-			// Get the triangle
-			Triangle checkTriangle = (Triangle) triangles[triangle];
-			// For each vertex in that triangle
-			for (int vertex = 1; vertex <= 3; vertex++) {
-				Vertex checkVertex = checkTriangle.getPoint(vertex);
-				if (checkVertex.pos.x < leftmostPoint) {
-					leftmostPoint = checkVertex.pos.x;
-				} else if (checkVertex.pos.x > rightmostPoint) {
-					rightmostPoint = checkVertex.pos.x;
-				}
-				if (checkVertex.pos.y < lowestPoint) {
-					lowestPoint = checkVertex.pos.y;
-				} else if (checkVertex.pos.y > highestPoint) {
-					highestPoint = checkVertex.pos.y;
-				}
-				if (checkVertex.pos.z < nearestPoint) {
-					nearestPoint = checkVertex.pos.z;
-				} else if (checkVertex.pos.z > farthestPoint) {
-					farthestPoint = checkVertex.pos.z;
-				}
+	private void optimiseVertexCache() {
+		VertexCacheOptimiser optimiser = new VertexCacheOptimiser(
+				VertexCacheOptimiser.getNoOfVertices(triangles));
+		int start = 0;
+		for (int triangle = 1; triangle <= numTriangles; triangle++) {
+			if (triangle == numTriangles
+					|| triangles[triangle].materialID != triangles[start].materialID) {
+				optimiser.optimise(triangles, start, triangle - start);
+				start = triangle;
 			}
 		}
 	}
+
+	/**
+	 * Stores the neighbour triangles of every vertex. The triangles are
+	 * counted for each vertex first, so all the neighbours fit in one array
+	 * that is filled in a second pass. A triangle is only stored once for a
+	 * vertex, even if the vertex is used twice in the triangle.
+	 */
+	private void makeNeighbours() {
+		// Count the neighbour triangles of each vertex (shifted by one, so
+		// the counts can be added up into the start positions)
+		neighbourStarts = new int[numVertices + 1];
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			Triangle nextTriangle = triangles[triangle];
+			neighbourStarts[nextTriangle.point1.ID + 1]++;
+			if (nextTriangle.point2 != nextTriangle.point1) {
+				neighbourStarts[nextTriangle.point2.ID + 1]++;
+			}
+			if (nextTriangle.point3 != nextTriangle.point1
+					&& nextTriangle.point3 != nextTriangle.point2) {
+				neighbourStarts[nextTriangle.point3.ID + 1]++;
+			}
+		}
+		for (int vertex = 0; vertex < numVertices; vertex++) {
+			neighbourStarts[vertex + 1] += neighbourStarts[vertex];
+		}
+
+		// Put each triangle in the next spot of its vertices' ranges
+		neighbourTriangles = new int[neighbourStarts[numVertices]];
+		int[] positions = new int[numVertices];
+		System.arraycopy(neighbourStarts, 0, positions, 0, numVertices);
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			Triangle nextTriangle = triangles[triangle];
+			neighbourTriangles[positions[nextTriangle.point1.ID]++] = triangle;
+			if (nextTriangle.point2 != nextTriangle.point1) {
+				neighbourTriangles[positions[nextTriangle.point2.ID]++] = triangle;
+			}
+			if (nextTriangle.point3 != nextTriangle.point1
+					&& nextTriangle.point3 != nextTriangle.point2) {
+				neighbourTriangles[positions[nextTriangle.point3.ID]++] = triangle;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of triangles that use a vertex
+	 * 
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the number of neighbour triangles
+	 */
+	public int getNoOfNeighbourTriangles(int vertex) {
+		return neighbourStarts[vertex + 1] - neighbourStarts[vertex];
+	}
+
+	/**
+	 * Returns one of the triangles that use a vertex. The triangles of each
+	 * vertex are in the same order as the triangle array.
+	 * 
+	 * @param vertex
+	 *            the index of the vertex
+	 * @param neighbour
+	 *            which of the vertex's neighbour triangles to return
+	 * @return the index of the triangle
+	 */
+	public int getNeighbourTriangle(int vertex, int neighbour) {
+		return neighbourTriangles[neighbourStarts[vertex] + neighbour];
+	}
+
+	/**
+	 * Stores the runs of triangles that use the same material
+	 */
+	private void makeMaterialRuns() {
+		// Count the runs
+		int noOfRuns = 0;
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			if (triangle == 0
+					|| triangles[triangle].materialID != triangles[triangle - 1].materialID) {
+				noOfRuns++;
+			}
+		}
+
+		// Store where each run starts, how long it is and its material
+		materialRunStarts = new int[noOfRuns];
+		materialRunSizes = new int[noOfRuns];
+		materialRunIDs = new int[noOfRuns];
+		int run = -1;
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			if (triangle == 0
+					|| triangles[triangle].materialID != triangles[triangle - 1].materialID) {
+				run++;
+				materialRunStarts[run] = triangle;
+				materialRunIDs[run] = triangles[triangle].materialID;
+			}
+			materialRunSizes[run]++;
+		}
+	}
+
+	/**
+	 * Returns the mesh in flat arrays, making them the first time they are
+	 * needed. The mesh must be optimised first.
+	 * 
+	 * @return the packed mesh
+	 */
+	public synchronized PackedMesh getPackedMesh() {
+		if (released && packedMesh == null) {
+			System.out.println("Mesh.getPackedMesh(): the data of " + name
+					+ " was released");
+		} else if (packedMesh == null) {
+			packedMesh = new PackedMesh(this);
+		}
+		return packedMesh;
+	}
+
+	/**
+	 * Returns the vertex data quantized to fewer bytes, making it the first
+	 * time it is needed. The mesh must be optimised first.
+	 * 
+	 * @return the quantized mesh
+	 */
+	public synchronized QuantizedMesh getQuantizedMesh() {
+		if (quantizedMesh == null) {
+			quantizedMesh = new QuantizedMesh(getPackedMesh());
+		}
+		return quantizedMesh;
+	}
+
+	/**
+	 * Returns the vertex data and indices in direct buffers, making them from
+	 * the packed mesh (or the quantized mesh, if vertices are compressed) the
+	 * first time they are needed. Buffers that were already made (or mapped
+	 * from a baked file) are kept, even if they aren't compressed.
+	 * 
+	 * @return the mesh buffers
+	 */
+	public synchronized MeshBuffers getMeshBuffers() {
+		if (meshBuffers == null) {
+			meshBuffers = compressVertices ? new MeshBuffers(getQuantizedMesh())
+					: new MeshBuffers(getPackedMesh());
+		}
+		return meshBuffers;
+	}
+
+	/**
+	 * Sets whether meshes are drawn from compressed buffers. This only
+	 * affects the buffers made after it is called, so a baked mesh keeps the
+	 * full buffers mapped from its file (see BakedMesh).
+	 * 
+	 * @param compress
+	 *            true to compress the vertex data
+	 */
+	public static void setCompressVertices(boolean compress) {
+		compressVertices = compress;
+	}
+
+	/**
+	 * Sets whether meshes let go of their data on the CPU once they are in
+	 * display lists (see releaseCPUData())
+	 * 
+	 * @param resident
+	 *            true to keep only the display lists of meshes that are just
+	 *            drawn
+	 */
+	public static void setGPUResident(boolean resident) {
+		gpuResident = resident;
+	}
+
+	/**
+	 * Checks if meshes let go of their data on the CPU once they are in
+	 * display lists
+	 * 
+	 * @return true if meshes only stay on the GPU
+	 */
+	public static boolean isGPUResident() {
+		return gpuResident;
+	}
+
+	/**
+	 * Lets go of the mesh's data on the CPU once the mesh is in a display
+	 * list, since the display list has all the data needed to draw it. The
+	 * vertices, triangles, neighbours, welded vertices and buffers are
+	 * dropped. The name, materials, groups, material runs and bounds are
+	 * kept. A mesh that is also used for collisions keeps a packed mesh with
+	 * only the positions (one for every vertex, not every welded vertex),
+	 * the indices and the material and surface of each triangle.
+	 * 
+	 * @param keepCollisionData
+	 *            whether to keep the data needed for collisions
+	 */
+	public synchronized void releaseCPUData(boolean keepCollisionData) {
+		if (released) {
+			return;
+		}
+		packedMesh = (keepCollisionData && triangles != null) ? PackedMesh
+				.makeCollisionMesh(this) : null;
+		vertexData = null;
+		triangleData = null;
+		vertices = null;
+		triangles = null;
+		neighbourStarts = new int[] { 0 };
+		neighbourTriangles = new int[0];
+		indexedMesh = null;
+		quantizedMesh = null;
+		meshBuffers = null;
+		released = true;
+	}
+
+	/**
+	 * Checks if the mesh let go of its data on the CPU (see releaseCPUData())
+	 * 
+	 * @return true if the mesh can't be drawn again from its data
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Returns roughly how many bytes the mesh uses on the Java heap: the
+	 * vertex and triangle objects (or the lists they are being loaded into),
+	 * the neighbours, groups, material runs and bounds, and the welded,
+	 * packed and quantized data that was made
+	 * 
+	 * @return the number of bytes
+	 */
+	public synchronized long getNoOfHeapBytes() {
+		long noOfBytes = 0;
+		if (vertices != null) {
+			noOfBytes += (long) vertices.length * (VERTEX_BYTES + 4);
+		} else if (vertexData != null) {
+			noOfBytes += (long) vertexData.size() * (VERTEX_BYTES + 4);
+		}
+		if (triangles != null) {
+			noOfBytes += (long) triangles.length * (TRIANGLE_BYTES + 4);
+		} else if (triangleData != null) {
+			noOfBytes += (long) triangleData.size() * (TRIANGLE_BYTES + 4);
+		}
+		noOfBytes += (neighbourStarts.length + neighbourTriangles.length
+				+ groupSizes.length + materialRunStarts.length * 3) * 4;
+		if (bounds != null) {
+			noOfBytes += (1 + groupBounds.length + materialRunBounds.length)
+					* BOUNDS_BYTES;
+		}
+		if (indexedMesh != null) {
+			noOfBytes += indexedMesh.getNoOfBytes();
+		}
+		if (packedMesh != null) {
+			noOfBytes += packedMesh.getNoOfBytes();
+		}
+		if (quantizedMesh != null) {
+			noOfBytes += quantizedMesh.getNoOfBytes();
+		}
+		return noOfBytes;
+	}
+
+	/**
+	 * Returns how many bytes the mesh's buffers use outside of the Java heap
+	 * 
+	 * @return the number of bytes (0 if the buffers weren't made)
+	 */
+	public synchronized long getNoOfDirectBytes() {
+		return (meshBuffers != null) ? meshBuffers.getNoOfBytes() : 0;
+	}
+
+	/**
+	 * Returns roughly how many bytes a display list of the mesh holds on the
+	 * graphics card: the welded vertices (as floats) and the indices. This
+	 * must be called before the mesh lets go of its data, otherwise every
+	 * corner of every triangle is counted as its own vertex.
+	 * 
+	 * @return the number of bytes
+	 */
+	public synchronized long getNoOfDisplayListBytes() {
+		if (indexedMesh == null) {
+			return (long) numTriangles * 3 * (3 + 3 + 2) * 4;
+		}
+		int floatsPerVertex = 3;
+		if (indexedMesh.normals != null) {
+			floatsPerVertex += 3;
+		}
+		if (indexedMesh.textureCoords != null) {
+			floatsPerVertex += 2;
+		}
+		return ((long) indexedMesh.noOfVertices * floatsPerVertex + indexedMesh
+				.getNoOfIndices()) * 4;
+	}
+
+	/**
+	 * Sets the buffers of the mesh (when they were read with the mesh)
+	 * 
+	 * @param meshBuffers
+	 *            the mesh buffers, in the same order as the indexed mesh
+	 */
+	public synchronized void setMeshBuffers(MeshBuffers meshBuffers) {
+		this.meshBuffers = meshBuffers;
+	}
+
+	/**
+	 * Returns the number of groups in the mesh
+	 * 
+	 * @return the number of groups
+	 */
+	public int getNoOfGroups() {
+		return groupNames.length;
+	}
+
+	/**
+	 * Returns the name of a group
+	 * 
+	 * @param groupNum
+	 *            the group number
+	 * @return the name of the group
+	 */
+	public String getGroupName(int groupNum) {
+		return groupNames[groupNum];
+	}
+
+	/**
+	 * Returns the material name of a group
+	 * 
+	 * @param groupNum
+	 *            the group number
+	 * @return the name of the group's material
+	 */
+	public String getGroupMaterialName(int groupNum) {
+		return groupMaterialNames[groupNum];
+	}
+
+	/**
+	 * Returns the number of triangles in a group
+	 * 
+	 * @param groupNum
+	 *            the group number
+	 * @return the number of triangles in the group
+	 */
+	public int getGroupSize(int groupNum) {
+		return groupSizes[groupNum];
+	}
+
+	/**
+	 * Returns the number of runs of triangles with the same material
+	 * 
+	 * @return the number of material runs
+	 */
+	public int getNoOfMaterialRuns() {
+		return materialRunIDs.length;
+	}
+
+	/**
+	 * Returns the index of the first triangle of a material run
+	 * 
+	 * @param run
+	 *            the run number
+	 * @return the index of the run's first triangle
+	 */
+	public int getMaterialRunStart(int run) {
+		return materialRunStarts[run];
+	}
+
+	/**
+	 * Returns the number of triangles in a material run
+	 * 
+	 * @param run
+	 *            the run number
+	 * @return the number of triangles in the run
+	 */
+	public int getMaterialRunSize(int run) {
+		return materialRunSizes[run];
+	}
+
+	/**
+	 * Returns the material index of a material run
+	 * 
+	 * @param run
+	 *            the run number
+	 * @return the material index used by the run
+	 */
+	public int getMaterialRunID(int run) {
+		return materialRunIDs[run];
+	}
+
+	/**
+	 * Calculates the bounds of the mesh, its groups and its material runs,
+	 * and the outside points of the mesh. The mesh must be optimised first.
+	 */
+	public void calculateDimensions() {
+		bounds = new Bounds(triangles, 0, numTriangles);
+		// The triangles of a group can be in several material runs, so they
+		// are gathered first
+		Triangle[][] groupTriangles = new Triangle[groupSizes.length][];
+		int[] groupCounts = new int[groupSizes.length];
+		for (int group = 0; group < groupSizes.length; group++) {
+			groupTriangles[group] = new Triangle[groupSizes[group]];
+		}
+		for (int triangle = 0; triangle < numTriangles; triangle++) {
+			int group = triangles[triangle].groupID;
+			groupTriangles[group][groupCounts[group]++] = triangles[triangle];
+		}
+		groupBounds = new Bounds[groupSizes.length];
+		for (int group = 0; group < groupBounds.length; group++) {
+			groupBounds[group] = new Bounds(groupTriangles[group], 0,
+					groupSizes[group]);
+		}
+		materialRunBounds = new Bounds[materialRunStarts.length];
+		for (int run = 0; run < materialRunBounds.length; run++) {
+			materialRunBounds[run] = new Bounds(triangles,
+					materialRunStarts[run], materialRunSizes[run]);
+		}
+
+		// Copy the outside points from the bounds
+		leftmostPoint = bounds.minX;
+		rightmostPoint = bounds.maxX;
+		lowestPoint = bounds.minY;
+		highestPoint = bounds.maxY;
+		nearestPoint = bounds.minZ;
+		farthestPoint = bounds.maxZ;
+	}
+
+	/**
+	 * Returns the bounds of the whole mesh, calculating them the first time
+	 * they are needed
+	 * 
+	 * @return the box and sphere around the mesh
+	 */
+	public Bounds getBounds() {
+		if (bounds == null) {
+			calculateDimensions();
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns the bounds of a group
+	 * 
+	 * @param group
+	 *            the group number
+	 * @return the box and sphere around the group
+	 */
+	public Bounds getGroupBounds(int group) {
+		getBounds();
+		return groupBounds[group];
+	}
+
+	/**
+	 * Returns the bounds of a material run
+	 * 
+	 * @param run
+	 *            the run number
+	 * @return the box and sphere around the run
+	 */
+	public Bounds getMaterialRunBounds(int run) {
+		getBounds();
+		return materialRunBounds[run];
+	}
 }
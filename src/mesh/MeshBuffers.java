@@ -0,0 +1,448 @@
+package mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.opengl.GL11;
+
+/**
+ * The "MeshBuffers" Class.
+ * Purpose: Holds the vertex data and indices of a mesh in direct buffers
+ * (outside of the Java heap), laid out so they can be given to openGL in one
+ * call each. The vertex data is interleaved in the T2F_N3F_V3F format (u, v,
+ * then the x, y, z normal, then the x, y, z position of every vertex), or
+ * T2F_V3F if the mesh has no normals. The indices are unsigned shorts if
+ * there are few enough vertices, otherwise ints.
+ * <P>
+ * The vertex data can also be compressed (made from a QuantizedMesh). Each
+ * vertex is then 16 bytes: the x, y, z position steps as shorts (and 2 bytes
+ * of padding), the x, y, z normal as signed bytes (and 1 byte of padding) and
+ * the u, v texture coordinate steps as shorts, which is half the 32 bytes of
+ * a full vertex. The padding keeps each part on a 4 byte boundary. The steps
+ * are turned back into positions and texture coordinates by the modelview
+ * and texture matrices while the mesh is drawn, so bind() and unbind() must
+ * be used around the draws.
+ * <P>
+ * The buffers are either made from a packed mesh, or are slices of a
+ * memory-mapped baked file (see BakedMesh), in which case nothing is copied.
+ * <P>
+ * Note: The data fields for this class are public for efficiency when they
+ * are used for drawing
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class MeshBuffers {
+
+	// The number of bytes in each interleaved vertex, with and without normals
+	public static final int VERTEX_SIZE = 32;
+	public static final int VERTEX_SIZE_NO_NORMALS = 20;
+	public static final int COMPRESSED_VERTEX_SIZE = 16;
+
+	// Where the normals and texture coordinates start in a compressed vertex
+	private static final int COMPRESSED_NORMAL_OFFSET = 8;
+	private static final int COMPRESSED_TEXTURE_COORD_OFFSET = 12;
+
+	// The interleaved vertex data and the indices (three for every triangle)
+	public ByteBuffer vertexData;
+	public ByteBuffer indexData;
+
+	// The number of vertices and indices
+	public int noOfVertices;
+	public int noOfIndices;
+
+	// Whether the vertices have normals and the indices are shorts
+	private boolean normals;
+	private boolean shortIndices;
+
+	// Whether the vertex data is compressed, with the views of its parts and
+	// the centres and steps that turn it back into positions and texture
+	// coordinates
+	private boolean compressed = false;
+	private ShortBuffer positionView;
+	private ByteBuffer normalView;
+	private ShortBuffer textureCoordView;
+	private float centreX;
+	private float centreY;
+	private float centreZ;
+	private float step;
+	private float centreU;
+	private float centreV;
+	private float stepU;
+	private float stepV;
+
+	// Views of the indices, for drawing ranges of them
+	private ShortBuffer shortIndexView;
+	private IntBuffer intIndexView;
+
+	/**
+	 * Create the buffers for a packed mesh
+	 *
+	 * @param packedMesh
+	 *            the packed mesh
+	 */
+	public MeshBuffers(PackedMesh packedMesh) {
+		this(makeVertexData(packedMesh.positions, packedMesh.normals,
+				packedMesh.textureCoords, null), makeIndexData(
+				packedMesh.indices, null, packedMesh.noOfVertices),
+				packedMesh.normals != null, packedMesh.noOfVertices,
+				packedMesh.indices.length);
+	}
+
+	/**
+	 * Create compressed buffers for a quantized mesh
+	 *
+	 * @param quantizedMesh
+	 *            the quantized mesh
+	 */
+	public MeshBuffers(QuantizedMesh quantizedMesh) {
+		this(makeVertexData(quantizedMesh), makeIndexData(
+				quantizedMesh.indices, null, quantizedMesh.noOfVertices),
+				quantizedMesh.hasNormals(), quantizedMesh.noOfVertices,
+				quantizedMesh.indices.length);
+		compressed = true;
+		centreX = quantizedMesh.centreX;
+		centreY = quantizedMesh.centreY;
+		centreZ = quantizedMesh.centreZ;
+		step = quantizedMesh.step;
+		centreU = quantizedMesh.centreU;
+		centreV = quantizedMesh.centreV;
+		stepU = quantizedMesh.stepU;
+		stepV = quantizedMesh.stepV;
+
+		// Make a view that starts at each part of the first vertex
+		positionView = vertexData.asShortBuffer();
+		normalView = slice(vertexData, COMPRESSED_NORMAL_OFFSET);
+		textureCoordView = slice(vertexData, COMPRESSED_TEXTURE_COORD_OFFSET)
+				.asShortBuffer();
+	}
+
+	/**
+	 * Create the buffers from vertex data and indices that were already made
+	 * (like slices of a memory-mapped file). The buffers must be direct and
+	 * in the native byte order.
+	 *
+	 * @param vertexData
+	 *            the interleaved vertex data
+	 * @param indexData
+	 *            the indices
+	 * @param normals
+	 *            whether the vertices have normals
+	 * @param noOfVertices
+	 *            the number of vertices
+	 * @param noOfIndices
+	 *            the number of indices
+	 */
+	public MeshBuffers(ByteBuffer vertexData, ByteBuffer indexData,
+			boolean normals, int noOfVertices, int noOfIndices) {
+		this.vertexData = vertexData;
+		this.indexData = indexData;
+		this.normals = normals;
+		this.noOfVertices = noOfVertices;
+		this.noOfIndices = noOfIndices;
+		shortIndices = usesShortIndices(noOfVertices);
+		if (shortIndices) {
+			shortIndexView = indexData.asShortBuffer();
+		} else {
+			intIndexView = indexData.asIntBuffer();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes in each interleaved vertex
+	 *
+	 * @param normals
+	 *            whether the vertices have normals
+	 * @return the size of a vertex in bytes
+	 */
+	public static int getVertexSize(boolean normals) {
+		return normals ? VERTEX_SIZE : VERTEX_SIZE_NO_NORMALS;
+	}
+
+	/**
+	 * Checks if the indices of a mesh are stored as shorts
+	 *
+	 * @param noOfVertices
+	 *            the number of vertices in the mesh
+	 * @return true if the indices fit in (unsigned) shorts
+	 */
+	public static boolean usesShortIndices(int noOfVertices) {
+		return noOfVertices <= IndexedMesh.MAX_SHORT_VERTICES;
+	}
+
+	/**
+	 * Makes the interleaved vertex data for some (or all) of the vertices.
+	 * Vertices without texture coordinates are given 0, 0.
+	 *
+	 * @param positions
+	 *            the x, y and z positions of the vertices
+	 * @param normals
+	 *            the x, y and z normals of the vertices, or null
+	 * @param textureCoords
+	 *            the u and v texture coordinates of the vertices, or null
+	 * @param vertices
+	 *            the vertices to put in the data, in order (or null for all
+	 *            of them)
+	 * @return a new direct buffer with the vertex data
+	 */
+	public static ByteBuffer makeVertexData(float[] positions,
+			float[] normals, float[] textureCoords, int[] vertices) {
+		int noOfVertices = (vertices != null) ? vertices.length
+				: positions.length / 3;
+		ByteBuffer data = ByteBuffer.allocateDirect(
+				noOfVertices * getVertexSize(normals != null)).order(
+				ByteOrder.nativeOrder());
+		for (int next = 0; next < noOfVertices; next++) {
+			int vertex = (vertices != null) ? vertices[next] : next;
+			if (textureCoords != null) {
+				data.putFloat(textureCoords[vertex * 2]);
+				data.putFloat(textureCoords[vertex * 2 + 1]);
+			} else {
+				data.putFloat(0);
+				data.putFloat(0);
+			}
+			if (normals != null) {
+				data.putFloat(normals[vertex * 3]);
+				data.putFloat(normals[vertex * 3 + 1]);
+				data.putFloat(normals[vertex * 3 + 2]);
+			}
+			data.putFloat(positions[vertex * 3]);
+			data.putFloat(positions[vertex * 3 + 1]);
+			data.putFloat(positions[vertex * 3 + 2]);
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Makes the compressed vertex data for a quantized mesh. The normals are
+	 * decoded to bytes, since openGL can't decode them. Vertices without
+	 * normals or texture coordinates are given 0s.
+	 *
+	 * @param quantizedMesh
+	 *            the quantized mesh
+	 * @return a new direct buffer with the vertex data
+	 */
+	public static ByteBuffer makeVertexData(QuantizedMesh quantizedMesh) {
+		ByteBuffer data = ByteBuffer.allocateDirect(
+				quantizedMesh.noOfVertices * COMPRESSED_VERTEX_SIZE).order(
+				ByteOrder.nativeOrder());
+		float[] normal = new float[3];
+		for (int vertex = 0; vertex < quantizedMesh.noOfVertices; vertex++) {
+			data.putShort(quantizedMesh.positions[vertex * 3]);
+			data.putShort(quantizedMesh.positions[vertex * 3 + 1]);
+			data.putShort(quantizedMesh.positions[vertex * 3 + 2]);
+			data.putShort((short) 0);
+			if (quantizedMesh.hasNormals()) {
+				quantizedMesh.getNormal(vertex, normal);
+				data.put((byte) Math.round(normal[0] * 127));
+				data.put((byte) Math.round(normal[1] * 127));
+				data.put((byte) Math.round(normal[2] * 127));
+			} else {
+				data.put((byte) 0);
+				data.put((byte) 0);
+				data.put((byte) 0);
+			}
+			data.put((byte) 0);
+			if (quantizedMesh.hasTextureCoords()) {
+				data.putShort(quantizedMesh.textureCoords[vertex * 2]);
+				data.putShort(quantizedMesh.textureCoords[vertex * 2 + 1]);
+			} else {
+				data.putShort((short) 0);
+				data.putShort((short) 0);
+			}
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Returns the bytes of a buffer from an offset on, in the native byte
+	 * order
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            the offset of the first byte
+	 * @return a buffer sharing the contents of the buffer
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		return duplicate.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Makes the index data for some (or all) of the triangles
+	 *
+	 * @param indices
+	 *            three vertex indices for every triangle
+	 * @param triangles
+	 *            the triangles to put in the data, in order (or null for all
+	 *            of them)
+	 * @param noOfVertices
+	 *            the number of vertices the indices point to (this decides if
+	 *            the indices are shorts)
+	 * @return a new direct buffer with the indices
+	 */
+	public static ByteBuffer makeIndexData(int[] indices, int[] triangles,
+			int noOfVertices) {
+		int noOfIndices = (triangles != null) ? triangles.length * 3
+				: indices.length;
+		boolean shortIndices = usesShortIndices(noOfVertices);
+		ByteBuffer data = ByteBuffer.allocateDirect(
+				noOfIndices * (shortIndices ? 2 : 4)).order(
+				ByteOrder.nativeOrder());
+		for (int next = 0; next < noOfIndices; next++) {
+			int index = (triangles != null) ? indices[triangles[next / 3] * 3
+					+ next % 3] : indices[next];
+			if (shortIndices) {
+				data.putShort((short) index);
+			} else {
+				data.putInt(index);
+			}
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Checks if the vertices have normals
+	 *
+	 * @return true if there are normals
+	 */
+	public boolean hasNormals() {
+		return normals;
+	}
+
+	/**
+	 * Checks if the vertex data is compressed
+	 *
+	 * @return true if the vertex data came from a quantized mesh
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Checks if the indices are stored as shorts
+	 *
+	 * @return true if the indices are shorts
+	 */
+	public boolean hasShortIndices() {
+		return shortIndices;
+	}
+
+	/**
+	 * Returns a range of the indices as shorts (only if hasShortIndices()).
+	 * The same view is returned every time, so it must be used before asking
+	 * for another range.
+	 *
+	 * @param start
+	 *            the position of the first index
+	 * @param count
+	 *            the number of indices
+	 * @return the indices
+	 */
+	public ShortBuffer getShortIndices(int start, int count) {
+		shortIndexView.clear();
+		shortIndexView.position(start);
+		shortIndexView.limit(start + count);
+		return shortIndexView;
+	}
+
+	/**
+	 * Returns a range of the indices as ints (only if !hasShortIndices()).
+	 * The same view is returned every time, so it must be used before asking
+	 * for another range.
+	 *
+	 * @param start
+	 *            the position of the first index
+	 * @param count
+	 *            the number of indices
+	 * @return the indices
+	 */
+	public IntBuffer getIntIndices(int start, int count) {
+		intIndexView.clear();
+		intIndexView.position(start);
+		intIndexView.limit(start + count);
+		return intIndexView;
+	}
+
+	/**
+	 * Gives openGL the vertex data, so triangles can be drawn with
+	 * drawTriangles(). unbind() must be called after the triangles are drawn.
+	 */
+	public void bind() {
+		GL11.glPushClientAttrib(GL11.GL_CLIENT_VERTEX_ARRAY_BIT);
+		if (!compressed) {
+			GL11.glInterleavedArrays(normals ? GL11.GL_T2F_N3F_V3F
+					: GL11.GL_T2F_V3F, 0, vertexData);
+			return;
+		}
+
+		// Give openGL each part of the compressed vertices
+		GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
+		GL11.glVertexPointer(3, COMPRESSED_VERTEX_SIZE, positionView);
+		if (normals) {
+			GL11.glEnableClientState(GL11.GL_NORMAL_ARRAY);
+			GL11.glNormalPointer(COMPRESSED_VERTEX_SIZE, normalView);
+		}
+		GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+		GL11.glTexCoordPointer(2, COMPRESSED_VERTEX_SIZE, textureCoordView);
+
+		// Turn the steps back into texture coordinates and positions
+		GL11.glMatrixMode(GL11.GL_TEXTURE);
+		GL11.glPushMatrix();
+		GL11.glTranslatef(centreU, centreV, 0);
+		GL11.glScalef(stepU, stepV, 1);
+		GL11.glMatrixMode(GL11.GL_MODELVIEW);
+		GL11.glPushMatrix();
+		GL11.glTranslatef(centreX, centreY, centreZ);
+		GL11.glScalef(step, step, step);
+	}
+
+	/**
+	 * Draws a range of the triangles (the vertex data must be bound)
+	 *
+	 * @param startTriangle
+	 *            the index of the first triangle
+	 * @param noOfTriangles
+	 *            the number of triangles
+	 */
+	public void drawTriangles(int startTriangle, int noOfTriangles) {
+		int start = IndexedMesh.getIndexStart(startTriangle);
+		int count = IndexedMesh.getIndexCount(noOfTriangles);
+		if (shortIndices) {
+			GL11.glDrawElements(GL11.GL_TRIANGLES, getShortIndices(start,
+					count));
+		} else {
+			GL11.glDrawElements(GL11.GL_TRIANGLES,
+					getIntIndices(start, count));
+		}
+	}
+
+	/**
+	 * Takes the vertex data back from openGL (after bind())
+	 */
+	public void unbind() {
+		if (compressed) {
+			GL11.glPopMatrix();
+			GL11.glMatrixMode(GL11.GL_TEXTURE);
+			GL11.glPopMatrix();
+			GL11.glMatrixMode(GL11.GL_MODELVIEW);
+		}
+		GL11.glPopClientAttrib();
+	}
+
+	/**
+	 * Returns the number of bytes in the buffers
+	 *
+	 * @return the number of bytes (outside of the Java heap)
+	 */
+	public long getNoOfBytes() {
+		return vertexData.capacity() + indexData.capacity();
+	}
+}
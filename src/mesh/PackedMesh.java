@@ -0,0 +1,352 @@
+package mesh;
+
+import math.Vector;
+
+/**
+ * The "PackedMesh" Class.
+ * Purpose: Holds a finished mesh in flat arrays instead of Triangle and Vertex
+ * objects. The vertex data (positions, normals and texture coordinates) is
+ * stored once for every welded vertex, every triangle is three indices into
+ * that data, and the material and surface of each triangle are stored in
+ * their own arrays. The triangles are in the same order as the mesh's, so
+ * the groups and material runs of the mesh are ranges of the triangles here
+ * too. Renderers and collision checks can go through the arrays in order
+ * without following any references.
+ * <P>
+ * Note: The data fields for this class are public for efficiency when they
+ * are used for drawing
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class PackedMesh {
+
+	// The number of triangles and vertices
+	public int noOfTriangles;
+	public int noOfVertices;
+
+	// The data of each vertex (x, y, z positions and normals, and u, v
+	// texture coordinates). The normals or texture coordinates are null if the
+	// mesh doesn't have them.
+	public float[] positions;
+	public float[] normals;
+	public float[] textureCoords;
+
+	// Three vertex indices for every triangle
+	public int[] indices;
+
+	// The material, surface and group of every triangle
+	public int[] materialIDs;
+	public int[] surfaceIDs;
+	public int[] groupIDs;
+
+	// The groups of the mesh and their number of triangles (the triangles
+	// are sorted by material, so a group isn't a range of triangles)
+	public String[] groupNames;
+	public int[] groupSizes;
+
+	// The runs of triangles that use the same material
+	public int[] materialRunStarts;
+	public int[] materialRunSizes;
+	public int[] materialRunIDs;
+
+	/**
+	 * Create the flat arrays for a finished (optimised) mesh. The vertex data
+	 * and indices are shared with the mesh's indexed mesh if it has one.
+	 *
+	 * @param mesh
+	 *            the mesh
+	 */
+	public PackedMesh(Mesh mesh) {
+		noOfTriangles = mesh.triangles.length;
+
+		// Use the welded vertices if the importer made them
+		if (mesh.indexedMesh != null) {
+			positions = mesh.indexedMesh.positions;
+			normals = mesh.indexedMesh.normals;
+			textureCoords = mesh.indexedMesh.textureCoords;
+			indices = mesh.indexedMesh.indices;
+		} else {
+			packVertices(mesh.triangles);
+		}
+		noOfVertices = positions.length / 3;
+		copyTriangleData(mesh);
+	}
+
+	/**
+	 * Create an empty packed mesh (see makeCollisionMesh())
+	 */
+	private PackedMesh() {
+	}
+
+	/**
+	 * Makes the flat arrays a finished mesh needs for collisions: the
+	 * positions of its vertices (stored once for every vertex instead of
+	 * every welded vertex), three indices for every triangle, and the
+	 * material and surface of every triangle. There are no normals or
+	 * texture coordinates.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @return the packed mesh for collisions
+	 */
+	public static PackedMesh makeCollisionMesh(Mesh mesh) {
+		PackedMesh packedMesh = new PackedMesh();
+		packedMesh.noOfTriangles = mesh.triangles.length;
+		packedMesh.noOfVertices = mesh.vertices.length;
+		packedMesh.positions = new float[packedMesh.noOfVertices * 3];
+		for (int vertex = 0; vertex < packedMesh.noOfVertices; vertex++) {
+			Vector position = mesh.vertices[vertex].pos;
+			packedMesh.positions[vertex * 3] = position.x;
+			packedMesh.positions[vertex * 3 + 1] = position.y;
+			packedMesh.positions[vertex * 3 + 2] = position.z;
+		}
+		packedMesh.indices = new int[packedMesh.noOfTriangles * 3];
+		for (int triangle = 0; triangle < packedMesh.noOfTriangles; triangle++) {
+			Triangle nextTriangle = mesh.triangles[triangle];
+			packedMesh.indices[triangle * 3] = nextTriangle.point1.ID;
+			packedMesh.indices[triangle * 3 + 1] = nextTriangle.point2.ID;
+			packedMesh.indices[triangle * 3 + 2] = nextTriangle.point3.ID;
+		}
+		packedMesh.copyTriangleData(mesh);
+		return packedMesh;
+	}
+
+	/**
+	 * Stores the material, surface and group of each triangle, and shares
+	 * the groups and material ranges of the mesh
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 */
+	private void copyTriangleData(Mesh mesh) {
+		// Store the material, surface and group of each triangle
+		materialIDs = new int[noOfTriangles];
+		surfaceIDs = new int[noOfTriangles];
+		groupIDs = new int[noOfTriangles];
+		for (int triangle = 0; triangle < noOfTriangles; triangle++) {
+			materialIDs[triangle] = mesh.triangles[triangle].materialID;
+			surfaceIDs[triangle] = mesh.triangles[triangle].surfaceID;
+			groupIDs[triangle] = mesh.triangles[triangle].groupID;
+		}
+
+		// The groups and material ranges don't change, so they are shared
+		groupNames = mesh.groupNames;
+		groupSizes = mesh.groupSizes;
+		materialRunStarts = mesh.materialRunStarts;
+		materialRunSizes = mesh.materialRunSizes;
+		materialRunIDs = mesh.materialRunIDs;
+	}
+
+	/**
+	 * Copies the vertices of every triangle into the vertex arrays, without
+	 * welding them (for meshes that have no indexed mesh)
+	 *
+	 * @param triangles
+	 *            the triangles of the mesh
+	 */
+	private void packVertices(Triangle[] triangles) {
+		int noOfCorners = triangles.length * 3;
+		positions = new float[noOfCorners * 3];
+		indices = new int[noOfCorners];
+		if (triangles.length > 0 && triangles[0].normal1 != null) {
+			normals = new float[noOfCorners * 3];
+		}
+		textureCoords = new float[noOfCorners * 2];
+		for (int corner = 0; corner < noOfCorners; corner++) {
+			Triangle triangle = triangles[corner / 3];
+			Vector position = triangle.getPoint(corner % 3 + 1).pos;
+			Vector normal = (corner % 3 == 0) ? triangle.normal1
+					: (corner % 3 == 1) ? triangle.normal2 : triangle.normal3;
+			Vector textureCoord = (corner % 3 == 0) ? triangle.texture1
+					: (corner % 3 == 1) ? triangle.texture2 : triangle.texture3;
+			indices[corner] = corner;
+			positions[corner * 3] = position.x;
+			positions[corner * 3 + 1] = position.y;
+			positions[corner * 3 + 2] = position.z;
+			if (normals != null) {
+				normals[corner * 3] = normal.x;
+				normals[corner * 3 + 1] = normal.y;
+				normals[corner * 3 + 2] = normal.z;
+			}
+			textureCoords[corner * 2] = textureCoord.x;
+			textureCoords[corner * 2 + 1] = textureCoord.y;
+		}
+	}
+
+	/**
+	 * Returns the index of one of the vertices of a triangle
+	 *
+	 * @param triangle
+	 *            the index of the triangle
+	 * @param corner
+	 *            which vertex of the triangle (0, 1 or 2)
+	 * @return the index of the vertex
+	 */
+	public int getIndex(int triangle, int corner) {
+		return indices[triangle * 3 + corner];
+	}
+
+	/**
+	 * Returns the x position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the x position
+	 */
+	public float getX(int vertex) {
+		return positions[vertex * 3];
+	}
+
+	/**
+	 * Returns the y position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the y position
+	 */
+	public float getY(int vertex) {
+		return positions[vertex * 3 + 1];
+	}
+
+	/**
+	 * Returns the z position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the z position
+	 */
+	public float getZ(int vertex) {
+		return positions[vertex * 3 + 2];
+	}
+
+	/**
+	 * Checks if the vertices have normals
+	 *
+	 * @return true if there are normals
+	 */
+	public boolean hasNormals() {
+		return normals != null;
+	}
+
+	/**
+	 * Checks if the vertices have texture coordinates
+	 *
+	 * @return true if there are texture coordinates
+	 */
+	public boolean hasTextureCoords() {
+		return textureCoords != null;
+	}
+
+	/**
+	 * Returns the material index of a triangle
+	 *
+	 * @param triangle
+	 *            the index of the triangle
+	 * @return the material index
+	 */
+	public int getMaterialID(int triangle) {
+		return materialIDs[triangle];
+	}
+
+	/**
+	 * Returns the surface of a triangle
+	 *
+	 * @param triangle
+	 *            the index of the triangle
+	 * @return the surface ID (see Surface)
+	 */
+	public int getSurfaceID(int triangle) {
+		return surfaceIDs[triangle];
+	}
+
+	/**
+	 * Returns the number of groups
+	 *
+	 * @return the number of groups
+	 */
+	public int getNoOfGroups() {
+		return groupNames.length;
+	}
+
+	/**
+	 * Returns the group of a triangle
+	 *
+	 * @param triangle
+	 *            the index of the triangle
+	 * @return the group number
+	 */
+	public int getGroupID(int triangle) {
+		return groupIDs[triangle];
+	}
+
+	/**
+	 * Returns the number of triangles in a group
+	 *
+	 * @param group
+	 *            the group number
+	 * @return the number of triangles in the group
+	 */
+	public int getGroupSize(int group) {
+		return groupSizes[group];
+	}
+
+	/**
+	 * Returns the number of runs of triangles with the same material
+	 *
+	 * @return the number of material runs
+	 */
+	public int getNoOfMaterialRuns() {
+		return materialRunIDs.length;
+	}
+
+	/**
+	 * Returns the index of the first triangle of a material run
+	 *
+	 * @param run
+	 *            the run number
+	 * @return the index of the run's first triangle
+	 */
+	public int getMaterialRunStart(int run) {
+		return materialRunStarts[run];
+	}
+
+	/**
+	 * Returns the number of triangles in a material run
+	 *
+	 * @param run
+	 *            the run number
+	 * @return the number of triangles in the run
+	 */
+	public int getMaterialRunSize(int run) {
+		return materialRunSizes[run];
+	}
+
+	/**
+	 * Returns the material index of a material run
+	 *
+	 * @param run
+	 *            the run number
+	 * @return the material index used by the run
+	 */
+	public int getMaterialRunID(int run) {
+		return materialRunIDs[run];
+	}
+
+	/**
+	 * Returns roughly how many bytes the arrays of the packed mesh use
+	 *
+	 * @return the number of bytes
+	 */
+	public long getNoOfBytes() {
+		long noOfValues = positions.length + indices.length
+				+ materialIDs.length + surfaceIDs.length + groupIDs.length;
+		if (normals != null) {
+			noOfValues += normals.length;
+		}
+		if (textureCoords != null) {
+			noOfValues += textureCoords.length;
+		}
+		return noOfValues * 4;
+	}
+}
@@ -0,0 +1,394 @@
+package mesh;
+
+/**
+ * The "QuantizedMesh" Class.
+ * Purpose: Holds the vertex data of a packed mesh in fewer bytes. Positions
+ * are 16-bit steps from the centre of the mesh's bounds, normals are two
+ * bytes in the octahedral encoding (the unit sphere folded flat onto a
+ * square), and texture coordinates are 16-bit steps from the centre of the
+ * texture coordinates' bounds. Each vertex takes 12 bytes instead of 32
+ * (about 2.7 times less). The compressed buffers made for openGL pad this
+ * out to 16 bytes, so they are only half the size (see MeshBuffers). The
+ * same step is used for every axis of the positions, so openGL can undo the
+ * quantization with one uniform scale (see MeshBuffers).
+ * <P>
+ * The get methods decode the data for code that needs floats on the CPU
+ * (like collision checks). A decoded position is never more than
+ * getMaxPositionError() from the original on any axis, and a decoded normal
+ * is about a degree from the original (see importer.QuantizationCheck).
+ * <P>
+ * Note: The data fields for this class are public for efficiency when they
+ * are used for drawing
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class QuantizedMesh {
+
+	// The largest step number (on either side of the centre)
+	public static final int MAX_STEPS = 32767;
+
+	// The number of vertices
+	public int noOfVertices;
+
+	// The x, y, z steps of every position, the centre they are measured from
+	// and the size of a step
+	public short[] positions;
+	public float centreX;
+	public float centreY;
+	public float centreZ;
+	public float step;
+
+	// The two octahedral bytes of every normal (null if there are no normals)
+	public byte[] normals;
+
+	// The u, v steps of every texture coordinate, the centre they are
+	// measured from and the size of a step on each axis (null if there are
+	// no texture coordinates)
+	public short[] textureCoords;
+	public float centreU;
+	public float centreV;
+	public float stepU;
+	public float stepV;
+
+	// Three vertex indices for every triangle (shared with the packed mesh)
+	public int[] indices;
+
+	/**
+	 * Create the quantized vertex data of a packed mesh
+	 *
+	 * @param packedMesh
+	 *            the packed mesh
+	 */
+	public QuantizedMesh(PackedMesh packedMesh) {
+		noOfVertices = packedMesh.noOfVertices;
+		indices = packedMesh.indices;
+		quantizePositions(packedMesh.positions);
+		if (packedMesh.normals != null) {
+			normals = new byte[noOfVertices * 2];
+			for (int vertex = 0; vertex < noOfVertices; vertex++) {
+				encodeNormal(packedMesh.normals, vertex * 3, normals,
+						vertex * 2);
+			}
+		}
+		if (packedMesh.textureCoords != null) {
+			quantizeTextureCoords(packedMesh.textureCoords);
+		}
+	}
+
+	/**
+	 * Finds the centre and step of the positions and stores them as steps
+	 *
+	 * @param values
+	 *            the x, y and z positions
+	 */
+	private void quantizePositions(float[] values) {
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int next = 0; next < values.length; next++) {
+			min[next % 3] = Math.min(min[next % 3], values[next]);
+			max[next % 3] = Math.max(max[next % 3], values[next]);
+		}
+		if (values.length == 0) {
+			min = new float[3];
+			max = new float[3];
+		}
+		centreX = (min[0] + max[0]) / 2;
+		centreY = (min[1] + max[1]) / 2;
+		centreZ = (min[2] + max[2]) / 2;
+
+		// Use the step of the widest axis for all of them
+		float halfSize = Math.max(max[0] - centreX,
+				Math.max(max[1] - centreY, max[2] - centreZ));
+		step = getStep(halfSize);
+		float[] centre = { centreX, centreY, centreZ };
+		positions = new short[values.length];
+		for (int next = 0; next < values.length; next++) {
+			positions[next] = quantize(values[next], centre[next % 3], step);
+		}
+	}
+
+	/**
+	 * Finds the centre and steps of the texture coordinates and stores them
+	 * as steps
+	 *
+	 * @param values
+	 *            the u and v texture coordinates
+	 */
+	private void quantizeTextureCoords(float[] values) {
+		float minU = Float.MAX_VALUE;
+		float maxU = -Float.MAX_VALUE;
+		float minV = Float.MAX_VALUE;
+		float maxV = -Float.MAX_VALUE;
+		for (int next = 0; next < values.length; next += 2) {
+			minU = Math.min(minU, values[next]);
+			maxU = Math.max(maxU, values[next]);
+			minV = Math.min(minV, values[next + 1]);
+			maxV = Math.max(maxV, values[next + 1]);
+		}
+		if (values.length == 0) {
+			minU = maxU = minV = maxV = 0;
+		}
+		centreU = (minU + maxU) / 2;
+		centreV = (minV + maxV) / 2;
+		stepU = getStep(maxU - centreU);
+		stepV = getStep(maxV - centreV);
+		textureCoords = new short[values.length];
+		for (int next = 0; next < values.length; next += 2) {
+			textureCoords[next] = quantize(values[next], centreU, stepU);
+			textureCoords[next + 1] = quantize(values[next + 1], centreV,
+					stepV);
+		}
+	}
+
+	/**
+	 * Returns the size of a step that fits a range in MAX_STEPS steps on
+	 * either side of its centre
+	 *
+	 * @param halfSize
+	 *            the distance from the centre to the ends of the range
+	 * @return the step (1 if the range is empty)
+	 */
+	private static float getStep(float halfSize) {
+		if (halfSize <= 0) {
+			return 1;
+		}
+		// Make sure rounding the step down doesn't push the ends out of range
+		return halfSize / MAX_STEPS * 1.0001f;
+	}
+
+	/**
+	 * Returns the number of steps a value is from a centre
+	 *
+	 * @param value
+	 *            the value
+	 * @param centre
+	 *            the centre
+	 * @param step
+	 *            the size of a step
+	 * @return the nearest number of steps
+	 */
+	private static short quantize(float value, float centre, float step) {
+		int steps = Math.round((value - centre) / step);
+		return (short) Math.max(-MAX_STEPS, Math.min(MAX_STEPS, steps));
+	}
+
+	/**
+	 * Encodes a unit normal as two octahedral bytes
+	 *
+	 * @param normals
+	 *            the array with the x, y, z normal
+	 * @param offset
+	 *            the position of the x value
+	 * @param encoded
+	 *            the array to store the two bytes in
+	 * @param encodedOffset
+	 *            where to store them
+	 */
+	public static void encodeNormal(float[] normals, int offset,
+			byte[] encoded, int encodedOffset) {
+		float x = normals[offset];
+		float y = normals[offset + 1];
+		float z = normals[offset + 2];
+
+		// Project the normal onto the octahedron, and fold the lower half
+		// over the upper one
+		float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		if (length == 0) {
+			encoded[encodedOffset] = 0;
+			encoded[encodedOffset + 1] = 0;
+			return;
+		}
+		float u = x / length;
+		float v = y / length;
+		if (z < 0) {
+			float oldU = u;
+			u = (1 - Math.abs(v)) * sign(oldU);
+			v = (1 - Math.abs(oldU)) * sign(v);
+		}
+		encoded[encodedOffset] = (byte) Math.round(u * 127);
+		encoded[encodedOffset + 1] = (byte) Math.round(v * 127);
+	}
+
+	/**
+	 * Decodes two octahedral bytes to a unit normal
+	 *
+	 * @param encoded
+	 *            the array with the two bytes
+	 * @param encodedOffset
+	 *            the position of the first byte
+	 * @param normal
+	 *            the array to store the x, y, z normal in (at 0, 1 and 2)
+	 */
+	public static void decodeNormal(byte[] encoded, int encodedOffset,
+			float[] normal) {
+		float u = encoded[encodedOffset] / 127f;
+		float v = encoded[encodedOffset + 1] / 127f;
+
+		// Unfold the lower half of the octahedron
+		float z = 1 - Math.abs(u) - Math.abs(v);
+		if (z < 0) {
+			float oldU = u;
+			u = (1 - Math.abs(v)) * sign(oldU);
+			v = (1 - Math.abs(oldU)) * sign(v);
+		}
+		float length = (float) Math.sqrt(u * u + v * v + z * z);
+		normal[0] = u / length;
+		normal[1] = v / length;
+		normal[2] = z / length;
+	}
+
+	/**
+	 * Returns the sign of a value, treating 0 as positive
+	 *
+	 * @param value
+	 *            the value
+	 * @return 1 or -1
+	 */
+	private static float sign(float value) {
+		return (value >= 0) ? 1 : -1;
+	}
+
+	/**
+	 * Returns the x position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the x position
+	 */
+	public float getX(int vertex) {
+		return centreX + positions[vertex * 3] * step;
+	}
+
+	/**
+	 * Returns the y position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the y position
+	 */
+	public float getY(int vertex) {
+		return centreY + positions[vertex * 3 + 1] * step;
+	}
+
+	/**
+	 * Returns the z position of a vertex
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the z position
+	 */
+	public float getZ(int vertex) {
+		return centreZ + positions[vertex * 3 + 2] * step;
+	}
+
+	/**
+	 * Returns the normal of a vertex (only if hasNormals())
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @param normal
+	 *            the array to store the x, y, z normal in
+	 */
+	public void getNormal(int vertex, float[] normal) {
+		decodeNormal(normals, vertex * 2, normal);
+	}
+
+	/**
+	 * Returns the u texture coordinate of a vertex (only if
+	 * hasTextureCoords())
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the u coordinate
+	 */
+	public float getU(int vertex) {
+		return centreU + textureCoords[vertex * 2] * stepU;
+	}
+
+	/**
+	 * Returns the v texture coordinate of a vertex (only if
+	 * hasTextureCoords())
+	 *
+	 * @param vertex
+	 *            the index of the vertex
+	 * @return the v coordinate
+	 */
+	public float getV(int vertex) {
+		return centreV + textureCoords[vertex * 2 + 1] * stepV;
+	}
+
+	/**
+	 * Checks if the vertices have normals
+	 *
+	 * @return true if there are normals
+	 */
+	public boolean hasNormals() {
+		return normals != null;
+	}
+
+	/**
+	 * Checks if the vertices have texture coordinates
+	 *
+	 * @return true if there are texture coordinates
+	 */
+	public boolean hasTextureCoords() {
+		return textureCoords != null;
+	}
+
+	/**
+	 * Returns the furthest a decoded position can be from the original on
+	 * any axis. This is half a step, plus the rounding of the floats used to
+	 * quantize and decode it.
+	 *
+	 * @return the largest error
+	 */
+	public float getMaxPositionError() {
+		float centre = Math.max(Math.abs(centreX), Math.max(Math.abs(centreY),
+				Math.abs(centreZ)));
+		return step / 2 + getRoundingError(centre, step);
+	}
+
+	/**
+	 * Returns the furthest a decoded texture coordinate can be from the
+	 * original on either axis. This is half a step, plus the rounding of the
+	 * floats used to quantize and decode it.
+	 *
+	 * @return the largest error
+	 */
+	public float getMaxTextureCoordError() {
+		return Math.max(stepU / 2 + getRoundingError(centreU, stepU), stepV
+				/ 2 + getRoundingError(centreV, stepV));
+	}
+
+	/**
+	 * Returns how far the float sums used to quantize and decode a value can
+	 * round it (a few units in the last place of the largest value in the
+	 * range)
+	 *
+	 * @param centre
+	 *            the centre of the range
+	 * @param step
+	 *            the size of a step
+	 * @return the rounding error
+	 */
+	private static float getRoundingError(float centre, float step) {
+		return 4 * Math.ulp(Math.abs(centre) + MAX_STEPS * step);
+	}
+
+	/**
+	 * Returns how many bytes the quantized vertex data uses
+	 *
+	 * @return the number of bytes (not counting the indices)
+	 */
+	public long getNoOfBytes() {
+		long noOfBytes = positions.length * 2;
+		if (normals != null) {
+			noOfBytes += normals.length;
+		}
+		if (textureCoords != null) {
+			noOfBytes += textureCoords.length * 2;
+		}
+		return noOfBytes;
+	}
+}
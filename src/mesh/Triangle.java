@@ -2,6 +2,7 @@ package mesh;
 
 import java.util.ArrayList;
 
+import material.Surface;
 import math.Vector;
 
 /**
@@ -42,11 +43,20 @@ public class Triangle {
 	public Vector faceNormal = new Vector();
 	public Vector eSpaceFaceNormal = new Vector();
 
+	// The indices of the three corners in the mesh's welded vertices (see
+	// IndexedMesh)
+	public int index1;
+	public int index2;
+	public int index3;
+
 	// ID's of the triangle to parent arrays
 	public int ID = 0;
 	public int groupID = 0;
 	public int materialID;
 
+	// How couches drive on the triangle, from its material (see Surface)
+	public int surfaceID = Surface.NONE;
+
 	/**
 	 * Creates a new triangle with the three vertices given
 	 * 
@@ -141,12 +151,31 @@ public class Triangle {
 	 * @return if the point is in the triangle
 	 */
 	public boolean checkPointInTriangle(Vector point) {
+		return checkPointInTriangle(point, point1.posESpace, point2.posESpace,
+				point3.posESpace);
+	}
+
+	/**
+	 * Checks if the point is in the triangle with the given corners
+	 * 
+	 * @param point
+	 *            the point being checked
+	 * @param corner1
+	 *            the first corner of the triangle
+	 * @param corner2
+	 *            the second corner of the triangle
+	 * @param corner3
+	 *            the third corner of the triangle
+	 * @return if the point is in the triangle
+	 */
+	public static boolean checkPointInTriangle(Vector point, Vector corner1,
+			Vector corner2, Vector corner3) {
 		float totalAngles = 0.0f;
 
 		// Calculate the vectors between the point and each of the vertices
-		Vector v1 = Vector.sub(point, point1.posESpace);
-		Vector v2 = Vector.sub(point, point2.posESpace);
-		Vector v3 = Vector.sub(point, point3.posESpace);
+		Vector v1 = Vector.sub(point, corner1);
+		Vector v2 = Vector.sub(point, corner2);
+		Vector v3 = Vector.sub(point, corner3);
 
 		// Normalize those vectors
 		v1.normalize();
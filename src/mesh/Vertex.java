@@ -1,8 +1,6 @@
 
 package mesh;
 
-import java.util.ArrayList;
-
 import math.Vector;
 
 /**
@@ -21,9 +19,6 @@ public class Vertex
     
     // The ID of the vertex into the parent array of vertices
     public int ID;
-    
-    // The neighbour triangles of the vertex
-    public ArrayList neighbourTriangles = new ArrayList();
 
     /**
      * Create a new empty vertex at the origin
@@ -51,24 +46,4 @@ public class Vertex
     public void applyESpace (Vector changeOfBasis) {
     	posESpace = Vector.div(pos, changeOfBasis);
     }
-
-    /**
-     * Adds a neighbour triangle to this vertex
-     * 
-     * @param triangle the triangle object to add
-     */
-    public void addNeighbourTriangle(Triangle triangle)
-    {
-        if (!neighbourTriangles.contains(triangle)) {
-        	neighbourTriangles.add(triangle);
-        }
-    }
-
-    /**
-     * Clears the neighbour triangle list
-     */
-    public void resetNeighbours()
-    {
-    	neighbourTriangles.clear();
-    }
 }
\ No newline at end of file
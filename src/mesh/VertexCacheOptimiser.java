@@ -0,0 +1,319 @@
+package mesh;
+
+/**
+ * The "VertexCacheOptimiser" Class.
+ * Purpose: Reorders triangles so the graphics card can reuse more of the
+ * vertices it has already transformed. The card keeps the last few vertices
+ * it transformed in a small cache, so a triangle whose vertices were used by
+ * the triangles just before it is cheaper to draw. The triangles are chosen
+ * one at a time with Tom Forsyth's linear-speed method: each vertex gets a
+ * score from its place in a simulated cache and from how many triangles
+ * still use it, and the triangle with the highest total score goes next.
+ * <P>
+ * The welded vertices of the triangles (index1, index2 and index3) are the
+ * vertices the card transforms, so they are the ones that are cached.
+ *
+ * @author Peter G.
+ * @version Jan. 24, 2012
+ */
+public class VertexCacheOptimiser {
+
+	// The size of the cache used for scoring, and the scores of the
+	// vertices in it (the vertices of the last triangle get a fixed score so
+	// the same triangle strip isn't always followed)
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+
+	// How much vertices used by only a few triangles are boosted, so the
+	// last triangles of a vertex aren't left behind
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	// The size of the first-in first-out cache used to count cache misses
+	public static final int MEASURED_CACHE_SIZE = 16;
+
+	// The local number of each welded vertex in the triangles being
+	// reordered (valid while its mark equals the current stamp)
+	private int[] localIDs;
+	private int[] marks;
+	private int stamp = 0;
+
+	/**
+	 * Create an optimiser for triangles with the given number of welded
+	 * vertices
+	 *
+	 * @param noOfVertices
+	 *            one more than the largest welded vertex index
+	 */
+	public VertexCacheOptimiser(int noOfVertices) {
+		localIDs = new int[noOfVertices];
+		marks = new int[noOfVertices];
+	}
+
+	/**
+	 * Reorders a range of triangles for the vertex cache
+	 *
+	 * @param triangles
+	 *            the triangles
+	 * @param start
+	 *            the index of the first triangle in the range
+	 * @param count
+	 *            the number of triangles in the range
+	 */
+	public void optimise(Triangle[] triangles, int start, int count) {
+		if (count < 2) {
+			return;
+		}
+
+		// Number the vertices used in the range from 0
+		stamp++;
+		int[] corners = new int[count * 3];
+		int noOfVertices = 0;
+		for (int corner = 0; corner < corners.length; corner++) {
+			int vertex = getIndex(triangles[start + corner / 3], corner % 3);
+			if (marks[vertex] != stamp) {
+				marks[vertex] = stamp;
+				localIDs[vertex] = noOfVertices++;
+			}
+			corners[corner] = localIDs[vertex];
+		}
+
+		// Store the triangles that use each vertex (the ones that are still
+		// to be added are kept at the start of each vertex's list)
+		int[] starts = new int[noOfVertices + 1];
+		for (int corner = 0; corner < corners.length; corner++) {
+			starts[corners[corner] + 1]++;
+		}
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			starts[vertex + 1] += starts[vertex];
+		}
+		int[] remaining = new int[noOfVertices];
+		int[] vertexTriangles = new int[corners.length];
+		for (int corner = 0; corner < corners.length; corner++) {
+			int vertex = corners[corner];
+			vertexTriangles[starts[vertex] + remaining[vertex]++] = corner / 3;
+		}
+
+		// Score every vertex and triangle
+		int[] cachePositions = new int[noOfVertices];
+		float[] vertexScores = new float[noOfVertices];
+		for (int vertex = 0; vertex < noOfVertices; vertex++) {
+			cachePositions[vertex] = -1;
+			vertexScores[vertex] = getScore(-1, remaining[vertex]);
+		}
+		float[] triangleScores = new float[count];
+		boolean[] added = new boolean[count];
+		int best = 0;
+		for (int triangle = 0; triangle < count; triangle++) {
+			triangleScores[triangle] = vertexScores[corners[triangle * 3]]
+					+ vertexScores[corners[triangle * 3 + 1]]
+					+ vertexScores[corners[triangle * 3 + 2]];
+			if (triangleScores[triangle] > triangleScores[best]) {
+				best = triangle;
+			}
+		}
+
+		// Add the best triangle until they are all added
+		int[] order = new int[count];
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheSize = 0;
+		for (int next = 0; next < count; next++) {
+			// If no triangle in the cache is left, take the best of the rest
+			if (best == -1) {
+				for (int triangle = 0; triangle < count; triangle++) {
+					if (!added[triangle]
+							&& (best == -1 || triangleScores[triangle] > triangleScores[best])) {
+						best = triangle;
+					}
+				}
+			}
+			order[next] = best;
+			added[best] = true;
+
+			// Take the triangle out of its vertices' lists of triangles left
+			for (int corner = best * 3; corner < best * 3 + 3; corner++) {
+				int vertex = corners[corner];
+				int last = starts[vertex] + remaining[vertex] - 1;
+				for (int slot = starts[vertex]; slot <= last; slot++) {
+					if (vertexTriangles[slot] == best) {
+						vertexTriangles[slot] = vertexTriangles[last];
+						vertexTriangles[last] = best;
+						break;
+					}
+				}
+				remaining[vertex]--;
+			}
+
+			// Put the triangle's vertices at the front of the cache
+			int newCacheSize = 0;
+			for (int corner = best * 3; corner < best * 3 + 3; corner++) {
+				if (indexOf(newCache, newCacheSize, corners[corner]) == -1) {
+					newCache[newCacheSize++] = corners[corner];
+				}
+			}
+			for (int slot = 0; slot < cacheSize; slot++) {
+				if (indexOf(newCache, newCacheSize, cache[slot]) == -1) {
+					newCache[newCacheSize++] = cache[slot];
+				}
+			}
+
+			// Score the vertices in (or just pushed out of) the cache again,
+			// and the triangles left that use them
+			best = -1;
+			for (int slot = 0; slot < newCacheSize; slot++) {
+				int vertex = newCache[slot];
+				cachePositions[vertex] = (slot < CACHE_SIZE) ? slot : -1;
+				vertexScores[vertex] = getScore(cachePositions[vertex],
+						remaining[vertex]);
+			}
+			for (int slot = 0; slot < newCacheSize; slot++) {
+				int vertex = newCache[slot];
+				for (int use = starts[vertex]; use < starts[vertex]
+						+ remaining[vertex]; use++) {
+					int triangle = vertexTriangles[use];
+					triangleScores[triangle] = vertexScores[corners[triangle * 3]]
+							+ vertexScores[corners[triangle * 3 + 1]]
+							+ vertexScores[corners[triangle * 3 + 2]];
+					if (best == -1
+							|| triangleScores[triangle] > triangleScores[best]) {
+						best = triangle;
+					}
+				}
+			}
+			int[] oldCache = cache;
+			cache = newCache;
+			newCache = oldCache;
+			cacheSize = Math.min(newCacheSize, CACHE_SIZE);
+		}
+
+		// Put the triangles in their new order
+		Triangle[] ordered = new Triangle[count];
+		for (int next = 0; next < count; next++) {
+			ordered[next] = triangles[start + order[next]];
+		}
+		System.arraycopy(ordered, 0, triangles, start, count);
+	}
+
+	/**
+	 * Returns the score of a vertex
+	 *
+	 * @param cachePosition
+	 *            the vertex's position in the cache (or -1 if it isn't in
+	 *            it)
+	 * @param noOfTriangles
+	 *            the number of triangles left that use the vertex
+	 * @return the score
+	 */
+	private static float getScore(int cachePosition, int noOfTriangles) {
+		if (noOfTriangles == 0) {
+			return -1;
+		}
+		float score = 0;
+		if (cachePosition >= 3) {
+			score = (float) Math.pow(1 - (cachePosition - 3)
+					/ (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+		} else if (cachePosition >= 0) {
+			score = LAST_TRIANGLE_SCORE;
+		}
+		return score + VALENCE_BOOST_SCALE
+				* (float) Math.pow(noOfTriangles, -VALENCE_BOOST_POWER);
+	}
+
+	/**
+	 * Finds a value in the start of an array
+	 *
+	 * @param array
+	 *            the array
+	 * @param length
+	 *            the number of values to look at
+	 * @param value
+	 *            the value
+	 * @return the position of the value, or -1 if it isn't there
+	 */
+	private static int indexOf(int[] array, int length, int value) {
+		for (int next = 0; next < length; next++) {
+			if (array[next] == value) {
+				return next;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the welded vertex at a corner of a triangle
+	 *
+	 * @param triangle
+	 *            the triangle
+	 * @param corner
+	 *            the corner (0, 1 or 2)
+	 * @return the welded vertex index
+	 */
+	private static int getIndex(Triangle triangle, int corner) {
+		return (corner == 0) ? triangle.index1 : (corner == 1) ? triangle.index2
+				: triangle.index3;
+	}
+
+	/**
+	 * Returns one more than the largest welded vertex index of some triangles
+	 *
+	 * @param triangles
+	 *            the triangles
+	 * @return the number of welded vertices the triangles can use
+	 */
+	public static int getNoOfVertices(Triangle[] triangles) {
+		int noOfVertices = 0;
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			noOfVertices = Math.max(noOfVertices, Math.max(
+					triangles[triangle].index1, Math.max(
+							triangles[triangle].index2,
+							triangles[triangle].index3)) + 1);
+		}
+		return noOfVertices;
+	}
+
+	/**
+	 * Counts the vertices a graphics card with a first-in first-out cache of
+	 * MEASURED_CACHE_SIZE vertices would have to transform to draw triangles
+	 * in order. Divided by the number of triangles, this is the average
+	 * cache miss ratio (between 0.5 and 3, lower is better).
+	 *
+	 * @param triangles
+	 *            the triangles
+	 * @return the number of cache misses
+	 */
+	public static int countCacheMisses(Triangle[] triangles) {
+		// The miss count when each vertex was put in the cache (0 if never)
+		int[] cacheTimes = new int[getNoOfVertices(triangles)];
+		int noOfMisses = 0;
+		for (int corner = 0; corner < triangles.length * 3; corner++) {
+			int vertex = getIndex(triangles[corner / 3], corner % 3);
+			if (cacheTimes[vertex] == 0
+					|| noOfMisses - cacheTimes[vertex] >= MEASURED_CACHE_SIZE) {
+				noOfMisses++;
+				cacheTimes[vertex] = noOfMisses;
+			}
+		}
+		return noOfMisses;
+	}
+
+	/**
+	 * Counts how many times the material changes when triangles are drawn in
+	 * order (including setting the first one)
+	 *
+	 * @param triangles
+	 *            the triangles
+	 * @return the number of material changes
+	 */
+	public static int countMaterialChanges(Triangle[] triangles) {
+		int noOfChanges = 0;
+		for (int triangle = 0; triangle < triangles.length; triangle++) {
+			if (triangle == 0
+					|| triangles[triangle].materialID != triangles[triangle - 1].materialID) {
+				noOfChanges++;
+			}
+		}
+		return noOfChanges;
+	}
+}
@@ -1,14 +1,16 @@
 package models;
 
-import importer.OBJImporter;
+import importer.MeshCache;
 import material.Material;
 import math.Vector;
 import mesh.Mesh;
-import mesh.Triangle;
+import mesh.MeshBuffers;
+import mesh.PackedMesh;
 
 import org.lwjgl.opengl.GL11;
 
 import application.KouchKarting;
+import application.ResourceRegistry;
 
 /**
  * The "Coins" Class. 
@@ -86,15 +88,15 @@ public class Coins {
 	}
 
 	/**
-	 * loads the mesh using the OBJImporter
+	 * loads the mesh using the OBJImporter (or the MeshCache if it was already
+	 * loaded)
 	 * 
 	 * @param filename
 	 *            the name of the OBJ file
 	 * @return the mesh loaded
 	 */
 	public Mesh loadMesh(String filename) {
-		OBJImporter importer = new OBJImporter();
-		return importer.load(filename);
+		return MeshCache.getMesh(filename);
 	}
 
 	/**
@@ -209,61 +211,38 @@ public class Coins {
 	 */
 	public void render() {
 
-		// Get the loaded materials and initialise necessary variables
+		// Get the loaded materials and the mesh's buffers
 		Material[] materials = coinMesh.materials;
+		PackedMesh packedMesh = coinMesh.getPackedMesh();
+		MeshBuffers buffers = coinMesh.getMeshBuffers();
 		Material material;
-		Triangle drawTriangle;
-		int currentMaterial = -1;
-		int triangle = 0;
 
-		// For each triangle in the object
-		for (triangle = 0; triangle < coinMesh.triangles.length;) {
+		// Give openGL all the vertex data at once
+		buffers.bind();
 
-			// Get the triangle that needs to be drawn
-			drawTriangle = coinMesh.triangles[triangle];
+		// For each run of triangles with the same material
+		for (int run = 0; run < packedMesh.getNoOfMaterialRuns(); run++) {
 
 			// Activate a new material and texture
-			currentMaterial = drawTriangle.materialID;
+			int currentMaterial = packedMesh.getMaterialRunID(run);
 			material = (materials != null && materials.length > 0 && currentMaterial >= 0) ? materials[currentMaterial]
 					: defaultMtl;
 			material.apply();
 			GL11.glBindTexture(GL11.GL_TEXTURE_2D, material.getTextureHandle());
 
-			// Draw triangles until material changes
-			GL11.glBegin(GL11.GL_TRIANGLES);
-			while (triangle < coinMesh.triangles.length && drawTriangle != null
-					&& currentMaterial == drawTriangle.materialID) {
-
-				GL11.glTexCoord2f(drawTriangle.texture1.x,
-						drawTriangle.texture1.y);
-				GL11.glNormal3f(drawTriangle.normal1.x, drawTriangle.normal1.y,
-						drawTriangle.normal1.z);
-				GL11.glVertex3f((float) drawTriangle.point1.pos.x,
-						(float) drawTriangle.point1.pos.y,
-						(float) drawTriangle.point1.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture2.x,
-						drawTriangle.texture2.y);
-				GL11.glNormal3f(drawTriangle.normal2.x, drawTriangle.normal2.y,
-						drawTriangle.normal2.z);
-				GL11.glVertex3f((float) drawTriangle.point2.pos.x,
-						(float) drawTriangle.point2.pos.y,
-						(float) drawTriangle.point2.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture3.x,
-						drawTriangle.texture3.y);
-				GL11.glNormal3f(drawTriangle.normal3.x, drawTriangle.normal3.y,
-						drawTriangle.normal3.z);
-				GL11.glVertex3f((float) drawTriangle.point3.pos.x,
-						(float) drawTriangle.point3.pos.y,
-						(float) drawTriangle.point3.pos.z);
-
-				triangle++;
-				if (triangle < coinMesh.triangles.length)
-					drawTriangle = coinMesh.triangles[triangle];
-			}
-			GL11.glEnd();
+			// Draw the run's triangles with one call
+			buffers.drawTriangles(packedMesh.getMaterialRunStart(run),
+					packedMesh.getMaterialRunSize(run));
 		}
+		buffers.unbind();
+	}
+
+	/**
+	 * Decodes the texture images of the model's materials, so making the
+	 * display list doesn't have to (this can be called on any thread)
+	 */
+	public void prefetchTextures() {
+		Material.prefetchTextures(coinMesh.materials);
 	}
 
 	/**
@@ -272,10 +251,19 @@ public class Coins {
 	 */
 	public void makeDisplayList() {
 		if (displayListID == 0) {
+			// Make the textures first (they can't be made inside the list)
+			Material.makeTextures(coinMesh.materials);
 			displayListID = GL11.glGenLists(1); // Allocate a display list
 			GL11.glNewList(displayListID, GL11.GL_COMPILE); // Start the list
 			render(); // render the mesh
 			GL11.glEndList(); // End the list
+			ResourceRegistry.addDisplayList(displayListID, coinMesh.name,
+					coinMesh.getNoOfDisplayListBytes());
+
+			// The display list has all the data needed to draw the coins
+			if (Mesh.isGPUResident()) {
+				coinMesh.releaseCPUData(false);
+			}
 		}
 	}
 
@@ -1,16 +1,20 @@
 package models;
 
-import importer.OBJImporter;
+import importer.MeshCache;
+import importer.MeshSimplifier;
 import material.Material;
+import material.Surface;
 import math.Vector;
 import mesh.Mesh;
-import mesh.Triangle;
+import mesh.MeshBuffers;
+import mesh.PackedMesh;
 
 import org.lwjgl.opengl.GL11;
 
 import collision.WorldCollision;
 
 import application.KouchKarting;
+import application.ResourceRegistry;
 
 /**
  * The "Couch" Class. 
@@ -68,8 +72,8 @@ public class Couch {
 	// Track the total menu spin to draw in the couch menu
 	private float totalMenuSpin;
 
-	// The material the couch is on
-	private String materialOn;
+	// The surface the couch is on
+	private Surface surfaceOn;
 
 	// Booleans to track what the couch is doing during the frame
 	private boolean onTheRoad;
@@ -78,8 +82,10 @@ public class Couch {
 	private boolean turnRight;
 	private boolean turnLeft;
 
-	// The display list index of the couch
-	private int displayListID;
+	// The levels of detail of the couch's mesh (the first one is the mesh
+	// itself) and the display list index of each one
+	private Mesh[] levelsOfDetail;
+	private int[] displayListIDs;
 
 	// A final variable to convert to radians easily
 	final float PIdiv180 = 0.0174532925f;
@@ -113,8 +119,9 @@ public class Couch {
 	public Couch(String filename, Vector position, Vector upVector,
 			Vector lookAt, Vector rightVector, int accelerationRate,
 			int maxSpeed, int grassFriction, int price) {
-		// Load the mesh for the couch
-		couchMesh = loadMesh(filename);
+		// Load the mesh for the couch and its levels of detail
+		levelsOfDetail = loadLevelsOfDetail(filename);
+		couchMesh = levelsOfDetail[0];
 
 		// Copy the given orientation variables to local ones
 		this.position = position;
@@ -156,11 +163,10 @@ public class Couch {
 		turnRight = false;
 		turnLeft = false;
 		checkedCollision = false;
+		surfaceOn = Surface.get(Surface.NONE);
 
 		// Calculate the radius of the mesh
-		radius = new Vector(couchMesh.rightmostPoint - couchMesh.leftmostPoint,
-				couchMesh.highestPoint - couchMesh.lowestPoint,
-				couchMesh.farthestPoint - couchMesh.nearestPoint);
+		radius = couchMesh.getBounds().getSize();
 
 		// Set the initial reset positions
 		resetPosition = new Vector(position);
@@ -169,7 +175,7 @@ public class Couch {
 		resetRightVector = new Vector(rightVector);
 
 		// Set other variables to default values
-		displayListID = 0;
+		displayListIDs = new int[levelsOfDetail.length];
 		totalMenuSpin = 0;
 	}
 
@@ -200,15 +206,15 @@ public class Couch {
 	}
 
 	/**
-	 * Loads the mesh using the OBJImporter
+	 * Loads the mesh and its levels of detail using the OBJImporter and
+	 * MeshSimplifier (or the MeshCache if they were already loaded)
 	 * 
 	 * @param filename
 	 *            the name of the OBJ file
-	 * @return the mesh loaded
+	 * @return the levels of detail loaded, starting with the full mesh
 	 */
-	public Mesh loadMesh(String filename) {
-		OBJImporter importer = new OBJImporter();
-		return importer.load(filename);
+	public Mesh[] loadLevelsOfDetail(String filename) {
+		return MeshCache.getLevelsOfDetail(filename);
 	}
 
 	/**
@@ -381,6 +387,18 @@ public class Couch {
 	 *            the world mesh that the couch is colliding with
 	 */
 	public void checkCollisionsAndMove(Mesh world) {
+		checkCollisionsAndMove(new Mesh[] { world });
+	}
+
+	/**
+	 * Check for collisions with several world meshes (like the loaded regions
+	 * of a streamed track), and using the collision detector results, move the
+	 * couch
+	 * 
+	 * @param world
+	 *            the world meshes that the couch is colliding with
+	 */
+	public void checkCollisionsAndMove(Mesh[] world) {
 
 		// Only check and move if the couch is moving
 		if (velocity.length() != 0 || gravityVelocity.length() != 0) {
@@ -400,17 +418,16 @@ public class Couch {
 			// couch isn't moving)
 			checkedCollision = true;
 
-			// Check which material the couch collided with, set to "none" if
+			// Check which surface the couch collided with, set to none if
 			// there was no collision
-			if (collisionChecker.getCollisionTriangle() != null) {
-				materialOn = world.materials[collisionChecker
-						.getCollisionTriangle().materialID].getName().trim();
+			if (collisionChecker.getCollisionSurfaceID() != -1) {
+				surfaceOn = Surface.get(collisionChecker.getCollisionSurfaceID());
 			} else {
-				materialOn = "none";
+				surfaceOn = Surface.get(Surface.NONE);
 			}
 
-			// If the material is on the grass
-			if (materialOn.equals("Grass")) {
+			// If the surface is grass
+			if (surfaceOn.isGrass()) {
 
 				// If the couch just moved from the road to the grass, change
 				// the reset positions to that section
@@ -426,8 +443,7 @@ public class Couch {
 			}
 
 			// If the couch is on the road, keep track that it is on the road
-			else if (materialOn.equals("Road")
-					|| materialOn.equals("Checkerboard")) {
+			else if (surfaceOn.isRoad()) {
 				onTheRoad = true;
 			}
 
@@ -440,17 +456,11 @@ public class Couch {
 	 * Moves the couch based on the results of the collision detection
 	 */
 	public void move() {
-		// If the couch is on the bounce material, make the couch bounce
-		// backwards
-		if (materialOn.equals("Bounce")) {
-			velocity.normalize().mult(-200f);
-			gravityVelocity.y = 100;
-		}
-		// If the couch is on the boost material, boost the couch forward, and a
-		// little up for effect
-		if (materialOn.equals("Boost")) {
-			velocity.normalize().mult(1000f);
-			gravityVelocity.y = 50;
+		// If the couch is on a bounce or boost surface, make the couch bounce
+		// backwards or boost it forward, and a little up for effect
+		if (surfaceOn.hasImpulse()) {
+			velocity.normalize().mult(surfaceOn.getImpulseSpeed());
+			gravityVelocity.y = surfaceOn.getImpulseLift();
 		}
 
 		// Calculate the change in position to see how much the couch moved
@@ -488,10 +498,10 @@ public class Couch {
 
 		// Baed on the couch's position and velocity, turn the velocity of the
 		// couch so it is the same way the couch is facing
-		if (movingForward() && onTheGround && !materialOn.equals("Bounce")) {
+		if (movingForward() && onTheGround && surfaceOn.alignsVelocity()) {
 			velocity = new Vector(realDirection).normalize().mult(
 					velocity.length());
-		} else if (onTheGround && !materialOn.equals("Bounce")) {
+		} else if (onTheGround && surfaceOn.alignsVelocity()) {
 			velocity = new Vector(realDirection).normalize().mult(
 					velocity.length());
 			velocity.mult(-1);
@@ -577,6 +587,7 @@ public class Couch {
 	 * Apply friction to the couch by decreasing the acceleration vector
 	 */
 	public void applyFriction() {
+		boolean rough = false;
 
 		// If collisions were checked
 		if (checkedCollision) {
@@ -584,12 +595,11 @@ public class Couch {
 			// And the couch is on the ground
 			if (onTheGround) {
 
-				// Make the friction based on what material the couch is on
-				if (materialOn.equals("Grass")) {
-					frictionRate = grassFriction;
-				} else {
-					frictionRate = normalFriction;
-				}
+				// Make the friction based on how rough the surface the couch
+				// is on is, from the normal friction to the grass friction
+				frictionRate = normalFriction + (grassFriction - normalFriction)
+						* surfaceOn.getFriction();
+				rough = surfaceOn.getFriction() > 0;
 			}
 
 			// If the couch is not on the ground, make friction 0
@@ -607,7 +617,7 @@ public class Couch {
 		// Check if friction should be applied
 		if (velocity.length() != 0
 				&& (acceleration.equals(new Vector()) || ((turnLeft
-						|| turnRight || (frictionRate == grassFriction && grassFriction != normalFriction)) && velocity
+						|| turnRight || (rough && grassFriction != normalFriction)) && velocity
 						.length() > maxSpeed / 3))) {
 
 			// Calculate friction in the opposite direction of motion
@@ -758,78 +768,96 @@ public class Couch {
 	}
 
 	/**
-	 * Draw the model using the triangle data in the mesh
+	 * Draw the model using the triangle data in one of its levels of detail
+	 * 
+	 * @param mesh
+	 *            the level of detail
 	 */
-	public void draw() {
+	public void draw(Mesh mesh) {
 
-		// Get the loaded materials and initialise necessary variables
-		Material[] materials = couchMesh.materials;
+		// Get the loaded materials and the mesh's buffers
+		Material[] materials = mesh.materials;
+		PackedMesh packedMesh = mesh.getPackedMesh();
+		MeshBuffers buffers = mesh.getMeshBuffers();
 		Material material;
-		Triangle drawTriangle;
-		int currentMaterial = -1;
-		int triangle = 0;
 
-		// For each triangle in the object
-		for (triangle = 0; triangle < couchMesh.triangles.length;) {
+		// Give openGL all the vertex data at once
+		buffers.bind();
 
-			// Get the triangle that needs to be drawn
-			drawTriangle = couchMesh.triangles[triangle];
+		// For each run of triangles with the same material
+		for (int run = 0; run < packedMesh.getNoOfMaterialRuns(); run++) {
 
 			// Activate a new material and texture
-			currentMaterial = drawTriangle.materialID;
+			int currentMaterial = packedMesh.getMaterialRunID(run);
 			material = (materials != null && materials.length > 0 && currentMaterial >= 0) ? materials[currentMaterial]
 					: defaultMtl;
 			material.apply();
 			GL11.glBindTexture(GL11.GL_TEXTURE_2D, material.getTextureHandle());
 
-			// Draw triangles until material changes
-			GL11.glBegin(GL11.GL_TRIANGLES);
-			while (triangle < couchMesh.triangles.length
-					&& drawTriangle != null
-					&& currentMaterial == drawTriangle.materialID) {
-
-				GL11.glTexCoord2f(drawTriangle.texture1.x,
-						drawTriangle.texture1.y);
-				GL11.glNormal3f(drawTriangle.normal1.x, drawTriangle.normal1.y,
-						drawTriangle.normal1.z);
-				GL11.glVertex3f((float) drawTriangle.point1.pos.x,
-						(float) drawTriangle.point1.pos.y,
-						(float) drawTriangle.point1.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture2.x,
-						drawTriangle.texture2.y);
-				GL11.glNormal3f(drawTriangle.normal2.x, drawTriangle.normal2.y,
-						drawTriangle.normal2.z);
-				GL11.glVertex3f((float) drawTriangle.point2.pos.x,
-						(float) drawTriangle.point2.pos.y,
-						(float) drawTriangle.point2.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture3.x,
-						drawTriangle.texture3.y);
-				GL11.glNormal3f(drawTriangle.normal3.x, drawTriangle.normal3.y,
-						drawTriangle.normal3.z);
-				GL11.glVertex3f((float) drawTriangle.point3.pos.x,
-						(float) drawTriangle.point3.pos.y,
-						(float) drawTriangle.point3.pos.z);
-
-				triangle++;
-				if (triangle < couchMesh.triangles.length)
-					drawTriangle = couchMesh.triangles[triangle];
-			}
-			GL11.glEnd();
+			// Draw the run's triangles with one call
+			buffers.drawTriangles(packedMesh.getMaterialRunStart(run),
+					packedMesh.getMaterialRunSize(run));
 		}
+		buffers.unbind();
+	}
+
+	/**
+	 * Decodes the texture images of the model's materials, so making the
+	 * display list doesn't have to (this can be called on any thread)
+	 */
+	public void prefetchTextures() {
+		Material.prefetchTextures(couchMesh.materials);
 	}
 
 	/**
 	 * Render mesh into a displayList and store the listID, making the program
-	 * run a lot faster
+	 * run a lot faster. If meshes only stay on the GPU, every level of detail
+	 * is made now and the data of the levels is let go of.
 	 */
 	public void makeDisplayList() {
-		if (displayListID == 0) {
-			displayListID = GL11.glGenLists(1); // Allocate a display list
-			GL11.glNewList(displayListID, GL11.GL_COMPILE); // Start the list
-			draw(); // render the mesh
+		makeDisplayList(0);
+		if (Mesh.isGPUResident()) {
+			for (int level = 1; level < levelsOfDetail.length; level++) {
+				makeDisplayList(level);
+			}
+			for (int level = 0; level < levelsOfDetail.length; level++) {
+				levelsOfDetail[level].releaseCPUData(false);
+			}
+		}
+	}
+
+	/**
+	 * Render a level of detail into a displayList and store the listID (the
+	 * simpler levels are only made when they are first drawn)
+	 * 
+	 * @param level
+	 *            the level of detail
+	 */
+	private void makeDisplayList(int level) {
+		if (displayListIDs[level] == 0) {
+			// Make the textures first (they can't be made inside the list)
+			Material.makeTextures(couchMesh.materials);
+			displayListIDs[level] = GL11.glGenLists(1); // Allocate a list
+			GL11.glNewList(displayListIDs[level], GL11.GL_COMPILE);
+			draw(levelsOfDetail[level]); // render the level
 			GL11.glEndList(); // End the list
+			ResourceRegistry.addDisplayList(displayListIDs[level],
+					levelsOfDetail[level].name, levelsOfDetail[level]
+							.getNoOfDisplayListBytes());
+		}
+	}
+
+	/**
+	 * Deletes the display lists, so they can be made again when they are
+	 * needed
+	 */
+	public void deleteDisplayList() {
+		for (int level = 0; level < displayListIDs.length; level++) {
+			if (displayListIDs[level] != 0) {
+				GL11.glDeleteLists(displayListIDs[level], 1);
+				ResourceRegistry.removeDisplayLists(displayListIDs[level], 1);
+				displayListIDs[level] = 0;
+			}
 		}
 	}
 
@@ -839,6 +867,22 @@ public class Couch {
 	 * @return the display list ID for the kart
 	 */
 	public int getDisplayListID() {
-		return displayListID;
+		return displayListIDs[0];
+	}
+
+	/**
+	 * Returns the display list ID of the level of detail to draw the kart
+	 * with from a point of view, making it if it wasn't made yet
+	 * 
+	 * @param viewPosition
+	 *            the position of the camera
+	 * @return the display list ID for the kart
+	 */
+	public int getDisplayListID(Vector viewPosition) {
+		float distance = Vector.sub(position, viewPosition).length();
+		int level = MeshSimplifier.chooseLevel(couchMesh,
+				levelsOfDetail.length, distance);
+		makeDisplayList(level);
+		return displayListIDs[level];
 	}
 }
@@ -1,17 +1,24 @@
 package models;
 
-import importer.OBJImporter;
+import importer.MeshCache;
+import importer.MeshRegions;
 import material.Material;
 import math.Vector;
 import mesh.Mesh;
-import mesh.Triangle;
+import mesh.MeshBuffers;
+import mesh.PackedMesh;
 
 import org.lwjgl.opengl.GL11;
 
+import application.AssetLoader;
+import application.ResourceRegistry;
+
 /**
  * The "Track" Class. 
  * Purpose: The simplest model class to hold onto the track's
- * data and draw it
+ * data and draw it. A large track can be streamed instead: it is split into
+ * regions (see MeshRegions), and only the regions around the couch are
+ * loaded, drawn and collided with.
  * 
  * @author Peter G.
  * @version Jan. 24, 2012
@@ -29,6 +36,22 @@ public class Track {
 	// The display list ID
 	private int displayListID = 0;
 
+	// Regions closer than this to the couch are loaded, and regions farther
+	// than the evict distance are thrown away (the gap stops regions on the
+	// edge from being loaded and thrown away over and over)
+	public static final float LOAD_DISTANCE = 2500;
+	public static final float EVICT_DISTANCE = 3500;
+
+	// The regions of a streamed track (null if the whole track is loaded),
+	// and the mesh and display list of every region that is loaded
+	private MeshRegions regions;
+	private Mesh[] regionMeshes;
+	private int[] regionDisplayListIDs;
+	private boolean[] regionsLoading;
+
+	// The meshes of the loaded regions, for collisions
+	private Mesh[] residentMeshes = new Mesh[0];
+
 	// The default material to use if none were loaded
 	Material defaultMtl = new Material();
 
@@ -43,8 +66,36 @@ public class Track {
 	 */
 	public Track(String filename, Vector position, Vector upVector,
 			Vector lookAt) {
-		// Load the mesh from the given filename
-		trackMesh = loadMesh(filename);
+		this(filename, position, upVector, lookAt, false);
+	}
+
+	/**
+	 * Create a new track with the given position, up vector direction, and
+	 * either load the model from the given filename or get ready to stream it
+	 * 
+	 * @param filename the name of the file containing the data for the track
+	 * @param position the position of the track
+	 * @param upVector the up vector of the track
+	 * @param lookAt the tack's lookAt point
+	 * @param streaming whether to stream the track in regions (see
+	 *            updateRegions())
+	 */
+	public Track(String filename, Vector position, Vector upVector,
+			Vector lookAt, boolean streaming) {
+		// Open the regions of the track, or load the whole mesh if it isn't
+		// streamed (or the regions couldn't be made)
+		if (streaming) {
+			regions = MeshRegions.open(filename,
+					MeshRegions.DEFAULT_REGION_SIZE);
+		}
+		if (regions != null) {
+			regionMeshes = new Mesh[regions.getNoOfRegions()];
+			regionDisplayListIDs = new int[regions.getNoOfRegions()];
+			regionsLoading = new boolean[regions.getNoOfRegions()];
+		} else {
+			trackMesh = loadMesh(filename);
+			residentMeshes = new Mesh[] { trackMesh };
+		}
 		
 		// Copy given values to local variables
 		this.position = position;
@@ -53,15 +104,15 @@ public class Track {
 	}
 
 	/**
-	 * loads the mesh using the OBJImporter
+	 * loads the mesh using the OBJImporter (or the MeshCache if it was already
+	 * loaded)
 	 * 
 	 * @param filename
 	 *            the name of the OBJ file
 	 * @return the mesh loaded
 	 */
 	public Mesh loadMesh(String filename) {
-		OBJImporter importer = new OBJImporter();
-		return importer.load(filename);
+		return MeshCache.getMesh(filename);
 	}
 
 	/**
@@ -94,72 +145,188 @@ public class Track {
 	/**
 	 * Returns the mesh for the track
 	 * 
-	 * @return the mesh
+	 * @return the mesh (null if the track is streamed)
 	 */
 	public Mesh getMesh () {
 		return trackMesh;
 	}
+	
+	/**
+	 * Returns the meshes the couch can collide with: the whole track, or the
+	 * regions that are loaded if the track is streamed
+	 * 
+	 * @return the meshes
+	 */
+	public Mesh[] getCollisionMeshes () {
+		return residentMeshes;
+	}
+	
+	/**
+	 * Returns whether the track is streamed in regions
+	 * 
+	 * @return true if the track is streamed
+	 */
+	public boolean isStreaming () {
+		return regions != null;
+	}
+	
+	/**
+	 * Loads the regions close to a point and throws away the regions far from
+	 * it. The regions are read on the asset loader's threads, and their
+	 * display lists are made when the GL thread runs the uploads. This must be
+	 * called on the GL thread.
+	 * 
+	 * @param point the point (usually the couch's position)
+	 */
+	public void updateRegions (Vector point) {
+		if (regions == null) {
+			return;
+		}
+		boolean changed = false;
+		for (int region = 0; region < regionMeshes.length; region++) {
+			float distance = regions.getDistanceTo(region, point.x, point.z);
+			
+			// Start loading regions that are close
+			if (distance <= LOAD_DISTANCE && regionMeshes[region] == null
+					&& !regionsLoading[region]) {
+				loadRegion(region);
+			}
+			
+			// Throw away regions that are far
+			else if (distance > EVICT_DISTANCE && regionMeshes[region] != null) {
+				GL11.glDeleteLists(regionDisplayListIDs[region], 1);
+				ResourceRegistry.removeDisplayLists(
+						regionDisplayListIDs[region], 1);
+				regionDisplayListIDs[region] = 0;
+				regionMeshes[region] = null;
+				changed = true;
+			}
+		}
+		if (changed) {
+			updateResidentMeshes();
+		}
+	}
+	
+	/**
+	 * Loads a region on the asset loader's threads, then makes its display
+	 * list on the GL thread
+	 * 
+	 * @param region the region
+	 */
+	private void loadRegion (final int region) {
+		regionsLoading[region] = true;
+		AssetLoader.load("Track region " + region, new Runnable() {
+			public void run() {
+				final Mesh mesh = regions.loadRegion(region, true);
+				if (mesh != null) {
+					Material.prefetchTextures(mesh.materials);
+				}
+				AssetLoader.runOnGLThread(new Runnable() {
+					public void run() {
+						if (mesh != null) {
+							regionDisplayListIDs[region] = makeDisplayList(mesh);
+							regionMeshes[region] = mesh;
+							updateResidentMeshes();
+						}
+						regionsLoading[region] = false;
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Makes the list of the meshes of the loaded regions
+	 */
+	private void updateResidentMeshes () {
+		int noOfResident = 0;
+		for (int region = 0; region < regionMeshes.length; region++) {
+			if (regionMeshes[region] != null) {
+				noOfResident++;
+			}
+		}
+		Mesh[] meshes = new Mesh[noOfResident];
+		noOfResident = 0;
+		for (int region = 0; region < regionMeshes.length; region++) {
+			if (regionMeshes[region] != null) {
+				meshes[noOfResident++] = regionMeshes[region];
+			}
+		}
+		residentMeshes = meshes;
+	}
+	
+	/**
+	 * Returns the number of regions that are loaded
+	 * 
+	 * @return the number of loaded regions (1 if the track isn't streamed)
+	 */
+	public int getNoOfResidentRegions () {
+		return residentMeshes.length;
+	}
+	
+	/**
+	 * Draws the track: its display list, or the display lists of the loaded
+	 * regions if it is streamed
+	 */
+	public void draw () {
+		if (regions == null) {
+			GL11.glCallList(displayListID);
+			return;
+		}
+		for (int region = 0; region < regionDisplayListIDs.length; region++) {
+			if (regionDisplayListIDs[region] != 0) {
+				GL11.glCallList(regionDisplayListIDs[region]);
+			}
+		}
+	}
 
 	/**
 	 * Draw the model using the triangle data in the mesh
 	 */
 	public void render() {
+		render(trackMesh);
+	}
+
+	/**
+	 * Draw a mesh of the track (the whole track or one of its regions)
+	 * 
+	 * @param mesh the mesh
+	 */
+	private void render(Mesh mesh) {
 
-		// Get the loaded materials and initialise necessary variables
-		Material[] materials = trackMesh.materials;
+		// Get the loaded materials and the mesh's buffers
+		Material[] materials = mesh.materials;
+		PackedMesh packedMesh = mesh.getPackedMesh();
+		MeshBuffers buffers = mesh.getMeshBuffers();
 		Material material;
-		Triangle drawTriangle;
-		int currentMaterial = -1;
-		int triangle = 0;
 
-		// For each triangle in the object
-		for (triangle = 0; triangle < trackMesh.triangles.length;) {
+		// Give openGL all the vertex data at once
+		buffers.bind();
 
-			// Get the triangle that needs to be drawn
-			drawTriangle = trackMesh.triangles[triangle];
+		// For each run of triangles with the same material
+		for (int run = 0; run < packedMesh.getNoOfMaterialRuns(); run++) {
 
 			// Activate a new material and texture
-			currentMaterial = drawTriangle.materialID;
+			int currentMaterial = packedMesh.getMaterialRunID(run);
 			material = (materials != null && materials.length > 0 && currentMaterial >= 0) ? materials[currentMaterial]
 					: defaultMtl;
 			material.apply();
 			GL11.glBindTexture(GL11.GL_TEXTURE_2D, material.getTextureHandle());
 
-			// Draw triangles until material changes
-			GL11.glBegin(GL11.GL_TRIANGLES);
-			while (triangle < trackMesh.triangles.length
-					&& drawTriangle != null
-					&& currentMaterial == drawTriangle.materialID) {
-
-				GL11.glTexCoord2f(drawTriangle.texture1.x,
-						drawTriangle.texture1.y);
-				GL11.glNormal3f(drawTriangle.normal1.x, drawTriangle.normal1.y,
-						drawTriangle.normal1.z);
-				GL11.glVertex3f((float) drawTriangle.point1.pos.x,
-						(float) drawTriangle.point1.pos.y,
-						(float) drawTriangle.point1.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture2.x,
-						drawTriangle.texture2.y);
-				GL11.glNormal3f(drawTriangle.normal2.x, drawTriangle.normal2.y,
-						drawTriangle.normal2.z);
-				GL11.glVertex3f((float) drawTriangle.point2.pos.x,
-						(float) drawTriangle.point2.pos.y,
-						(float) drawTriangle.point2.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture3.x,
-						drawTriangle.texture3.y);
-				GL11.glNormal3f(drawTriangle.normal3.x, drawTriangle.normal3.y,
-						drawTriangle.normal3.z);
-				GL11.glVertex3f((float) drawTriangle.point3.pos.x,
-						(float) drawTriangle.point3.pos.y,
-						(float) drawTriangle.point3.pos.z);
-
-				triangle++;
-				if (triangle < trackMesh.triangles.length)
-					drawTriangle = trackMesh.triangles[triangle];
-			}
-			GL11.glEnd();
+			// Draw the run's triangles with one call
+			buffers.drawTriangles(packedMesh.getMaterialRunStart(run),
+					packedMesh.getMaterialRunSize(run));
+		}
+		buffers.unbind();
+	}
+
+	/**
+	 * Decodes the texture images of the model's materials, so making the
+	 * display list doesn't have to (this can be called on any thread)
+	 */
+	public void prefetchTextures() {
+		if (trackMesh != null) {
+			Material.prefetchTextures(trackMesh.materials);
 		}
 	}
 
@@ -168,12 +335,33 @@ public class Track {
 	 * run a lot faster
 	 */
 	public void makeDisplayList() {
-		if (displayListID == 0) {
-			displayListID = GL11.glGenLists(1); // Allocate a display list
-			GL11.glNewList(displayListID, GL11.GL_COMPILE); // Start the list
-			render(); // render the mesh
-			GL11.glEndList(); // End the list
+		if (displayListID == 0 && trackMesh != null) {
+			displayListID = makeDisplayList(trackMesh);
+		}
+	}
+
+	/**
+	 * Render a mesh of the track into a new display list
+	 * 
+	 * @param mesh the mesh
+	 * @return the display list ID
+	 */
+	private int makeDisplayList(Mesh mesh) {
+		// Make the textures first (they can't be made inside the list)
+		Material.makeTextures(mesh.materials);
+		int listID = GL11.glGenLists(1); // Allocate a display list
+		GL11.glNewList(listID, GL11.GL_COMPILE); // Start the list
+		render(mesh); // render the mesh
+		GL11.glEndList(); // End the list
+		ResourceRegistry.addDisplayList(listID, mesh.name, mesh
+				.getNoOfDisplayListBytes());
+
+		// The display list has all the data needed to draw the mesh, but the
+		// couch still collides with it
+		if (Mesh.isGPUResident()) {
+			mesh.releaseCPUData(true);
 		}
+		return listID;
 	}
 
 	/**
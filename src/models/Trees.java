@@ -1,13 +1,19 @@
 package models;
 
-import importer.OBJImporter;
+import importer.MeshBatcher;
+import importer.MeshCache;
+import importer.MeshSimplifier;
 import material.Material;
 import math.Vector;
+import mesh.Bounds;
 import mesh.Mesh;
-import mesh.Triangle;
+import mesh.MeshBuffers;
+import mesh.PackedMesh;
 
 import org.lwjgl.opengl.GL11;
 
+import application.ResourceRegistry;
+
 /**
  * The "Trees" Class. 
  * Purpose: This is the object that holds the data and draws
@@ -20,8 +26,10 @@ import org.lwjgl.opengl.GL11;
  */
 public class Trees {
 
-	// The mesh for a tree
+	// The mesh for a tree, and its levels of detail (the first one is the
+	// mesh itself)
 	private Mesh treeMesh;
+	private Mesh[] levelsOfDetail;
 
 	// Array vectors for the positions, look at points and up directions of each
 	// of the trees
@@ -29,8 +37,20 @@ public class Trees {
 	private Vector[] lookAts;
 	private Vector[] upVectors;
 
-	// The display list ID
-	private int displayListID;
+	// The display list IDs of the levels of detail
+	private int[] displayListIDs;
+
+	// The width and depth of the chunks the trees are batched into
+	public static final float CHUNK_SIZE = 1500;
+
+	// The trees in each chunk, the trees baked into world space meshes for
+	// every chunk and level of detail (null if the trees aren't batched, or
+	// once a chunk is in display lists), the bounds of each chunk and the
+	// display list IDs of the batches
+	private int[][] chunks = null;
+	private Mesh[][] batches = null;
+	private Bounds[] batchBounds = null;
+	private int[][] batchDisplayListIDs = null;
 
 	// The default material to use if none was loaded
 	Material defaultMtl = new Material();
@@ -46,28 +66,29 @@ public class Trees {
 	 */
 	public Trees(String filename, Vector[] positions, Vector[] upVectors,
 			Vector[] lookAts) {
-		// Load the mesh
-		treeMesh = loadMesh(filename);
+		// Load the mesh and its levels of detail
+		levelsOfDetail = loadLevelsOfDetail(filename);
+		treeMesh = levelsOfDetail[0];
 		
 		// Copy the given values to local variables
 		this.positions = positions;
 		this.upVectors = upVectors;
 		this.lookAts = lookAts;
 		
-		// Set the display list ID to the default 0
-		displayListID = 0;
+		// Set the display list IDs to the default 0
+		displayListIDs = new int[levelsOfDetail.length];
 	}
 
 	/**
-	 * loads the mesh using the OBJImporter
+	 * loads the mesh and its levels of detail using the OBJImporter and
+	 * MeshSimplifier (or the MeshCache if they were already loaded)
 	 * 
 	 * @param filename
 	 *            the name of the OBJ file
-	 * @return the mesh loaded
+	 * @return the levels of detail loaded, starting with the full mesh
 	 */
-	public Mesh loadMesh(String filename) {
-		OBJImporter importer = new OBJImporter();
-		return importer.load(filename);
+	public Mesh[] loadLevelsOfDetail(String filename) {
+		return MeshCache.getLevelsOfDetail(filename);
 	}
 
 	/**
@@ -107,77 +128,195 @@ public class Trees {
 	}
 
 	/**
-	 * Draw the model using the triangle data in the mesh
+	 * Draw the model using the triangle data in one of its levels of detail
+	 * 
+	 * @param mesh
+	 *            the level of detail
 	 */
-	public void render() {
+	public void render(Mesh mesh) {
 
-		// Get the loaded materials and initialise necessary variables
-		Material[] materials = treeMesh.materials;
+		// Get the loaded materials and the mesh's buffers
+		Material[] materials = mesh.materials;
+		PackedMesh packedMesh = mesh.getPackedMesh();
+		MeshBuffers buffers = mesh.getMeshBuffers();
 		Material material;
-		Triangle drawTriangle;
-		int currentMaterial = -1;
-		int triangle = 0;
 
-		// For each triangle in the object
-		for (triangle = 0; triangle < treeMesh.triangles.length;) {
+		// Give openGL all the vertex data at once
+		buffers.bind();
 
-			// Get the triangle that needs to be drawn
-			drawTriangle = treeMesh.triangles[triangle];
+		// For each run of triangles with the same material
+		for (int run = 0; run < packedMesh.getNoOfMaterialRuns(); run++) {
 
 			// Activate a new material and texture
-			currentMaterial = drawTriangle.materialID;
+			int currentMaterial = packedMesh.getMaterialRunID(run);
 			material = (materials != null && materials.length > 0 && currentMaterial >= 0) ? materials[currentMaterial]
 					: defaultMtl;
 			material.apply();
 			GL11.glBindTexture(GL11.GL_TEXTURE_2D, material.getTextureHandle());
 
-			// Draw triangles until material changes
-			GL11.glBegin(GL11.GL_TRIANGLES);
-			while (triangle < treeMesh.triangles.length && drawTriangle != null
-					&& currentMaterial == drawTriangle.materialID) {
-
-				GL11.glTexCoord2f(drawTriangle.texture1.x,
-						drawTriangle.texture1.y);
-				GL11.glNormal3f(drawTriangle.normal1.x, drawTriangle.normal1.y,
-						drawTriangle.normal1.z);
-				GL11.glVertex3f((float) drawTriangle.point1.pos.x,
-						(float) drawTriangle.point1.pos.y,
-						(float) drawTriangle.point1.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture2.x,
-						drawTriangle.texture2.y);
-				GL11.glNormal3f(drawTriangle.normal2.x, drawTriangle.normal2.y,
-						drawTriangle.normal2.z);
-				GL11.glVertex3f((float) drawTriangle.point2.pos.x,
-						(float) drawTriangle.point2.pos.y,
-						(float) drawTriangle.point2.pos.z);
-
-				GL11.glTexCoord2f(drawTriangle.texture3.x,
-						drawTriangle.texture3.y);
-				GL11.glNormal3f(drawTriangle.normal3.x, drawTriangle.normal3.y,
-						drawTriangle.normal3.z);
-				GL11.glVertex3f((float) drawTriangle.point3.pos.x,
-						(float) drawTriangle.point3.pos.y,
-						(float) drawTriangle.point3.pos.z);
-
-				triangle++;
-				if (triangle < treeMesh.triangles.length)
-					drawTriangle = treeMesh.triangles[triangle];
+			// Draw the run's triangles with one call
+			buffers.drawTriangles(packedMesh.getMaterialRunStart(run),
+					packedMesh.getMaterialRunSize(run));
+		}
+		buffers.unbind();
+	}
+
+	/**
+	 * Splits the trees into chunks of CHUNK_SIZE to bake into world space
+	 * meshes (see MeshBatcher), so the whole forest can be drawn with a few
+	 * display lists. Each chunk is then baked with batchChunk() and put in
+	 * display lists with makeChunkDisplayLists(), one chunk at a time so
+	 * only a few baked chunks are in memory at once. Once the trees are in
+	 * chunks, makeDisplayList() doesn't make the lists of a single tree,
+	 * since only the chunks are drawn.
+	 * 
+	 * @return the number of chunks
+	 */
+	public int makeChunks() {
+		chunks = MeshBatcher.makeChunks(positions, CHUNK_SIZE);
+		batches = new Mesh[chunks.length][];
+		batchBounds = new Bounds[chunks.length];
+		batchDisplayListIDs = new int[chunks.length][levelsOfDetail.length];
+		return chunks.length;
+	}
+
+	/**
+	 * Bakes the trees of a chunk into a world space mesh for every level of
+	 * detail, so the chunk can be drawn with the level its closest tree
+	 * needs (this can be called on any thread)
+	 * 
+	 * @param chunk
+	 *            the chunk number
+	 */
+	public void batchChunk(int chunk) {
+		Mesh[] levels = new Mesh[levelsOfDetail.length];
+		for (int level = 0; level < levelsOfDetail.length; level++) {
+			levels[level] = MeshBatcher.batch(levelsOfDetail[level],
+					chunks[chunk], positions, lookAts, upVectors);
+		}
+		batchBounds[chunk] = levels[0].getBounds();
+		batches[chunk] = levels;
+	}
+
+	/**
+	 * Renders each level of detail of a baked chunk into a display list, and
+	 * lets go of the chunk's meshes since the display lists have all their
+	 * data
+	 * 
+	 * @param chunk
+	 *            the chunk number
+	 */
+	public void makeChunkDisplayLists(int chunk) {
+		// Make the textures first (they can't be made inside the list)
+		Material.makeTextures(treeMesh.materials);
+		for (int level = 0; level < levelsOfDetail.length; level++) {
+			batchDisplayListIDs[chunk][level] = GL11.glGenLists(1);
+			GL11.glNewList(batchDisplayListIDs[chunk][level], GL11.GL_COMPILE);
+			render(batches[chunk][level]);
+			GL11.glEndList();
+			ResourceRegistry.addDisplayList(batchDisplayListIDs[chunk][level],
+					batches[chunk][level].name, batches[chunk][level]
+							.getNoOfDisplayListBytes());
+		}
+		batches[chunk] = null;
+
+		// Let go of the levels once the last chunk is done
+		for (int next = 0; next < chunks.length; next++) {
+			if (batchDisplayListIDs[next][0] == 0) {
+				return;
 			}
-			GL11.glEnd();
 		}
+		releaseMeshes();
 	}
 
 	/**
-	 * Render mesh into a displayList and store the listID, making the program
-	 * run a lot faster
+	 * Checks if the trees were split into chunks (see makeChunks())
+	 * 
+	 * @return true if the trees are drawn by chunk
+	 */
+	public boolean isBatched() {
+		return batchBounds != null;
+	}
+
+	/**
+	 * Returns the number of chunks the trees were baked into
+	 * 
+	 * @return the number of chunks (0 if the trees aren't batched)
+	 */
+	public int getNoOfChunks() {
+		return (batchBounds != null) ? batchBounds.length : 0;
+	}
+
+	/**
+	 * Returns the bounds of a chunk of trees in world space
+	 * 
+	 * @param chunk
+	 *            the chunk number
+	 * @return the box and sphere around the chunk
+	 */
+	public Bounds getChunkBounds(int chunk) {
+		return batchBounds[chunk];
+	}
+
+	/**
+	 * Returns the display list ID of the level of detail to draw a chunk of
+	 * trees with from a point of view. The level is chosen for the part of
+	 * the chunk closest to the camera.
+	 * 
+	 * @param chunk
+	 *            the chunk number
+	 * @param viewPosition
+	 *            the position of the camera
+	 * @return the display list ID for the chunk
+	 */
+	public int getChunkDisplayListID(int chunk, Vector viewPosition) {
+		float distance = batchBounds[chunk].getDistance(viewPosition);
+		return batchDisplayListIDs[chunk][MeshSimplifier.chooseLevel(
+				treeMesh, levelsOfDetail.length, distance)];
+	}
+
+	/**
+	 * Decodes the texture images of the model's materials, so making the
+	 * display list doesn't have to (this can be called on any thread)
+	 */
+	public void prefetchTextures() {
+		Material.prefetchTextures(treeMesh.materials);
+	}
+
+	/**
+	 * Render each level of detail into a displayList and store the listIDs,
+	 * making the program run a lot faster (unless the trees are drawn by
+	 * chunk, see makeChunks())
 	 */
 	public void makeDisplayList() {
-		if (displayListID == 0) {
-			displayListID = GL11.glGenLists(1); // Allocate a display list
-			GL11.glNewList(displayListID, GL11.GL_COMPILE); // Start the list
-			render(); // render the mesh
-			GL11.glEndList(); // End the list
+		if (isBatched()) {
+			return;
+		}
+		if (displayListIDs[0] == 0) {
+			// Make the textures first (they can't be made inside the list)
+			Material.makeTextures(treeMesh.materials);
+			for (int level = 0; level < levelsOfDetail.length; level++) {
+				displayListIDs[level] = GL11.glGenLists(1); // Allocate a list
+				GL11.glNewList(displayListIDs[level], GL11.GL_COMPILE);
+				render(levelsOfDetail[level]); // render the level
+				GL11.glEndList(); // End the list
+				ResourceRegistry.addDisplayList(displayListIDs[level],
+						levelsOfDetail[level].name, levelsOfDetail[level]
+								.getNoOfDisplayListBytes());
+			}
+			releaseMeshes();
+		}
+	}
+
+	/**
+	 * Lets go of the data of the levels of detail if meshes only stay on the
+	 * GPU (see Mesh.releaseCPUData())
+	 */
+	private void releaseMeshes() {
+		if (Mesh.isGPUResident()) {
+			for (int level = 0; level < levelsOfDetail.length; level++) {
+				levelsOfDetail[level].releaseCPUData(false);
+			}
 		}
 	}
 
@@ -187,6 +326,22 @@ public class Trees {
 	 * @return the display list ID for the tree
 	 */
 	public int getDisplayListID() {
-		return displayListID;
+		return displayListIDs[0];
+	}
+
+	/**
+	 * Returns the display list ID of the level of detail to draw a tree with
+	 * from a point of view
+	 * 
+	 * @param tree
+	 *            the number of the tree
+	 * @param viewPosition
+	 *            the position of the camera
+	 * @return the display list ID for the tree
+	 */
+	public int getDisplayListID(int tree, Vector viewPosition) {
+		float distance = Vector.sub(positions[tree], viewPosition).length();
+		return displayListIDs[MeshSimplifier.chooseLevel(treeMesh,
+				levelsOfDetail.length, distance)];
 	}
 }